@@ -0,0 +1,598 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import hudson.XmlFile;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixRun;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Imports the results of builds that finished before the plugin was added to their projects.
+ *
+ * <p>The builds of the selected projects are walked newest first. Each build, with its matrix
+ * configurations, is written in its own transaction through the bulk ingest path, by a configurable
+ * number of threads and under a rate limit, so that an import doesn't starve the dashboards and the
+ * builds that are running.
+ *
+ * <p>Progress is checkpointed per project as the range of build numbers that have been imported,
+ * and saved under JENKINS_HOME. A stopped or interrupted import resumes by importing the builds
+ * newer than that range and then the ones older than it. Builds are upserted, so the few builds
+ * that are written again after an interruption never add rows.
+ */
+class BackfillImporter {
+  private static final Logger LOGGER = Logger.getLogger(BackfillImporter.class.getName());
+
+  /** Default number of builds imported at the same time. */
+  static final int DEFAULT_PARALLELISM = 2;
+
+  /** Maximum number of builds imported at the same time. Kept below the connection pool size. */
+  static final int MAX_PARALLELISM = 8;
+
+  /** Default maximum number of rows written per second. */
+  static final int DEFAULT_MAX_ROWS_PER_SEC = 20000;
+
+  /**
+   * Number of builds queued per thread. Builds are loaded from disk as they are queued, so this
+   * bounds the number held in memory.
+   */
+  private static final int QUEUED_BUILDS_PER_THREAD = 2;
+
+  /** How often the checkpoints are saved while importing. */
+  private static final long SAVE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+  /** A set of keys in the json object returned by getStatus. */
+  private static final String KEY_RUNNING = "running";
+  private static final String KEY_PARALLELISM = "parallelism";
+  private static final String KEY_MAX_ROWS_PER_SEC = "maxRowsPerSec";
+  private static final String KEY_START_TIME = "startTime";
+  private static final String KEY_ROWS_PER_SEC = "rowsPerSec";
+  private static final String KEY_LAST_SAVE_TIME = "lastSaveTime";
+  private static final String KEY_PROJECTS = "projects";
+  private static final String KEY_PROJECT_NAME = "name";
+  private static final String KEY_PROJECT_STATE = "state";
+  private static final String KEY_PROJECT_NEWEST_BUILD = "newestBuild";
+  private static final String KEY_PROJECT_OLDEST_BUILD = "oldestBuild";
+  private static final String KEY_PROJECT_BUILDS = "builds";
+  private static final String KEY_PROJECT_TEST_RESULTS = "testResults";
+  private static final String KEY_PROJECT_FAILED_BUILDS = "failedBuilds";
+  private static final String KEY_PROJECT_LAST_ERR = "lastErrMsg";
+
+  /** States of a project in the json object returned by getStatus. */
+  private static final String STATE_QUEUED = "queued";
+  private static final String STATE_IMPORTING = "importing";
+  private static final String STATE_DONE = "done";
+  private static final String STATE_PARTIAL = "partial";
+
+  /** Checkpoint of the import of one project. */
+  static class ProjectCheckpoint {
+    /**
+     * All builds numbered from oldestBuild to newestBuild have been imported, or had nothing to
+     * import. Both are 0 until the first build is imported.
+     */
+    private int newestBuild = 0;
+    private int oldestBuild = 0;
+
+    /** Whether the import reached the oldest build of the project. */
+    private boolean finished = false;
+
+    /** Numbers of builds and test results imported, over all runs. */
+    private int builds = 0;
+    private long testResults = 0;
+
+    /** Number of builds that failed to import, over all runs. */
+    private int failedBuilds = 0;
+    private String lastErrMsg = "";
+
+    private boolean isImported(int buildNumber) {
+      return newestBuild > 0 && buildNumber >= oldestBuild && buildNumber <= newestBuild;
+    }
+  }
+
+  /** Settings and checkpoints, saved in the state file. */
+  static class State {
+    private int parallelism = DEFAULT_PARALLELISM;
+    private int maxRowsPerSec = DEFAULT_MAX_ROWS_PER_SEC;
+
+    /** Checkpoints by project full name. */
+    private Map<String, ProjectCheckpoint> projects = new TreeMap<>();
+
+    // Fills in fields missing from older state files.
+    private Object readResolve() {
+      if (projects == null) {
+        projects = new TreeMap<>();
+      }
+      return this;
+    }
+  }
+
+  private final XmlFile stateFile;
+
+  /** Guarded by this. */
+  private State state = new State();
+
+  /** Projects of the current run, in import order. Guarded by this. */
+  private List<String> runProjects = Collections.emptyList();
+
+  /** The project being walked. Guarded by this. */
+  private String currentProject = null;
+
+  /** Guarded by this. */
+  private boolean running = false;
+
+  private volatile boolean stopRequested = false;
+  private volatile long runStartMs = -1;
+  private volatile long lastSaveMs = -1;
+  private final AtomicInteger runRows = new AtomicInteger();
+
+  BackfillImporter(File stateFile) {
+    this.stateFile = new XmlFile(stateFile);
+    if (this.stateFile.exists()) {
+      try {
+        state = (State) this.stateFile.read();
+      } catch (IOException | RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Failed to read backfill checkpoints from " + stateFile, e);
+      }
+    }
+  }
+
+  /**
+   * Starts importing the given projects in the background, resuming from their checkpoints.
+   * Returns an error message, or an empty string if the import started.
+   */
+  synchronized String start(List<String> projectNames, int parallelism, int maxRowsPerSec) {
+    if (running) {
+      return "An import is already running.";
+    }
+    if (projectNames.isEmpty()) {
+      return "No projects selected.";
+    }
+    if (parallelism < 1 || parallelism > MAX_PARALLELISM) {
+      return "Parallelism must be between 1 and " + MAX_PARALLELISM + ".";
+    }
+    if (maxRowsPerSec < 0) {
+      return "The rate limit can't be negative.";
+    }
+    for (String name : projectNames) {
+      if (Jenkins.getInstance().getItemByFullName(name, AbstractProject.class) == null) {
+        return "Project \"" + name + "\" doesn't exist.";
+      }
+    }
+
+    state.parallelism = parallelism;
+    state.maxRowsPerSec = maxRowsPerSec;
+    runProjects = new ArrayList<>(projectNames);
+    for (String name : runProjects) {
+      if (!state.projects.containsKey(name)) {
+        state.projects.put(name, new ProjectCheckpoint());
+      }
+    }
+    save();
+
+    running = true;
+    stopRequested = false;
+    runStartMs = System.currentTimeMillis();
+    runRows.set(0);
+    final List<String> names = runProjects;
+    final RateLimiter rateLimiter = new RateLimiter(maxRowsPerSec);
+    final int threads = parallelism;
+    Thread walker =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                runImport(names, threads, rateLimiter);
+              }
+            },
+            "Vanadium Test Results Analyzer backfill");
+    walker.setDaemon(true);
+    walker.start();
+    return "";
+  }
+
+  /**
+   * Asks the running import to stop. Builds being written are finished and checkpointed; the
+   * others are left for the next run.
+   */
+  void stop() {
+    stopRequested = true;
+  }
+
+  /** Forgets all checkpoints, so the next import starts over. Returns an error message or "". */
+  synchronized String reset() {
+    if (running) {
+      return "Stop the running import first.";
+    }
+    state.projects.clear();
+    save();
+    return "";
+  }
+
+  /** Returns the settings and progress of the import. */
+  synchronized JSONObject getStatus() {
+    JSONObject ret = new JSONObject();
+    ret.put(KEY_RUNNING, running);
+    ret.put(KEY_PARALLELISM, state.parallelism);
+    ret.put(KEY_MAX_ROWS_PER_SEC, state.maxRowsPerSec);
+    ret.put(KEY_START_TIME, runStartMs);
+    long elapsedMs = Math.max(System.currentTimeMillis() - runStartMs, 1);
+    ret.put(KEY_ROWS_PER_SEC, running ? runRows.get() * 1000L / elapsedMs : 0);
+    ret.put(KEY_LAST_SAVE_TIME, lastSaveMs);
+    JSONArray projects = new JSONArray();
+    for (Map.Entry<String, ProjectCheckpoint> entry : state.projects.entrySet()) {
+      ProjectCheckpoint checkpoint = entry.getValue();
+      JSONObject project = new JSONObject();
+      project.put(KEY_PROJECT_NAME, entry.getKey());
+      project.put(KEY_PROJECT_STATE, getProjectState(entry.getKey(), checkpoint));
+      project.put(KEY_PROJECT_NEWEST_BUILD, checkpoint.newestBuild);
+      project.put(KEY_PROJECT_OLDEST_BUILD, checkpoint.oldestBuild);
+      project.put(KEY_PROJECT_BUILDS, checkpoint.builds);
+      project.put(KEY_PROJECT_TEST_RESULTS, checkpoint.testResults);
+      project.put(KEY_PROJECT_FAILED_BUILDS, checkpoint.failedBuilds);
+      project.put(KEY_PROJECT_LAST_ERR, checkpoint.lastErrMsg == null ? "" : checkpoint.lastErrMsg);
+      projects.add(project);
+    }
+    ret.put(KEY_PROJECTS, projects);
+    return ret;
+  }
+
+  // Returns the state of a project shown in the UI. Must hold the lock.
+  private String getProjectState(String name, ProjectCheckpoint checkpoint) {
+    if (running && name.equals(currentProject)) {
+      return STATE_IMPORTING;
+    }
+    if (running && runProjects.indexOf(name) > runProjects.indexOf(currentProject)) {
+      return STATE_QUEUED;
+    }
+    return checkpoint.finished ? STATE_DONE : STATE_PARTIAL;
+  }
+
+  // Imports the given projects one after another. Runs on the walker thread.
+  private void runImport(List<String> projectNames, int threads, RateLimiter rateLimiter) {
+    LOGGER.info("Backfill started for " + projectNames.size() + " projects");
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+              private final AtomicInteger count = new AtomicInteger();
+
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t =
+                    new Thread(
+                        r,
+                        "Vanadium Test Results Analyzer backfill worker "
+                            + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+              }
+            });
+    int maxQueued = threads * QUEUED_BUILDS_PER_THREAD;
+    Semaphore slots = new Semaphore(maxQueued);
+    try {
+      for (String name : projectNames) {
+        if (stopRequested) {
+          break;
+        }
+        importProject(name, executor, slots, maxQueued, rateLimiter);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Backfill failed", e);
+    } finally {
+      executor.shutdownNow();
+      synchronized (this) {
+        running = false;
+        currentProject = null;
+        save();
+      }
+      LOGGER.info("Backfill " + (stopRequested ? "stopped" : "finished"));
+    }
+  }
+
+  // Walks the builds of one project newest first, and queues the ones not imported yet. Returns
+  // when all queued builds are done.
+  private void importProject(
+      String name,
+      ThreadPoolExecutor executor,
+      Semaphore slots,
+      int maxQueued,
+      RateLimiter rateLimiter)
+      throws InterruptedException {
+    AbstractProject<?, ?> project =
+        Jenkins.getInstance().getItemByFullName(name, AbstractProject.class);
+    ProjectWalk walk;
+    synchronized (this) {
+      currentProject = name;
+      ProjectCheckpoint checkpoint = state.projects.get(name);
+      if (project == null) {
+        checkpoint.lastErrMsg = "Project doesn't exist anymore.";
+        return;
+      }
+      walk = new ProjectWalk(checkpoint);
+    }
+
+    for (AbstractBuild<?, ?> build : project.getBuilds()) {
+      if (stopRequested) {
+        break;
+      }
+      if (!isFinished(build)) {
+        continue;
+      }
+      synchronized (this) {
+        if (!walk.add(build.getNumber())) {
+          continue;
+        }
+      }
+      slots.acquire();
+      try {
+        executor.execute(new BuildImport(walk, build, rateLimiter, slots));
+      } catch (RuntimeException e) {
+        slots.release();
+        throw e;
+      }
+    }
+
+    // Wait for the queued builds of this project.
+    slots.acquire(maxQueued);
+    slots.release(maxQueued);
+    synchronized (this) {
+      if (!stopRequested) {
+        walk.end();
+      }
+      save();
+    }
+  }
+
+  // Called when a build has been written, or has failed to. Must hold the lock.
+  private void onBuildDone(ProjectWalk walk, int buildNumber, int numTestResults, String errMsg) {
+    ProjectCheckpoint checkpoint = walk.checkpoint;
+    if (errMsg != null) {
+      checkpoint.failedBuilds++;
+      checkpoint.lastErrMsg = errMsg;
+    } else {
+      checkpoint.builds++;
+      checkpoint.testResults += numTestResults;
+      walk.done(buildNumber);
+    }
+    if (System.currentTimeMillis() - lastSaveMs >= SAVE_INTERVAL_MS) {
+      save();
+    }
+  }
+
+  // Saves the state file. Must hold the lock.
+  private void save() {
+    try {
+      stateFile.write(state);
+      lastSaveMs = System.currentTimeMillis();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to save backfill checkpoints to " + stateFile.getFile(), e);
+    }
+  }
+
+  private static boolean isFinished(AbstractBuild<?, ?> build) {
+    return !build.isBuilding() && build.getResult() != null;
+  }
+
+  /**
+   * The walk over the builds of one project during a run, which moves its checkpoint forward.
+   *
+   * <p>Builds are queued in walk order and complete in any order; the checkpoint only covers the
+   * longest prefix of the walk whose builds are all done. Builds inside the range of the checkpoint
+   * are skipped and stand for the whole range. Until the walk reaches that range, the builds newer
+   * than it aren't contiguous with it, so they aren't checkpointed yet. All methods must be called
+   * with the importer's lock held.
+   */
+  private static class ProjectWalk {
+    private final ProjectCheckpoint checkpoint;
+
+    /** Checkpointed range when the walk started. */
+    private final int oldNewestBuild;
+    private final int oldOldestBuild;
+
+    /** Number of the first build of the walk. */
+    private int walkTop = 0;
+
+    /** Whether the prefix of the walk that is done reaches the old range. */
+    private boolean merged;
+
+    /** Whether the old range has been added to the walk. */
+    private boolean oldRangeAdded;
+
+    /** Builds of the walk after its done prefix, in walk order. */
+    private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+
+    /** Pending builds that are done. */
+    private final Set<Integer> done = new HashSet<>();
+
+    ProjectWalk(ProjectCheckpoint checkpoint) {
+      this.checkpoint = checkpoint;
+      this.oldNewestBuild = checkpoint.newestBuild;
+      this.oldOldestBuild = checkpoint.oldestBuild;
+      this.merged = oldNewestBuild == 0;
+      this.oldRangeAdded = merged;
+      checkpoint.finished = false;
+    }
+
+    /** Adds the next build of the walk. Returns false if it has been imported already. */
+    boolean add(int buildNumber) {
+      if (walkTop == 0) {
+        walkTop = buildNumber;
+      }
+      if (!oldRangeAdded && buildNumber <= oldNewestBuild) {
+        addOldRange();
+      }
+      if (checkpoint.isImported(buildNumber)) {
+        return false;
+      }
+      pending.addLast(buildNumber);
+      return true;
+    }
+
+    /** Marks a build as done and moves the checkpoint over the done prefix of the walk. */
+    void done(int buildNumber) {
+      done.add(buildNumber);
+      while (!pending.isEmpty() && done.remove(pending.peekFirst())) {
+        int number = pending.pollFirst();
+        if (number == oldOldestBuild && !merged) {
+          // The old range: everything from the top of the walk down to it is done.
+          merged = true;
+          checkpoint.newestBuild = Math.max(walkTop, oldNewestBuild);
+          continue;
+        }
+        if (merged) {
+          if (checkpoint.newestBuild == 0) {
+            checkpoint.newestBuild = walkTop;
+          }
+          checkpoint.oldestBuild = number;
+        }
+      }
+    }
+
+    /** Called when all builds of the walk are done, or failed. */
+    void end() {
+      if (!oldRangeAdded) {
+        // The builds of the old range have all been deleted.
+        addOldRange();
+      }
+      checkpoint.finished = pending.isEmpty();
+    }
+
+    // Adds the old range to the walk as a single build that is already done.
+    private void addOldRange() {
+      oldRangeAdded = true;
+      pending.addLast(oldOldestBuild);
+      done(oldOldestBuild);
+    }
+  }
+
+  /** Writes one build and its matrix configurations in one transaction. */
+  private class BuildImport implements Runnable {
+    private final ProjectWalk walk;
+    private final AbstractBuild<?, ?> build;
+    private final RateLimiter rateLimiter;
+    private final Semaphore slots;
+
+    BuildImport(
+        ProjectWalk walk,
+        AbstractBuild<?, ?> build,
+        RateLimiter rateLimiter,
+        Semaphore slots) {
+      this.walk = walk;
+      this.build = build;
+      this.rateLimiter = rateLimiter;
+      this.slots = slots;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (!stopRequested) {
+          write();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        slots.release();
+      }
+    }
+
+    private void write() throws InterruptedException {
+      final List<JenkinsBuildRecord> jenkinsBuilds = new ArrayList<>();
+      final List<AbstractBuild<?, ?>> testBuilds = new ArrayList<>();
+      jenkinsBuilds.add(ResultsCollector.collectFinishedJenkinsBuild(build));
+      if (build instanceof MatrixBuild) {
+        for (MatrixRun run : ((MatrixBuild) build).getExactRuns()) {
+          if (run != null && isFinished(run)) {
+            jenkinsBuilds.add(ResultsCollector.collectFinishedJenkinsBuild(run));
+            testBuilds.add(run);
+          }
+        }
+      } else {
+        testBuilds.add(build);
+      }
+
+      IngestMetrics metrics = VTestResultsAnalyzerPluginImpl.getInstance().getTestResultMetrics();
+      RetryingTransaction.Timings timings = new RetryingTransaction.Timings();
+      int numTestResults = 0;
+      String errMsg = null;
+      try {
+        numTestResults =
+            VTestResultsAnalyzerPluginImpl.getInstance()
+                .getResultsStore()
+                .write(jenkinsBuilds, ResultsCollector.getTestResults(testBuilds), timings);
+        metrics.recordSuccess(numTestResults, 0, timings);
+      } catch (SQLException | RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Failed to import build " + build.getFullDisplayName(), e);
+        metrics.recordFailure(
+            ResultsCollector.countTestResults(testBuilds), 0, timings, e.getMessage());
+        errMsg = build.getFullDisplayName() + ": " + e.getMessage();
+      }
+
+      synchronized (BackfillImporter.this) {
+        onBuildDone(walk, build.getNumber(), numTestResults, errMsg);
+      }
+      if (errMsg == null) {
+        int rows = numTestResults + jenkinsBuilds.size();
+        runRows.addAndGet(rows);
+        rateLimiter.acquire(rows);
+      }
+    }
+  }
+
+  /**
+   * Spaces out writes so that on average at most a given number of rows are written per second.
+   * Time spent idle isn't saved up for later bursts.
+   */
+  private static class RateLimiter {
+    /** 0 means no limit. */
+    private final int maxRowsPerSec;
+
+    /** When the rows written so far are paid for. Guarded by this. */
+    private long nextFreeNanos = System.nanoTime();
+
+    RateLimiter(int maxRowsPerSec) {
+      this.maxRowsPerSec = maxRowsPerSec;
+    }
+
+    /** Accounts for the given number of rows just written, sleeping while over the rate. */
+    void acquire(int rows) throws InterruptedException {
+      if (maxRowsPerSec <= 0) {
+        return;
+      }
+      long sleepNanos;
+      synchronized (this) {
+        long now = System.nanoTime();
+        nextFreeNanos = Math.max(nextFreeNanos, now) + rows * 1000000000L / maxRowsPerSec;
+        sleepNanos = nextFreeNanos - now;
+      }
+      TimeUnit.NANOSECONDS.sleep(sleepNanos);
+    }
+  }
+}
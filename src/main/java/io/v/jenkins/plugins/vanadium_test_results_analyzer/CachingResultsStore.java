@@ -0,0 +1,348 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Caches the results of the overview queries and the list of builds of another store, so people
+ * opening the same dashboard don't each run the same aggregates. Lists that are streamed to the
+ * browser aren't cached, as that would keep them in memory.
+ *
+ * <p>Time windows are snapped to buckets of about a thousandth of their length, at least a minute:
+ * the start down and the end up, so a window ending now is the same for a while and includes what
+ * was just written. The cached queries cover every project, so an entry is invalidated whenever
+ * results that start within its window are written through this store, whatever their project.
+ * Results written by other controllers to the same MySQL server show up once entries expire.
+ *
+ * <p>Entries are evicted least recently used first when there are too many of them or they hold too
+ * many items in total.
+ *
+ * <p>The names of the builds and test cases written through this store are added to a {@link
+ * NameIndex}, so they are suggested right away.
+ */
+class CachingResultsStore implements ResultsStore {
+  /** How long an entry is used for. */
+  private static final long TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+  private static final int MAX_ENTRIES = 256;
+
+  /** Maximum number of items of all entries, which is what their memory mostly depends on. */
+  private static final int MAX_ITEMS = 100000;
+
+  private static final long MIN_BUCKET_MS = TimeUnit.MINUTES.toMillis(1);
+
+  /** Number of buckets in a window, which sets how much a window may grow when snapped. */
+  private static final long BUCKETS_PER_WINDOW = 1000;
+
+  /** A set of keys in the json object returned by getStats. */
+  private static final String KEY_ENTRIES = "entries";
+  private static final String KEY_ITEMS = "items";
+  private static final String KEY_HITS = "hits";
+  private static final String KEY_MISSES = "misses";
+  private static final String KEY_INVALIDATIONS = "invalidations";
+  private static final String KEY_EVICTIONS = "evictions";
+
+  /** The cached queries. */
+  private enum Query {
+    JENKINS_BUILD_STATS,
+    AVAILABLE_JENKINS_BUILDS,
+    TEST_STATS
+  }
+
+  /** The results of a query for a snapped window. */
+  private static class Entry {
+    private final long startMs;
+    private final long endMs;
+    private final long createdMs = System.currentTimeMillis();
+    private final JSONArray[] results;
+    private final int numItems;
+
+    private Entry(long startMs, long endMs, JSONArray[] results) {
+      this.startMs = startMs;
+      this.endMs = endMs;
+      this.results = results;
+      int n = 0;
+      for (JSONArray result : results) {
+        n += result.size();
+      }
+      this.numItems = n;
+    }
+  }
+
+  /** Runs a query of the store behind the cache. */
+  private interface Loader {
+    JSONArray[] load(long fromMs, long toMs) throws SQLException;
+  }
+
+  private final ResultsStore store;
+  private final NameIndex nameIndex;
+
+  /** Cached entries, least recently used first. Guarded by this. */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  // Guarded by this.
+  private int numItems = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long invalidations = 0;
+  private long evictions = 0;
+
+  CachingResultsStore(ResultsStore store, NameIndex nameIndex) {
+    this.store = store;
+    this.nameIndex = nameIndex;
+  }
+
+  @Override
+  public int write(
+      List<JenkinsBuildRecord> jenkinsBuilds,
+      Iterable<TestResultRecord> testResults,
+      RetryingTransaction.Timings timings)
+      throws SQLException, InterruptedException {
+    // The start times and names of the test results are seen as the store pulls them, so they
+    // aren't collected twice.
+    final long[] range = new long[] {Long.MAX_VALUE, Long.MIN_VALUE};
+    for (JenkinsBuildRecord record : jenkinsBuilds) {
+      extend(range, record.getStartTimeMs());
+      nameIndex.add(record);
+    }
+    Iterable<TestResultRecord> observed = observe(testResults, range);
+    try {
+      return store.write(jenkinsBuilds, observed, timings);
+    } finally {
+      // Also after failures: a failed commit may still have been applied.
+      if (range[0] <= range[1]) {
+        invalidate(range[0], range[1]);
+      }
+    }
+  }
+
+  @Override
+  public JSONArray getJenkinsBuildStats(long startMs, long endMs) throws SQLException {
+    return get(
+        Query.JENKINS_BUILD_STATS,
+        startMs,
+        endMs,
+        new Loader() {
+          @Override
+          public JSONArray[] load(long fromMs, long toMs) throws SQLException {
+            return new JSONArray[] {store.getJenkinsBuildStats(fromMs, toMs)};
+          }
+        })[0];
+  }
+
+  @Override
+  public String getJenkinsBuildDetails(
+      long startMs,
+      long endMs,
+      String jenkinsProject,
+      String subBuildLabels,
+      ResultsPage page,
+      JsonArrayWriter out)
+      throws SQLException, IOException {
+    return store.getJenkinsBuildDetails(startMs, endMs, jenkinsProject, subBuildLabels, page, out);
+  }
+
+  @Override
+  public JSONArray getAvailableJenkinsBuilds(long startMs, long endMs) throws SQLException {
+    return get(
+        Query.AVAILABLE_JENKINS_BUILDS,
+        startMs,
+        endMs,
+        new Loader() {
+          @Override
+          public JSONArray[] load(long fromMs, long toMs) throws SQLException {
+            return new JSONArray[] {store.getAvailableJenkinsBuilds(fromMs, toMs)};
+          }
+        })[0];
+  }
+
+  @Override
+  public void getTestStats(long startMs, long endMs, JSONArray failedTests, JSONArray longestTests)
+      throws SQLException {
+    JSONArray[] results =
+        get(
+            Query.TEST_STATS,
+            startMs,
+            endMs,
+            new Loader() {
+              @Override
+              public JSONArray[] load(long fromMs, long toMs) throws SQLException {
+                JSONArray failed = new JSONArray();
+                JSONArray longest = new JSONArray();
+                store.getTestStats(fromMs, toMs, failed, longest);
+                return new JSONArray[] {failed, longest};
+              }
+            });
+    failedTests.addAll(results[0]);
+    longestTests.addAll(results[1]);
+  }
+
+  @Override
+  public String getTestCaseDetails(
+      long startMs,
+      long endMs,
+      String testFullName,
+      String jenkinsProject,
+      String subBuildLabels,
+      ResultsPage page,
+      JsonArrayWriter out)
+      throws SQLException, IOException {
+    return store.getTestCaseDetails(
+        startMs, endMs, testFullName, jenkinsProject, subBuildLabels, page, out);
+  }
+
+  @Override
+  public void getNames(NameHandler handler) throws SQLException, IOException {
+    store.getNames(handler);
+  }
+
+  @Override
+  public long getSummarizedEndMs() throws SQLException {
+    return store.getSummarizedEndMs();
+  }
+
+  @Override
+  public JSONArray getFailureSignatures(long startMs, long endMs) throws SQLException {
+    return store.getFailureSignatures(startMs, endMs);
+  }
+
+  @Override
+  public JSONArray getFailureSignatureTests(long startMs, long endMs, int signatureId)
+      throws SQLException {
+    return store.getFailureSignatureTests(startMs, endMs, signatureId);
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      entries.clear();
+      numItems = 0;
+    }
+    store.close();
+  }
+
+  /** Drops the entries whose window overlaps the given time range. */
+  synchronized void invalidate(long fromMs, long toMs) {
+    invalidations++;
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      if (entry.startMs <= toMs && entry.endMs >= fromMs) {
+        numItems -= entry.numItems;
+        it.remove();
+      }
+    }
+  }
+
+  /** Returns the hit and miss stats of the cache for the settings page. */
+  synchronized JSONObject getStats() {
+    JSONObject ret = new JSONObject();
+    ret.put(KEY_ENTRIES, entries.size());
+    ret.put(KEY_ITEMS, numItems);
+    ret.put(KEY_HITS, hits);
+    ret.put(KEY_MISSES, misses);
+    ret.put(KEY_INVALIDATIONS, invalidations);
+    ret.put(KEY_EVICTIONS, evictions);
+    return ret;
+  }
+
+  // Returns the cached results of the given query for the snapped window, loading them on a miss.
+  // Results are only cached if nothing was invalidated while they were loaded, as they may miss
+  // what was written meanwhile.
+  private JSONArray[] get(Query query, long startMs, long endMs, Loader loader)
+      throws SQLException {
+    long bucketMs = floor((endMs - startMs) / BUCKETS_PER_WINDOW, MIN_BUCKET_MS);
+    bucketMs = Math.max(bucketMs, MIN_BUCKET_MS);
+    long snappedStartMs = floor(startMs, bucketMs);
+    long snappedEndMs = floor(endMs + bucketMs - 1, bucketMs);
+    String key = query + ":" + snappedStartMs + ":" + snappedEndMs;
+    long invalidationsBefore;
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null && System.currentTimeMillis() - entry.createdMs < TTL_MS) {
+        hits++;
+        return entry.results;
+      }
+      if (entry != null) {
+        entries.remove(key);
+        numItems -= entry.numItems;
+      }
+      misses++;
+      invalidationsBefore = invalidations;
+    }
+    JSONArray[] results = loader.load(snappedStartMs, snappedEndMs);
+    synchronized (this) {
+      if (invalidations == invalidationsBefore) {
+        put(key, new Entry(snappedStartMs, snappedEndMs, results));
+      }
+    }
+    return results;
+  }
+
+  // Adds the given entry and evicts the least recently used ones over the limits. Guarded by this.
+  private void put(String key, Entry entry) {
+    Entry old = entries.put(key, entry);
+    if (old != null) {
+      numItems -= old.numItems;
+    }
+    numItems += entry.numItems;
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while ((entries.size() > MAX_ENTRIES || numItems > MAX_ITEMS) && it.hasNext()) {
+      Entry eldest = it.next().getValue();
+      numItems -= eldest.numItems;
+      it.remove();
+      evictions++;
+    }
+  }
+
+  private static long floor(long ms, long bucketMs) {
+    return ms - ((ms % bucketMs) + bucketMs) % bucketMs;
+  }
+
+  private static void extend(long[] range, long ms) {
+    range[0] = Math.min(range[0], ms);
+    range[1] = Math.max(range[1], ms);
+  }
+
+  // Returns the given test results, extending the given range by their start times and adding
+  // their names to the index as they are iterated.
+  private Iterable<TestResultRecord> observe(
+      final Iterable<TestResultRecord> testResults, final long[] range) {
+    return new Iterable<TestResultRecord>() {
+      @Override
+      public Iterator<TestResultRecord> iterator() {
+        final Iterator<TestResultRecord> it = testResults.iterator();
+        return new Iterator<TestResultRecord>() {
+          @Override
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          @Override
+          public TestResultRecord next() {
+            if (!it.hasNext()) {
+              throw new NoSuchElementException();
+            }
+            TestResultRecord record = it.next();
+            extend(range, record.getStartTimeMs());
+            nameIndex.add(record);
+            return record;
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+}
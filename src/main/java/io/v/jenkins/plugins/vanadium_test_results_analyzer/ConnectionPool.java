@@ -0,0 +1,360 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sf.json.JSONObject;
+
+/**
+ * A bounded pool of long-lived connections to the plugin's database.
+ *
+ * <p>Connections returned by {@link #getConnection()} are proxies: calling {@code close()} on them
+ * closes the statements they created and hands the physical connection back to the pool. Idle
+ * connections are validated before being reused, evicted after sitting unused for a while, and
+ * retired once they reach a maximum lifetime. The pool is owned by {@link
+ * VTestResultsAnalyzerPluginImpl} and rebuilt whenever the server settings change.
+ */
+class ConnectionPool {
+  private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+  /** Maximum number of physical connections (idle and in use). */
+  static final int MAX_POOL_SIZE = 16;
+
+  /** Number of idle connections the evictor leaves open. */
+  private static final int MIN_IDLE = 2;
+
+  /** How long a borrower waits for a free connection before giving up. */
+  private static final long BORROW_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+  /** Idle connections above {@link #MIN_IDLE} are closed after this long. */
+  private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+
+  /** Connections are closed after this long regardless of use. */
+  private static final long MAX_LIFETIME_MS = TimeUnit.MINUTES.toMillis(30);
+
+  /** Connections idle for longer than this are validated before being handed out. */
+  private static final long VALIDATION_INTERVAL_MS = TimeUnit.SECONDS.toMillis(5);
+
+  private static final int VALIDATION_TIMEOUT_SEC = 5;
+
+  private static final long EVICTION_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * Connection parameters for pooled connections. Server-side prepared statements are cached per
+   * connection so that repeated inserts and dashboard queries skip parsing.
+   */
+  private static final String POOLED_CONNECTION_PARAMS =
+      "&useServerPrepStmts=true"
+          + "&cachePrepStmts=true"
+          + "&prepStmtCacheSize=256"
+          + "&prepStmtCacheSqlLimit=4096";
+
+  /** A set of keys in the json object returned by getStats. */
+  private static final String KEY_MAX_SIZE = "maxSize";
+  private static final String KEY_TOTAL = "total";
+  private static final String KEY_ACTIVE = "active";
+  private static final String KEY_IDLE = "idle";
+  private static final String KEY_WAITING = "waiting";
+  private static final String KEY_CREATED = "created";
+  private static final String KEY_BORROWED = "borrowed";
+  private static final String KEY_TIMEOUTS = "timeouts";
+  private static final String KEY_AVG_WAIT_MS = "avgWaitMs";
+
+  private final String serverIP;
+  private final String rootPassword;
+  private final String database;
+
+  /** One permit per connection that may be handed out at the same time. */
+  private final Semaphore permits = new Semaphore(MAX_POOL_SIZE, true);
+
+  /** Idle connections, most recently returned first. */
+  private final LinkedBlockingDeque<PooledConnection> idleConnections =
+      new LinkedBlockingDeque<>();
+
+  private final ScheduledExecutorService evictor;
+
+  private final AtomicInteger totalConnections = new AtomicInteger();
+  private final AtomicLong createdCount = new AtomicLong();
+  private final AtomicLong borrowedCount = new AtomicLong();
+  private final AtomicLong timeoutCount = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+
+  private volatile boolean closed = false;
+
+  ConnectionPool(String serverIP, String rootPassword, String database) {
+    this.serverIP = serverIP;
+    this.rootPassword = rootPassword;
+    this.database = database;
+    this.evictor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Vanadium Test Results Analyzer connection evictor");
+                t.setDaemon(true);
+                return t;
+              }
+            });
+    this.evictor.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            evictIdleConnections();
+          }
+        },
+        EVICTION_INTERVAL_MS,
+        EVICTION_INTERVAL_MS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Borrows a connection from the pool, opening a new one if no idle connection is available.
+   * Callers must close the returned connection to give it back.
+   */
+  Connection getConnection() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool has been closed");
+    }
+    long waitStartNs = System.nanoTime();
+    boolean acquired;
+    try {
+      acquired = permits.tryAcquire(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a database connection");
+    }
+    if (!acquired) {
+      timeoutCount.incrementAndGet();
+      // Transient, so RetryingTransaction backs off and tries again once connections are returned.
+      throw new SQLTransientConnectionException(
+          String.format(
+              "Timed out after %d seconds waiting for a database connection (pool size: %d)",
+              TimeUnit.MILLISECONDS.toSeconds(BORROW_TIMEOUT_MS), MAX_POOL_SIZE),
+          "08001");
+    }
+    totalWaitNanos.addAndGet(System.nanoTime() - waitStartNs);
+    borrowedCount.incrementAndGet();
+
+    try {
+      PooledConnection pc;
+      while ((pc = idleConnections.pollFirst()) != null) {
+        if (isUsable(pc)) {
+          break;
+        }
+        discard(pc);
+      }
+      if (pc == null) {
+        pc = open();
+      }
+      return (Connection)
+          Proxy.newProxyInstance(
+              ConnectionPool.class.getClassLoader(),
+              new Class<?>[] {Connection.class},
+              new Handle(pc));
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /** Closes all idle connections. Connections in use are closed when they are returned. */
+  void close() {
+    closed = true;
+    evictor.shutdownNow();
+    PooledConnection pc;
+    while ((pc = idleConnections.pollFirst()) != null) {
+      discard(pc);
+    }
+  }
+
+  /** Returns a snapshot of the pool's metrics. */
+  JSONObject getStats() {
+    JSONObject ret = new JSONObject();
+    long borrowed = borrowedCount.get();
+    ret.put(KEY_MAX_SIZE, MAX_POOL_SIZE);
+    ret.put(KEY_TOTAL, totalConnections.get());
+    ret.put(KEY_ACTIVE, MAX_POOL_SIZE - permits.availablePermits());
+    ret.put(KEY_IDLE, idleConnections.size());
+    ret.put(KEY_WAITING, permits.getQueueLength());
+    ret.put(KEY_CREATED, createdCount.get());
+    ret.put(KEY_BORROWED, borrowed);
+    ret.put(KEY_TIMEOUTS, timeoutCount.get());
+    ret.put(
+        KEY_AVG_WAIT_MS,
+        borrowed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / borrowed));
+    return ret;
+  }
+
+  // Opens a new physical connection.
+  private PooledConnection open() throws SQLException {
+    Connection conn =
+        Util.getConnection(serverIP, rootPassword, database, POOLED_CONNECTION_PARAMS);
+    totalConnections.incrementAndGet();
+    createdCount.incrementAndGet();
+    return new PooledConnection(conn);
+  }
+
+  // Checks whether an idle connection can be handed out again.
+  private boolean isUsable(PooledConnection pc) {
+    long now = System.currentTimeMillis();
+    if (now - pc.createdMs > MAX_LIFETIME_MS) {
+      return false;
+    }
+    if (now - pc.lastUsedMs < VALIDATION_INTERVAL_MS) {
+      return true;
+    }
+    try {
+      return pc.physical.isValid(VALIDATION_TIMEOUT_SEC);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  // Puts a connection back to the idle list, or closes it if it can't be reused.
+  private void giveBack(PooledConnection pc) {
+    try {
+      if (!pc.broken && !closed && !pc.physical.getAutoCommit()) {
+        // Discard any uncommitted work left behind by the borrower.
+        pc.physical.rollback();
+        pc.physical.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      pc.broken = true;
+    }
+    pc.lastUsedMs = System.currentTimeMillis();
+    if (pc.broken || closed || pc.lastUsedMs - pc.createdMs > MAX_LIFETIME_MS) {
+      discard(pc);
+    } else {
+      idleConnections.offerFirst(pc);
+    }
+    permits.release();
+  }
+
+  // Closes the physical connection.
+  private void discard(PooledConnection pc) {
+    totalConnections.decrementAndGet();
+    try {
+      pc.physical.close();
+    } catch (SQLException e) {
+      LOGGER.log(Level.FINE, "Failed to close pooled connection", e);
+    }
+  }
+
+  // Closes connections that have been idle or alive for too long.
+  private void evictIdleConnections() {
+    long now = System.currentTimeMillis();
+    // Iterate from the least recently used connection.
+    List<PooledConnection> candidates = new ArrayList<>(idleConnections);
+    for (int i = candidates.size() - 1; i >= 0; i--) {
+      PooledConnection pc = candidates.get(i);
+      boolean expired = now - pc.createdMs > MAX_LIFETIME_MS;
+      boolean idleTooLong =
+          now - pc.lastUsedMs > IDLE_TIMEOUT_MS && idleConnections.size() > MIN_IDLE;
+      if ((expired || idleTooLong) && idleConnections.remove(pc)) {
+        discard(pc);
+      }
+    }
+  }
+
+  // A physical connection together with its bookkeeping.
+  private static class PooledConnection {
+    private final Connection physical;
+    private final long createdMs;
+    private volatile long lastUsedMs;
+    private volatile boolean broken = false;
+
+    PooledConnection(Connection physical) {
+      this.physical = physical;
+      this.createdMs = System.currentTimeMillis();
+      this.lastUsedMs = createdMs;
+    }
+  }
+
+  // Backs the proxy handed out for a single borrow.
+  private class Handle implements InvocationHandler {
+    private final PooledConnection pc;
+    private final List<Statement> statements = new ArrayList<>();
+    private boolean released = false;
+
+    Handle(PooledConnection pc) {
+      this.pc = pc;
+    }
+
+    @Override
+    public synchronized Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      String name = method.getName();
+      if (name.equals("close")) {
+        release();
+        return null;
+      }
+      if (name.equals("isClosed")) {
+        return released || pc.physical.isClosed();
+      }
+      if (name.equals("equals")) {
+        return proxy == args[0];
+      }
+      if (name.equals("hashCode")) {
+        return System.identityHashCode(proxy);
+      }
+      if (name.equals("toString")) {
+        return "Pooled " + pc.physical;
+      }
+      if (released) {
+        throw new SQLException("Connection has already been returned to the pool");
+      }
+      try {
+        Object ret = method.invoke(pc.physical, args);
+        if (ret instanceof Statement) {
+          statements.add((Statement) ret);
+        }
+        return ret;
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof SQLException && isConnectionError((SQLException) cause)) {
+          pc.broken = true;
+        }
+        throw cause;
+      }
+    }
+
+    private void release() {
+      if (released) {
+        return;
+      }
+      released = true;
+      for (Statement stmt : statements) {
+        try {
+          stmt.close();
+        } catch (SQLException e) {
+          LOGGER.log(Level.FINE, "Failed to close statement", e);
+        }
+      }
+      statements.clear();
+      giveBack(pc);
+    }
+  }
+
+  // Connection exceptions have SQL states starting with "08".
+  private static boolean isConnectionError(SQLException e) {
+    String state = e.getSQLState();
+    return state != null && state.startsWith("08");
+  }
+}
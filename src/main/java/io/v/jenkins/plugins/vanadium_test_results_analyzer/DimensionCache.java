@@ -0,0 +1,344 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the names stored in the dimension tables (projects, sub builds, packages, classes, test
+ * cases and failure signatures) to their integer ids, inserting the names that aren't in the
+ * database yet.
+ *
+ * <p>Every dimension row is identified by the SHA-1 hash of its key, which is unique in its table.
+ * Ids are cached in memory, so only names seen for the first time since Jenkins started cost a
+ * round trip. New names are inserted on a separate auto-commit connection borrowed from the pool:
+ * ids handed out must never disappear because the transaction that needed them was rolled back.
+ * Each dimension table has its own lock, so writers only wait for each other when they add names
+ * to the same table.
+ */
+class DimensionCache {
+  /** Maximum number of rows inserted or looked up in one statement. */
+  private static final int CHUNK_SIZE = 500;
+
+  /** Separator of the parts of a dimension key. */
+  private static final char KEY_SEPARATOR = '\0';
+
+  private final ConnectionPool pool;
+
+  private final Map<Key, Integer> projectIds = new ConcurrentHashMap<>();
+  private final Map<Key, Integer> subBuildIds = new ConcurrentHashMap<>();
+  private final Map<Key, Integer> packageIds = new ConcurrentHashMap<>();
+  private final Map<Key, Integer> classIds = new ConcurrentHashMap<>();
+  private final Map<Key, Integer> testIds = new ConcurrentHashMap<>();
+  private final Map<Key, Integer> signatureIds = new ConcurrentHashMap<>();
+
+  /** The hash of a dimension key. */
+  private static class Key {
+    private final byte[] hash;
+    private final int hashCode;
+
+    Key(String key) {
+      this(sha1(key));
+    }
+
+    Key(byte[] hash) {
+      this.hash = hash;
+      this.hashCode = ByteBuffer.wrap(hash).getInt();
+    }
+
+    private static byte[] sha1(String key) {
+      try {
+        return MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && Arrays.equals(hash, ((Key) o).hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  /** A dimension table, with the columns of the row to insert for a missing key. */
+  private static class Dimension {
+    private final String table;
+    private final String[] columns;
+    private final Map<Key, Integer> ids;
+
+    Dimension(String table, Map<Key, Integer> ids, String... columns) {
+      this.table = table;
+      this.ids = ids;
+      this.columns = columns;
+    }
+  }
+
+  private final Dimension projects =
+      new Dimension(VTestResultsAnalyzerMgmtLink.TB_JENKINS_PROJECTS, projectIds, "name", "url");
+  private final Dimension subBuilds =
+      new Dimension(
+          VTestResultsAnalyzerMgmtLink.TB_SUB_BUILDS, subBuildIds, "labels", "url_name");
+  private final Dimension packages =
+      new Dimension(VTestResultsAnalyzerMgmtLink.TB_TEST_PACKAGES, packageIds, "name");
+  private final Dimension classes =
+      new Dimension(
+          VTestResultsAnalyzerMgmtLink.TB_TEST_CLASSES, classIds, "package_id", "name");
+  private final Dimension tests =
+      new Dimension(
+          VTestResultsAnalyzerMgmtLink.TB_TEST_CASES,
+          testIds,
+          "class_id",
+          "name",
+          "full_name",
+          "url_path");
+  private final Dimension signatures =
+      new Dimension(
+          VTestResultsAnalyzerMgmtLink.TB_FAILURE_SIGNATURES, signatureIds, "summary", "signature");
+
+  DimensionCache(ConnectionPool pool) {
+    this.pool = pool;
+  }
+
+  /** Returns the id of the given project. */
+  int getProjectId(String name, String url) throws SQLException {
+    Key key = new Key(name);
+    Integer id = projectIds.get(key);
+    if (id != null) {
+      return id;
+    }
+    return resolve(projects, Collections.singletonMap(key, new Object[] {name, url})).get(key);
+  }
+
+  /** Returns the id of the given sub build, or 0 for root builds (null labels). */
+  int getSubBuildId(String labels, String urlName) throws SQLException {
+    if (labels == null) {
+      return 0;
+    }
+    Key key = new Key(labels);
+    Integer id = subBuildIds.get(key);
+    if (id != null) {
+      return id;
+    }
+    return resolve(subBuilds, Collections.singletonMap(key, new Object[] {labels, urlName}))
+        .get(key);
+  }
+
+  /** Returns the test case ids of the given records, in the same order. */
+  int[] getTestIds(List<TestResultRecord> records) throws SQLException {
+    int n = records.size();
+    Key[] testKeys = new Key[n];
+    int[] ret = new int[n];
+
+    // Cheap path: every test case has been seen before.
+    boolean allCached = true;
+    for (int i = 0; i < n && allCached; i++) {
+      Integer id = testIds.get(testKeyFromRecord(records.get(i)));
+      if (id == null) {
+        allCached = false;
+      } else {
+        ret[i] = id;
+      }
+    }
+    if (allCached) {
+      return ret;
+    }
+
+    // Packages.
+    Map<Key, Object[]> missing = new LinkedHashMap<>();
+    Key[] packageKeys = new Key[n];
+    for (int i = 0; i < n; i++) {
+      TestResultRecord r = records.get(i);
+      packageKeys[i] = new Key(r.getTestPackage());
+      if (!packageIds.containsKey(packageKeys[i])) {
+        missing.put(packageKeys[i], new Object[] {r.getTestPackage()});
+      }
+    }
+    resolve(packages, missing);
+
+    // Classes.
+    missing.clear();
+    Key[] classKeys = new Key[n];
+    for (int i = 0; i < n; i++) {
+      TestResultRecord r = records.get(i);
+      int packageId = packageIds.get(packageKeys[i]);
+      classKeys[i] = new Key(joinKey(packageId, r.getTestClass()));
+      if (!classIds.containsKey(classKeys[i])) {
+        missing.put(classKeys[i], new Object[] {packageId, r.getTestClass()});
+      }
+    }
+    resolve(classes, missing);
+
+    // Test cases.
+    missing.clear();
+    for (int i = 0; i < n; i++) {
+      TestResultRecord r = records.get(i);
+      int classId = classIds.get(classKeys[i]);
+      testKeys[i] = new Key(joinKey(classId, r.getTestCase()));
+      if (!testIds.containsKey(testKeys[i])) {
+        missing.put(
+            testKeys[i],
+            new Object[] {classId, r.getTestCase(), r.getTestFullName(), r.getTestUrlPath()});
+      }
+    }
+    resolve(tests, missing);
+
+    for (int i = 0; i < n; i++) {
+      ret[i] = testIds.get(testKeys[i]);
+    }
+    return ret;
+  }
+
+  /** Returns the failure signature ids of the given records, which must have failed. */
+  int[] getSignatureIds(List<TestResultRecord> records) throws SQLException {
+    int n = records.size();
+    Key[] keys = new Key[n];
+    Map<Key, Object[]> missing = new LinkedHashMap<>();
+    for (int i = 0; i < n; i++) {
+      TestResultRecord r = records.get(i);
+      keys[i] = new Key(r.getFailureSignature());
+      if (!signatureIds.containsKey(keys[i])) {
+        missing.put(keys[i], new Object[] {r.getFailureSummary(), r.getFailureSignature()});
+      }
+    }
+    resolve(signatures, missing);
+    int[] ret = new int[n];
+    for (int i = 0; i < n; i++) {
+      ret[i] = signatureIds.get(keys[i]);
+    }
+    return ret;
+  }
+
+  // Looks up the test case key of a record through the cached package and class ids. Returns a
+  // key that is never cached if its class hasn't been seen yet.
+  private Key testKeyFromRecord(TestResultRecord r) {
+    Integer packageId = packageIds.get(new Key(r.getTestPackage()));
+    if (packageId == null) {
+      return new Key("");
+    }
+    Integer classId = classIds.get(new Key(joinKey(packageId, r.getTestClass())));
+    if (classId == null) {
+      return new Key("");
+    }
+    return new Key(joinKey(classId, r.getTestCase()));
+  }
+
+  // Inserts the rows of the given keys unless they exist, and caches their ids.
+  private Map<Key, Integer> resolve(Dimension dim, Map<Key, Object[]> rows) throws SQLException {
+    if (!allCached(dim, rows.keySet())) {
+      synchronized (dim) {
+        // Another thread may have resolved some keys while we waited for the lock.
+        List<Key> keys = new ArrayList<>();
+        for (Key key : rows.keySet()) {
+          if (!dim.ids.containsKey(key)) {
+            keys.add(key);
+          }
+        }
+        if (!keys.isEmpty()) {
+          Connection c = pool.getConnection();
+          try {
+            for (int start = 0; start < keys.size(); start += CHUNK_SIZE) {
+              List<Key> chunk = keys.subList(start, Math.min(start + CHUNK_SIZE, keys.size()));
+              insertIgnore(c, dim, chunk, rows);
+              selectIds(c, dim, chunk);
+            }
+          } finally {
+            c.close();
+          }
+        }
+      }
+    }
+    Map<Key, Integer> ret = new HashMap<>();
+    for (Key key : rows.keySet()) {
+      Integer id = dim.ids.get(key);
+      if (id == null) {
+        throw new SQLException("Failed to find the id of a row in " + dim.table);
+      }
+      ret.put(key, id);
+    }
+    return ret;
+  }
+
+  // Returns whether the ids of all the given keys are cached, so that no lock is needed.
+  private static boolean allCached(Dimension dim, Iterable<Key> keys) {
+    for (Key key : keys) {
+      if (!dim.ids.containsKey(key)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void insertIgnore(
+      Connection c, Dimension dim, List<Key> keys, Map<Key, Object[]> rows) throws SQLException {
+    StringBuilder sql = new StringBuilder("INSERT IGNORE INTO ").append(dim.table).append("(hash");
+    StringBuilder row = new StringBuilder("(?");
+    for (String col : dim.columns) {
+      sql.append(", ").append(col);
+      row.append(",?");
+    }
+    row.append(")");
+    sql.append(") VALUES ").append(row);
+    for (int i = 1; i < keys.size(); i++) {
+      sql.append(",").append(row);
+    }
+    PreparedStatement ps = c.prepareStatement(sql.toString());
+    try {
+      int p = 1;
+      for (Key key : keys) {
+        ps.setBytes(p++, key.hash);
+        for (Object value : rows.get(key)) {
+          ps.setObject(p++, value);
+        }
+      }
+      ps.executeUpdate();
+    } finally {
+      ps.close();
+    }
+  }
+
+  private static void selectIds(Connection c, Dimension dim, List<Key> keys)
+      throws SQLException {
+    StringBuilder sql =
+        new StringBuilder("SELECT id, hash FROM ").append(dim.table).append(" WHERE hash IN (?");
+    for (int i = 1; i < keys.size(); i++) {
+      sql.append(",?");
+    }
+    sql.append(")");
+    PreparedStatement ps = c.prepareStatement(sql.toString());
+    try {
+      for (int i = 0; i < keys.size(); i++) {
+        ps.setBytes(i + 1, keys.get(i).hash);
+      }
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        dim.ids.put(new Key(rs.getBytes(2)), rs.getInt(1));
+      }
+    } finally {
+      ps.close();
+    }
+  }
+
+  // Returns the key of a row that belongs to the row with the given id, e.g. a class in a package.
+  // The migration of the old table layout computes the same keys in SQL.
+  private static String joinKey(int parentId, String name) {
+    return String.valueOf(parentId) + KEY_SEPARATOR + name;
+  }
+}
@@ -0,0 +1,448 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import jenkins.model.Jenkins;
+
+/**
+ * Moves test results older than the threshold set on the settings page out of the Test Results
+ * table, into daily summaries per test case with a sketch of their durations, see {@link
+ * DurationSketch}. Failed runs can be kept, so their details stay available.
+ *
+ * <p>Rows are moved an hour at a time. Each hour is one transaction that merges its rows into the
+ * summaries of its day and deletes them, so every row is counted once. The moved rows are also
+ * written to a gzipped file under JENKINS_HOME, which is synced to disk before the transaction
+ * commits and only gets its final name once it has. If renaming it fails, the temporary file is
+ * kept, as it is the only copy of the moved rows. The hour is marked dirty, so its rollups no
+ * longer count the moved rows, while the rollups of its day count them through the summaries, see
+ * {@link Rollups}.
+ */
+@Extension
+public class Downsampler extends AsyncPeriodicWork {
+  private static final Logger LOGGER = Logger.getLogger(Downsampler.class.getName());
+
+  /** Directory under JENKINS_HOME for the moved test results. */
+  static final String ARCHIVE_DIR = "vanadium-test-results-analyzer/archive";
+
+  private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+  private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+  private static final String TB_TEST_RESULTS = VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS;
+
+  private static final String TB_TEST_SUMMARIES = VTestResultsAnalyzerMgmtLink.TB_TEST_SUMMARIES;
+
+  /** Leaves out the failed runs, which may be kept. */
+  private static final String SQL_NOT_FAILED = " AND (result IS NULL OR result <> 'FAILED')";
+
+  /** Columns of the archive files. */
+  private static final String ARCHIVE_HEADER =
+      "start_time\tjenkins_project\tsub_build_labels\tbuild_number\ttest_full_name\t"
+          + "duration\tresult\n";
+
+  /** A moved run. */
+  private static class Row {
+    private final Timestamp startTime;
+    private final int testId;
+    private final int projectId;
+    private final int subBuildId;
+    private final int buildNumber;
+    private final float duration;
+    private final String result;
+
+    private Row(ResultSet rs) throws SQLException {
+      this.startTime = rs.getTimestamp("start_time");
+      this.testId = rs.getInt("test_id");
+      this.projectId = rs.getInt("project_id");
+      this.subBuildId = rs.getInt("sub_build_id");
+      this.buildNumber = rs.getInt("build_number");
+      this.duration = rs.getFloat("duration");
+      this.result = rs.getString("result");
+    }
+
+    private String getKey() {
+      return getKey(testId, projectId, subBuildId);
+    }
+
+    private static String getKey(int testId, int projectId, int subBuildId) {
+      return testId + ":" + projectId + ":" + subBuildId;
+    }
+  }
+
+  /** The stats of the moved runs of a test case in a project and sub build on one day. */
+  private static class Summary {
+    private final int testId;
+    private final int projectId;
+    private final int subBuildId;
+    private int count = 0;
+    private int failedCount = 0;
+    private double sumDuration = 0;
+    private float minDuration = Float.MAX_VALUE;
+    private float maxDuration = 0;
+    private final DurationSketch sketch = new DurationSketch();
+
+    private Summary(Row row) {
+      this.testId = row.testId;
+      this.projectId = row.projectId;
+      this.subBuildId = row.subBuildId;
+    }
+
+    private void add(Row row) {
+      count++;
+      if ("FAILED".equals(row.result)) {
+        failedCount++;
+      }
+      sumDuration += row.duration;
+      minDuration = Math.min(minDuration, row.duration);
+      maxDuration = Math.max(maxDuration, row.duration);
+      sketch.add(row.duration);
+    }
+
+    // Adds the stats of a row of the summaries table.
+    private void merge(ResultSet rs) throws SQLException {
+      count += rs.getInt("count");
+      failedCount += rs.getInt("failed_count");
+      sumDuration += rs.getDouble("sum_duration");
+      minDuration = Math.min(minDuration, rs.getFloat("min_duration"));
+      maxDuration = Math.max(maxDuration, rs.getFloat("max_duration"));
+      byte[] data = rs.getBytes("duration_sketch");
+      if (data != null) {
+        try {
+          sketch.merge(DurationSketch.decode(data));
+        } catch (IOException e) {
+          throw new SQLException("Failed to decode duration sketch", e);
+        }
+      }
+    }
+  }
+
+  public Downsampler() {
+    super("Vanadium Test Results Analyzer downsampling");
+  }
+
+  @Override
+  public long getRecurrencePeriod() {
+    return HOUR;
+  }
+
+  @Override
+  protected void execute(TaskListener listener) throws IOException, InterruptedException {
+    VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    if (plugin == null
+        || plugin.getPluginDisabled()
+        || !plugin.usesMySqlServer()
+        || plugin.getDownsampleAfterDays() <= 0) {
+      return;
+    }
+    long cutoffMs =
+        Rollups.getDayStart(System.currentTimeMillis() - plugin.getDownsampleAfterDays() * DAY_MS);
+    File dir = new File(Jenkins.getInstance().getRootDir(), ARCHIVE_DIR);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create directory " + dir);
+    }
+    boolean keepFailedRuns = plugin.getKeepFailedRuns();
+    try {
+      long fromMs = 0;
+      while (!Thread.currentThread().isInterrupted()) {
+        long hourMs = getNextHour(plugin, fromMs, cutoffMs, keepFailedRuns);
+        if (hourMs < 0) {
+          break;
+        }
+        int moved = downsampleHour(hourMs, keepFailedRuns, dir);
+        listener.getLogger().println("Moved " + moved + " test results of " + new Date(hourMs));
+        fromMs = hourMs + HOUR_MS;
+      }
+    } catch (SQLException e) {
+      listener.getLogger().println("Failed to downsample test results: " + e.getMessage());
+    }
+  }
+
+  // Returns the start of the oldest hour from the given time on, and before the cutoff, with rows
+  // to move, or -1 if there is none.
+  private static long getNextHour(
+      VTestResultsAnalyzerPluginImpl plugin, long fromMs, long cutoffMs, boolean keepFailedRuns)
+      throws SQLException {
+    Connection conn = plugin.getConnection();
+    try {
+      PreparedStatement ps =
+          conn.prepareStatement(
+              "SELECT MIN(start_time) FROM "
+                  + TB_TEST_RESULTS
+                  + " WHERE start_time >= ? AND start_time < ?"
+                  + (keepFailedRuns ? SQL_NOT_FAILED : ""));
+      ps.setTimestamp(1, new Timestamp(fromMs));
+      ps.setTimestamp(2, new Timestamp(cutoffMs));
+      ResultSet rs = ps.executeQuery();
+      if (!rs.next() || rs.getTimestamp(1) == null) {
+        return -1;
+      }
+      return Rollups.getHourStart(rs.getTimestamp(1).getTime());
+    } finally {
+      conn.close();
+    }
+  }
+
+  // Moves the rows of the hour that starts at the given time and writes them to a new archive file.
+  // Returns the number of rows moved.
+  private static int downsampleHour(final long hourMs, final boolean keepFailedRuns, File dir)
+      throws SQLException, InterruptedException, IOException {
+    File file = getArchiveFile(dir, hourMs);
+    final File tmpFile = new File(file.getPath() + ".tmp");
+    final int[] moved = new int[1];
+    boolean committed = false;
+    try {
+      RetryingTransaction.run(
+          new RetryingTransaction.Work() {
+            @Override
+            public void run(Connection conn) throws SQLException {
+              moved[0] = moveHour(conn, hourMs, keepFailedRuns, tmpFile);
+            }
+          });
+      committed = true;
+    } finally {
+      // The rows are still in the table if the transaction failed.
+      if (!committed && tmpFile.exists() && !tmpFile.delete()) {
+        tmpFile.deleteOnExit();
+      }
+    }
+    if (moved[0] == 0) {
+      return 0;
+    }
+    try {
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // The rows have been deleted, so the temporary file is the only copy of them.
+      LOGGER.log(
+          Level.SEVERE,
+          "Failed to rename " + tmpFile + " to " + file + ", keeping it for recovery",
+          e);
+      throw e;
+    }
+    return moved[0];
+  }
+
+  // Returns a new archive file for the given hour, e.g. "test_results-2016-05-02-13.tsv.gz".
+  // Rows of an hour that arrive after it was downsampled go to another file, as do those of an hour
+  // whose temporary file was kept.
+  private static File getArchiveFile(File dir, long hourMs) {
+    String name = "test_results-" + new SimpleDateFormat("yyyy-MM-dd-HH").format(new Date(hourMs));
+    File file = new File(dir, name + ".tsv.gz");
+    for (int i = 1; file.exists() || new File(file.getPath() + ".tmp").exists(); i++) {
+      file = new File(dir, name + "-" + i + ".tsv.gz");
+    }
+    return file;
+  }
+
+  // Writes the rows of the given hour to the given file, merges them into the summaries of their
+  // day, deletes them and marks the hour dirty. Returns the number of rows moved.
+  private static int moveHour(Connection conn, long hourMs, boolean keepFailedRuns, File file)
+      throws SQLException {
+    String condition =
+        " WHERE start_time >= ? AND start_time < ?" + (keepFailedRuns ? SQL_NOT_FAILED : "");
+    Timestamp hourStart = new Timestamp(hourMs);
+    Timestamp hourEnd = new Timestamp(hourMs + HOUR_MS);
+
+    // Lock the rows, so they can't change before they are deleted.
+    List<Row> rows = new ArrayList<>();
+    PreparedStatement ps =
+        conn.prepareStatement(
+            "SELECT start_time, test_id, project_id, sub_build_id, build_number, duration, result "
+                + "FROM "
+                + TB_TEST_RESULTS
+                + condition
+                + " FOR UPDATE");
+    try {
+      ps.setTimestamp(1, hourStart);
+      ps.setTimestamp(2, hourEnd);
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        rows.add(new Row(rs));
+      }
+    } finally {
+      ps.close();
+    }
+    if (rows.isEmpty()) {
+      return 0;
+    }
+
+    writeArchive(conn, rows, file);
+    mergeSummaries(conn, Rollups.getDayStart(hourMs), rows);
+
+    ps = conn.prepareStatement("DELETE FROM " + TB_TEST_RESULTS + condition);
+    try {
+      ps.setTimestamp(1, hourStart);
+      ps.setTimestamp(2, hourEnd);
+      ps.executeUpdate();
+    } finally {
+      ps.close();
+    }
+    Rollups.markDirty(conn, Collections.singleton(hourMs));
+    return rows.size();
+  }
+
+  // Writes the given rows to the given file, with names instead of ids.
+  private static void writeArchive(Connection conn, List<Row> rows, File file)
+      throws SQLException {
+    Set<Integer> testIds = new HashSet<>();
+    for (Row row : rows) {
+      testIds.add(row.testId);
+    }
+    Map<Integer, String> testNames =
+        TestResultBlobStore.getTestFullNames(conn, new ArrayList<>(testIds));
+    Map<Integer, String> projectNames =
+        getNames(conn, VTestResultsAnalyzerMgmtLink.TB_JENKINS_PROJECTS, "name");
+    Map<Integer, String> subBuildLabels =
+        getNames(conn, VTestResultsAnalyzerMgmtLink.TB_SUB_BUILDS, "labels");
+    DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    try {
+      FileOutputStream fos = new FileOutputStream(file);
+      GZIPOutputStream gzip = new GZIPOutputStream(fos);
+      Writer out = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8));
+      try {
+        out.write(ARCHIVE_HEADER);
+        for (Row row : rows) {
+          out.write(
+              df.format(row.startTime)
+                  + "\t"
+                  + toField(projectNames.get(row.projectId))
+                  + "\t"
+                  + toField(subBuildLabels.get(row.subBuildId))
+                  + "\t"
+                  + row.buildNumber
+                  + "\t"
+                  + toField(testNames.get(row.testId))
+                  + "\t"
+                  + row.duration
+                  + "\t"
+                  + toField(row.result)
+                  + "\n");
+        }
+        out.flush();
+        gzip.finish();
+        // Make sure the file is on disk before the transaction that deletes the rows commits.
+        fos.getFD().sync();
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      throw new SQLException("Failed to write " + file + ": " + e.getMessage(), e);
+    }
+  }
+
+  // Returns the given value as a field of an archive file.
+  private static String toField(String value) {
+    return value == null ? "" : value.replaceAll("[\\t\\r\\n]", " ");
+  }
+
+  // Adds the stats of the given rows to the summaries of the day that starts at the given time.
+  private static void mergeSummaries(Connection conn, long dayStartMs, List<Row> rows)
+      throws SQLException {
+    Map<String, Summary> summaries = new LinkedHashMap<>();
+    for (Row row : rows) {
+      Summary summary = summaries.get(row.getKey());
+      if (summary == null) {
+        summary = new Summary(row);
+        summaries.put(row.getKey(), summary);
+      }
+      summary.add(row);
+    }
+    Timestamp dayStart = new Timestamp(dayStartMs);
+    PreparedStatement ps =
+        conn.prepareStatement(
+            "SELECT * FROM " + TB_TEST_SUMMARIES + " WHERE day_start = ? FOR UPDATE");
+    try {
+      ps.setTimestamp(1, dayStart);
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        String key =
+            Row.getKey(rs.getInt("test_id"), rs.getInt("project_id"), rs.getInt("sub_build_id"));
+        Summary summary = summaries.get(key);
+        if (summary != null) {
+          summary.merge(rs);
+        }
+      }
+    } finally {
+      ps.close();
+    }
+    ps =
+        conn.prepareStatement(
+            "INSERT INTO "
+                + TB_TEST_SUMMARIES
+                + " (day_start, test_id, project_id, sub_build_id, count, failed_count, "
+                + "sum_duration, min_duration, max_duration, duration_sketch, update_time) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+                + "ON DUPLICATE KEY UPDATE count=VALUES(count), failed_count=VALUES(failed_count), "
+                + "sum_duration=VALUES(sum_duration), min_duration=VALUES(min_duration), "
+                + "max_duration=VALUES(max_duration), duration_sketch=VALUES(duration_sketch), "
+                + "update_time=VALUES(update_time)");
+    try {
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      for (Summary summary : summaries.values()) {
+        ps.setTimestamp(1, dayStart);
+        ps.setInt(2, summary.testId);
+        ps.setInt(3, summary.projectId);
+        ps.setInt(4, summary.subBuildId);
+        ps.setInt(5, summary.count);
+        ps.setInt(6, summary.failedCount);
+        ps.setDouble(7, summary.sumDuration);
+        ps.setFloat(8, summary.minDuration);
+        ps.setFloat(9, summary.maxDuration);
+        ps.setBytes(10, summary.sketch.toBytes());
+        ps.setTimestamp(11, now);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } catch (IOException e) {
+      throw new SQLException("Failed to encode duration sketch", e);
+    } finally {
+      ps.close();
+    }
+  }
+
+  // Returns the names of the rows of a dimension table, by id.
+  private static Map<Integer, String> getNames(Connection conn, String table, String column)
+      throws SQLException {
+    Map<Integer, String> names = new HashMap<>();
+    Statement stmt = conn.createStatement();
+    try {
+      ResultSet rs = stmt.executeQuery("SELECT id, " + column + " FROM " + table);
+      while (rs.next()) {
+        names.put(rs.getInt(1), rs.getString(2));
+      }
+    } finally {
+      stmt.close();
+    }
+    return names;
+  }
+}
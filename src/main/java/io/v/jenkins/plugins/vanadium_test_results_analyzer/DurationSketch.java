@@ -0,0 +1,151 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A mergeable sketch of durations, from which quantiles are estimated within a fixed relative error
+ * (a DDSketch).
+ *
+ * <p>Durations are counted in logarithmic bins: bin i counts the durations in (g^(i-1), g^i], where
+ * g = (1 + a) / (1 - a) for the relative accuracy a, so every duration is within a of the estimate
+ * of its bin. Sketches are merged by adding up their bins, so the sketches of hours add up to the
+ * sketch of their day without the durations themselves. Durations below {@link
+ * #MIN_INDEXED_DURATION} are counted as zeros. With 1% accuracy, durations from a millisecond to a
+ * day take at most about 900 bins.
+ *
+ * <p>Layout: version byte, then [varint zero count][varint bin count], then for every bin in index
+ * order [zigzag varint index delta][varint count].
+ */
+class DurationSketch {
+  /** Version of the layout, the first byte of every sketch. */
+  private static final int FORMAT_VERSION = 1;
+
+  /** Relative accuracy of the quantiles. */
+  private static final double RELATIVE_ACCURACY = 0.01;
+
+  private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+
+  /** Durations, in seconds, below which durations are counted as zeros. */
+  private static final double MIN_INDEXED_DURATION = 1e-3;
+
+  /** Counts of the bins, by index. */
+  private final TreeMap<Integer, Long> bins = new TreeMap<>();
+
+  private long zeroCount = 0;
+  private long count = 0;
+
+  /** Adds a duration in seconds. */
+  void add(double duration) {
+    count++;
+    if (duration < MIN_INDEXED_DURATION) {
+      zeroCount++;
+      return;
+    }
+    int index = (int) Math.ceil(Math.log(duration) / LOG_GAMMA);
+    Long c = bins.get(index);
+    bins.put(index, c == null ? 1 : c + 1);
+  }
+
+  /** Adds the durations counted by the given sketch. */
+  void merge(DurationSketch other) {
+    count += other.count;
+    zeroCount += other.zeroCount;
+    for (Map.Entry<Integer, Long> bin : other.bins.entrySet()) {
+      Long c = bins.get(bin.getKey());
+      bins.put(bin.getKey(), c == null ? bin.getValue() : c + bin.getValue());
+    }
+  }
+
+  /** Returns the number of durations. */
+  long getCount() {
+    return count;
+  }
+
+  /** Returns the estimated q quantile, 0 <= q <= 1, of the durations, or NaN if there are none. */
+  double getQuantile(double q) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    long rank = (long) (q * (count - 1));
+    long seen = zeroCount;
+    if (rank < seen) {
+      return 0;
+    }
+    int index = bins.lastKey();
+    for (Map.Entry<Integer, Long> bin : bins.entrySet()) {
+      seen += bin.getValue();
+      if (rank < seen) {
+        index = bin.getKey();
+        break;
+      }
+    }
+    return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+  }
+
+  /** Returns the serialized sketch. */
+  byte[] toBytes() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(FORMAT_VERSION);
+    writeVarLong(out, zeroCount);
+    writeVarLong(out, bins.size());
+    int prevIndex = 0;
+    for (Map.Entry<Integer, Long> bin : bins.entrySet()) {
+      int delta = bin.getKey() - prevIndex;
+      writeVarLong(out, ((delta << 1) ^ (delta >> 31)) & 0xffffffffL);
+      writeVarLong(out, bin.getValue());
+      prevIndex = bin.getKey();
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /** Decodes a sketch written by {@link #toBytes}. */
+  static DurationSketch decode(byte[] data) throws IOException {
+    if (data.length == 0 || data[0] != FORMAT_VERSION) {
+      throw new IOException("Unsupported duration sketch version");
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+    DurationSketch sketch = new DurationSketch();
+    sketch.zeroCount = readVarLong(in);
+    sketch.count = sketch.zeroCount;
+    long numBins = readVarLong(in);
+    int index = 0;
+    for (long i = 0; i < numBins; i++) {
+      int zigzag = (int) readVarLong(in);
+      index += (zigzag >>> 1) ^ -(zigzag & 1);
+      long c = readVarLong(in);
+      sketch.bins.put(index, c);
+      sketch.count += c;
+    }
+    return sketch;
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      out.writeByte((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint in duration sketch");
+  }
+}
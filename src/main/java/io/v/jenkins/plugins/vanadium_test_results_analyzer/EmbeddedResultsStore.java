@@ -0,0 +1,673 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sf.json.JSONArray;
+
+/**
+ * Stores build stats and test results in an embedded H2 database in a directory under
+ * JENKINS_HOME, so the plugin works without a MySQL server.
+ *
+ * <p>Names are stored in the rows themselves instead of dimension tables, and the dashboards
+ * aggregate the rows of their range directly: there are no rollups, partitions or blobs, which only
+ * pay off at the sizes a MySQL server is needed for anyway. Writes are serialized, as the database
+ * is only used by this controller.
+ */
+class EmbeddedResultsStore implements ResultsStore {
+  private static final Logger LOGGER = Logger.getLogger(EmbeddedResultsStore.class.getName());
+
+  private static final String DRIVER = "org.h2.Driver";
+
+  /** Name of the database files in the store's directory. */
+  private static final String DB_FILE_NAME = "results";
+
+  private static final String TB_JENKINS_BUILDS = "jenkins_builds";
+  private static final String TB_TEST_RESULTS = "test_results";
+  private static final String TB_FAILURE_SIGNATURES = "failure_signatures";
+
+  /** Sub build labels of root builds, which can't be null in a primary key. */
+  private static final String ROOT_BUILD_LABELS = "";
+
+  private static final String[] SQL_CREATE_TABLES = {
+    "CREATE TABLE IF NOT EXISTS "
+        + TB_JENKINS_BUILDS
+        + "(jenkins_project VARCHAR NOT NULL, "
+        // Empty for root builds.
+        + " sub_build_labels VARCHAR NOT NULL, "
+        + " build_number INTEGER NOT NULL, "
+        + " node VARCHAR, "
+        + " start_time TIMESTAMP NOT NULL, "
+        // Build duration in seconds.
+        + " duration INTEGER, "
+        + " result VARCHAR(16), "
+        // URL of the build relative to Jenkins root.
+        + " url VARCHAR, "
+        + " update_time TIMESTAMP, "
+        + " PRIMARY KEY ( jenkins_project, sub_build_labels, build_number ))",
+    "CREATE INDEX IF NOT EXISTS jenkins_builds_start_time ON " + TB_JENKINS_BUILDS + "(start_time)",
+    "CREATE TABLE IF NOT EXISTS "
+        + TB_FAILURE_SIGNATURES
+        + "(id INTEGER AUTO_INCREMENT PRIMARY KEY, "
+        // See FailureSignature.
+        + " signature VARCHAR NOT NULL UNIQUE, "
+        + " summary VARCHAR)",
+    "CREATE TABLE IF NOT EXISTS "
+        + TB_TEST_RESULTS
+        + "(jenkins_project VARCHAR NOT NULL, "
+        + " sub_build_labels VARCHAR NOT NULL, "
+        + " build_number INTEGER NOT NULL, "
+        + " test_full_name VARCHAR NOT NULL, "
+        // The time when the corresponding build started.
+        + " start_time TIMESTAMP NOT NULL, "
+        // Test duration in seconds.
+        + " duration REAL, "
+        + " result VARCHAR(16), "
+        // URL of the test case relative to Jenkins root.
+        + " url VARCHAR, "
+        // The signature of the failure, null if it passed. See failure_signatures.
+        + " signature_id INTEGER, "
+        + " update_time TIMESTAMP, "
+        + " PRIMARY KEY ( jenkins_project, sub_build_labels, build_number, test_full_name ))",
+    "CREATE INDEX IF NOT EXISTS test_results_start_time ON " + TB_TEST_RESULTS + "(start_time)",
+    // Finds the runs of a test case in build number order, for paging through them.
+    "CREATE INDEX IF NOT EXISTS test_results_test ON "
+        + TB_TEST_RESULTS
+        + "(test_full_name, jenkins_project, sub_build_labels, build_number)",
+    "CREATE INDEX IF NOT EXISTS test_results_signature ON "
+        + TB_TEST_RESULTS
+        + "(signature_id, start_time)"
+  };
+
+  private static final String SQL_MERGE_JENKINS_BUILD =
+      "MERGE INTO "
+          + TB_JENKINS_BUILDS
+          + " (jenkins_project, sub_build_labels, build_number, node, start_time, duration, "
+          + "result, url, update_time) KEY (jenkins_project, sub_build_labels, build_number) "
+          + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  private static final String SQL_MERGE_TEST_RESULT =
+      "MERGE INTO "
+          + TB_TEST_RESULTS
+          + " (jenkins_project, sub_build_labels, build_number, test_full_name, start_time, "
+          + "duration, result, url, signature_id, update_time) "
+          + "KEY (jenkins_project, sub_build_labels, build_number, test_full_name) "
+          + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  /** Sub build labels as returned to the dashboards: left out for root builds. */
+  private static final String SQL_SUB_BUILD_LABELS =
+      "NULLIF(sub_build_labels, '') AS sub_build_labels";
+
+  private static final String SQL_IN_RANGE = " WHERE start_time BETWEEN ? AND ? ";
+
+  private static final String SQL_JENKINS_BUILDS =
+      "SELECT jenkins_project, "
+          + SQL_SUB_BUILD_LABELS
+          + ", AVG(CAST(duration AS DOUBLE)) AS avg, "
+          + "MIN(duration) AS min, "
+          + "MAX(duration) AS max, "
+          + "STDDEV_POP(duration) AS std, "
+          + "SUM(CASE WHEN result = 'SUCCESS' THEN 1 ELSE 0 END) AS success_count, "
+          + "SUM(CASE WHEN result = 'UNSTABLE' THEN 1 ELSE 0 END) AS unstable_count, "
+          + "SUM(CASE WHEN result = 'FAILURE' THEN 1 ELSE 0 END) AS failure_count, "
+          + "SUM(CASE WHEN result = 'ABORTED' THEN 1 ELSE 0 END) AS aborted_count, "
+          + "COUNT(*) AS count FROM "
+          + TB_JENKINS_BUILDS
+          + SQL_IN_RANGE
+          + "GROUP BY jenkins_project, sub_build_labels ORDER BY avg DESC";
+
+  /**
+   * Columns of the runs of a build or test case, and their sort key in a ResultsPage. The queries
+   * of runs and test cases are followed by the conditions and order of the page.
+   */
+  private static final String[] RUN_COLS =
+      new String[] {"build_number", "start_time", "duration", "result", "url"};
+
+
+  private static final String SQL_BUILD_DETAILS =
+      "SELECT build_number, start_time, duration, result, url FROM "
+          + TB_JENKINS_BUILDS
+          + SQL_IN_RANGE
+          + "AND jenkins_project = ? AND sub_build_labels = ?";
+
+  private static final String SQL_AVAILABLE_JENKINS_BUILDS =
+      "SELECT DISTINCT jenkins_project, "
+          + SQL_SUB_BUILD_LABELS
+          + " FROM "
+          + TB_JENKINS_BUILDS
+          + SQL_IN_RANGE;
+
+  private static final String SQL_FAILED_COUNT =
+      "SUM(CASE WHEN result = 'FAILED' THEN 1 ELSE 0 END)";
+
+  /** Stats of every test case in the time range. */
+  private static final String SQL_TEST_STATS =
+      "SELECT test_full_name, jenkins_project, "
+          + SQL_SUB_BUILD_LABELS
+          + ", SUM(CAST(duration AS DOUBLE)) AS sum_duration, "
+          + "MIN(duration) AS min_duration, "
+          + "MAX(duration) AS max_duration, "
+          + SQL_FAILED_COUNT
+          + " AS failed_count, "
+          + "COUNT(*) AS count FROM "
+          + TB_TEST_RESULTS
+          + SQL_IN_RANGE
+          + "GROUP BY test_full_name, jenkins_project, sub_build_labels ";
+
+  /** Durations of the runs of some test cases, followed by the placeholders of their names. */
+  private static final String SQL_TEST_DURATIONS =
+      "SELECT test_full_name, jenkins_project, "
+          + SQL_SUB_BUILD_LABELS
+          + ", duration FROM "
+          + TB_TEST_RESULTS
+          + SQL_IN_RANGE
+          + "AND test_full_name IN ";
+
+  private static final String SQL_JENKINS_BUILD_NAMES =
+      "SELECT DISTINCT jenkins_project, " + SQL_SUB_BUILD_LABELS + " FROM " + TB_JENKINS_BUILDS;
+
+  /** Names of all test cases, whose columns lead the test_results_test index. */
+  private static final String SQL_TEST_CASE_NAMES =
+      "SELECT DISTINCT test_full_name, jenkins_project, "
+          + SQL_SUB_BUILD_LABELS
+          + " FROM "
+          + TB_TEST_RESULTS;
+
+  private static final String SQL_TEST_CASE_DETAILS =
+      "SELECT build_number, start_time, duration, result, url FROM "
+          + TB_TEST_RESULTS
+          + SQL_IN_RANGE
+          + "AND jenkins_project = ? AND sub_build_labels = ? AND test_full_name = ?";
+
+  /** Maximum number of failure signatures returned by getFailureSignatures. */
+  private static final int MAX_FAILURE_SIGNATURES = 200;
+
+  private static final String SQL_FAILURE_SIGNATURES =
+      "SELECT fs.summary, fs.signature, g.* FROM "
+          + "(SELECT signature_id, "
+          + "COUNT(*) AS failure_count, "
+          + "COUNT(DISTINCT test_full_name) AS test_count, "
+          + "COUNT(DISTINCT jenkins_project || CHAR(0) || sub_build_labels || CHAR(0) || "
+          + "build_number) AS build_count, "
+          + "MAX(start_time) AS last_time FROM "
+          + TB_TEST_RESULTS
+          + SQL_IN_RANGE
+          + "AND signature_id IS NOT NULL "
+          + "GROUP BY signature_id "
+          + "ORDER BY failure_count DESC LIMIT "
+          + MAX_FAILURE_SIGNATURES
+          + ") g JOIN "
+          + TB_FAILURE_SIGNATURES
+          + " fs ON fs.id = g.signature_id "
+          + "ORDER BY g.failure_count DESC";
+
+  private static final String SQL_FAILURE_SIGNATURE_TESTS =
+      "SELECT test_full_name, jenkins_project, "
+          + SQL_SUB_BUILD_LABELS
+          + ", COUNT(*) AS failure_count, "
+          + "MAX(build_number) AS last_build_number FROM "
+          + TB_TEST_RESULTS
+          + SQL_IN_RANGE
+          + "AND signature_id = ? "
+          + "GROUP BY test_full_name, jenkins_project, sub_build_labels "
+          + "ORDER BY failure_count DESC, test_full_name ASC";
+
+  private final String url;
+
+  /** Whether the tables were created since the store was opened. Guarded by this. */
+  private boolean tablesCreated = false;
+
+  private final RetryingTransaction.ConnectionSource connectionSource =
+      new RetryingTransaction.ConnectionSource() {
+        @Override
+        public Connection getConnection() throws SQLException {
+          return EmbeddedResultsStore.this.getConnection();
+        }
+      };
+
+  /** Opens the store in the given directory. Files are created on first use. */
+  EmbeddedResultsStore(File dir) {
+    // The database stays open until the store is closed, not just while connections are open.
+    this.url =
+        "jdbc:h2:file:" + new File(dir, DB_FILE_NAME).getAbsolutePath() + ";DB_CLOSE_DELAY=-1";
+  }
+
+  @Override
+  public synchronized int write(
+      final List<JenkinsBuildRecord> jenkinsBuilds,
+      final Iterable<TestResultRecord> testResults,
+      RetryingTransaction.Timings timings)
+      throws SQLException, InterruptedException {
+    final int[] numTestResults = new int[1];
+    RetryingTransaction.run(
+        connectionSource,
+        new RetryingTransaction.Work() {
+          @Override
+          public void run(Connection conn) throws SQLException {
+            writeJenkinsBuilds(conn, jenkinsBuilds);
+            numTestResults[0] = writeTestResults(conn, testResults.iterator());
+          }
+        },
+        timings);
+    return numTestResults[0];
+  }
+
+  @Override
+  public JSONArray getJenkinsBuildStats(long startMs, long endMs) throws SQLException {
+    JSONArray items = new JSONArray();
+    query(
+        SQL_JENKINS_BUILDS,
+        new Object[] {new Timestamp(startMs), new Timestamp(endMs)},
+        new String[] {
+          "jenkins_project",
+          "sub_build_labels",
+          "avg",
+          "min",
+          "max",
+          "std",
+          "count",
+          "success_count",
+          "unstable_count",
+          "failure_count",
+          "aborted_count"
+        },
+        items);
+    return items;
+  }
+
+  @Override
+  public String getJenkinsBuildDetails(
+      long startMs,
+      long endMs,
+      String jenkinsProject,
+      String subBuildLabels,
+      ResultsPage page,
+      JsonArrayWriter out)
+      throws SQLException, IOException {
+    List<Object> params = new ArrayList<>();
+    params.add(new Timestamp(startMs));
+    params.add(new Timestamp(endMs));
+    params.add(jenkinsProject);
+    params.add(subBuildLabels);
+    String sql = SQL_BUILD_DETAILS + page.getRunsSql("build_number", "result", params);
+    return stream(sql, params, RUN_COLS, page, out);
+  }
+
+  @Override
+  public JSONArray getAvailableJenkinsBuilds(long startMs, long endMs) throws SQLException {
+    JSONArray builds = new JSONArray();
+    query(
+        SQL_AVAILABLE_JENKINS_BUILDS,
+        new Object[] {new Timestamp(startMs), new Timestamp(endMs)},
+        new String[] {"jenkins_project", "sub_build_labels"},
+        builds);
+    return builds;
+  }
+
+  @Override
+  public void getTestStats(long startMs, long endMs, JSONArray failedTests, JSONArray longestTests)
+      throws SQLException {
+    // Both lists are picked from one pass over the stats of all test cases.
+    TestCaseStats.Selector selector = new TestCaseStats.Selector(NUM_LONGEST_TESTS);
+    Connection conn = getConnection();
+    try {
+      PreparedStatement ps = conn.prepareStatement(SQL_TEST_STATS);
+      try {
+        ps.setTimestamp(1, new Timestamp(startMs));
+        ps.setTimestamp(2, new Timestamp(endMs));
+        ResultSet rs = ps.executeQuery();
+        while (rs.next()) {
+          selector.add(
+              new TestCaseStats(
+                  rs.getString("test_full_name"),
+                  rs.getString("jenkins_project"),
+                  rs.getString("sub_build_labels"),
+                  rs.getLong("count"),
+                  rs.getLong("failed_count"),
+                  rs.getDouble("sum_duration"),
+                  rs.getFloat("min_duration"),
+                  rs.getFloat("max_duration")));
+        }
+      } finally {
+        ps.close();
+      }
+      addDurations(conn, startMs, endMs, selector.getLongest());
+    } finally {
+      conn.close();
+    }
+    selector.writeTo(failedTests, longestTests);
+  }
+
+  // Adds the durations of the given test cases in the given time range to their distributions.
+  private static void addDurations(
+      Connection conn, long startMs, long endMs, List<TestCaseStats> tests) throws SQLException {
+    if (tests.isEmpty()) {
+      return;
+    }
+    Map<String, TestCaseStats> byKey = new HashMap<>();
+    StringBuilder sql = new StringBuilder(SQL_TEST_DURATIONS).append("(");
+    for (TestCaseStats test : tests) {
+      sql.append(byKey.isEmpty() ? "?" : ",?");
+      byKey.put(test.getNameKey(), test);
+    }
+    PreparedStatement ps = conn.prepareStatement(sql.append(")").toString());
+    try {
+      ps.setTimestamp(1, new Timestamp(startMs));
+      ps.setTimestamp(2, new Timestamp(endMs));
+      for (int i = 0; i < tests.size(); i++) {
+        ps.setString(i + 3, tests.get(i).getTestFullName());
+      }
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        TestCaseStats test =
+            byKey.get(
+                TestCaseStats.getNameKey(
+                    rs.getString("test_full_name"),
+                    rs.getString("jenkins_project"),
+                    rs.getString("sub_build_labels")));
+        if (test != null) {
+          test.addDuration(rs.getFloat("duration"));
+        }
+      }
+    } finally {
+      ps.close();
+    }
+  }
+
+  @Override
+  public String getTestCaseDetails(
+      long startMs,
+      long endMs,
+      String testFullName,
+      String jenkinsProject,
+      String subBuildLabels,
+      ResultsPage page,
+      JsonArrayWriter out)
+      throws SQLException, IOException {
+    List<Object> params = new ArrayList<>();
+    params.add(new Timestamp(startMs));
+    params.add(new Timestamp(endMs));
+    params.add(jenkinsProject);
+    params.add(subBuildLabels);
+    params.add(testFullName);
+    String sql = SQL_TEST_CASE_DETAILS + page.getRunsSql("build_number", "result", params);
+    return stream(sql, params, RUN_COLS, page, out);
+  }
+
+  @Override
+  public void getNames(NameHandler handler) throws SQLException {
+    Connection conn = getConnection();
+    try {
+      Statement stmt = conn.createStatement();
+      try {
+        ResultSet rs = stmt.executeQuery(SQL_JENKINS_BUILD_NAMES);
+        while (rs.next()) {
+          handler.addJenkinsBuild(rs.getString(1), rs.getString(2));
+        }
+        rs = stmt.executeQuery(SQL_TEST_CASE_NAMES);
+        while (rs.next()) {
+          handler.addTestCase(rs.getString(1), rs.getString(2), rs.getString(3));
+        }
+      } finally {
+        stmt.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+
+  @Override
+  public long getSummarizedEndMs() {
+    // Nothing is downsampled.
+    return 0;
+  }
+
+  @Override
+  public JSONArray getFailureSignatures(long startMs, long endMs) throws SQLException {
+    JSONArray signatures = new JSONArray();
+    query(
+        SQL_FAILURE_SIGNATURES,
+        new Object[] {new Timestamp(startMs), new Timestamp(endMs)},
+        new String[] {
+          "signature_id",
+          "summary",
+          "signature",
+          "failure_count",
+          "test_count",
+          "build_count",
+          "last_time"
+        },
+        signatures);
+    return signatures;
+  }
+
+  @Override
+  public JSONArray getFailureSignatureTests(long startMs, long endMs, int signatureId)
+      throws SQLException {
+    JSONArray tests = new JSONArray();
+    query(
+        SQL_FAILURE_SIGNATURE_TESTS,
+        new Object[] {new Timestamp(startMs), new Timestamp(endMs), signatureId},
+        new String[] {
+          "test_full_name",
+          "jenkins_project",
+          "sub_build_labels",
+          "failure_count",
+          "last_build_number"
+        },
+        tests);
+    return tests;
+  }
+
+  /** Closes the database. It is opened again by the next use. */
+  @Override
+  public synchronized void close() {
+    if (!tablesCreated) {
+      return;
+    }
+    try {
+      Connection conn = getConnection();
+      try {
+        conn.createStatement().execute("SHUTDOWN");
+      } finally {
+        conn.close();
+      }
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Failed to close embedded database: " + e.getMessage());
+    }
+    tablesCreated = false;
+  }
+
+  // Opens a connection to the database, creating its tables first if needed.
+  private synchronized Connection getConnection() throws SQLException {
+    try {
+      Class.forName(DRIVER);
+    } catch (ClassNotFoundException e) {
+      throw new SQLException("Embedded database driver not found", e);
+    }
+    Connection conn = DriverManager.getConnection(url, "sa", "");
+    if (!tablesCreated) {
+      try {
+        Statement stmt = conn.createStatement();
+        for (String sql : SQL_CREATE_TABLES) {
+          stmt.execute(sql);
+        }
+        stmt.close();
+      } catch (SQLException e) {
+        conn.close();
+        throw e;
+      }
+      tablesCreated = true;
+    }
+    return conn;
+  }
+
+  private static void writeJenkinsBuilds(Connection conn, List<JenkinsBuildRecord> records)
+      throws SQLException {
+    if (records.isEmpty()) {
+      return;
+    }
+    PreparedStatement ps = conn.prepareStatement(SQL_MERGE_JENKINS_BUILD);
+    try {
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      for (JenkinsBuildRecord record : records) {
+        ps.setString(1, record.getJenkinsProject());
+        ps.setString(2, getSubBuildLabels(record.getSubBuildLabels()));
+        ps.setInt(3, record.getBuildNumber());
+        ps.setString(4, record.getNode());
+        ps.setTimestamp(5, new Timestamp(record.getStartTimeMs()));
+        ps.setInt(6, record.getDurationSec());
+        ps.setString(7, record.getResult());
+        ps.setString(8, record.getUrl());
+        ps.setTimestamp(9, now);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } finally {
+      ps.close();
+    }
+  }
+
+  // Writes the given test results and returns their number.
+  private static int writeTestResults(Connection conn, Iterator<TestResultRecord> records)
+      throws SQLException {
+    Map<String, Integer> signatureIds = new HashMap<>();
+    PreparedStatement ps = conn.prepareStatement(SQL_MERGE_TEST_RESULT);
+    int count = 0;
+    try {
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      while (records.hasNext()) {
+        TestResultRecord record = records.next();
+        ps.setString(1, record.getJenkinsProject());
+        ps.setString(2, getSubBuildLabels(record.getSubBuildLabels()));
+        ps.setInt(3, record.getBuildNumber());
+        ps.setString(4, record.getTestFullName());
+        ps.setTimestamp(5, new Timestamp(record.getStartTimeMs()));
+        ps.setFloat(6, record.getDuration());
+        ps.setString(7, record.getResult());
+        ps.setString(8, record.getUrl());
+        if (record.getFailureSignature() == null) {
+          ps.setNull(9, java.sql.Types.INTEGER);
+        } else {
+          ps.setInt(9, getSignatureId(conn, record, signatureIds));
+        }
+        ps.setTimestamp(10, now);
+        ps.addBatch();
+        if (++count % 1000 == 0) {
+          ps.executeBatch();
+        }
+      }
+      ps.executeBatch();
+    } finally {
+      ps.close();
+    }
+    return count;
+  }
+
+  // Returns the id of the failure signature of the given record, adding it if it's new.
+  private static int getSignatureId(
+      Connection conn, TestResultRecord record, Map<String, Integer> signatureIds)
+      throws SQLException {
+    Integer id = signatureIds.get(record.getFailureSignature());
+    if (id != null) {
+      return id;
+    }
+    PreparedStatement ps =
+        conn.prepareStatement("SELECT id FROM " + TB_FAILURE_SIGNATURES + " WHERE signature = ?");
+    try {
+      ps.setString(1, record.getFailureSignature());
+      ResultSet rs = ps.executeQuery();
+      if (rs.next()) {
+        id = rs.getInt(1);
+      }
+    } finally {
+      ps.close();
+    }
+    if (id == null) {
+      ps =
+          conn.prepareStatement(
+              "INSERT INTO " + TB_FAILURE_SIGNATURES + " (signature, summary) VALUES (?, ?)",
+              Statement.RETURN_GENERATED_KEYS);
+      try {
+        ps.setString(1, record.getFailureSignature());
+        ps.setString(2, record.getFailureSummary());
+        ps.executeUpdate();
+        ResultSet rs = ps.getGeneratedKeys();
+        if (!rs.next()) {
+          throw new SQLException("No id generated for failure signature");
+        }
+        id = rs.getInt(1);
+      } finally {
+        ps.close();
+      }
+    }
+    signatureIds.put(record.getFailureSignature(), id);
+    return id;
+  }
+
+  private static String getSubBuildLabels(String subBuildLabels) {
+    return subBuildLabels == null ? ROOT_BUILD_LABELS : subBuildLabels;
+  }
+
+  // Adds the rows of the given query to the given results.
+  private void query(String sql, Object[] params, String[] cols, JSONArray results)
+      throws SQLException {
+    Connection conn = getConnection();
+    try {
+      PreparedStatement ps = conn.prepareStatement(sql);
+      try {
+        for (int i = 0; i < params.length; i++) {
+          ps.setObject(i + 1, params[i]);
+        }
+        Util.addRows(ps.executeQuery(), cols, results);
+      } finally {
+        ps.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+
+  // Writes the runs of the given query of a page to the given writer as they are read, and returns
+  // the cursor of the next page, made of the build number of the last row. Large results are
+  // buffered on disk by the database, not in memory.
+  private String stream(
+      String sql, List<Object> params, String[] cols, ResultsPage page, JsonArrayWriter out)
+      throws SQLException, IOException {
+    Connection conn = getConnection();
+    try {
+      PreparedStatement ps = conn.prepareStatement(sql);
+      try {
+        for (int i = 0; i < params.size(); i++) {
+          ps.setObject(i + 1, params.get(i));
+        }
+        ResultSet rs = ps.executeQuery();
+        int count = 0;
+        while (rs.next()) {
+          out.add(rs, cols);
+          if (++count == page.getLimit()) {
+            return ResultsPage.getCursor(rs.getInt("build_number"));
+          }
+        }
+        return null;
+      } finally {
+        ps.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.util.regex.Pattern;
+
+/**
+ * Fingerprints of test failures. Failures with the same root cause usually have the same error and
+ * stack trace up to details that change from run to run: line numbers, object addresses and
+ * timestamps. Those are stripped, so such failures get the same signature.
+ */
+class FailureSignature {
+  /** Maximum number of stack frames in a signature. Deeper frames rarely tell causes apart. */
+  private static final int MAX_FRAMES = 20;
+
+  /** Maximum length of a signature. */
+  private static final int MAX_SIGNATURE_LENGTH = 8000;
+
+  /** Maximum length of the summary of a failure. */
+  private static final int MAX_SUMMARY_LENGTH = 1024;
+
+  /** Dates and times, e.g. "2016-05-04T10:11:12.123Z" or "10:11:12". */
+  private static final Pattern TIMESTAMP =
+      Pattern.compile(
+          "\\d{4}[-/]\\d{2}[-/]\\d{2}"
+              + "([T ]\\d{2}:\\d{2}(:\\d{2}([.,]\\d+)?)?(Z|[+-]\\d{2}:?\\d{2})?)?"
+              + "|\\b\\d{2}:\\d{2}:\\d{2}([.,]\\d+)?");
+
+  /** Hexadecimal addresses and identity hash codes, e.g. "0x7f3a" or "Foo@1b6d3586". */
+  private static final Pattern ADDRESS = Pattern.compile("0x[0-9a-fA-F]+|@[0-9a-fA-F]{4,}\\b");
+
+  /** Line numbers of stack frames and compiler messages, e.g. "Foo.java:42". */
+  private static final Pattern LINE_NUMBER = Pattern.compile("(\\.\\w+):\\d+(:\\d+)?");
+
+  /** Stack trace lines that only say how many frames were elided. */
+  private static final Pattern MORE_FRAMES = Pattern.compile("\\.\\.\\. \\d+ (more|common frames)");
+
+  private FailureSignature() {}
+
+  /**
+   * Returns the signature of a failure with the given error details and stack trace, either of
+   * which may be null. Failures without either all get the empty signature.
+   */
+  static String normalize(String errorDetails, String stackTrace) {
+    String text = isEmpty(stackTrace) ? errorDetails : stackTrace;
+    if (isEmpty(text)) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder();
+    int frames = 0;
+    for (String line : text.split("\r?\n")) {
+      line = line.trim();
+      if (line.isEmpty() || MORE_FRAMES.matcher(line).find()) {
+        continue;
+      }
+      if (line.startsWith("at ") && ++frames > MAX_FRAMES) {
+        continue;
+      }
+      line = TIMESTAMP.matcher(line).replaceAll("<time>");
+      line = ADDRESS.matcher(line).replaceAll("<addr>");
+      line = LINE_NUMBER.matcher(line).replaceAll("$1");
+      sb.append(line).append('\n');
+      if (sb.length() >= MAX_SIGNATURE_LENGTH) {
+        sb.setLength(MAX_SIGNATURE_LENGTH);
+        break;
+      }
+    }
+    return sb.toString();
+  }
+
+  /** Returns a one line summary of a failure, for display. */
+  static String summarize(String errorDetails, String stackTrace) {
+    String text = isEmpty(errorDetails) ? stackTrace : errorDetails;
+    if (isEmpty(text)) {
+      return "";
+    }
+    String line = text.trim().split("\r?\n", 2)[0];
+    return line.length() > MAX_SUMMARY_LENGTH ? line.substring(0, MAX_SUMMARY_LENGTH) : line;
+  }
+
+  private static boolean isEmpty(String s) {
+    return s == null || s.trim().isEmpty();
+  }
+}
@@ -0,0 +1,119 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * A thread safe histogram of non-negative values, with fixed buckets on a 1-2-5 scale (1, 2, 5,
+ * 10, 20, 50, ...). Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+class Histogram {
+  /** Upper bounds (inclusive) of the buckets. A last bucket holds everything larger. */
+  private static final long[] BOUNDS = createBounds(1000L * 1000 * 1000);
+
+  /** A set of keys in the json object returned by toJson. */
+  private static final String KEY_COUNT = "count";
+  private static final String KEY_MEAN = "mean";
+  private static final String KEY_MAX = "max";
+  private static final String KEY_P50 = "p50";
+  private static final String KEY_P90 = "p90";
+  private static final String KEY_P99 = "p99";
+  private static final String KEY_BUCKETS = "buckets";
+  private static final String KEY_BUCKET_BOUND = "le";
+  private static final String KEY_BUCKET_COUNT = "count";
+
+  private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /** Adds a value. Negative values are counted as 0. */
+  void record(long value) {
+    value = Math.max(value, 0);
+    counts.incrementAndGet(getBucket(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long curMax;
+    while (value > (curMax = max.get()) && !max.compareAndSet(curMax, value)) {}
+  }
+
+  long getCount() {
+    return count.get();
+  }
+
+  long getMax() {
+    return max.get();
+  }
+
+  double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /** Returns the upper bound of the bucket of the given percentile (0-100), 0 if empty. */
+  long getPercentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(n * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < BOUNDS.length; i++) {
+      seen += counts.get(i);
+      if (seen >= Math.max(rank, 1)) {
+        return Math.min(BOUNDS[i], max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /** Returns a summary of the histogram and its non-empty buckets. */
+  JSONObject toJson() {
+    JSONObject ret = new JSONObject();
+    ret.put(KEY_COUNT, getCount());
+    ret.put(KEY_MEAN, getMean());
+    ret.put(KEY_MAX, getMax());
+    ret.put(KEY_P50, getPercentile(50));
+    ret.put(KEY_P90, getPercentile(90));
+    ret.put(KEY_P99, getPercentile(99));
+    JSONArray buckets = new JSONArray();
+    for (int i = 0; i <= BOUNDS.length; i++) {
+      long c = counts.get(i);
+      if (c > 0) {
+        JSONObject bucket = new JSONObject();
+        // -1 stands for "larger than the largest bound".
+        bucket.put(KEY_BUCKET_BOUND, i < BOUNDS.length ? BOUNDS[i] : -1);
+        bucket.put(KEY_BUCKET_COUNT, c);
+        buckets.add(bucket);
+      }
+    }
+    ret.put(KEY_BUCKETS, buckets);
+    return ret;
+  }
+
+  private static int getBucket(long value) {
+    for (int i = 0; i < BOUNDS.length; i++) {
+      if (value <= BOUNDS[i]) {
+        return i;
+      }
+    }
+    return BOUNDS.length;
+  }
+
+  private static long[] createBounds(long limit) {
+    int n = 0;
+    for (long b = 1; b <= limit; b *= 10) {
+      n += 3;
+    }
+    long[] bounds = new long[n];
+    int i = 0;
+    for (long b = 1; b <= limit; b *= 10) {
+      bounds[i++] = b;
+      bounds[i++] = 2 * b;
+      bounds[i++] = 5 * b;
+    }
+    return bounds;
+  }
+}
@@ -0,0 +1,111 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.json.JSONObject;
+
+/**
+ * Metrics of writes to the database: how long they waited in the ingest queue, how long it took to
+ * get a connection, write and commit, how big they were and how many failed.
+ *
+ * <p>The plugin keeps cumulative metrics since Jenkins started; every build that sends test results
+ * also gets its own, which are summarized in its console output.
+ */
+class IngestMetrics {
+  /** A set of keys in the json object returned by toJson. */
+  private static final String KEY_SINCE_TIME = "sinceTime";
+  private static final String KEY_TRANSACTIONS = "transactions";
+  private static final String KEY_ROWS = "rows";
+  private static final String KEY_RETRIES = "retries";
+  private static final String KEY_FAILURES = "failures";
+  private static final String KEY_FAILED_ROWS = "failedRows";
+  private static final String KEY_LAST_FAILURE_TIME = "lastFailureTime";
+  private static final String KEY_LAST_ERR = "lastErrMsg";
+  private static final String KEY_QUEUE_WAIT_MS = "queueWaitMs";
+  private static final String KEY_CONNECT_MS = "connectMs";
+  private static final String KEY_WRITE_MS = "writeMs";
+  private static final String KEY_COMMIT_MS = "commitMs";
+  private static final String KEY_BATCH_ROWS = "batchRows";
+  private static final String KEY_ROWS_PER_SEC = "rowsPerSec";
+
+  private final long sinceMs = System.currentTimeMillis();
+
+  private final Histogram queueWaitMs = new Histogram();
+  private final Histogram connectMs = new Histogram();
+  private final Histogram writeMs = new Histogram();
+  private final Histogram commitMs = new Histogram();
+  private final Histogram batchRows = new Histogram();
+  private final Histogram rowsPerSec = new Histogram();
+
+  private final AtomicLong transactions = new AtomicLong();
+  private final AtomicLong rows = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong failedRows = new AtomicLong();
+  private volatile long lastFailureMs = -1;
+  private volatile String lastErrMsg = "";
+
+  /**
+   * Records a committed transaction of the given number of rows, which waited the given time before
+   * it started.
+   */
+  void recordSuccess(int numRows, long queueWait, RetryingTransaction.Timings timings) {
+    transactions.incrementAndGet();
+    rows.addAndGet(numRows);
+    retries.addAndGet(timings.getAttempts() - 1);
+    queueWaitMs.record(queueWait);
+    connectMs.record(timings.getConnectMs());
+    writeMs.record(timings.getWriteMs());
+    commitMs.record(timings.getCommitMs());
+    batchRows.record(numRows);
+    rowsPerSec.record(numRows * 1000L / Math.max(timings.getTotalMs(), 1));
+  }
+
+  /** Records a transaction that failed for good. */
+  void recordFailure(
+      int numRows, long queueWait, RetryingTransaction.Timings timings, String errMsg) {
+    failures.incrementAndGet();
+    failedRows.addAndGet(numRows);
+    retries.addAndGet(Math.max(timings.getAttempts() - 1, 0));
+    queueWaitMs.record(queueWait);
+    lastFailureMs = System.currentTimeMillis();
+    lastErrMsg = errMsg == null ? "" : errMsg;
+  }
+
+  /** Returns a one line summary for build console output. */
+  String getSummary() {
+    return String.format(
+        "%d transactions, %d rows, %d retries, %d failed. "
+            + "p50/max: queue wait %d/%d ms, connect %d/%d ms, commit %d/%d ms, %d/%d rows/s",
+        transactions.get(),
+        rows.get(),
+        retries.get(),
+        failures.get(),
+        queueWaitMs.getPercentile(50),
+        queueWaitMs.getMax(),
+        connectMs.getPercentile(50),
+        connectMs.getMax(),
+        commitMs.getPercentile(50),
+        commitMs.getMax(),
+        rowsPerSec.getPercentile(50),
+        rowsPerSec.getMax());
+  }
+
+  JSONObject toJson() {
+    JSONObject ret = new JSONObject();
+    ret.put(KEY_SINCE_TIME, sinceMs);
+    ret.put(KEY_TRANSACTIONS, transactions.get());
+    ret.put(KEY_ROWS, rows.get());
+    ret.put(KEY_RETRIES, retries.get());
+    ret.put(KEY_FAILURES, failures.get());
+    ret.put(KEY_FAILED_ROWS, failedRows.get());
+    ret.put(KEY_LAST_FAILURE_TIME, lastFailureMs);
+    ret.put(KEY_LAST_ERR, lastErrMsg);
+    ret.put(KEY_QUEUE_WAIT_MS, queueWaitMs.toJson());
+    ret.put(KEY_CONNECT_MS, connectMs.toJson());
+    ret.put(KEY_WRITE_MS, writeMs.toJson());
+    ret.put(KEY_COMMIT_MS, commitMs.toJson());
+    ret.put(KEY_BATCH_ROWS, batchRows.toJson());
+    ret.put(KEY_ROWS_PER_SEC, rowsPerSec.toJson());
+    return ret;
+  }
+}
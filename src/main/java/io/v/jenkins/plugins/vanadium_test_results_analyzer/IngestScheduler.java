@@ -0,0 +1,264 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import io.v.jenkins.plugins.vanadium_test_results_analyzer.TestResultsSender.TestResultsSenderEventHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plugin-wide scheduler for sending test results.
+ *
+ * <p>All builds on the controller share one bounded set of worker threads. Each build's records are
+ * cut into transactions of {@link #TARGET_BATCH_ROWS} rows ({@link #TARGET_BULK_BATCH_ROWS} with
+ * bulk load) regardless of how they are spread over test classes: small classes are coalesced and
+ * large classes are split. At most {@link #MAX_PENDING_BATCHES} batches can be queued or running at
+ * a time; builds producing more block until a slot frees up, so a burst of builds slows down
+ * instead of piling up on the database. A single build never has more than {@link
+ * #MAX_PENDING_BATCHES_PER_SUBMISSION} batches in flight, so the records it holds in memory stay
+ * bounded however big its test report is.
+ */
+class IngestScheduler {
+  /** Number of rows sent in one transaction. */
+  static final int TARGET_BATCH_ROWS = 1000;
+
+  /**
+   * Number of rows sent in one transaction with bulk load. Large enough for most builds to be
+   * loaded in one go.
+   */
+  static final int TARGET_BULK_BATCH_ROWS = 20000;
+
+  /** Number of worker threads. Kept below the connection pool size to leave room for dashboards. */
+  private static final int WORKER_THREADS = 8;
+
+  /** Maximum number of batches queued or running across all builds. */
+  private static final int MAX_PENDING_BATCHES = 4 * WORKER_THREADS;
+
+  /** Maximum number of batches of one build queued or running. */
+  private static final int MAX_PENDING_BATCHES_PER_SUBMISSION = 4;
+
+  private static final long WORKER_KEEP_ALIVE_SEC = 60;
+
+  /** How often builds waiting for a batch slot check whether the scheduler was shut down. */
+  private static final long SHUTDOWN_CHECK_MS = 1000;
+
+  /** Error of the batches that were never sent because the scheduler was shut down. */
+  private static final String SHUTDOWN_ERR_MSG = "Not sent: Jenkins or the plugin is stopping";
+
+  private final ThreadPoolExecutor executor;
+
+  /** One permit per batch that may be queued or running. Fair, so builds take turns. */
+  private final Semaphore slots = new Semaphore(MAX_PENDING_BATCHES, true);
+
+  private volatile boolean shutdown = false;
+
+  IngestScheduler() {
+    executor =
+        new ThreadPoolExecutor(
+            WORKER_THREADS,
+            WORKER_THREADS,
+            WORKER_KEEP_ALIVE_SEC,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+              private final AtomicInteger count = new AtomicInteger();
+
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t =
+                    new Thread(
+                        r,
+                        "Vanadium Test Results Analyzer ingest worker "
+                            + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+              }
+            });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Starts sending the records of one build. */
+  Submission newSubmission(boolean bulkLoad) {
+    return new Submission(bulkLoad);
+  }
+
+  /** Returns the number of batches currently queued or running. */
+  int getPendingBatches() {
+    return MAX_PENDING_BATCHES - slots.availablePermits();
+  }
+
+  /** Returns the number of threads blocked because all batch slots are taken. */
+  int getBlockedSubmitters() {
+    return slots.getQueueLength();
+  }
+
+  /**
+   * Stops the workers. Batches that haven't started fail, so the builds waiting for them finish,
+   * and so do batches added later.
+   */
+  void shutdown() {
+    shutdown = true;
+    // Queued runnables are the senders themselves, as they are passed to execute.
+    for (Runnable dropped : executor.shutdownNow()) {
+      ((TestResultsSender) dropped).cancel(SHUTDOWN_ERR_MSG);
+    }
+  }
+
+  // Queues a batch, blocking while all slots are taken. Returns false if the scheduler was shut
+  // down, in which case the batch isn't queued.
+  private boolean submit(final TestResultsSender sender) throws InterruptedException {
+    while (!slots.tryAcquire(SHUTDOWN_CHECK_MS, TimeUnit.MILLISECONDS)) {
+      if (shutdown) {
+        return false;
+      }
+    }
+    try {
+      executor.execute(sender);
+      return true;
+    } catch (RejectedExecutionException e) {
+      slots.release();
+      if (executor.isShutdown()) {
+        return false;
+      }
+      throw e;
+    } catch (RuntimeException e) {
+      slots.release();
+      throw e;
+    }
+  }
+
+  /**
+   * The records of one build. Records are added as they are collected; full batches are sent
+   * right away.
+   */
+  class Submission {
+    private final int batchRows;
+    private List<TestResultRecord> buffer = new ArrayList<>();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    private int numRecords = 0;
+    private int pendingBatches = 0;
+    private final IngestMetrics metrics = new IngestMetrics();
+
+    private Submission(boolean bulkLoad) {
+      this.batchRows = bulkLoad ? TARGET_BULK_BATCH_ROWS : TARGET_BATCH_ROWS;
+    }
+
+    /**
+     * Pulls all records from the given iterator and sends them as batches fill up. Blocks while the
+     * scheduler is saturated or this build has too many batches in flight, so records are only
+     * pulled as fast as they can be written.
+     */
+    void addAll(Iterator<TestResultRecord> records) throws InterruptedException {
+      while (records.hasNext()) {
+        buffer.add(records.next());
+        numRecords++;
+        if (buffer.size() >= batchRows) {
+          flush();
+        }
+      }
+    }
+
+    /**
+     * Sends the remaining records and waits until all batches are done or the timeout expires.
+     * Returns false on timeout.
+     */
+    boolean finish(long timeout, TimeUnit unit) throws InterruptedException {
+      flush();
+      long deadlineMs = System.currentTimeMillis() + unit.toMillis(timeout);
+      synchronized (this) {
+        while (pendingBatches > 0) {
+          long remainingMs = deadlineMs - System.currentTimeMillis();
+          if (remainingMs <= 0) {
+            return false;
+          }
+          wait(remainingMs);
+        }
+      }
+      return true;
+    }
+
+    /** Returns the number of records added so far. */
+    int getNumRecords() {
+      return numRecords;
+    }
+
+    /** Returns the metrics of the batches sent so far. */
+    IngestMetrics getMetrics() {
+      return metrics;
+    }
+
+    /** Returns the error messages of failed batches. */
+    List<String> getErrors() {
+      return new ArrayList<>(errors);
+    }
+
+    private void flush() throws InterruptedException {
+      if (buffer.isEmpty()) {
+        return;
+      }
+      final List<TestResultRecord> batch = buffer;
+      buffer = new ArrayList<>();
+      synchronized (this) {
+        while (pendingBatches >= MAX_PENDING_BATCHES_PER_SUBMISSION) {
+          // Batches in flight finish when the scheduler is shut down, but one stuck in a write
+          // may not, so don't wait for them then.
+          if (shutdown) {
+            addError(batch, SHUTDOWN_ERR_MSG);
+            return;
+          }
+          wait(SHUTDOWN_CHECK_MS);
+        }
+        pendingBatches++;
+      }
+      TestResultsSender sender =
+          new TestResultsSender(
+              batch,
+              metrics,
+              new TestResultsSenderEventHandler() {
+                @Override
+                public void onFinish(String errMsg) {
+                  slots.release();
+                  if (!errMsg.isEmpty()) {
+                    addError(batch, errMsg);
+                  }
+                  synchronized (Submission.this) {
+                    pendingBatches--;
+                    Submission.this.notifyAll();
+                  }
+                }
+              });
+      boolean submitted;
+      try {
+        submitted = submit(sender);
+      } catch (InterruptedException | RuntimeException e) {
+        synchronized (this) {
+          pendingBatches--;
+        }
+        throw e;
+      }
+      if (!submitted) {
+        synchronized (this) {
+          pendingBatches--;
+        }
+        addError(batch, SHUTDOWN_ERR_MSG);
+      }
+    }
+
+    private void addError(List<TestResultRecord> batch, String errMsg) {
+      errors.add(
+          String.format(
+              "%d test results (%s ... %s): %s",
+              batch.size(),
+              batch.get(0).getTestFullName(),
+              batch.get(batch.size() - 1).getTestFullName(),
+              errMsg));
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/** A row of the {@link VTestResultsAnalyzerMgmtLink#TB_JENKINS_BUILDS} table. */
+public class JenkinsBuildRecord {
+  private final String jenkinsProject;
+  private final String projectUrl;
+  private final int buildNumber;
+  private final String subBuildLabels;
+  private final String subBuildUrlName;
+  private final String node;
+  private final long startTimeMs;
+  private final int durationSec;
+  private final String result;
+
+  public JenkinsBuildRecord(
+      String jenkinsProject,
+      String projectUrl,
+      int buildNumber,
+      String subBuildLabels,
+      String subBuildUrlName,
+      String node,
+      long startTimeMs,
+      int durationSec,
+      String result) {
+    this.jenkinsProject = jenkinsProject;
+    this.projectUrl = projectUrl;
+    this.buildNumber = buildNumber;
+    this.subBuildLabels = subBuildLabels;
+    this.subBuildUrlName = subBuildUrlName;
+    this.node = node;
+    this.startTimeMs = startTimeMs;
+    this.durationSec = durationSec;
+    this.result = result;
+  }
+
+  public String getJenkinsProject() {
+    return jenkinsProject;
+  }
+
+  /** Returns the url of the (root) project relative to Jenkins root, e.g. "job/foo/". */
+  public String getProjectUrl() {
+    return projectUrl;
+  }
+
+  public int getBuildNumber() {
+    return buildNumber;
+  }
+
+  /** Returns the sub build labels, or null for root builds. */
+  public String getSubBuildLabels() {
+    return subBuildLabels;
+  }
+
+  /**
+   * Returns the url of the sub build's configuration relative to its project, e.g. "OS=linux/", or
+   * null for root builds.
+   */
+  public String getSubBuildUrlName() {
+    return subBuildUrlName;
+  }
+
+  public String getNode() {
+    return node;
+  }
+
+  public long getStartTimeMs() {
+    return startTimeMs;
+  }
+
+  public int getDurationSec() {
+    return durationSec;
+  }
+
+  public String getResult() {
+    return result;
+  }
+
+  /** Returns the url of the build relative to Jenkins root. */
+  public String getUrl() {
+    return getBuildUrl(projectUrl, subBuildUrlName, buildNumber);
+  }
+
+  /** Returns the url of a build from its parts, as also done by the dashboard queries. */
+  static String getBuildUrl(String projectUrl, String subBuildUrlName, int buildNumber) {
+    return projectUrl + (subBuildUrlName == null ? "" : subBuildUrlName) + buildNumber + "/";
+  }
+
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeUTF(jenkinsProject);
+    out.writeUTF(projectUrl);
+    out.writeInt(buildNumber);
+    Util.writeNullableUTF(out, subBuildLabels);
+    Util.writeNullableUTF(out, subBuildUrlName);
+    out.writeUTF(node);
+    out.writeLong(startTimeMs);
+    out.writeInt(durationSec);
+    out.writeUTF(result);
+  }
+
+  static JenkinsBuildRecord readFrom(DataInputStream in) throws IOException {
+    return new JenkinsBuildRecord(
+        in.readUTF(),
+        in.readUTF(),
+        in.readInt(),
+        Util.readNullableUTF(in),
+        Util.readNullableUTF(in),
+        in.readUTF(),
+        in.readLong(),
+        in.readInt(),
+        in.readUTF());
+  }
+}
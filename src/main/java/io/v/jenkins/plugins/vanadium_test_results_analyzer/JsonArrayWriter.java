@@ -0,0 +1,92 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+
+/**
+ * Writes the items of a JSON array one at a time, so query results can be sent to the browser as
+ * they are read instead of being collected first. Items have the same columns and values as those
+ * of {@link Util#addRows}.
+ *
+ * <p>The writer is flushed every {@link #FLUSH_ITEMS} items, so the response is sent in chunks
+ * while the query runs.
+ */
+class JsonArrayWriter {
+  /** Number of items written between flushes. */
+  static final int FLUSH_ITEMS = 1000;
+
+  private final Writer out;
+  private int count = 0;
+
+  /** Creates a writer of the items of an array whose opening bracket was written to the output. */
+  JsonArrayWriter(Writer out) {
+    this.out = out;
+  }
+
+  /** Writes the current row of the given result set with the given columns. */
+  void add(ResultSet rs, String[] cols) throws SQLException, IOException {
+    // Read the whole row first, so a failure doesn't leave half an item behind.
+    Object[] values = new Object[cols.length];
+    for (int i = 0; i < cols.length; i++) {
+      values[i] = Util.getValue(rs, cols[i]);
+    }
+    startItem();
+    out.write('{');
+    boolean first = true;
+    for (int i = 0; i < cols.length; i++) {
+      String col = cols[i];
+      Object value = values[i];
+      if (value == null) {
+        continue;
+      }
+      if (!first) {
+        out.write(',');
+      }
+      first = false;
+      out.write(JSONUtils.quote(col));
+      out.write(':');
+      if (value instanceof Number || value instanceof Boolean) {
+        out.write(value.toString());
+      } else {
+        out.write(JSONUtils.quote(value.toString()));
+      }
+    }
+    out.write('}');
+    endItem();
+  }
+
+  /** Writes all rows of the given result set with the given columns. */
+  void addAll(ResultSet rs, String[] cols) throws SQLException, IOException {
+    while (rs.next()) {
+      add(rs, cols);
+    }
+  }
+
+  /** Writes the given item. */
+  void add(JSONObject item) throws IOException {
+    startItem();
+    out.write(item.toString());
+    endItem();
+  }
+
+  /** Returns the number of items written. */
+  int getCount() {
+    return count;
+  }
+
+  private void startItem() throws IOException {
+    if (count > 0) {
+      out.write(',');
+    }
+  }
+
+  private void endItem() throws IOException {
+    if (++count % FLUSH_ITEMS == 0) {
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SQL to migrate fact tables of the old layout, which stored all names and urls in every row, to
+ * the dimension tables.
+ *
+ * <p>Dimension keys are hashed in SQL exactly like {@link DimensionCache} hashes them in Java:
+ * SHA-1 over the UTF-8 bytes of the key, with the id of the parent row and the name joined by a
+ * NUL character. Urls are split into the parts stored in the dimension tables; a build url is
+ * "{project url}[{sub build url name}]{build number}/".
+ *
+ * <p>Every statement only copies the rows of the old table whose ids are in the range given by its
+ * two parameters, from the first (inclusive) to the second (exclusive), so that large tables can be
+ * copied in chunks.
+ */
+class LegacyMigration {
+  private static final String TB_JENKINS_PROJECTS =
+      VTestResultsAnalyzerMgmtLink.TB_JENKINS_PROJECTS;
+  private static final String TB_SUB_BUILDS = VTestResultsAnalyzerMgmtLink.TB_SUB_BUILDS;
+  private static final String TB_TEST_PACKAGES = VTestResultsAnalyzerMgmtLink.TB_TEST_PACKAGES;
+  private static final String TB_TEST_CLASSES = VTestResultsAnalyzerMgmtLink.TB_TEST_CLASSES;
+  private static final String TB_TEST_CASES = VTestResultsAnalyzerMgmtLink.TB_TEST_CASES;
+
+  /** The part of a test url that separates the build url from the test's path. */
+  private static final String TEST_REPORT_URL = "testReport/";
+
+  /** Condition on the ids of the old rows read by a statement. */
+  private static final String IN_ID_RANGE = " WHERE l.id >= ? AND l.id < ?";
+
+  private LegacyMigration() {}
+
+  /** Returns the statements that copy the rows of the given old Jenkins Builds table. */
+  static List<String> getJenkinsBuildsSqls(String legacyTable) {
+    return Arrays.asList(
+        insertProjects(legacyTable, "l.url"),
+        insertSubBuilds(legacyTable, "l.url"),
+        "INSERT INTO "
+            + VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS
+            + "(project_id, build_number, sub_build_id, node, "
+            + "start_time, duration, result, update_time) "
+            + "SELECT p.id, l.build_number, IFNULL(s.id, 0), l.node, "
+            + "l.start_time, l.duration, l.result, l.update_time FROM "
+            + legacyTable
+            + " l"
+            + joinBuildDimensions()
+            + IN_ID_RANGE
+            + onDuplicateUpdateLatest("node", "start_time", "duration", "result"));
+  }
+
+  /** Returns the statements that copy the rows of the given old Test Results table. */
+  static List<String> getTestResultsSqls(String legacyTable) {
+    String buildUrl = "SUBSTRING_INDEX(l.url, '" + TEST_REPORT_URL + "', 1)";
+    return Arrays.asList(
+        insertProjects(legacyTable, buildUrl),
+        insertSubBuilds(legacyTable, buildUrl),
+        "INSERT IGNORE INTO "
+            + TB_TEST_PACKAGES
+            + "(hash, name) SELECT DISTINCT "
+            + hash("l.test_package")
+            + ", l.test_package FROM "
+            + legacyTable
+            + " l"
+            + IN_ID_RANGE,
+        "INSERT IGNORE INTO "
+            + TB_TEST_CLASSES
+            + "(hash, package_id, name) SELECT DISTINCT "
+            + hash("tp.id", "l.test_class")
+            + ", tp.id, l.test_class FROM "
+            + legacyTable
+            + " l"
+            + joinPackage()
+            + IN_ID_RANGE,
+        "INSERT IGNORE INTO "
+            + TB_TEST_CASES
+            + "(hash, class_id, name, full_name, url_path) SELECT DISTINCT "
+            + hash("tc.id", "l.test_case")
+            + ", tc.id, l.test_case, l.test_full_name, "
+            + "SUBSTRING(l.url, CHAR_LENGTH("
+            + buildUrl
+            + ") + "
+            + (TEST_REPORT_URL.length() + 1)
+            + ") FROM "
+            + legacyTable
+            + " l"
+            + joinPackage()
+            + joinClass()
+            + IN_ID_RANGE,
+        "INSERT INTO "
+            + VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS
+            + "(project_id, build_number, sub_build_id, test_id, "
+            + "start_time, duration, result, update_time) "
+            + "SELECT p.id, l.build_number, IFNULL(s.id, 0), t.id, "
+            + "l.start_time, l.duration, l.result, l.update_time FROM "
+            + legacyTable
+            + " l"
+            + joinBuildDimensions()
+            + joinPackage()
+            + joinClass()
+            + " JOIN "
+            + TB_TEST_CASES
+            + " t ON t.hash="
+            + hash("tc.id", "l.test_case")
+            + IN_ID_RANGE
+            + onDuplicateUpdateLatest("start_time", "duration", "result"));
+  }
+
+  // Keeps the most recently written row when the old tables have several rows of the same build or
+  // test result. MySQL assigns from left to right, so update_time must come last.
+  private static String onDuplicateUpdateLatest(String... columns) {
+    StringBuilder sb = new StringBuilder(" ON DUPLICATE KEY UPDATE ");
+    for (String col : columns) {
+      sb.append(
+          String.format("%1$s=IF(VALUES(update_time) >= update_time, VALUES(%1$s), %1$s), ", col));
+    }
+    return sb.append("update_time=GREATEST(VALUES(update_time), update_time)").toString();
+  }
+
+  private static String insertProjects(String legacyTable, String buildUrl) {
+    return "INSERT IGNORE INTO "
+        + TB_JENKINS_PROJECTS
+        + "(hash, name, url) SELECT DISTINCT "
+        + hash("l.jenkins_project")
+        + ", l.jenkins_project, "
+        + projectUrl(buildUrl)
+        + " FROM "
+        + legacyTable
+        + " l"
+        + IN_ID_RANGE;
+  }
+
+  private static String insertSubBuilds(String legacyTable, String buildUrl) {
+    return "INSERT IGNORE INTO "
+        + TB_SUB_BUILDS
+        + "(hash, labels, url_name) SELECT DISTINCT "
+        + hash("l.sub_build_labels")
+        + ", l.sub_build_labels, "
+        + subBuildUrlName(buildUrl)
+        + " FROM "
+        + legacyTable
+        + " l"
+        + IN_ID_RANGE
+        + " AND l.sub_build_labels IS NOT NULL";
+  }
+
+  private static String joinBuildDimensions() {
+    return " JOIN "
+        + TB_JENKINS_PROJECTS
+        + " p ON p.hash="
+        + hash("l.jenkins_project")
+        + " LEFT JOIN "
+        + TB_SUB_BUILDS
+        + " s ON s.hash="
+        + hash("l.sub_build_labels");
+  }
+
+  private static String joinPackage() {
+    return " JOIN " + TB_TEST_PACKAGES + " tp ON tp.hash=" + hash("l.test_package");
+  }
+
+  private static String joinClass() {
+    return " JOIN " + TB_TEST_CLASSES + " tc ON tc.hash=" + hash("tp.id", "l.test_class");
+  }
+
+  // The url of the build without its number, e.g. "job/foo/OS=linux/".
+  private static String buildUrlPrefix(String buildUrl) {
+    return String.format(
+        "LEFT(%1$s, CHAR_LENGTH(%1$s) - CHAR_LENGTH(l.build_number) - 1)", buildUrl);
+  }
+
+  // The last path element of the build url prefix of sub builds, e.g. "OS=linux/".
+  private static String subBuildUrlName(String buildUrl) {
+    String prefix = buildUrlPrefix(buildUrl);
+    return String.format(
+        "CONCAT(SUBSTRING_INDEX(LEFT(%1$s, CHAR_LENGTH(%1$s) - 1), '/', -1), '/')", prefix);
+  }
+
+  private static String projectUrl(String buildUrl) {
+    String prefix = buildUrlPrefix(buildUrl);
+    return String.format(
+        "IF(l.sub_build_labels IS NULL, %1$s, LEFT(%1$s, CHAR_LENGTH(%1$s) - CHAR_LENGTH(%2$s)))",
+        prefix, subBuildUrlName(buildUrl));
+  }
+
+  // The SHA-1 hash of a dimension key, see DimensionCache.
+  private static String hash(String name) {
+    return "UNHEX(SHA1(CONVERT(" + name + " USING utf8)))";
+  }
+
+  private static String hash(String parentId, String name) {
+    return "UNHEX(SHA1(CONCAT(CAST("
+        + parentId
+        + " AS CHAR), CHAR(0 USING utf8), CONVERT("
+        + name
+        + " USING utf8))))";
+  }
+}
@@ -0,0 +1,921 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Stores build stats and test results on the MySQL server set on the settings page, in the tables
+ * of {@link VTestResultsAnalyzerMgmtLink}.
+ *
+ * <p>Writes go through {@link ResultsWriter}, as rows of the Test Results table or as one blob per
+ * build, see {@link TestResultBlob}. The overview dashboards read the rollups of whole hours and
+ * days, see {@link Rollups}, and raw rows only at the edges of their range.
+ */
+class MySqlResultsStore implements ResultsStore {
+  private static final Logger LOGGER = Logger.getLogger(MySqlResultsStore.class.getName());
+
+  private static final String TB_JENKINS_BUILDS = VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS;
+  private static final String TB_TEST_RESULTS = VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS;
+  private static final String TB_TEST_FAILURES = VTestResultsAnalyzerMgmtLink.TB_TEST_FAILURES;
+  private static final String TB_JENKINS_PROJECTS =
+      VTestResultsAnalyzerMgmtLink.TB_JENKINS_PROJECTS;
+  private static final String TB_SUB_BUILDS = VTestResultsAnalyzerMgmtLink.TB_SUB_BUILDS;
+  private static final String TB_TEST_CASES = VTestResultsAnalyzerMgmtLink.TB_TEST_CASES;
+  private static final String TB_FAILURE_SIGNATURES =
+      VTestResultsAnalyzerMgmtLink.TB_FAILURE_SIGNATURES;
+  private static final String TB_BUILD_ROLLUPS = VTestResultsAnalyzerMgmtLink.TB_BUILD_ROLLUPS;
+  private static final String TB_TEST_ROLLUPS = VTestResultsAnalyzerMgmtLink.TB_TEST_ROLLUPS;
+
+  /** Joins the project and sub build of the rows of "%s". */
+  private static final String SQL_JOIN_BUILD_DIMENSIONS =
+      " JOIN "
+          + TB_JENKINS_PROJECTS
+          + " p ON p.id=%1$s.project_id LEFT JOIN "
+          + TB_SUB_BUILDS
+          + " s ON s.id=%1$s.sub_build_id ";
+
+  /**
+   * SQL to query info of all jenkins builds, from the rollups and raw rows of a Rollups.Window. The
+   * standard deviation is the population one, like STD().
+   */
+  private static final String SQL_JENKINS_BUILDS =
+      "SELECT p.name AS jenkins_project, s.labels AS sub_build_labels, b.* FROM "
+          + "(SELECT project_id, sub_build_id, "
+          + "SUM(sum_duration) / SUM(count) AS avg, "
+          + "MIN(min_duration) AS min, "
+          + "MAX(max_duration) AS max, "
+          + "SQRT(GREATEST(SUM(sum_sq_duration) / SUM(count) "
+          + "- POW(SUM(sum_duration) / SUM(count), 2), 0)) AS std, "
+          + "CAST(SUM(success_count) AS SIGNED) AS success_count, "
+          + "CAST(SUM(unstable_count) AS SIGNED) AS unstable_count, "
+          + "CAST(SUM(failure_count) AS SIGNED) AS failure_count, "
+          + "CAST(SUM(aborted_count) AS SIGNED) AS aborted_count, "
+          + "CAST(SUM(count) AS SIGNED) AS count "
+          + "FROM ("
+          + Rollups.SQL_WINDOW_BUILDS
+          + ") u "
+          + "GROUP BY project_id,sub_build_id) b"
+          + String.format(SQL_JOIN_BUILD_DIMENSIONS, "b")
+          + "ORDER BY b.avg DESC";
+
+  /**
+   * SQL to query a specific jenkins build, followed by the condition on its sub build. Takes the
+   * project name, the parameters of the condition and the time range, and is followed by the
+   * conditions and order of a ResultsPage.
+   */
+  private static final String SQL_BUILD_DETAILS_TEMPLATE =
+      "SELECT b.build_number, b.start_time, b.duration, b.result, "
+          + "CONCAT(p.url, IFNULL(s.url_name, ''), b.build_number, '/') AS url FROM "
+          + TB_JENKINS_BUILDS
+          + " b"
+          + String.format(SQL_JOIN_BUILD_DIMENSIONS, "b")
+          + "WHERE p.name=? AND %s AND "
+          + "b.start_time BETWEEN ? AND ?";
+
+  /** SQL to query a root build. */
+  private static final String SQL_ROOT_BUILD_DETAILS =
+      String.format(SQL_BUILD_DETAILS_TEMPLATE, "b.sub_build_id=0");
+
+  /** SQL to query a sub build, by its labels. */
+  private static final String SQL_SUB_BUILD_DETAILS =
+      String.format(SQL_BUILD_DETAILS_TEMPLATE, "s.labels=?");
+
+  /** SQL to query all available jenkins builds. */
+  private static final String SQL_AVAILABLE_JENKINS_BUILDS =
+      "SELECT p.name AS jenkins_project, s.labels AS sub_build_labels FROM "
+          + "(SELECT DISTINCT project_id, sub_build_id FROM "
+          + TB_JENKINS_BUILDS
+          + " WHERE "
+          + "start_time BETWEEN ? AND ?) b"
+          + String.format(SQL_JOIN_BUILD_DIMENSIONS, "b");
+
+  /**
+   * Stats of every test case in the time range, grouped on the integer keys, from the rollups and
+   * raw rows of a Rollups.Window.
+   */
+  private static final String SQL_TEST_STATS =
+      "SELECT test_id, project_id, sub_build_id, "
+          + "SUM(sum_duration) AS sum_duration, "
+          + "MIN(min_duration) AS min_duration, "
+          + "MAX(max_duration) AS max_duration, "
+          + "CAST(SUM(failed_count) AS SIGNED) AS failed_count, "
+          + "CAST(SUM(count) AS SIGNED) AS count "
+          + "FROM ("
+          + Rollups.SQL_WINDOW_TESTS
+          + ") u "
+          + "GROUP BY test_id,project_id,sub_build_id ";
+
+  /** Names of the test case, project and sub build of the rows of "r". */
+  private static final String SQL_TEST_NAMES =
+      "SELECT t.full_name AS test_full_name, p.name AS jenkins_project, "
+          + "s.labels AS sub_build_labels, r.* FROM ";
+
+  /** Joins the test case, project and sub build of the rows of "r". */
+  private static final String SQL_JOIN_TEST_DIMENSIONS =
+      " JOIN "
+          + TB_TEST_CASES
+          + " t ON t.id=r.test_id"
+          + String.format(SQL_JOIN_BUILD_DIMENSIONS, "r");
+
+  /**
+   * Names of all projects and sub builds, from the daily rollups, which have one row per day for
+   * each instead of one per build.
+   */
+  private static final String SQL_JENKINS_BUILD_NAMES =
+      "SELECT p.name AS jenkins_project, s.labels AS sub_build_labels FROM "
+          + "(SELECT DISTINCT project_id, sub_build_id FROM "
+          + TB_BUILD_ROLLUPS
+          + " WHERE bucket_hours="
+          + Rollups.DAILY
+          + ") b"
+          + String.format(SQL_JOIN_BUILD_DIMENSIONS, "b");
+
+  /** Names of all test cases, from the daily rollups. */
+  private static final String SQL_TEST_CASE_NAMES =
+      "SELECT t.full_name AS test_full_name, p.name AS jenkins_project, "
+          + "s.labels AS sub_build_labels FROM "
+          + "(SELECT DISTINCT test_id, project_id, sub_build_id FROM "
+          + TB_TEST_ROLLUPS
+          + " WHERE bucket_hours="
+          + Rollups.DAILY
+          + ") r"
+          + SQL_JOIN_TEST_DIMENSIONS;
+
+  /**
+   * SQL to query a specific test case, followed by the condition on its sub build. Takes the
+   * project and test names, the parameters of the condition and the time range, and is followed by
+   * the conditions and order of a ResultsPage.
+   */
+  private static final String SQL_TEST_CASE_DETAILS_TEMPLATE =
+      "SELECT r.build_number, r.start_time, r.duration, r.result, "
+          + "CONCAT(p.url, IFNULL(s.url_name, ''), r.build_number, '/testReport/', t.url_path) "
+          + "AS url FROM "
+          + TB_TEST_RESULTS
+          + " r"
+          + SQL_JOIN_TEST_DIMENSIONS
+          + "WHERE p.name=? AND t.full_name=? AND %s AND "
+          + "r.start_time BETWEEN ? AND ?";
+
+  /** SQL to query a test case of a root build. */
+  private static final String SQL_ROOT_TEST_CASE_DETAILS =
+      String.format(SQL_TEST_CASE_DETAILS_TEMPLATE, "r.sub_build_id=0");
+
+  /** SQL to query a test case of a sub build, by its labels. */
+  private static final String SQL_SUB_TEST_CASE_DETAILS =
+      String.format(SQL_TEST_CASE_DETAILS_TEMPLATE, "s.labels=?");
+
+  /** Maximum number of failure signatures returned by getFailureSignatures. */
+  private static final int MAX_FAILURE_SIGNATURES = 200;
+
+  /** SQL to group the failures of a time range by signature. Only reads the time_signature key. */
+  private static final String SQL_FAILURE_SIGNATURES =
+      "SELECT fs.summary, fs.signature, g.* FROM "
+          + "(SELECT signature_id, "
+          + "COUNT(*) AS failure_count, "
+          + "COUNT(DISTINCT test_id) AS test_count, "
+          + "COUNT(DISTINCT project_id, build_number, sub_build_id) AS build_count, "
+          + "MAX(start_time) AS last_time "
+          + "FROM "
+          + TB_TEST_FAILURES
+          + " WHERE "
+          + "start_time BETWEEN ? AND ? "
+          + "GROUP BY signature_id "
+          + "ORDER BY failure_count DESC LIMIT "
+          + MAX_FAILURE_SIGNATURES
+          + ") g JOIN "
+          + TB_FAILURE_SIGNATURES
+          + " fs ON fs.id=g.signature_id "
+          + "ORDER BY g.failure_count DESC";
+
+  /** SQL to query the test cases that failed with a signature. */
+  private static final String SQL_FAILURE_SIGNATURE_TESTS =
+      SQL_TEST_NAMES
+          + "(SELECT test_id, project_id, sub_build_id, "
+          + "COUNT(*) AS failure_count, "
+          + "MAX(build_number) AS last_build_number "
+          + "FROM "
+          + TB_TEST_FAILURES
+          + " WHERE "
+          + "signature_id=? AND start_time BETWEEN ? AND ? "
+          + "GROUP BY test_id,project_id,sub_build_id) r"
+          + SQL_JOIN_TEST_DIMENSIONS
+          + "ORDER BY r.failure_count DESC, t.full_name ASC";
+
+  /** Columns of the runs of a build or test case. */
+  private static final String[] RUN_COLS =
+      new String[] {"build_number", "start_time", "duration", "result", "url"};
+
+  /** Handles the rows of a streamed query, see stream(). */
+  private interface RowHandler {
+    void handle(ResultSet rs) throws SQLException, IOException;
+  }
+
+  /**
+   * Writes a page of runs from the rows of a query and from blobs, both in the order of the page,
+   * as the rows are read. Runs of the same build are written once, from the row. Rows past the end
+   * of the page are skipped.
+   */
+  private static class RunPageMerger implements RowHandler {
+    private final ResultsPage page;
+    private final JsonArrayWriter out;
+    private final List<JSONObject> blobItems;
+    private final String[] cols;
+    private int next = 0;
+    private int count = 0;
+    private String cursor = null;
+
+    RunPageMerger(
+        ResultsPage page, JsonArrayWriter out, List<JSONObject> blobItems, String[] cols) {
+      this.page = page;
+      this.out = out;
+      this.blobItems = blobItems;
+      this.cols = cols;
+    }
+
+    @Override
+    public void handle(ResultSet rs) throws SQLException, IOException {
+      while (next < blobItems.size()) {
+        int c = page.compare(blobItems.get(next).getInt("build_number"), rs.getInt("build_number"));
+        if (c > 0) {
+          break;
+        }
+        JSONObject item = blobItems.get(next++);
+        if (c < 0) {
+          add(item);
+        }
+      }
+      if (count < page.getLimit()) {
+        out.add(rs, cols);
+        if (++count == page.getLimit()) {
+          cursor = ResultsPage.getCursor(rs.getInt("build_number"));
+        }
+      }
+    }
+
+    /** Writes the blob items after the last row and returns the cursor of the next page. */
+    String finish() throws IOException {
+      while (next < blobItems.size()) {
+        add(blobItems.get(next++));
+      }
+      return cursor;
+    }
+
+    private void add(JSONObject item) throws IOException {
+      if (count < page.getLimit()) {
+        out.add(item);
+        if (++count == page.getLimit()) {
+          cursor = ResultsPage.getCursor(item.getInt("build_number"));
+        }
+      }
+    }
+  }
+
+  /**
+   * Picks the failed and longest test cases from the rows of SQL_TEST_STATS as they are read,
+   * adding the stats of the same test cases stored as blobs first. The blobs are only waited for,
+   * or read if no thread was free, once the first row arrives, which is when the server is done
+   * aggregating.
+   */
+  private static class TestStatsHandler implements RowHandler {
+    private final FutureTask<Map<String, TestCaseStats>> blobStatsResult;
+    private final TestCaseStats.Selector selector = new TestCaseStats.Selector(NUM_LONGEST_TESTS);
+
+    /** Stats of the test cases stored as blobs that weren't added to a row yet. */
+    private Map<String, TestCaseStats> blobStats = null;
+
+    private TestStatsHandler(FutureTask<Map<String, TestCaseStats>> blobStatsResult) {
+      this.blobStatsResult = blobStatsResult;
+    }
+
+    @Override
+    public void handle(ResultSet rs) throws SQLException {
+      TestCaseStats stats =
+          new TestCaseStats(
+              rs.getInt("test_id"),
+              rs.getInt("project_id"),
+              rs.getInt("sub_build_id"),
+              rs.getLong("count"),
+              rs.getLong("failed_count"),
+              rs.getDouble("sum_duration"),
+              rs.getFloat("min_duration"),
+              rs.getFloat("max_duration"));
+      TestCaseStats blob = getBlobStats().remove(stats.getIdKey());
+      if (blob != null) {
+        stats.add(blob);
+      }
+      selector.add(stats);
+    }
+
+    /** Adds the test cases that are only stored as blobs and returns the picked ones. */
+    private TestCaseStats.Selector finish() throws SQLException {
+      for (TestCaseStats stats : getBlobStats().values()) {
+        selector.add(stats);
+      }
+      return selector;
+    }
+
+    private Map<String, TestCaseStats> getBlobStats() throws SQLException {
+      if (blobStats == null) {
+        blobStats = getResult(blobStatsResult);
+      }
+      return blobStats;
+    }
+  }
+
+  /** Maximum number of queries run in the background at the same time, see submit. */
+  private static final int MAX_BACKGROUND_QUERIES = ConnectionPool.MAX_POOL_SIZE / 4;
+
+  private final VTestResultsAnalyzerPluginImpl plugin;
+
+  /**
+   * Runs queries that don't depend on the other queries of a request alongside them, each on a
+   * connection of the pool.
+   */
+  private final ExecutorService queryExecutor;
+
+  MySqlResultsStore(VTestResultsAnalyzerPluginImpl plugin) {
+    this.plugin = plugin;
+    this.queryExecutor =
+        new ThreadPoolExecutor(
+            0,
+            MAX_BACKGROUND_QUERIES,
+            1,
+            TimeUnit.MINUTES,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Vanadium Test Results Analyzer query");
+                t.setDaemon(true);
+                return t;
+              }
+            });
+  }
+
+  @Override
+  public int write(
+      final List<JenkinsBuildRecord> jenkinsBuilds,
+      final Iterable<TestResultRecord> testResults,
+      RetryingTransaction.Timings timings)
+      throws SQLException, InterruptedException {
+    final boolean bulkLoad = plugin.getBulkLoadEnabled();
+    final boolean columnar = plugin.getColumnarStorageEnabled();
+    final int[] numTestResults = new int[1];
+    final TableStatsCache.Writes writes = new TableStatsCache.Writes();
+    // Every row is upserted, so retries never add a second row.
+    RetryingTransaction.run(
+        new RetryingTransaction.Work() {
+          @Override
+          public void run(Connection conn) throws SQLException {
+            // Only the rows of the attempt that commits count.
+            writes.clear();
+            Set<Long> startTimesMs = new HashSet<>();
+            for (JenkinsBuildRecord record : jenkinsBuilds) {
+              ResultsWriter.writeJenkinsBuild(conn, record, startTimesMs, writes);
+            }
+            numTestResults[0] =
+                columnar
+                    ? ResultsWriter.writeTestResultBlobs(
+                        conn, testResults.iterator(), startTimesMs, writes)
+                    : ResultsWriter.writeTestResultsInBatches(
+                        conn, testResults.iterator(), bulkLoad, startTimesMs, writes);
+            // The hours are marked last, so other writers of the same hours and the compactor
+            // only wait for the commit, not for the whole write.
+            Rollups.markDirty(conn, startTimesMs);
+          }
+        },
+        timings);
+    writes.record();
+    return numTestResults[0];
+  }
+
+  @Override
+  public JSONArray getJenkinsBuildStats(long startMs, long endMs) throws SQLException {
+    JSONArray items = new JSONArray();
+    query(
+        SQL_JENKINS_BUILDS,
+        getRollupWindow(startMs, endMs, false).getParams(),
+        new String[] {
+          "jenkins_project",
+          "sub_build_labels",
+          "avg",
+          "min",
+          "max",
+          "std",
+          "count",
+          "success_count",
+          "unstable_count",
+          "failure_count",
+          "aborted_count"
+        },
+        items);
+    return items;
+  }
+
+  @Override
+  public String getJenkinsBuildDetails(
+      long startMs,
+      long endMs,
+      String jenkinsProject,
+      String subBuildLabels,
+      ResultsPage page,
+      JsonArrayWriter out)
+      throws SQLException, IOException {
+    List<Object> params = new ArrayList<>();
+    params.add(jenkinsProject);
+    String sql = SQL_ROOT_BUILD_DETAILS;
+    if (!subBuildLabels.isEmpty()) {
+      sql = SQL_SUB_BUILD_DETAILS;
+      params.add(subBuildLabels);
+    }
+    params.add(new Timestamp(startMs));
+    params.add(new Timestamp(endMs));
+    sql += page.getRunsSql("b.build_number", "b.result", params);
+    RunPageMerger merger =
+        new RunPageMerger(page, out, Collections.<JSONObject>emptyList(), RUN_COLS);
+    stream(sql, params.toArray(), merger);
+    return merger.finish();
+  }
+
+  @Override
+  public JSONArray getAvailableJenkinsBuilds(long startMs, long endMs) throws SQLException {
+    JSONArray builds = new JSONArray();
+    query(
+        SQL_AVAILABLE_JENKINS_BUILDS,
+        new Object[] {new Timestamp(startMs), new Timestamp(endMs)},
+        new String[] {"jenkins_project", "sub_build_labels"},
+        builds);
+    return builds;
+  }
+
+  @Override
+  public void getTestStats(long startMs, long endMs, JSONArray failedTests, JSONArray longestTests)
+      throws SQLException {
+    final Rollups.Window window = getRollupWindow(startMs, endMs, true);
+    // Read the test results stored as blobs at the edges of the window while the server aggregates
+    // the rest, if a thread is free. The rollups have everything else.
+    FutureTask<Map<String, TestCaseStats>> blobStats =
+        submit(
+            new Callable<Map<String, TestCaseStats>>() {
+              @Override
+              public Map<String, TestCaseStats> call() throws SQLException {
+                return getBlobTestStats(window);
+              }
+            });
+    TestStatsHandler handler = new TestStatsHandler(blobStats);
+    TestCaseStats.Selector selector = null;
+    try {
+      stream(SQL_TEST_STATS, window.getParams(), handler);
+      selector = handler.finish();
+    } catch (IOException e) {
+      // The handler doesn't write anything.
+      throw new SQLException(e);
+    } finally {
+      if (selector == null) {
+        // Nobody waits for the blobs any more, and if they weren't picked up, they never are.
+        blobStats.cancel(true);
+      }
+    }
+
+    // Only the test cases that made the lists need names, and only the longest ones percentiles.
+    addDurations(window, selector.getLongest());
+    setNames(selector.getSelected());
+    selector.writeTo(failedTests, longestTests);
+  }
+
+  @Override
+  public String getTestCaseDetails(
+      long startMs,
+      long endMs,
+      String testFullName,
+      String jenkinsProject,
+      String subBuildLabels,
+      ResultsPage page,
+      JsonArrayWriter out)
+      throws SQLException, IOException {
+    // Runs stored as blobs are merged into the rows by build number. Builds that are in both are
+    // written once.
+    List<JSONObject> blobRuns = new ArrayList<>();
+    for (JSONObject run :
+        getBlobTestCaseDetails(startMs, endMs, testFullName, jenkinsProject, subBuildLabels)) {
+      if (page.includes(run.optString("result", null))
+          && page.isAfter(run.getInt("build_number"))) {
+        blobRuns.add(run);
+      }
+    }
+    if (page.isDescending()) {
+      Collections.reverse(blobRuns);
+    }
+    List<Object> params = new ArrayList<>();
+    params.add(jenkinsProject);
+    params.add(testFullName);
+    String sql = SQL_ROOT_TEST_CASE_DETAILS;
+    if (!subBuildLabels.isEmpty()) {
+      sql = SQL_SUB_TEST_CASE_DETAILS;
+      params.add(subBuildLabels);
+    }
+    params.add(new Timestamp(startMs));
+    params.add(new Timestamp(endMs));
+    sql += page.getRunsSql("r.build_number", "r.result", params);
+    RunPageMerger merger = new RunPageMerger(page, out, blobRuns, RUN_COLS);
+    stream(sql, params.toArray(), merger);
+    return merger.finish();
+  }
+
+  /**
+   * Names are read from the daily rollups, so those of the hours that weren't compacted yet are
+   * missing. NameIndex adds those written by this controller as they are written.
+   */
+  @Override
+  public void getNames(final NameHandler handler) throws SQLException, IOException {
+    stream(
+        SQL_JENKINS_BUILD_NAMES,
+        new Object[0],
+        new RowHandler() {
+          @Override
+          public void handle(ResultSet rs) throws SQLException {
+            handler.addJenkinsBuild(
+                rs.getString("jenkins_project"), rs.getString("sub_build_labels"));
+          }
+        });
+    stream(
+        SQL_TEST_CASE_NAMES,
+        new Object[0],
+        new RowHandler() {
+          @Override
+          public void handle(ResultSet rs) throws SQLException {
+            handler.addTestCase(
+                rs.getString("test_full_name"),
+                rs.getString("jenkins_project"),
+                rs.getString("sub_build_labels"));
+          }
+        });
+  }
+
+  @Override
+  public long getSummarizedEndMs() throws SQLException {
+    Connection conn = plugin.getConnection();
+    try {
+      return Rollups.getSummarizedEnd(conn);
+    } finally {
+      closeQuietly(conn);
+    }
+  }
+
+  @Override
+  public JSONArray getFailureSignatures(long startMs, long endMs) throws SQLException {
+    JSONArray signatures = new JSONArray();
+    query(
+        SQL_FAILURE_SIGNATURES,
+        new Object[] {new Timestamp(startMs), new Timestamp(endMs)},
+        new String[] {
+          "signature_id",
+          "summary",
+          "signature",
+          "failure_count",
+          "test_count",
+          "build_count",
+          "last_time"
+        },
+        signatures);
+    return signatures;
+  }
+
+  @Override
+  public JSONArray getFailureSignatureTests(long startMs, long endMs, int signatureId)
+      throws SQLException {
+    JSONArray tests = new JSONArray();
+    query(
+        SQL_FAILURE_SIGNATURE_TESTS,
+        new Object[] {signatureId, new Timestamp(startMs), new Timestamp(endMs)},
+        new String[] {
+          "test_full_name",
+          "jenkins_project",
+          "sub_build_labels",
+          "failure_count",
+          "last_build_number"
+        },
+        tests);
+    return tests;
+  }
+
+  /**
+   * Stops the threads of background queries. The connection pool and caches belong to the plugin,
+   * which closes them.
+   */
+  @Override
+  public void close() {
+    queryExecutor.shutdown();
+  }
+
+  // Runs the given query in the background if a thread is free. Otherwise it is run by getResult,
+  // i.e. after the queries it was meant to run alongside, not before them.
+  private <T> FutureTask<T> submit(Callable<T> query) {
+    FutureTask<T> task = new FutureTask<>(query);
+    try {
+      queryExecutor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // Left for getResult.
+    }
+    return task;
+  }
+
+  // Returns the result of the given query of submit, running it here if no thread picked it up,
+  // and throwing its error if it failed.
+  private static <T> T getResult(FutureTask<T> task) throws SQLException {
+    // Does nothing if a thread runs or ran the query already.
+    task.run();
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SQLException) {
+        throw (SQLException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new SQLException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a query", e);
+    }
+  }
+
+  // Returns the given window split into the parts read from rollups and from raw rows. Hours from
+  // the first dirty one on are read from the raw rows, e.g. the current hour while results arrive.
+  // Nothing is compacted here: that is left to the RollupCompactor. Windows of test stats are
+  // moved out to whole days in downsampled days, whose test results are only in daily rollups;
+  // builds aren't downsampled.
+  private Rollups.Window getRollupWindow(long startEpoch, long endEpoch, boolean tests) {
+    Connection conn = null;
+    try {
+      conn = plugin.getConnection();
+      long summarizedEndMs = tests ? Rollups.getSummarizedEnd(conn) : 0;
+      Rollups.Window window =
+          new Rollups.Window(startEpoch, endEpoch, Long.MAX_VALUE, summarizedEndMs);
+      long firstDirtyHourMs =
+          Rollups.getFirstDirtyHour(conn, window.getRollupStartMs(), window.getRollupEndMs());
+      return new Rollups.Window(startEpoch, endEpoch, firstDirtyHourMs, summarizedEndMs);
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Failed to find dirty hours: " + e.getMessage());
+      return new Rollups.Window(startEpoch, endEpoch, startEpoch, 0);
+    } finally {
+      closeQuietly(conn);
+    }
+  }
+
+  // Returns the stats of the test cases stored as blobs in the raw parts of the given window, by
+  // the key of their ids.
+  private Map<String, TestCaseStats> getBlobTestStats(Rollups.Window window) throws SQLException {
+    Connection conn = null;
+    try {
+      conn = plugin.getConnection();
+      TestResultBlobStore store = plugin.getTestResultBlobStore();
+      List<TestResultBlobStore.BuildBlob> builds = new ArrayList<>();
+      for (long[] range : window.getRawRanges()) {
+        if (range[0] < range[1]) {
+          builds.addAll(store.read(conn, range[0], range[1] - 1, ""));
+        }
+      }
+      Map<String, TestCaseStats> stats = new HashMap<>();
+      for (TestResultBlobStore.TestStats s : TestResultBlobStore.aggregate(builds)) {
+        TestCaseStats test =
+            new TestCaseStats(
+                s.getTestId(),
+                s.getProjectId(),
+                s.getSubBuildId(),
+                s.getCount(),
+                s.getFailedCount(),
+                s.getSumDuration(),
+                s.getMinDuration(),
+                s.getMaxDuration());
+        test.addDurations(s.getSketch());
+        stats.put(test.getIdKey(), test);
+      }
+      return stats;
+    } finally {
+      closeQuietly(conn);
+    }
+  }
+
+  // Adds the durations of the given test cases in the rollups and raw rows of the given window to
+  // their distributions, which have those of their test results stored as blobs already.
+  private void addDurations(Rollups.Window window, List<TestCaseStats> tests)
+      throws SQLException {
+    if (tests.isEmpty()) {
+      return;
+    }
+    final Map<String, TestCaseStats> byKey = new HashMap<>();
+    Set<Integer> testIds = new HashSet<>();
+    StringBuilder placeholders = new StringBuilder();
+    for (TestCaseStats test : tests) {
+      byKey.put(test.getIdKey(), test);
+      if (testIds.add(test.getTestId())) {
+        placeholders.append(placeholders.length() == 0 ? "?" : ",?");
+      }
+    }
+    try {
+      stream(
+          String.format(Rollups.SQL_WINDOW_TEST_DURATIONS, placeholders),
+          window.getParams(new ArrayList<>(testIds)),
+          new RowHandler() {
+            @Override
+            public void handle(ResultSet rs) throws SQLException, IOException {
+              TestCaseStats test =
+                  byKey.get(TestCaseStats.getIdKey(rs.getInt(1), rs.getInt(2), rs.getInt(3)));
+              if (test == null) {
+                return;
+              }
+              byte[] data = rs.getBytes(4);
+              float duration = rs.getFloat(5);
+              if (data != null) {
+                test.addDurations(DurationSketch.decode(data));
+              } else if (!rs.wasNull()) {
+                test.addDuration(duration);
+              }
+            }
+          });
+    } catch (IOException e) {
+      throw new SQLException("Failed to decode duration sketch", e);
+    }
+  }
+
+  // Sets the names of the given test cases from the dimension tables.
+  private void setNames(Collection<TestCaseStats> tests) throws SQLException {
+    Set<Integer> testIds = new HashSet<>();
+    Set<Integer> projectIds = new HashSet<>();
+    Set<Integer> subBuildIds = new HashSet<>();
+    for (TestCaseStats test : tests) {
+      testIds.add(test.getTestId());
+      projectIds.add(test.getProjectId());
+      subBuildIds.add(test.getSubBuildId());
+    }
+    Connection conn = null;
+    try {
+      conn = plugin.getConnection();
+      Map<Integer, String> testNames =
+          TestResultBlobStore.getTestFullNames(conn, new ArrayList<>(testIds));
+      Map<Integer, String> projectNames =
+          TestResultBlobStore.getNames(
+              conn, TB_JENKINS_PROJECTS, "name", new ArrayList<>(projectIds));
+      Map<Integer, String> subBuildLabels =
+          TestResultBlobStore.getNames(
+              conn, TB_SUB_BUILDS, "labels", new ArrayList<>(subBuildIds));
+      for (TestCaseStats test : tests) {
+        test.setNames(
+            testNames.get(test.getTestId()),
+            projectNames.get(test.getProjectId()),
+            subBuildLabels.get(test.getSubBuildId()));
+      }
+    } finally {
+      closeQuietly(conn);
+    }
+  }
+
+  // Returns the runs of a test case stored as blobs, ordered by build number.
+  private List<JSONObject> getBlobTestCaseDetails(
+      long startEpoch,
+      long endEpoch,
+      String testFullName,
+      String buildName,
+      String subBuildLabels)
+      throws SQLException {
+    List<JSONObject> testCases = new ArrayList<>();
+    Connection conn = null;
+    try {
+      conn = plugin.getConnection();
+      TestResultBlobStore store = plugin.getTestResultBlobStore();
+      List<TestResultBlobStore.BuildBlob> builds =
+          subBuildLabels.isEmpty()
+              ? store.read(conn, startEpoch, endEpoch, "p.name=? AND b.sub_build_id=0", buildName)
+              : store.read(
+                  conn, startEpoch, endEpoch, "p.name=? AND s.labels=?", buildName, subBuildLabels);
+      if (builds.isEmpty()) {
+        return testCases;
+      }
+      Map<Integer, String> testIds = TestResultBlobStore.getTestIds(conn, testFullName);
+      Set<Integer> buildNumbers = new HashSet<>();
+      for (TestResultBlobStore.BuildBlob build : builds) {
+        TestResultBlob blob = build.getBlob();
+        for (Map.Entry<Integer, String> test : testIds.entrySet()) {
+          int i = blob.indexOf(test.getKey());
+          if (i < 0 || !buildNumbers.add(build.getBuildNumber())) {
+            continue;
+          }
+          JSONObject item = new JSONObject();
+          item.put("build_number", build.getBuildNumber());
+          item.put("start_time", build.getStartTimeMs());
+          item.put("duration", blob.getDuration(i));
+          if (blob.getResult(i) != null) {
+            item.put("result", blob.getResult(i));
+          }
+          item.put("url", build.getUrl() + "testReport/" + test.getValue());
+          testCases.add(item);
+        }
+      }
+      Collections.sort(
+          testCases,
+          new Comparator<JSONObject>() {
+            @Override
+            public int compare(JSONObject a, JSONObject b) {
+              return Integer.compare(a.getInt("build_number"), b.getInt("build_number"));
+            }
+          });
+      return testCases;
+    } finally {
+      closeQuietly(conn);
+    }
+  }
+
+  // Adds the rows of the given query to the given results. Errors include the query. Pooled
+  // connections cache their prepared statements, so closing the statement keeps it parsed for the
+  // next call.
+  private void query(String sql, Object[] params, String[] cols, JSONArray results)
+      throws SQLException {
+    Connection conn = null;
+    try {
+      conn = plugin.getConnection();
+      PreparedStatement ps = conn.prepareStatement(sql);
+      try {
+        for (int i = 0; i < params.length; i++) {
+          ps.setObject(i + 1, params[i]);
+        }
+        Util.addRows(ps.executeQuery(), cols, results);
+      } finally {
+        ps.close();
+      }
+    } catch (SQLException e) {
+      throw new SQLException(
+          e.getMessage() + "<br><br>" + sql, e.getSQLState(), e.getErrorCode(), e);
+    } finally {
+      closeQuietly(conn);
+    }
+  }
+
+  // Passes the rows of the given query to the given handler as they are read. The rows are streamed
+  // from the server instead of being buffered in memory, so the handler can't use the connection.
+  // Errors include the query.
+  private void stream(String sql, Object[] params, RowHandler handler)
+      throws SQLException, IOException {
+    Connection conn = null;
+    try {
+      conn = plugin.getConnection();
+      PreparedStatement ps =
+          conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      try {
+        ps.setFetchSize(Integer.MIN_VALUE);
+        for (int i = 0; i < params.length; i++) {
+          ps.setObject(i + 1, params[i]);
+        }
+        ResultSet rs = ps.executeQuery();
+        while (rs.next()) {
+          handler.handle(rs);
+        }
+      } finally {
+        ps.close();
+      }
+    } catch (SQLException e) {
+      throw new SQLException(
+          e.getMessage() + "<br><br>" + sql, e.getSQLState(), e.getErrorCode(), e);
+    } finally {
+      closeQuietly(conn);
+    }
+  }
+
+  // Closes (or returns to the pool) the given connection, logging any errors.
+  private static void closeQuietly(Connection conn) {
+    if (conn != null) {
+      try {
+        conn.close();
+      } catch (SQLException e) {
+        LOGGER.log(Level.WARNING, e.getMessage());
+      }
+    }
+  }
+}
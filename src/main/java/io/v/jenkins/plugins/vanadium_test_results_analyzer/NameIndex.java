@@ -0,0 +1,528 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * The names of the projects, sub builds and test cases with results, in memory, so the dashboards
+ * can suggest names as they are typed without querying the store or loading every name.
+ *
+ * <p>A query matches the names that contain all its words, ignoring case, the longest of them at
+ * the start of a word of the name: "foo" matches "v.io/x/foo.TestBar" and "TestFooBar", but not
+ * "TestBuffoon". Words of names start after punctuation and at case changes. The word starts of all
+ * names are kept in an array sorted by the text that follows them, so the matches of a query are
+ * found with a binary search and a scan of the matching range, which stops at the number of
+ * suggestions.
+ *
+ * <p>All names are loaded from the store in the background, when the plugin starts and every hour.
+ * Names that are written in between are added as they are seen, to a list that is searched one by
+ * one and merged into the sorted array once it grows too long.
+ */
+class NameIndex {
+  private static final Logger LOGGER = Logger.getLogger(NameIndex.class.getName());
+
+  /** How often all names are loaded from the store. */
+  private static final long RELOAD_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+  /** Number of new names after which they are merged into the sorted array. */
+  private static final int MAX_PENDING_NAMES = 1000;
+
+  /** Maximum number of suggestions of a query. */
+  static final int MAX_SUGGESTIONS = 200;
+
+  /** Bits of the offsets of word starts in the sorted array, whose other bits are the name. */
+  private static final int OFFSET_BITS = 16;
+
+  private static final long MAX_OFFSET = (1L << OFFSET_BITS) - 1;
+
+  /** Names of a kind, e.g. test cases, as of the last load from the store. Immutable. */
+  private static class Snapshot {
+    private static final Snapshot EMPTY = new Snapshot(Collections.<String[]>emptyList());
+
+    /** The names, each a tuple of parts with empty sub build labels for root builds. Sorted. */
+    private final String[][] names;
+
+    /** The parts of the names joined by spaces, in lower case. */
+    private final String[] texts;
+
+    /** The word starts of the texts, see getWordStarts, sorted by the text that follows them. */
+    private final long[] wordStarts;
+
+    private Snapshot(List<String[]> names) {
+      // Share the strings of parts that repeat, like projects and labels.
+      Map<String, String> strings = new HashMap<>();
+      List<String[]> sorted = new ArrayList<>(names.size());
+      for (String[] name : names) {
+        String[] parts = new String[name.length];
+        for (int i = 0; i < name.length; i++) {
+          String s = strings.get(name[i]);
+          if (s == null) {
+            strings.put(name[i], name[i]);
+            s = name[i];
+          }
+          parts[i] = s;
+        }
+        sorted.add(parts);
+      }
+      Collections.sort(sorted, NAME_ORDER);
+      List<String[]> unique = new ArrayList<>(sorted.size());
+      for (String[] name : sorted) {
+        if (unique.isEmpty() || NAME_ORDER.compare(unique.get(unique.size() - 1), name) != 0) {
+          unique.add(name);
+        }
+      }
+      this.names = unique.toArray(new String[unique.size()][]);
+      this.texts = new String[this.names.length];
+      List<Long> starts = new ArrayList<>();
+      for (int i = 0; i < this.names.length; i++) {
+        String text = join(this.names[i]);
+        texts[i] = toLowerCase(text);
+        for (int offset : getWordStarts(text)) {
+          if (offset <= MAX_OFFSET) {
+            starts.add(((long) i << OFFSET_BITS) | offset);
+          }
+        }
+      }
+      Long[] boxed = starts.toArray(new Long[starts.size()]);
+      Arrays.sort(
+          boxed,
+          new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+              return compareSuffixes(a, b);
+            }
+          });
+      this.wordStarts = new long[boxed.length];
+      for (int i = 0; i < boxed.length; i++) {
+        wordStarts[i] = boxed[i];
+      }
+    }
+
+    /** Returns whether the given name is in the snapshot. */
+    private boolean contains(String[] name) {
+      return Arrays.binarySearch(names, name, NAME_ORDER) >= 0;
+    }
+
+    /**
+     * Adds the indexes of the names a word of which starts with the given prefix, and that contain
+     * all the given words, to the given matches, until there are the given number of them.
+     */
+    private void addMatches(String prefix, String[] words, int limit, Set<Integer> matches) {
+      // Find the first word start whose text isn't less than the prefix.
+      int lo = 0;
+      int hi = wordStarts.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (compareSuffix(wordStarts[mid], prefix) < 0) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      for (int i = lo; i < wordStarts.length && matches.size() < limit; i++) {
+        int name = (int) (wordStarts[i] >>> OFFSET_BITS);
+        int offset = (int) (wordStarts[i] & MAX_OFFSET);
+        if (!texts[name].startsWith(prefix, offset)) {
+          break;
+        }
+        if (containsAll(texts[name], words)) {
+          matches.add(name);
+        }
+      }
+    }
+
+    // Compares the texts that follow the given word starts.
+    private int compareSuffixes(long a, long b) {
+      String textA = texts[(int) (a >>> OFFSET_BITS)];
+      String textB = texts[(int) (b >>> OFFSET_BITS)];
+      int offsetA = (int) (a & MAX_OFFSET);
+      int offsetB = (int) (b & MAX_OFFSET);
+      int n = Math.min(textA.length() - offsetA, textB.length() - offsetB);
+      for (int i = 0; i < n; i++) {
+        int c = textA.charAt(offsetA + i) - textB.charAt(offsetB + i);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return (textA.length() - offsetA) - (textB.length() - offsetB);
+    }
+
+    // Compares the text that follows the given word start with the given prefix, as if the text
+    // ended after as many chars as the prefix has.
+    private int compareSuffix(long wordStart, String prefix) {
+      String text = texts[(int) (wordStart >>> OFFSET_BITS)];
+      int offset = (int) (wordStart & MAX_OFFSET);
+      int n = Math.min(text.length() - offset, prefix.length());
+      for (int i = 0; i < n; i++) {
+        int c = text.charAt(offset + i) - prefix.charAt(i);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return n - prefix.length();
+    }
+  }
+
+  /** Names of a kind: those of the last load from the store and those written since. */
+  private static class Names {
+    /** The keys of the parts of the names in suggestions. */
+    private final String[] keys;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /** Names written since the snapshot was taken that aren't in it. Guarded by this. */
+    private final Set<List<String>> pending = new LinkedHashSet<>();
+
+    private Names(String... keys) {
+      this.keys = keys;
+    }
+
+    /** Adds the given name if it is new, and returns whether the new names should be merged. */
+    private boolean add(String... name) {
+      if (snapshot.contains(name)) {
+        return false;
+      }
+      synchronized (this) {
+        // The snapshot may have been replaced meanwhile.
+        if (!snapshot.contains(name)) {
+          pending.add(Arrays.asList(name));
+        }
+        return pending.size() > MAX_PENDING_NAMES;
+      }
+    }
+
+    /**
+     * Replaces the snapshot by one of the given names and the new ones, or of the names of the
+     * current snapshot and the new ones if null.
+     */
+    private void rebuild(List<String[]> loaded) {
+      List<String[]> names;
+      List<List<String>> merged;
+      synchronized (this) {
+        names = loaded != null ? loaded : new ArrayList<>(Arrays.asList(snapshot.names));
+        merged = new ArrayList<>(pending);
+      }
+      for (List<String> name : merged) {
+        names.add(name.toArray(new String[name.size()]));
+      }
+      Snapshot newSnapshot = new Snapshot(names);
+      synchronized (this) {
+        snapshot = newSnapshot;
+        pending.removeAll(merged);
+      }
+    }
+
+    /** Returns the names that match the given query, see NameIndex. */
+    private JSONArray suggest(String query, int limit) {
+      String[] words = toLowerCase(query).trim().split("\\s+");
+      // Look up the longest word, without the punctuation it starts with, as words of names start
+      // after it.
+      String prefix = "";
+      for (String word : words) {
+        int start = 0;
+        while (start < word.length() && !Character.isLetterOrDigit(word.charAt(start))) {
+          start++;
+        }
+        if (word.length() - start > prefix.length()) {
+          prefix = word.substring(start);
+        }
+      }
+      limit = Math.max(1, Math.min(limit, MAX_SUGGESTIONS));
+      Snapshot s = snapshot;
+      List<String[]> matches = new ArrayList<>();
+      if (prefix.isEmpty()) {
+        for (int i = 0; i < s.names.length && matches.size() < limit; i++) {
+          if (containsAll(s.texts[i], words)) {
+            matches.add(s.names[i]);
+          }
+        }
+      } else {
+        Set<Integer> indexes = new HashSet<>();
+        s.addMatches(prefix, words, limit, indexes);
+        for (int i : indexes) {
+          matches.add(s.names[i]);
+        }
+      }
+      List<List<String>> newNames;
+      synchronized (this) {
+        newNames = new ArrayList<>(pending);
+      }
+      for (List<String> name : newNames) {
+        if (matches.size() >= limit) {
+          break;
+        }
+        String[] parts = name.toArray(new String[name.size()]);
+        if (!s.contains(parts) && matches(join(parts), prefix, words)) {
+          matches.add(parts);
+        }
+      }
+      Collections.sort(matches, NAME_ORDER);
+      JSONArray ret = new JSONArray();
+      for (String[] name : matches) {
+        JSONObject item = new JSONObject();
+        for (int i = 0; i < keys.length; i++) {
+          // Root builds have no labels.
+          if (!name[i].isEmpty()) {
+            item.put(keys[i], name[i]);
+          }
+        }
+        ret.add(item);
+      }
+      return ret;
+    }
+  }
+
+  /** Orders names by their parts. */
+  private static final Comparator<String[]> NAME_ORDER =
+      new Comparator<String[]>() {
+        @Override
+        public int compare(String[] a, String[] b) {
+          for (int i = 0; i < a.length; i++) {
+            int c = a[i].compareTo(b[i]);
+            if (c != 0) {
+              return c;
+            }
+          }
+          return 0;
+        }
+      };
+
+  /** Projects and sub build labels of builds. */
+  private final Names jenkinsBuilds = new Names("jenkins_project", "sub_build_labels");
+
+  /** Full names, projects and sub build labels of test cases. */
+  private final Names testCases =
+      new Names("test_full_name", "jenkins_project", "sub_build_labels");
+
+  private final AtomicBoolean mergeScheduled = new AtomicBoolean();
+
+  private final ScheduledExecutorService executor;
+
+  private final Runnable reloadTask =
+      new Runnable() {
+        @Override
+        public void run() {
+          try {
+            reload();
+          } catch (SQLException | IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load test and build names: " + e.getMessage());
+          } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unexpected error while loading test and build names", e);
+          }
+        }
+      };
+
+  private final Runnable mergeTask =
+      new Runnable() {
+        @Override
+        public void run() {
+          mergeScheduled.set(false);
+          merge();
+        }
+      };
+
+  NameIndex() {
+    this.executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Vanadium Test Results Analyzer name index");
+                t.setDaemon(true);
+                return t;
+              }
+            });
+  }
+
+  /** Starts loading the names periodically, starting now. */
+  void start() {
+    executor.scheduleWithFixedDelay(reloadTask, 0, RELOAD_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  void stop() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  /** Loads the names in the background as soon as possible, e.g. after the store changed. */
+  void reloadSoon() {
+    try {
+      executor.execute(reloadTask);
+    } catch (RejectedExecutionException e) {
+      // Stopped.
+    }
+  }
+
+  /** Adds the names of the given build if they are new. */
+  void add(JenkinsBuildRecord record) {
+    if (jenkinsBuilds.add(record.getJenkinsProject(), fixNull(record.getSubBuildLabels()))) {
+      mergeSoon();
+    }
+  }
+
+  /** Adds the names of the given test case if they are new. */
+  void add(TestResultRecord record) {
+    if (testCases.add(
+        record.getTestFullName(),
+        record.getJenkinsProject(),
+        fixNull(record.getSubBuildLabels()))) {
+      mergeSoon();
+    }
+  }
+
+  /**
+   * Returns the projects and sub builds of builds that match the given query, at most the given
+   * number, sorted by name.
+   */
+  JSONArray suggestJenkinsBuilds(String query, int limit) {
+    return jenkinsBuilds.suggest(query, limit);
+  }
+
+  /** Returns the test cases that match the given query, see suggestJenkinsBuilds. */
+  JSONArray suggestTestCases(String query, int limit) {
+    return testCases.suggest(query, limit);
+  }
+
+  /** Merges the names added since the last load or merge into the sorted arrays now. */
+  void merge() {
+    jenkinsBuilds.rebuild(null);
+    testCases.rebuild(null);
+  }
+
+  // Merges the new names into the sorted arrays in the background, unless that's already planned.
+  private void mergeSoon() {
+    if (mergeScheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(mergeTask);
+      } catch (RejectedExecutionException e) {
+        // Stopped.
+      }
+    }
+  }
+
+  // Loads all names from the store.
+  private void reload() throws SQLException, IOException {
+    VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    if (plugin == null || !plugin.isResultsStoreConfigured()) {
+      return;
+    }
+    final List<String[]> builds = new ArrayList<>();
+    final List<String[]> tests = new ArrayList<>();
+    long startMs = System.currentTimeMillis();
+    plugin
+        .getResultsStore()
+        .getNames(
+            new ResultsStore.NameHandler() {
+              @Override
+              public void addJenkinsBuild(String jenkinsProject, String subBuildLabels) {
+                builds.add(new String[] {jenkinsProject, fixNull(subBuildLabels)});
+              }
+
+              @Override
+              public void addTestCase(
+                  String testFullName, String jenkinsProject, String subBuildLabels) {
+                tests.add(new String[] {testFullName, jenkinsProject, fixNull(subBuildLabels)});
+              }
+            });
+    jenkinsBuilds.rebuild(builds);
+    testCases.rebuild(tests);
+    LOGGER.fine(
+        String.format(
+            "Loaded %d build and %d test case names in %d ms",
+            builds.size(), tests.size(), System.currentTimeMillis() - startMs));
+  }
+
+  private static String fixNull(String s) {
+    return s == null ? "" : s;
+  }
+
+  private static String join(String[] parts) {
+    StringBuilder sb = new StringBuilder();
+    for (String part : parts) {
+      if (sb.length() > 0) {
+        sb.append(' ');
+      }
+      sb.append(part);
+    }
+    return sb.toString();
+  }
+
+  // Returns the given string in lower case, char by char, so offsets stay the same.
+  private static String toLowerCase(String s) {
+    char[] chars = s.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = Character.toLowerCase(chars[i]);
+    }
+    return new String(chars);
+  }
+
+  // Returns the offsets of the words of the given text: letters and digits after anything else, and
+  // upper case letters after lower case ones or before them, as in "HTTPServer".
+  private static List<Integer> getWordStarts(String text) {
+    List<Integer> starts = new ArrayList<>();
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (!Character.isLetterOrDigit(c)) {
+        continue;
+      }
+      char prev = i > 0 ? text.charAt(i - 1) : ' ';
+      if (!Character.isLetterOrDigit(prev)
+          || Character.isUpperCase(c) && Character.isLowerCase(prev)
+          || Character.isUpperCase(c)
+              && Character.isUpperCase(prev)
+              && i + 1 < text.length()
+              && Character.isLowerCase(text.charAt(i + 1))) {
+        starts.add(i);
+      }
+    }
+    return starts;
+  }
+
+  // Returns whether the given lower case text contains all the given words.
+  private static boolean containsAll(String text, String[] words) {
+    for (String word : words) {
+      if (!text.contains(word)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Returns whether a word of the given text starts with the given prefix and the text contains
+  // all the given words, for names that aren't in a snapshot.
+  private static boolean matches(String text, String prefix, String[] words) {
+    String lowerCase = toLowerCase(text);
+    if (!containsAll(lowerCase, words)) {
+      return false;
+    }
+    if (prefix.isEmpty()) {
+      return true;
+    }
+    for (int offset : getWordStarts(text)) {
+      if (lowerCase.startsWith(prefix, offset)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,55 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Date;
+
+/**
+ * Periodically adds the partitions of the coming weeks to the fact tables and drops the partitions
+ * older than the retention set on the settings page, see {@link PartitionManager}.
+ */
+@Extension
+public class PartitionMaintenance extends AsyncPeriodicWork {
+  public PartitionMaintenance() {
+    super("Vanadium Test Results Analyzer partition maintenance");
+  }
+
+  @Override
+  public long getRecurrencePeriod() {
+    return HOUR;
+  }
+
+  @Override
+  protected void execute(TaskListener listener) throws IOException, InterruptedException {
+    VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    if (plugin == null || plugin.getPluginDisabled() || !plugin.usesMySqlServer()) {
+      return;
+    }
+    Connection conn = null;
+    try {
+      conn = plugin.getConnection();
+      long droppedBeforeMs =
+          PartitionManager.maintain(
+              conn, plugin.getRetentionDays(), System.currentTimeMillis(), listener.getLogger());
+      // Rollups of the dropped weeks would outlive their rows.
+      if (droppedBeforeMs > 0) {
+        Rollups.deleteBefore(conn, droppedBeforeMs);
+        listener.getLogger().println("Deleted rollups before " + new Date(droppedBeforeMs));
+      }
+    } catch (SQLException e) {
+      listener.getLogger().println("Failed to maintain partitions: " + e.getMessage());
+    } finally {
+      if (conn != null) {
+        try {
+          conn.close();
+        } catch (SQLException e) {
+          listener.getLogger().println("Failed to close connection: " + e.getMessage());
+        }
+      }
+    }
+  }
+}
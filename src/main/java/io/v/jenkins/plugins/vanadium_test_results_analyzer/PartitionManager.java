@@ -0,0 +1,209 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weekly partitions of the fact tables.
+ *
+ * <p>The fact tables are partitioned by RANGE(TO_DAYS(start_time)), one partition per week starting
+ * on Monday, so queries over a time window only read the partitions of that window, and old data is
+ * dropped a whole partition at a time instead of with a DELETE. Every table has a first partition
+ * for rows older than its first week and a last one, bounded by MAXVALUE, for rows past the weeks
+ * created so far. New weeks are split off the last partition ahead of time, while it is still
+ * empty, so adding them doesn't move any rows.
+ */
+class PartitionManager {
+  /** The partition of rows older than the first week. */
+  private static final String FIRST_PARTITION = "p_start";
+
+  /** The partition of rows past the last week. */
+  private static final String FUTURE_PARTITION = "p_future";
+
+  /** Number of weeks after the current one that always have a partition. */
+  private static final int WEEKS_AHEAD = 4;
+
+  /** Days in a partition. */
+  private static final int PARTITION_DAYS = 7;
+
+  /** TO_DAYS('1970-01-01') in MySQL. */
+  private static final int EPOCH_TO_DAYS = 719528;
+
+  private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+  /** SQL to list the partitions of a table with their upper bounds, in order. */
+  private static final String SQL_PARTITIONS =
+      "SELECT partition_name, partition_description FROM INFORMATION_SCHEMA.PARTITIONS "
+          + "WHERE table_schema=DATABASE() AND table_name=? AND partition_name IS NOT NULL "
+          + "ORDER BY partition_ordinal_position";
+
+  private PartitionManager() {}
+
+  /**
+   * Returns the PARTITION BY clause of a table whose oldest row started at the given time, with
+   * one partition per week from that week to a few weeks from now.
+   */
+  static String getPartitionClause(long oldestStartMs, long nowMs) {
+    int firstDays = getWeekStartDays(Math.min(oldestStartMs, nowMs));
+    int endDays = getWeekStartDays(nowMs) + (WEEKS_AHEAD + 1) * PARTITION_DAYS;
+    StringBuilder sb = new StringBuilder("PARTITION BY RANGE (TO_DAYS(start_time)) (");
+    sb.append(getPartitionSql(FIRST_PARTITION, firstDays)).append(", ");
+    for (int days = firstDays; days < endDays; days += PARTITION_DAYS) {
+      sb.append(getPartitionSql(getPartitionName(days), days + PARTITION_DAYS)).append(", ");
+    }
+    sb.append("PARTITION ").append(FUTURE_PARTITION).append(" VALUES LESS THAN MAXVALUE)");
+    return sb.toString();
+  }
+
+  /** Returns whether the given table is partitioned. */
+  static boolean isPartitioned(Connection conn, String table) throws SQLException {
+    return !getPartitions(conn, table).isEmpty();
+  }
+
+  /** Returns the number of partitions of the given table: 0 if it isn't partitioned. */
+  static int getPartitionCount(Connection conn, String table) throws SQLException {
+    return getPartitions(conn, table).size();
+  }
+
+  /**
+   * Adds the partitions of the coming weeks to the fact tables, and drops the partitions whose
+   * rows all started more than the given number of days ago (0 to keep all rows). Tables that
+   * aren't partitioned yet are left alone. Progress is logged to the given stream. Returns the
+   * time before which rows were dropped, or -1 if none were.
+   */
+  static long maintain(Connection conn, int retentionDays, long nowMs, PrintStream log)
+      throws SQLException {
+    int endDays = getWeekStartDays(nowMs) + (WEEKS_AHEAD + 1) * PARTITION_DAYS;
+    int cutoffDays = retentionDays > 0 ? toDays(nowMs - retentionDays * DAY_MS) : 0;
+    int droppedDays = -1;
+    Statement stmt = conn.createStatement();
+    try {
+      for (String table : VTestResultsAnalyzerMgmtLink.FACT_TABLES) {
+        List<String[]> partitions = getPartitions(conn, table);
+        if (partitions.isEmpty()) {
+          log.println("Table " + table + " isn't partitioned yet, skipped.");
+          continue;
+        }
+
+        // Bounds of the partitions, except the future one.
+        int lastDays = -1;
+        StringBuilder expired = new StringBuilder();
+        boolean hasFuture = false;
+        for (String[] partition : partitions) {
+          if (FUTURE_PARTITION.equals(partition[0])) {
+            hasFuture = true;
+            continue;
+          }
+          int days = Integer.parseInt(partition[1]);
+          lastDays = Math.max(lastDays, days);
+          if (days <= cutoffDays) {
+            expired.append(expired.length() == 0 ? "" : ", ").append(partition[0]);
+            droppedDays = Math.max(droppedDays, days);
+          }
+        }
+
+        // Split the coming weeks off the future partition.
+        if (hasFuture && lastDays < endDays) {
+          int days = lastDays < 0 ? getWeekStartDays(nowMs) : lastDays;
+          StringBuilder sb = new StringBuilder();
+          for (; days < endDays; days += PARTITION_DAYS) {
+            sb.append(getPartitionSql(getPartitionName(days), days + PARTITION_DAYS)).append(", ");
+          }
+          sb.append("PARTITION ").append(FUTURE_PARTITION).append(" VALUES LESS THAN MAXVALUE");
+          stmt.executeUpdate(
+              "ALTER TABLE "
+                  + table
+                  + " REORGANIZE PARTITION "
+                  + FUTURE_PARTITION
+                  + " INTO ("
+                  + sb
+                  + ")");
+          log.println("Added partitions to table " + table + " up to " + formatDays(endDays));
+        }
+
+        // Drop expired weeks.
+        if (expired.length() > 0) {
+          stmt.executeUpdate("ALTER TABLE " + table + " DROP PARTITION " + expired);
+          log.println("Dropped partitions " + expired + " of table " + table);
+        }
+      }
+    } finally {
+      stmt.close();
+    }
+    return droppedDays < 0 ? -1 : getStartMs(droppedDays);
+  }
+
+  // Returns the names and upper bounds of the partitions of a table, in order.
+  private static List<String[]> getPartitions(Connection conn, String table) throws SQLException {
+    List<String[]> partitions = new ArrayList<>();
+    PreparedStatement ps = conn.prepareStatement(SQL_PARTITIONS);
+    try {
+      ps.setString(1, table);
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        partitions.add(new String[] {rs.getString(1), rs.getString(2)});
+      }
+    } finally {
+      ps.close();
+    }
+    return partitions;
+  }
+
+  private static String getPartitionSql(String name, int lessThanDays) {
+    return "PARTITION " + name + " VALUES LESS THAN (" + lessThanDays + ")";
+  }
+
+  // Returns the name of the partition of the week starting on the given day, e.g. "p20160502".
+  private static String getPartitionName(int days) {
+    return "p" + formatDays(days).replace("-", "");
+  }
+
+  // Formats the given TO_DAYS value as "yyyy-MM-dd".
+  private static String formatDays(int days) {
+    DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+    df.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return df.format(new Date((days - EPOCH_TO_DAYS) * DAY_MS));
+  }
+
+  // Returns TO_DAYS of the Monday of the week of the given time. Weeks are in the local time zone,
+  // like the DATETIME values written by the plugin.
+  private static int getWeekStartDays(long ms) {
+    Calendar cal = Calendar.getInstance();
+    cal.setTimeInMillis(ms);
+    int daysSinceMonday = (cal.get(Calendar.DAY_OF_WEEK) - Calendar.MONDAY + 7) % 7;
+    return toDays(ms) - daysSinceMonday;
+  }
+
+  // Returns the local midnight of the given TO_DAYS value.
+  private static long getStartMs(int days) {
+    Calendar utc = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    utc.setTimeInMillis((days - EPOCH_TO_DAYS) * DAY_MS);
+    Calendar local = Calendar.getInstance();
+    local.clear();
+    local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH), utc.get(Calendar.DAY_OF_MONTH));
+    return local.getTimeInMillis();
+  }
+
+  // Returns TO_DAYS of the local date of the given time.
+  private static int toDays(long ms) {
+    Calendar local = Calendar.getInstance();
+    local.setTimeInMillis(ms);
+    Calendar utc = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    utc.clear();
+    utc.set(local.get(Calendar.YEAR), local.get(Calendar.MONTH), local.get(Calendar.DAY_OF_MONTH));
+    return (int) (utc.getTimeInMillis() / DAY_MS) + EPOCH_TO_DAYS;
+  }
+}
@@ -0,0 +1,236 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import hudson.matrix.MatrixRun;
+import hudson.model.AbstractBuild;
+import hudson.model.FreeStyleBuild;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.test.AbstractTestResultAction;
+import hudson.tasks.test.TabulatedResult;
+import hudson.tasks.test.TestResult;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/** Extracts build and test result records from Jenkins builds. */
+public class ResultsCollector {
+
+  private ResultsCollector() {}
+
+  /** Returns the record of the given build, using the current time as its end time. */
+  public static JenkinsBuildRecord collectJenkinsBuild(AbstractBuild<?, ?> build) {
+    long curMs = System.currentTimeMillis();
+    return collectJenkinsBuild(build, (int) ((curMs - build.getStartTimeInMillis()) / 1000));
+  }
+
+  /** Returns the record of the given finished build, e.g. when importing past builds. */
+  public static JenkinsBuildRecord collectFinishedJenkinsBuild(AbstractBuild<?, ?> build) {
+    return collectJenkinsBuild(build, (int) (build.getDuration() / 1000));
+  }
+
+  private static JenkinsBuildRecord collectJenkinsBuild(
+      AbstractBuild<?, ?> build, int durationSec) {
+    return new JenkinsBuildRecord(
+        build.getRootBuild().getProject().getName(),
+        build.getRootBuild().getProject().getUrl(),
+        build.getNumber(),
+        getSubBuildLabels(build),
+        getSubBuildUrlName(build),
+        build.getBuiltOnStr().isEmpty() ? "master" : build.getBuiltOnStr(),
+        build.getStartTimeInMillis(),
+        durationSec,
+        build.getResult().toString());
+  }
+
+  /**
+   * Returns whether test results should be collected from the given build. Only free style builds
+   * and sub matrix builds have their own test results.
+   */
+  public static boolean hasTestResults(AbstractBuild<?, ?> build) {
+    return build instanceof FreeStyleBuild || build instanceof MatrixRun;
+  }
+
+  /**
+   * Returns the records of all test cases of the given build, created one at a time as they are
+   * pulled, so the memory used doesn't grow with the size of the test report.
+   */
+  public static Iterator<TestResultRecord> iterateTestResults(AbstractBuild<?, ?> build) {
+    return new TestResultIterator(build);
+  }
+
+  /**
+   * Returns the number of test cases of the given builds from the totals of their test reports,
+   * without collecting their records, e.g. to count the test results of a failed write.
+   */
+  public static int countTestResults(List<? extends AbstractBuild<?, ?>> builds) {
+    int count = 0;
+    for (AbstractBuild<?, ?> build : builds) {
+      for (AbstractTestResultAction action : build.getActions(AbstractTestResultAction.class)) {
+        count += action.getTotalCount();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the records of all test cases of the given builds like {@link
+   * #iterateTestResults(List)}, collected again every time they are iterated.
+   */
+  public static Iterable<TestResultRecord> getTestResults(
+      final List<? extends AbstractBuild<?, ?>> builds) {
+    return new Iterable<TestResultRecord>() {
+      @Override
+      public Iterator<TestResultRecord> iterator() {
+        return iterateTestResults(builds);
+      }
+    };
+  }
+
+  /**
+   * Returns the records of all test cases of the given builds, one build after another. Builds
+   * without their own test results are skipped.
+   */
+  public static Iterator<TestResultRecord> iterateTestResults(
+      final List<? extends AbstractBuild<?, ?>> builds) {
+    return new Iterator<TestResultRecord>() {
+      private int nextBuild = 0;
+      private Iterator<TestResultRecord> current = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!current.hasNext()) {
+          if (nextBuild >= builds.size()) {
+            return false;
+          }
+          AbstractBuild<?, ?> build = builds.get(nextBuild++);
+          if (hasTestResults(build)) {
+            current = iterateTestResults(build);
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public TestResultRecord next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Walks the test result tree of a build (actions, packages, classes, cases) lazily, keeping only
+   * one position per level.
+   */
+  private static class TestResultIterator implements Iterator<TestResultRecord> {
+    private final AbstractBuild<?, ?> build;
+    private final String project;
+    private final String projectUrl;
+    private final String subBuildLabels;
+    private final String subBuildUrlName;
+
+    private final Iterator<AbstractTestResultAction> actions;
+    private Iterator<? extends TestResult> packages = Collections.emptyIterator();
+    private Iterator<? extends TestResult> classes = Collections.emptyIterator();
+    private Iterator<? extends TestResult> cases = Collections.emptyIterator();
+    private TestResult packageResult;
+    private TestResult classResult;
+
+    TestResultIterator(AbstractBuild<?, ?> build) {
+      this.build = build;
+      this.project = build.getRootBuild().getProject().getName();
+      this.projectUrl = build.getRootBuild().getProject().getUrl();
+      this.subBuildLabels = getSubBuildLabels(build);
+      this.subBuildUrlName = getSubBuildUrlName(build);
+      this.actions = build.getActions(AbstractTestResultAction.class).iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!cases.hasNext()) {
+        if (classes.hasNext()) {
+          classResult = classes.next();
+          cases = ((TabulatedResult) classResult).getChildren().iterator();
+        } else if (packages.hasNext()) {
+          packageResult = packages.next();
+          classes = ((TabulatedResult) packageResult).getChildren().iterator();
+        } else if (actions.hasNext()) {
+          packages = ((TabulatedResult) actions.next().getResult()).getChildren().iterator();
+        } else {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public TestResultRecord next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      CaseResult caseResult = (CaseResult) cases.next();
+      String urlPath =
+          String.format(
+              "%s/%s/%s/",
+              packageResult.getSafeName(),
+              classResult.getSafeName(),
+              caseResult.getSafeName());
+      String result = "PASSED";
+      String failureSignature = null;
+      String failureSummary = null;
+      if (caseResult.isFailed()) {
+        result = "FAILED";
+        String errorDetails = caseResult.getErrorDetails();
+        String stackTrace = caseResult.getErrorStackTrace();
+        failureSignature = FailureSignature.normalize(errorDetails, stackTrace);
+        failureSummary = FailureSignature.summarize(errorDetails, stackTrace);
+      } else if (caseResult.isSkipped()) {
+        result = "SKIPPED";
+      }
+      return new TestResultRecord(
+          project,
+          projectUrl,
+          build.getNumber(),
+          subBuildLabels,
+          subBuildUrlName,
+          packageResult.getDisplayName(),
+          classResult.getDisplayName(),
+          caseResult.getDisplayName(),
+          caseResult.getFullDisplayName(),
+          urlPath,
+          build.getStartTimeInMillis(),
+          caseResult.getDuration(),
+          result,
+          failureSignature,
+          failureSummary);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  // Sub build labels for sub builds, null for root builds.
+  private static String getSubBuildLabels(AbstractBuild<?, ?> build) {
+    if (build instanceof MatrixRun) {
+      return build.getParent().getName();
+    }
+    return null;
+  }
+
+  // Url of the sub build's configuration relative to the project, null for root builds.
+  private static String getSubBuildUrlName(AbstractBuild<?, ?> build) {
+    if (build instanceof MatrixRun) {
+      return build.getParent().getShortUrl();
+    }
+    return null;
+  }
+}
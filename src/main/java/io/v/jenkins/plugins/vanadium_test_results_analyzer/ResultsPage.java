@@ -0,0 +1,157 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of the runs of a build or test case the dashboards load piece by piece: the runs after a
+ * cursor, in ascending or descending order of build number, optionally only those with some
+ * results.
+ *
+ * <p>Pages are found by their keys instead of offsets: the cursor is the build number of the last
+ * run of the previous page, so every page starts where an index says, however deep into the list
+ * it is.
+ *
+ * <p>A page that is full comes with the cursor of the next one, which may turn out to be empty.
+ */
+class ResultsPage {
+  /** Number of items of a page when the browser doesn't ask for a number. */
+  static final int DEFAULT_LIMIT = 500;
+
+  /** Maximum number of items of a page. */
+  static final int MAX_LIMIT = 10000;
+
+  /** Build number of the last run of the previous page, see getCursor. Null for the first page. */
+  private final String after;
+
+  private final int limit;
+  private final boolean descending;
+
+  /** The results items must have one of. Empty for all items. */
+  private final List<String> results;
+
+  ResultsPage(String after, int limit, boolean descending, List<String> results) {
+    this.after = after;
+    this.limit = limit;
+    this.descending = descending;
+    this.results = results;
+  }
+
+  /**
+   * Returns the page asked for by the given query parameters: the cursor of the previous page, the
+   * number of items (0 for the default), "asc" or "desc", and a comma separated list of results.
+   * Missing parameters are null.
+   */
+  static ResultsPage parse(String after, int limit, String order, String results) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("Invalid page size: " + limit);
+    }
+    boolean descending = false;
+    if (order != null && !order.isEmpty()) {
+      if (order.equalsIgnoreCase("desc")) {
+        descending = true;
+      } else if (!order.equalsIgnoreCase("asc")) {
+        throw new IllegalArgumentException("Invalid order: " + order);
+      }
+    }
+    List<String> resultList = new ArrayList<>();
+    if (results != null) {
+      for (String result : results.split(",")) {
+        if (!result.trim().isEmpty()) {
+          resultList.add(result.trim());
+        }
+      }
+    }
+    return new ResultsPage(
+        after == null || after.isEmpty() ? null : after,
+        limit == 0 ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT),
+        descending,
+        Collections.unmodifiableList(resultList));
+  }
+
+  /** Returns the cursor of the page after the one ending with the run of the given build. */
+  static String getCursor(int buildNumber) {
+    return String.valueOf(buildNumber);
+  }
+
+  /** Returns the maximum number of items of the page. */
+  int getLimit() {
+    return limit;
+  }
+
+  boolean isDescending() {
+    return descending;
+  }
+
+  /** Returns whether items with the given result belong on the page. */
+  boolean includes(String result) {
+    return results.isEmpty() || results.contains(result);
+  }
+
+  /** Returns whether the run of the given build comes after the cursor. */
+  boolean isAfter(int buildNumber) {
+    return after == null || compare(buildNumber, getAfterBuildNumber()) > 0;
+  }
+
+  /** Compares the given build numbers in the order of the page. */
+  int compare(int a, int b) {
+    return descending ? Integer.compare(b, a) : Integer.compare(a, b);
+  }
+
+  /**
+   * Returns the SQL condition on the given result column of the page, starting with " AND ", or an
+   * empty string if the page has all results. Adds its parameters to the given ones.
+   */
+  String getResultCondition(String resultCol, List<Object> params) {
+    if (results.isEmpty()) {
+      return "";
+    }
+    StringBuilder sql = new StringBuilder(" AND ").append(resultCol).append(" IN (?");
+    for (int i = 1; i < results.size(); i++) {
+      sql.append(",?");
+    }
+    params.addAll(results);
+    return sql.append(")").toString();
+  }
+
+  /**
+   * Returns the SQL condition on the given build number column that keeps the runs after the
+   * cursor, starting with " AND ", or an empty string on the first page. Adds its parameters to
+   * the given ones.
+   */
+  String getCursorCondition(String buildNumberCol, List<Object> params) {
+    if (after == null) {
+      return "";
+    }
+    params.add(getAfterBuildNumber());
+    return " AND " + buildNumberCol + (descending ? " < ?" : " > ?");
+  }
+
+  /**
+   * Returns the ORDER BY and LIMIT clauses of the page, sorting by the given build number column,
+   * and adds their parameters to the given ones.
+   */
+  String getOrderAndLimit(String buildNumberCol, List<Object> params) {
+    params.add(limit);
+    return " ORDER BY " + buildNumberCol + (descending ? " DESC" : " ASC") + " LIMIT ?";
+  }
+
+  /**
+   * Returns the conditions and order of a page of runs, with the given build number and result
+   * columns, to follow the WHERE clause of a query, and adds their parameters to the given ones.
+   */
+  String getRunsSql(String buildNumberCol, String resultCol, List<Object> params) {
+    return getResultCondition(resultCol, params)
+        + getCursorCondition(buildNumberCol, params)
+        + getOrderAndLimit(buildNumberCol, params);
+  }
+
+  private int getAfterBuildNumber() {
+    try {
+      return Integer.parseInt(after);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid page cursor: " + after);
+    }
+  }
+}
@@ -0,0 +1,336 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A durable local spool of build and test result records waiting to be written to the database.
+ *
+ * <p>Every spooled build gets its own file, written append-only to a temporary name and then
+ * atomically renamed, so a file with the final name is always complete. Files are named after the
+ * time they were spooled, so listing them in name order gives the spooling order. The {@link
+ * SpoolDrainer} deletes a file once its records are committed.
+ */
+class ResultsSpool {
+  private static final int MAGIC = 0x56545241;
+  private static final int FORMAT_VERSION = 3;
+
+  private static final byte ENTRY_JENKINS_BUILD = 'B';
+  private static final byte ENTRY_TEST_RESULT = 'T';
+  private static final byte ENTRY_END = 'E';
+
+  private static final String SPOOL_FILE_SUFFIX = ".spool";
+  private static final String TMP_FILE_SUFFIX = ".tmp";
+
+  /** Sub directory for spool files that can't be read or written to the database. */
+  private static final String FAILED_DIR = "failed";
+
+  private final File dir;
+  private final AtomicLong sequence = new AtomicLong();
+
+  /**
+   * The records of one spooled build, or of all builds of a matrix. Only the build records are kept
+   * in memory; the test results are read from the file every time they are iterated.
+   */
+  static class Entry {
+    private final File file;
+    private final List<JenkinsBuildRecord> jenkinsBuilds;
+    private final int testResultCount;
+
+    private Entry(File file, List<JenkinsBuildRecord> jenkinsBuilds, int testResultCount) {
+      this.file = file;
+      this.jenkinsBuilds = jenkinsBuilds;
+      this.testResultCount = testResultCount;
+    }
+
+    /** Returns the build records, which are empty if build results were not sent. */
+    List<JenkinsBuildRecord> getJenkinsBuilds() {
+      return jenkinsBuilds;
+    }
+
+    /**
+     * Returns the test results. Iterators throw an IllegalStateException if the file can't be read
+     * any more.
+     */
+    Iterable<TestResultRecord> getTestResults() {
+      return new Iterable<TestResultRecord>() {
+        @Override
+        public Iterator<TestResultRecord> iterator() {
+          return new TestResultIterator(file);
+        }
+      };
+    }
+
+    int getTestResultCount() {
+      return testResultCount;
+    }
+  }
+
+  /** Reads the test results of a spool file as they are pulled, skipping the build records. */
+  private static class TestResultIterator implements Iterator<TestResultRecord> {
+    private final File file;
+
+    /** The open file, or null before the first and after the last record. */
+    private DataInputStream in = null;
+    private boolean done = false;
+    private TestResultRecord next = null;
+
+    TestResultIterator(File file) {
+      this.file = file;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !done) {
+        try {
+          if (in == null) {
+            in = open(file);
+            readHeader(in, file);
+          }
+          next = readNext();
+        } catch (IOException e) {
+          close();
+          throw new IllegalStateException("Failed to read spool file " + file, e);
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public TestResultRecord next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      TestResultRecord ret = next;
+      next = null;
+      return ret;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    // Returns the next test result, or null after the last one. The file was checked by read.
+    private TestResultRecord readNext() throws IOException {
+      while (true) {
+        byte type = in.readByte();
+        if (type == ENTRY_JENKINS_BUILD) {
+          JenkinsBuildRecord.readFrom(in);
+        } else if (type == ENTRY_TEST_RESULT) {
+          return TestResultRecord.readFrom(in);
+        } else {
+          close();
+          return null;
+        }
+      }
+    }
+
+    private void close() {
+      done = true;
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // Nothing is written.
+        }
+        in = null;
+      }
+    }
+  }
+
+  ResultsSpool(File dir) {
+    this.dir = dir;
+  }
+
+  File getDir() {
+    return dir;
+  }
+
+  /**
+   * Writes the given records into a new spool file and returns the number of test results written.
+   * Test results are written as they are pulled from the iterator.
+   */
+  int add(List<JenkinsBuildRecord> jenkinsBuilds, Iterator<TestResultRecord> testResults)
+      throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create spool directory " + dir);
+    }
+    String name =
+        String.format("%013d-%08d", System.currentTimeMillis(), sequence.incrementAndGet());
+    File tmp = new File(dir, name + TMP_FILE_SUFFIX);
+    File file = new File(dir, name + SPOOL_FILE_SUFFIX);
+    FileOutputStream fos = new FileOutputStream(tmp);
+    int count = 0;
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      for (JenkinsBuildRecord jenkinsBuild : jenkinsBuilds) {
+        out.writeByte(ENTRY_JENKINS_BUILD);
+        jenkinsBuild.writeTo(out);
+      }
+      while (testResults.hasNext()) {
+        out.writeByte(ENTRY_TEST_RESULT);
+        testResults.next().writeTo(out);
+        count++;
+      }
+      out.writeByte(ENTRY_END);
+      out.writeInt(count);
+      out.flush();
+      // Make sure the data hits the disk before the file becomes visible to the drainer.
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    return count;
+  }
+
+  /** Returns all complete spool files, oldest first. */
+  List<File> list() {
+    File[] files =
+        dir.listFiles(
+            new FilenameFilter() {
+              @Override
+              public boolean accept(File d, String name) {
+                return name.endsWith(SPOOL_FILE_SUFFIX);
+              }
+            });
+    if (files == null) {
+      return Collections.emptyList();
+    }
+    Arrays.sort(files);
+    return new ArrayList<>(Arrays.asList(files));
+  }
+
+  /**
+   * Reads the build records of the given spool file and checks that its test results can be read,
+   * without keeping them in memory.
+   */
+  static Entry read(File file) throws IOException {
+    DataInputStream in = open(file);
+    try {
+      readHeader(in, file);
+      List<JenkinsBuildRecord> jenkinsBuilds = new ArrayList<>();
+      int numTestResults = 0;
+      while (true) {
+        byte type = in.readByte();
+        if (type == ENTRY_JENKINS_BUILD) {
+          jenkinsBuilds.add(JenkinsBuildRecord.readFrom(in));
+        } else if (type == ENTRY_TEST_RESULT) {
+          TestResultRecord.readFrom(in);
+          numTestResults++;
+        } else if (type == ENTRY_END) {
+          int count = in.readInt();
+          if (count != numTestResults) {
+            throw new IOException(
+                String.format(
+                    "Spool file %s is truncated: expected %d test results, found %d",
+                    file, count, numTestResults));
+          }
+          return new Entry(file, jenkinsBuilds, numTestResults);
+        } else {
+          throw new IOException("Unknown entry type " + type + " in spool file " + file);
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static DataInputStream open(File file) throws IOException {
+    return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+  }
+
+  // Reads the header of a spool file, checking that it has the current format.
+  private static void readHeader(DataInputStream in, File file) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a spool file: " + file);
+    }
+    int version = in.readInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported spool file version " + version + ": " + file);
+    }
+  }
+
+  /** Removes a spool file whose records have been committed. */
+  void remove(File file) throws IOException {
+    Files.deleteIfExists(file.toPath());
+  }
+
+  /**
+   * Moves a spool file that can't be read or written out of the way, keeping it for inspection.
+   */
+  void quarantine(File file) throws IOException {
+    File failedDir = getQuarantineDir();
+    if (!failedDir.isDirectory() && !failedDir.mkdirs()) {
+      throw new IOException("Failed to create directory " + failedDir);
+    }
+    Files.move(
+        file.toPath(),
+        new File(failedDir, file.getName()).toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** Returns the directory of quarantined spool files. */
+  File getQuarantineDir() {
+    return new File(dir, FAILED_DIR);
+  }
+
+  /** Returns the number of quarantined spool files. */
+  int getQuarantinedCount() {
+    String[] names = getQuarantineDir().list();
+    return names == null ? 0 : names.length;
+  }
+
+  /**
+   * Deletes temporary files left behind by spooling that never finished, e.g. because Jenkins was
+   * killed in the middle of a build.
+   */
+  void deleteStaleTmpFiles(long olderThanMs) {
+    File[] files =
+        dir.listFiles(
+            new FilenameFilter() {
+              @Override
+              public boolean accept(File d, String name) {
+                return name.endsWith(TMP_FILE_SUFFIX);
+              }
+            });
+    if (files == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    for (File f : files) {
+      if (now - f.lastModified() > olderThanMs) {
+        f.delete();
+      }
+    }
+  }
+
+  /** Returns the spooling time of the given spool file, which is encoded in its name. */
+  static long getSpoolTimeMs(File file) {
+    String name = file.getName();
+    try {
+      return Long.parseLong(name.substring(0, name.indexOf('-')));
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      return file.lastModified();
+    }
+  }
+}
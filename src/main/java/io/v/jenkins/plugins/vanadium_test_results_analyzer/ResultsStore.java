@@ -0,0 +1,104 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import net.sf.json.JSONArray;
+
+/**
+ * Where build stats and test results are written to and the dashboards read them from.
+ *
+ * <p>{@link MySqlResultsStore} keeps them on a MySQL server, with rollups, partitions and the other
+ * maintenance tasks of the plugin. {@link EmbeddedResultsStore} keeps them in a database file under
+ * JENKINS_HOME, for installations without a MySQL server and for trying the plugin out locally.
+ *
+ * <p>Query results are lists of items with the columns the dashboards show, named like the columns
+ * of the MySQL queries: times in ms since the epoch, averages and standard deviations as whole
+ * seconds. Items of root builds have no "sub_build_labels". Lists that grow with the time range
+ * are written to a {@link JsonArrayWriter} as they are read, so they are never held in memory, one
+ * {@link ResultsPage} at a time: they return the cursor of the next page, or null on the last one.
+ */
+interface ResultsStore {
+  /** Maximum number of tests in the list of longest tests. */
+  int NUM_LONGEST_TESTS = 50;
+
+  /**
+   * Writes the given build stats and test results in one transaction, replacing the ones of the
+   * same builds that were written before, and returns the number of test results written. Retries
+   * on transient errors, iterating the test results again, and records where the time went into the
+   * given timings.
+   */
+  int write(
+      List<JenkinsBuildRecord> jenkinsBuilds,
+      Iterable<TestResultRecord> testResults,
+      RetryingTransaction.Timings timings)
+      throws SQLException, InterruptedException;
+
+  /**
+   * Returns the duration stats and result counts of the builds in the given time range, per project
+   * and sub build, longest on average first.
+   */
+  JSONArray getJenkinsBuildStats(long startMs, long endMs) throws SQLException;
+
+  /** Writes a page of the runs of the given project and sub build in the time range. */
+  String getJenkinsBuildDetails(
+      long startMs,
+      long endMs,
+      String jenkinsProject,
+      String subBuildLabels,
+      ResultsPage page,
+      JsonArrayWriter out)
+      throws SQLException, IOException;
+
+  /** Returns the projects and sub builds with builds in the given time range. */
+  JSONArray getAvailableJenkinsBuilds(long startMs, long endMs) throws SQLException;
+
+  /**
+   * Adds the stats of the test cases that failed in the given time range, most runs first, to the
+   * given failed tests, and those of the {@link #NUM_LONGEST_TESTS} longest on average to the given
+   * longest tests.
+   */
+  void getTestStats(long startMs, long endMs, JSONArray failedTests, JSONArray longestTests)
+      throws SQLException;
+
+  /** Writes a page of the runs of a test case in a project and sub build in the time range. */
+  String getTestCaseDetails(
+      long startMs,
+      long endMs,
+      String testFullName,
+      String jenkinsProject,
+      String subBuildLabels,
+      ResultsPage page,
+      JsonArrayWriter out)
+      throws SQLException, IOException;
+
+  /** Receives the names of the builds and test cases of a store, see getNames. */
+  interface NameHandler {
+    void addJenkinsBuild(String jenkinsProject, String subBuildLabels);
+
+    void addTestCase(String testFullName, String jenkinsProject, String subBuildLabels);
+  }
+
+  /**
+   * Passes the projects and sub builds with builds, and the test cases with results, to the given
+   * handler, each once, whatever their time. Labels are null for root builds.
+   */
+  void getNames(NameHandler handler) throws SQLException, IOException;
+
+  /**
+   * Returns the end of the days whose test results were downsampled into daily summaries, or 0 if
+   * there are none. Test stats count those days whole: a time range that starts or ends in one of
+   * them is moved out to its start or end.
+   */
+  long getSummarizedEndMs() throws SQLException;
+
+  /** Returns the failures of the given time range grouped by signature, most frequent first. */
+  JSONArray getFailureSignatures(long startMs, long endMs) throws SQLException;
+
+  /** Returns the test cases that failed with the given signature in the time range. */
+  JSONArray getFailureSignatureTests(long startMs, long endMs, int signatureId)
+      throws SQLException;
+
+  /** Releases the resources of the store. */
+  void close();
+}
@@ -0,0 +1,611 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Writes build and test result records to the database. Transactions are left to the callers.
+ * Every write adds the start times of its records to a set of the caller, whose hours it marks
+ * dirty at the very end of its transaction, so their rollups are computed again. Marking them
+ * last keeps the locks of the marks, which every writer of the same hour waits for, short.
+ */
+class ResultsWriter {
+  private static final Logger LOGGER = Logger.getLogger(ResultsWriter.class.getName());
+
+  /** Columns of the Test Results table written by the plugin, in insertion order. */
+  private static final String TEST_RESULT_COLUMNS =
+      "project_id, build_number, sub_build_id, test_id, start_time, duration, result, update_time";
+
+  private static final int NUM_TEST_RESULT_COLUMNS = 8;
+
+  /**
+   * SQL to insert or update a row of the Jenkins Builds table. Rows are identified by their build,
+   * so sending the same build again overwrites its row instead of adding one.
+   */
+  private static final String SQL_UPSERT_JENKINS_BUILD =
+      "INSERT INTO "
+          + VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS
+          + "(project_id, build_number, sub_build_id, node, "
+          + "start_time, duration, result, update_time) VALUES "
+          + "(?,?,?,?,?,?,?,?) "
+          + "ON DUPLICATE KEY UPDATE node=VALUES(node), start_time=VALUES(start_time), "
+          + "duration=VALUES(duration), result=VALUES(result), update_time=VALUES(update_time)";
+
+  /** SQL to insert rows into the Test Results table, followed by the rows' parameters. */
+  private static final String SQL_INSERT_TEST_RESULTS_PREFIX =
+      "INSERT INTO "
+          + VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS
+          + "("
+          + TEST_RESULT_COLUMNS
+          + ") VALUES ";
+
+  private static final String SQL_TEST_RESULT_ROW = "(?,?,?,?,?,?,?,?)";
+
+  /**
+   * Makes inserts of test results update rows that already exist, e.g. when a batch is retried
+   * after it was partially written or a build's results are sent again.
+   */
+  private static final String SQL_ON_DUPLICATE_TEST_RESULT =
+      " ON DUPLICATE KEY UPDATE start_time=VALUES(start_time), duration=VALUES(duration), "
+          + "result=VALUES(result), update_time=VALUES(update_time)";
+
+  /** SQL to insert or update a row of the Test Results table. */
+  private static final String SQL_UPSERT_TEST_RESULT =
+      SQL_INSERT_TEST_RESULTS_PREFIX + SQL_TEST_RESULT_ROW + SQL_ON_DUPLICATE_TEST_RESULT;
+
+  /**
+   * Temporary table that bulk loaded test results go through, so that rows that already exist are
+   * updated like by the other paths instead of deleted and inserted again, which REPLACE would do.
+   */
+  private static final String TB_LOADED_TEST_RESULTS = "loaded_test_results";
+
+  /** SQL to create the empty temporary table with the columns of the Test Results table. */
+  private static final String SQL_CREATE_LOADED_TEST_RESULTS =
+      "CREATE TEMPORARY TABLE "
+          + TB_LOADED_TEST_RESULTS
+          + " SELECT "
+          + TEST_RESULT_COLUMNS
+          + " FROM "
+          + VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS
+          + " LIMIT 0";
+
+  private static final String SQL_DROP_LOADED_TEST_RESULTS =
+      "DROP TEMPORARY TABLE IF EXISTS " + TB_LOADED_TEST_RESULTS;
+
+  /** SQL to bulk load tab separated test result rows from the stream set on the statement. */
+  private static final String SQL_LOAD_TEST_RESULTS =
+      "LOAD DATA LOCAL INFILE 'test_results.tsv' INTO TABLE "
+          + TB_LOADED_TEST_RESULTS
+          + " CHARACTER SET utf8"
+          + " FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\'"
+          + " LINES TERMINATED BY '\\n' ("
+          + TEST_RESULT_COLUMNS
+          + ")";
+
+  /** SQL to insert or update the loaded test results in the Test Results table. */
+  private static final String SQL_UPSERT_LOADED_TEST_RESULTS =
+      "INSERT INTO "
+          + VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS
+          + "("
+          + TEST_RESULT_COLUMNS
+          + ") SELECT "
+          + TEST_RESULT_COLUMNS
+          + " FROM "
+          + TB_LOADED_TEST_RESULTS
+          + SQL_ON_DUPLICATE_TEST_RESULT;
+
+  /**
+   * SQL to insert or update the test result blob of a build. Sending a build again replaces its
+   * blob.
+   */
+  private static final String SQL_UPSERT_TEST_RESULT_BLOB =
+      "INSERT INTO "
+          + VTestResultsAnalyzerMgmtLink.TB_TEST_RESULT_BLOBS
+          + "(project_id, build_number, sub_build_id, start_time, "
+          + "num_tests, num_failed, data, update_time) VALUES "
+          + "(?,?,?,?,?,?,?,?) "
+          + "ON DUPLICATE KEY UPDATE start_time=VALUES(start_time), num_tests=VALUES(num_tests), "
+          + "num_failed=VALUES(num_failed), data=VALUES(data), update_time=VALUES(update_time)";
+
+  /** SQL to insert or update the failure of a test case in a build. */
+  private static final String SQL_UPSERT_TEST_FAILURE =
+      "INSERT INTO "
+          + VTestResultsAnalyzerMgmtLink.TB_TEST_FAILURES
+          + "(project_id, build_number, sub_build_id, test_id, signature_id, "
+          + "start_time, update_time) VALUES "
+          + "(?,?,?,?,?,?,?) "
+          + "ON DUPLICATE KEY UPDATE signature_id=VALUES(signature_id), "
+          + "start_time=VALUES(start_time), update_time=VALUES(update_time)";
+
+  /**
+   * Bulk loads with at least this many rows use LOAD DATA LOCAL INFILE. Smaller ones use multi-row
+   * INSERT statements, which have less per-statement overhead.
+   */
+  static final int LOAD_DATA_MIN_ROWS = 5000;
+
+  /** Maximum number of rows in one multi-row INSERT statement. */
+  private static final int MULTI_ROW_INSERT_MAX_ROWS = 2000;
+
+  /** Number of test result rows sent in one batch, unless bulk load is enabled. */
+  private static final int BATCH_SIZE = IngestScheduler.TARGET_BATCH_ROWS;
+
+  /** Number of test result rows sent in one batch with bulk load. */
+  private static final int BULK_BATCH_SIZE = IngestScheduler.TARGET_BULK_BATCH_ROWS;
+
+  /** MySQL error code when LOAD DATA LOCAL is disabled on the server or in the driver. */
+  private static final int ER_NOT_ALLOWED_COMMAND = 1148;
+
+  /** Set once the server rejects LOAD DATA LOCAL, so we stop trying. */
+  private static volatile boolean loadDataDisabled = false;
+
+  private ResultsWriter() {}
+
+  /** Tries LOAD DATA LOCAL again, e.g. after the server settings changed. */
+  static void resetLoadDataDisabled() {
+    loadDataDisabled = false;
+  }
+
+  /** The dimension ids of a list of test result records. */
+  private static class TestResultIds {
+    private final int[] projectIds;
+    private final int[] subBuildIds;
+    private final int[] testIds;
+
+    TestResultIds(List<TestResultRecord> records) throws SQLException {
+      DimensionCache dims = VTestResultsAnalyzerPluginImpl.getInstance().getDimensionCache();
+      int n = records.size();
+      projectIds = new int[n];
+      subBuildIds = new int[n];
+      // Records of one batch almost always come from the same build.
+      TestResultRecord prev = null;
+      for (int i = 0; i < n; i++) {
+        TestResultRecord r = records.get(i);
+        if (prev != null && r.getJenkinsProject().equals(prev.getJenkinsProject())) {
+          projectIds[i] = projectIds[i - 1];
+        } else {
+          projectIds[i] = dims.getProjectId(r.getJenkinsProject(), r.getProjectUrl());
+        }
+        if (prev != null && Objects.equals(r.getSubBuildLabels(), prev.getSubBuildLabels())) {
+          subBuildIds[i] = subBuildIds[i - 1];
+        } else {
+          subBuildIds[i] = dims.getSubBuildId(r.getSubBuildLabels(), r.getSubBuildUrlName());
+        }
+        prev = r;
+      }
+      testIds = dims.getTestIds(records);
+    }
+  }
+
+  /**
+   * Inserts or updates the given build record, adding its start time to the given ones and counting
+   * the row in the given writes if it is new.
+   */
+  static void writeJenkinsBuild(
+      Connection conn,
+      JenkinsBuildRecord record,
+      Set<Long> startTimesMs,
+      TableStatsCache.Writes writes)
+      throws SQLException {
+    DimensionCache dims = VTestResultsAnalyzerPluginImpl.getInstance().getDimensionCache();
+    int projectId = dims.getProjectId(record.getJenkinsProject(), record.getProjectUrl());
+    int subBuildId = dims.getSubBuildId(record.getSubBuildLabels(), record.getSubBuildUrlName());
+    PreparedStatement stmt = conn.prepareStatement(SQL_UPSERT_JENKINS_BUILD);
+    try {
+      stmt.setInt(1, projectId);
+      stmt.setInt(2, record.getBuildNumber()); // build_number
+      stmt.setInt(3, subBuildId); // sub build, 0 for root build.
+      stmt.setString(4, record.getNode()); // node
+      stmt.setTimestamp(5, new Timestamp(record.getStartTimeMs())); // start_time
+      stmt.setInt(6, record.getDurationSec()); // duration
+      stmt.setString(7, record.getResult());
+      stmt.setTimestamp(8, new Timestamp(System.currentTimeMillis()));
+      writes.addUpsert(VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS, 1, stmt.executeUpdate());
+    } finally {
+      stmt.close();
+    }
+    startTimesMs.add(record.getStartTimeMs());
+  }
+
+  /**
+   * Inserts the given test result records, updating the ones that already exist. With bulk load,
+   * they are sent as multi-row INSERT statements or, for large sets, as one LOAD DATA LOCAL INFILE
+   * that goes through a temporary table. Otherwise they are sent as one JDBC batch. Adds their
+   * start times to the given ones, and counts the new rows in the given writes.
+   */
+  static void writeTestResults(
+      Connection conn,
+      List<TestResultRecord> records,
+      boolean bulkLoad,
+      Set<Long> startTimesMs,
+      TableStatsCache.Writes writes)
+      throws SQLException {
+    if (records.isEmpty()) {
+      return;
+    }
+    TestResultIds ids = new TestResultIds(records);
+    writeTestFailures(conn, records, ids, writes);
+    for (TestResultRecord record : records) {
+      startTimesMs.add(record.getStartTimeMs());
+    }
+    if (!bulkLoad) {
+      writeTestResultsBatch(conn, records, ids, writes);
+      return;
+    }
+    if (records.size() >= LOAD_DATA_MIN_ROWS && !loadDataDisabled) {
+      try {
+        loadTestResults(conn, records, ids, writes);
+        return;
+      } catch (SQLException e) {
+        if (e.getErrorCode() != ER_NOT_ALLOWED_COMMAND) {
+          throw e;
+        }
+        LOGGER.warning(
+            "LOAD DATA LOCAL INFILE is disabled on the database server. "
+                + "Using multi-row INSERT statements instead: "
+                + e.getMessage());
+        loadDataDisabled = true;
+      }
+    }
+    insertTestResultsMultiRow(conn, records, ids, writes);
+  }
+
+  /**
+   * Writes any number of test result records pulled from the given iterator, in batches that are
+   * larger with bulk load. Adds their start times to the given ones, and counts the new rows in the
+   * given writes. Returns the number of records written.
+   */
+  static int writeTestResultsInBatches(
+      Connection conn,
+      Iterator<TestResultRecord> records,
+      boolean bulkLoad,
+      Set<Long> startTimesMs,
+      TableStatsCache.Writes writes)
+      throws SQLException {
+    int batchSize = bulkLoad ? BULK_BATCH_SIZE : BATCH_SIZE;
+    List<TestResultRecord> batch = new ArrayList<>(Math.min(batchSize, BATCH_SIZE));
+    int count = 0;
+    while (records.hasNext()) {
+      batch.add(records.next());
+      if (batch.size() >= batchSize || !records.hasNext()) {
+        writeTestResults(conn, batch, bulkLoad, startTimesMs, writes);
+        count += batch.size();
+        batch.clear();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Writes the test result records pulled from the given iterator as one blob per build, see {@link
+   * TestResultBlob}. Records of a build must be consecutive, as they are when they come from {@link
+   * ResultsCollector}. Adds their start times to the given ones, and counts the new rows in the
+   * given writes. Returns the number of records written.
+   */
+  static int writeTestResultBlobs(
+      Connection conn,
+      Iterator<TestResultRecord> records,
+      Set<Long> startTimesMs,
+      TableStatsCache.Writes writes)
+      throws SQLException {
+    List<TestResultRecord> build = new ArrayList<>();
+    int count = 0;
+    while (records.hasNext()) {
+      TestResultRecord record = records.next();
+      if (!build.isEmpty() && !isSameBuild(build.get(0), record)) {
+        writeTestResultBlob(conn, build, startTimesMs, writes);
+        count += build.size();
+        build.clear();
+      }
+      build.add(record);
+    }
+    if (!build.isEmpty()) {
+      writeTestResultBlob(conn, build, startTimesMs, writes);
+      count += build.size();
+    }
+    return count;
+  }
+
+  private static boolean isSameBuild(TestResultRecord a, TestResultRecord b) {
+    return a.getBuildNumber() == b.getBuildNumber()
+        && a.getJenkinsProject().equals(b.getJenkinsProject())
+        && Objects.equals(a.getSubBuildLabels(), b.getSubBuildLabels());
+  }
+
+  // Writes the records of one build as a single row, adding its start time to the given ones.
+  private static void writeTestResultBlob(
+      Connection conn,
+      List<TestResultRecord> records,
+      Set<Long> startTimesMs,
+      TableStatsCache.Writes writes)
+      throws SQLException {
+    TestResultIds ids = new TestResultIds(records);
+    writeTestFailures(conn, records, ids, writes);
+    TestResultBlob blob = TestResultBlob.create(records, ids.testIds);
+    byte[] data;
+    try {
+      data = blob.toBytes();
+    } catch (IOException e) {
+      throw new SQLException("Failed to encode test results", e);
+    }
+    TestResultRecord first = records.get(0);
+    PreparedStatement ps = conn.prepareStatement(SQL_UPSERT_TEST_RESULT_BLOB);
+    try {
+      ps.setInt(1, ids.projectIds[0]);
+      ps.setInt(2, first.getBuildNumber());
+      ps.setInt(3, ids.subBuildIds[0]);
+      ps.setTimestamp(4, new Timestamp(first.getStartTimeMs()));
+      ps.setInt(5, blob.size());
+      ps.setInt(6, blob.getFailedCount());
+      ps.setBytes(7, data);
+      ps.setTimestamp(8, new Timestamp(System.currentTimeMillis()));
+      writes.addUpsert(VTestResultsAnalyzerMgmtLink.TB_TEST_RESULT_BLOBS, 1, ps.executeUpdate());
+    } finally {
+      ps.close();
+    }
+    startTimesMs.add(first.getStartTimeMs());
+  }
+
+  // Inserts or updates the failures of the given records, with their failure signatures, so
+  // failures can be grouped by signature without reading the test results.
+  private static void writeTestFailures(
+      Connection conn,
+      List<TestResultRecord> records,
+      TestResultIds ids,
+      TableStatsCache.Writes writes)
+      throws SQLException {
+    List<TestResultRecord> failures = new ArrayList<>();
+    List<Integer> indexes = new ArrayList<>();
+    for (int i = 0; i < records.size(); i++) {
+      if (records.get(i).getFailureSignature() != null) {
+        failures.add(records.get(i));
+        indexes.add(i);
+      }
+    }
+    if (failures.isEmpty()) {
+      return;
+    }
+    int[] signatureIds =
+        VTestResultsAnalyzerPluginImpl.getInstance().getDimensionCache().getSignatureIds(failures);
+    PreparedStatement ps = conn.prepareStatement(SQL_UPSERT_TEST_FAILURE);
+    try {
+      Timestamp updateTime = new Timestamp(System.currentTimeMillis());
+      for (int f = 0; f < failures.size(); f++) {
+        int i = indexes.get(f);
+        ps.setInt(1, ids.projectIds[i]);
+        ps.setInt(2, failures.get(f).getBuildNumber());
+        ps.setInt(3, ids.subBuildIds[i]);
+        ps.setInt(4, ids.testIds[i]);
+        ps.setInt(5, signatureIds[f]);
+        ps.setTimestamp(6, new Timestamp(failures.get(f).getStartTimeMs()));
+        ps.setTimestamp(7, updateTime);
+        ps.addBatch();
+      }
+      writes.addUpserts(VTestResultsAnalyzerMgmtLink.TB_TEST_FAILURES, ps.executeBatch());
+    } finally {
+      ps.close();
+    }
+  }
+
+  // Sends one INSERT per row in a JDBC batch.
+  private static void writeTestResultsBatch(
+      Connection conn,
+      List<TestResultRecord> records,
+      TestResultIds ids,
+      TableStatsCache.Writes writes)
+      throws SQLException {
+    PreparedStatement ps = conn.prepareStatement(SQL_UPSERT_TEST_RESULT);
+    try {
+      Timestamp updateTime = new Timestamp(System.currentTimeMillis());
+      for (int i = 0; i < records.size(); i++) {
+        ps.clearParameters();
+        setTestResultParams(ps, 0, records.get(i), ids, i, updateTime);
+        ps.addBatch();
+      }
+      writes.addUpserts(VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS, ps.executeBatch());
+    } finally {
+      ps.close();
+    }
+  }
+
+  // Sends the rows as few multi-row INSERT statements.
+  private static void insertTestResultsMultiRow(
+      Connection conn,
+      List<TestResultRecord> records,
+      TestResultIds ids,
+      TableStatsCache.Writes writes)
+      throws SQLException {
+    Timestamp updateTime = new Timestamp(System.currentTimeMillis());
+    PreparedStatement ps = null;
+    int psRows = 0;
+    try {
+      for (int start = 0; start < records.size(); start += MULTI_ROW_INSERT_MAX_ROWS) {
+        int end = Math.min(start + MULTI_ROW_INSERT_MAX_ROWS, records.size());
+        // All full chunks share one statement; only the last chunk may need its own.
+        if (ps == null || psRows != end - start) {
+          if (ps != null) {
+            ps.close();
+          }
+          psRows = end - start;
+          ps = conn.prepareStatement(createMultiRowInsertSql(psRows));
+        }
+        for (int i = start; i < end; i++) {
+          setTestResultParams(
+              ps, (i - start) * NUM_TEST_RESULT_COLUMNS, records.get(i), ids, i, updateTime);
+        }
+        writes.addUpsert(VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS, psRows, ps.executeUpdate());
+      }
+    } finally {
+      if (ps != null) {
+        ps.close();
+      }
+    }
+  }
+
+  private static String createMultiRowInsertSql(int numRows) {
+    StringBuilder sb = new StringBuilder(SQL_INSERT_TEST_RESULTS_PREFIX);
+    sb.append(SQL_TEST_RESULT_ROW);
+    for (int i = 1; i < numRows; i++) {
+      sb.append(',').append(SQL_TEST_RESULT_ROW);
+    }
+    return sb.append(SQL_ON_DUPLICATE_TEST_RESULT).toString();
+  }
+
+  // Streams the rows to the server as a tab separated file into a temporary table, and upserts
+  // them from there. Temporary tables don't commit the transaction when created or dropped.
+  private static void loadTestResults(
+      Connection conn,
+      List<TestResultRecord> records,
+      TestResultIds ids,
+      TableStatsCache.Writes writes)
+      throws SQLException {
+    Statement stmt = conn.createStatement();
+    try {
+      // Left behind if a previous load on this connection failed.
+      stmt.execute(SQL_DROP_LOADED_TEST_RESULTS);
+      stmt.execute(SQL_CREATE_LOADED_TEST_RESULTS);
+      com.mysql.jdbc.Statement mysqlStmt = stmt.unwrap(com.mysql.jdbc.Statement.class);
+      mysqlStmt.setLocalInfileInputStream(new TsvInputStream(records, ids));
+      stmt.execute(SQL_LOAD_TEST_RESULTS);
+      mysqlStmt.setLocalInfileInputStream(null);
+      int affectedRows = stmt.executeUpdate(SQL_UPSERT_LOADED_TEST_RESULTS);
+      writes.addUpsert(VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS, records.size(), affectedRows);
+      stmt.execute(SQL_DROP_LOADED_TEST_RESULTS);
+    } finally {
+      stmt.close();
+    }
+  }
+
+  // Sets the parameters of the i-th test result row, starting after the given parameter offset.
+  private static void setTestResultParams(
+      PreparedStatement ps,
+      int offset,
+      TestResultRecord record,
+      TestResultIds ids,
+      int i,
+      Timestamp updateTime)
+      throws SQLException {
+    ps.setInt(offset + 1, ids.projectIds[i]); // project
+    ps.setInt(offset + 2, record.getBuildNumber()); // build_number
+    ps.setInt(offset + 3, ids.subBuildIds[i]); // sub build, 0 for root.
+    ps.setInt(offset + 4, ids.testIds[i]); // test case
+    ps.setTimestamp(offset + 5, new Timestamp(record.getStartTimeMs())); // start time.
+    ps.setFloat(offset + 6, record.getDuration()); // duration (in seconds)
+    ps.setString(offset + 7, record.getResult()); // result
+    ps.setTimestamp(offset + 8, updateTime);
+  }
+
+  /**
+   * Encodes test result records as LOAD DATA rows on the fly, so the whole file never has to be
+   * held in memory.
+   */
+  private static class TsvInputStream extends InputStream {
+    private final List<TestResultRecord> records;
+    private final TestResultIds ids;
+    private int next = 0;
+
+    // Timestamps are formatted in the JVM's time zone, like the driver does for setTimestamp.
+    private final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private final String updateTime = dateFormat.format(new Date());
+    private final StringBuilder line = new StringBuilder();
+    private byte[] buf = new byte[0];
+    private int pos = 0;
+
+    TsvInputStream(List<TestResultRecord> records, TestResultIds ids) {
+      this.records = records;
+      this.ids = ids;
+    }
+
+    @Override
+    public int read() {
+      if (!fill()) {
+        return -1;
+      }
+      return buf[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int n = Math.min(len, buf.length - pos);
+      System.arraycopy(buf, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    // Makes sure there are unread bytes in buf. Returns false at the end of the stream.
+    private boolean fill() {
+      while (pos >= buf.length) {
+        if (next >= records.size()) {
+          return false;
+        }
+        encode(next++);
+      }
+      return true;
+    }
+
+    private void encode(int i) {
+      TestResultRecord record = records.get(i);
+      line.setLength(0);
+      line.append(ids.projectIds[i]).append('\t');
+      line.append(record.getBuildNumber()).append('\t');
+      line.append(ids.subBuildIds[i]).append('\t');
+      line.append(ids.testIds[i]).append('\t');
+      line.append(dateFormat.format(new Date(record.getStartTimeMs()))).append('\t');
+      line.append(record.getDuration()).append('\t');
+      appendField(record.getResult()).append('\t');
+      line.append(updateTime).append('\n');
+      buf = line.toString().getBytes(StandardCharsets.UTF_8);
+      pos = 0;
+    }
+
+    // Appends a string field, escaping the characters that LOAD DATA treats specially.
+    private StringBuilder appendField(String s) {
+      if (s == null) {
+        return line.append("\\N");
+      }
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        switch (c) {
+          case '\\':
+            line.append("\\\\");
+            break;
+          case '\t':
+            line.append("\\t");
+            break;
+          case '\n':
+            line.append("\\n");
+            break;
+          case '\r':
+            line.append("\\r");
+            break;
+          case '\0':
+            line.append("\\0");
+            break;
+          default:
+            line.append(c);
+        }
+      }
+      return line;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs writes in a transaction on a pooled connection, retrying with exponential backoff when they
+ * fail for reasons that are likely to go away, such as deadlocks, lock wait timeouts, dropped
+ * connections and a pool with no free connection.
+ *
+ * <p>Retrying is only safe because every write is an upsert on the row's natural key: running a
+ * transaction again after it failed half way can't duplicate rows.
+ */
+class RetryingTransaction {
+  private static final Logger LOGGER = Logger.getLogger(RetryingTransaction.class.getName());
+
+  /** Maximum number of attempts, including the first one. */
+  private static final int MAX_ATTEMPTS = 6;
+
+  /** Delay before the first retry. Doubled for each following retry. */
+  private static final long INITIAL_RETRY_DELAY_MS = 200;
+
+  /** Upper bound of the delay between retries. */
+  private static final long MAX_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(10);
+
+  /** MySQL error code when a lock wait timed out. */
+  private static final int ER_LOCK_WAIT_TIMEOUT = 1205;
+
+  /** MySQL error code when a transaction was rolled back to resolve a deadlock. */
+  private static final int ER_LOCK_DEADLOCK = 1213;
+
+  private static final Random RANDOM = new Random();
+
+  /** The writes of one transaction. */
+  interface Work {
+    void run(Connection conn) throws SQLException;
+  }
+
+  /** Where the connections of transactions come from. */
+  interface ConnectionSource {
+    Connection getConnection() throws SQLException;
+  }
+
+  /** The connection pool of the plugin's MySQL server. */
+  private static final ConnectionSource PLUGIN_POOL =
+      new ConnectionSource() {
+        @Override
+        public Connection getConnection() throws SQLException {
+          return VTestResultsAnalyzerPluginImpl.getInstance().getConnection();
+        }
+      };
+
+  /** Where the time of a transaction went, as measured by its last attempt. */
+  static class Timings {
+    private long connectMs;
+    private long writeMs;
+    private long commitMs;
+    private int attempts;
+
+    /** Returns the time it took to get a connection from the pool. */
+    long getConnectMs() {
+      return connectMs;
+    }
+
+    /** Returns the time it took to run the writes, before committing. */
+    long getWriteMs() {
+      return writeMs;
+    }
+
+    long getCommitMs() {
+      return commitMs;
+    }
+
+    /** Returns the total time of the last attempt. */
+    long getTotalMs() {
+      return connectMs + writeMs + commitMs;
+    }
+
+    /** Returns the number of attempts made, including the first one. */
+    int getAttempts() {
+      return attempts;
+    }
+  }
+
+  private RetryingTransaction() {}
+
+  /**
+   * Runs the given work in a transaction until it commits. Throws the last error if it fails with a
+   * non transient error or too many times.
+   */
+  static void run(Work work) throws SQLException, InterruptedException {
+    run(work, new Timings());
+  }
+
+  /** Like {@link #run(Work)}, recording where the time went into the given timings. */
+  static void run(Work work, Timings timings) throws SQLException, InterruptedException {
+    run(PLUGIN_POOL, work, timings);
+  }
+
+  /** Like {@link #run(Work, Timings)}, on connections from the given source. */
+  static void run(ConnectionSource source, Work work, Timings timings)
+      throws SQLException, InterruptedException {
+    for (int attempt = 1; ; attempt++) {
+      timings.attempts = attempt;
+      try {
+        runOnce(source, work, timings);
+        return;
+      } catch (SQLException e) {
+        if (attempt >= MAX_ATTEMPTS || !isTransient(e)) {
+          throw e;
+        }
+        long delayMs = getRetryDelayMs(attempt);
+        LOGGER.info(
+            String.format(
+                "Transaction failed (attempt %d of %d), retrying in %d ms: %s",
+                attempt, MAX_ATTEMPTS, delayMs, e.getMessage()));
+        Thread.sleep(delayMs);
+      }
+    }
+  }
+
+  private static void runOnce(ConnectionSource source, Work work, Timings timings)
+      throws SQLException {
+    timings.connectMs = timings.writeMs = timings.commitMs = 0;
+    long startMs = System.currentTimeMillis();
+    Connection conn = source.getConnection();
+    long connectedMs = System.currentTimeMillis();
+    timings.connectMs = connectedMs - startMs;
+    try {
+      conn.setAutoCommit(false);
+      work.run(conn);
+      long writtenMs = System.currentTimeMillis();
+      timings.writeMs = writtenMs - connectedMs;
+      conn.commit();
+      timings.commitMs = System.currentTimeMillis() - writtenMs;
+      conn.setAutoCommit(true);
+    } finally {
+      // Uncommitted work is rolled back when the connection goes back to the pool.
+      conn.close();
+    }
+  }
+
+  /** Returns whether the given error is likely to go away when the transaction is retried. */
+  static boolean isTransient(SQLException e) {
+    if (e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+      return true;
+    }
+    if (e.getErrorCode() == ER_LOCK_WAIT_TIMEOUT || e.getErrorCode() == ER_LOCK_DEADLOCK) {
+      return true;
+    }
+    // Connection errors (08) and transaction rollbacks (40).
+    String state = e.getSQLState();
+    return state != null && (state.startsWith("08") || state.startsWith("40"));
+  }
+
+  // Exponential backoff with jitter, so writers that failed together don't retry together.
+  private static long getRetryDelayMs(int attempt) {
+    long delayMs = Math.min(INITIAL_RETRY_DELAY_MS << (attempt - 1), MAX_RETRY_DELAY_MS);
+    return delayMs / 2 + (long) (RANDOM.nextDouble() * delayMs / 2);
+  }
+}
@@ -0,0 +1,104 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes the rollups of dirty hours in the background, see {@link Rollups}.
+ *
+ * <p>Dashboards never compact: they read the hours from the first dirty one of their window on
+ * from the raw rows until the next run, so page loads don't compete with writes for locks.
+ */
+class RollupCompactor {
+  private static final Logger LOGGER = Logger.getLogger(RollupCompactor.class.getName());
+
+  /** How often dirty hours are looked for. */
+  private static final long COMPACT_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+
+  /** Number of days looked up at a time. */
+  private static final int DAYS_PER_PASS = 100;
+
+  private final ScheduledExecutorService executor;
+
+  private final Runnable compactTask =
+      new Runnable() {
+        @Override
+        public void run() {
+          try {
+            compactAll();
+          } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to compute rollups: " + e.getMessage());
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unexpected error while computing rollups", e);
+          }
+        }
+      };
+
+  RollupCompactor() {
+    this.executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Vanadium Test Results Analyzer rollup compactor");
+                t.setDaemon(true);
+                return t;
+              }
+            });
+  }
+
+  /** Starts compacting periodically. */
+  void start() {
+    executor.scheduleWithFixedDelay(
+        compactTask, COMPACT_INTERVAL_MS, COMPACT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops compacting. Hours that are still dirty are compacted after the next start. */
+  void stop() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  // Compacts all dirty days, oldest first.
+  private void compactAll() throws SQLException, InterruptedException {
+    VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    if (plugin == null || plugin.getPluginDisabled() || !plugin.usesMySqlServer()) {
+      return;
+    }
+    while (!Thread.currentThread().isInterrupted()) {
+      List<Long> days;
+      Connection conn = plugin.getConnection();
+      try {
+        days = Rollups.getDirtyDays(conn, DAYS_PER_PASS);
+      } finally {
+        conn.close();
+      }
+      if (days.isEmpty()) {
+        return;
+      }
+      for (long dayStartMs : days) {
+        compactDay(dayStartMs);
+      }
+      LOGGER.fine("Computed the rollups of " + days.size() + " days");
+    }
+  }
+
+  private static void compactDay(final long dayStartMs) throws SQLException, InterruptedException {
+    RetryingTransaction.run(
+        new RetryingTransaction.Work() {
+          @Override
+          public void run(Connection conn) throws SQLException {
+            Rollups.compactDay(conn, dayStartMs);
+          }
+        });
+  }
+}
@@ -0,0 +1,801 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hourly and daily rollups of the fact tables, so overview dashboards don't read every build and
+ * test run of their time window.
+ *
+ * <p>Every write marks the hours it touches as dirty, in the same transaction. Compacting a day
+ * claims its dirty hours, computes their rollups again from the raw rows, and the day's rollup from
+ * its hours. A bucket's rollup is always replaced as a whole, so compacting it again is harmless.
+ * Buckets are in the local time zone, like the DATETIME values written by the plugin.
+ *
+ * <p>Dashboards split their time window with {@link Window}: whole days are read from the daily
+ * rollups, the whole hours around them from the hourly rollups, and only the partial hours at the
+ * edges from the raw rows.
+ *
+ * <p>Test rollups also have a {@link DurationSketch} of their durations, computed in Java as SQL
+ * can't, so percentiles of any window are merged from the sketches of its buckets.
+ */
+class Rollups {
+  /** Lengths of the buckets, in the bucket_hours column. */
+  static final int HOURLY = 1;
+  static final int DAILY = 24;
+
+  private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+  /** MySQL error code when a table doesn't exist. */
+  private static final int ER_NO_SUCH_TABLE = 1146;
+
+  private static final String TB_BUILDS = VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS;
+  private static final String TB_TESTS = VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS;
+  private static final String TB_BUILD_ROLLUPS = VTestResultsAnalyzerMgmtLink.TB_BUILD_ROLLUPS;
+  private static final String TB_TEST_ROLLUPS = VTestResultsAnalyzerMgmtLink.TB_TEST_ROLLUPS;
+  private static final String TB_DIRTY_HOURS = VTestResultsAnalyzerMgmtLink.TB_ROLLUP_DIRTY_HOURS;
+  private static final String TB_TEST_SUMMARIES = VTestResultsAnalyzerMgmtLink.TB_TEST_SUMMARIES;
+
+  /** SQL to mark an hour dirty. An hour that is already dirty keeps its first update time. */
+  private static final String SQL_MARK_DIRTY =
+      "INSERT IGNORE INTO " + TB_DIRTY_HOURS + " (hour_start, update_time) VALUES (?,?)";
+
+  /** SQL to mark every hour with rows in a fact table dirty, followed by the table. */
+  private static final String SQL_MARK_ALL_DIRTY =
+      "INSERT IGNORE INTO "
+          + TB_DIRTY_HOURS
+          + " (hour_start, update_time) "
+          + "SELECT DISTINCT DATE_FORMAT(start_time, '%Y-%m-%d %H:00:00'), NOW() FROM ";
+
+  /** SQL to query the dirty hours, followed by the order. */
+  private static final String SQL_DIRTY_HOURS = "SELECT hour_start FROM " + TB_DIRTY_HOURS;
+
+  /** SQL to query the first dirty hour in a range. */
+  private static final String SQL_FIRST_DIRTY_HOUR =
+      "SELECT MIN(hour_start) FROM " + TB_DIRTY_HOURS + " WHERE hour_start >= ? AND hour_start < ?";
+
+  /** SQL to query the last day with summaries of downsampled test results. */
+  private static final String SQL_LAST_SUMMARY_DAY =
+      "SELECT MAX(day_start) FROM " + TB_TEST_SUMMARIES;
+
+  /** Columns of the build rollups, in insertion order. */
+  private static final String BUILD_ROLLUP_COLUMNS =
+      "(bucket_hours, bucket_start, project_id, sub_build_id, count, success_count, "
+          + "unstable_count, failure_count, aborted_count, sum_duration, sum_sq_duration, "
+          + "min_duration, max_duration, update_time) ";
+
+  /** Columns of the test rollups, in insertion order. */
+  private static final String TEST_ROLLUP_COLUMNS =
+      "(bucket_hours, bucket_start, test_id, project_id, sub_build_id, count, failed_count, "
+          + "sum_duration, min_duration, max_duration, update_time) ";
+
+  /** Build stats of raw rows, with the names of the rollup columns. */
+  private static final String SQL_AGGREGATE_BUILDS =
+      "COUNT(*) AS count, "
+          + "COUNT(CASE WHEN result IN ('SUCCESS') THEN 1 END) AS success_count, "
+          + "COUNT(CASE WHEN result IN ('UNSTABLE') THEN 1 END) AS unstable_count, "
+          + "COUNT(CASE WHEN result IN ('FAILURE') THEN 1 END) AS failure_count, "
+          + "COUNT(CASE WHEN result IN ('ABORTED') THEN 1 END) AS aborted_count, "
+          + "SUM(duration) AS sum_duration, "
+          + "SUM(duration * duration) AS sum_sq_duration, "
+          + "MIN(duration) AS min_duration, "
+          + "MAX(duration) AS max_duration ";
+
+  /** Test case stats of raw rows, with the names of the rollup columns. */
+  private static final String SQL_AGGREGATE_TESTS =
+      "COUNT(*) AS count, "
+          + "COUNT(CASE WHEN result IN ('FAILED') THEN 1 END) AS failed_count, "
+          + "SUM(duration) AS sum_duration, "
+          + "MIN(duration) AS min_duration, "
+          + "MAX(duration) AS max_duration ";
+
+  /** Makes inserts of test rollups that already exist add their stats to the existing ones. */
+  private static final String SQL_ADD_TEST_STATS =
+      String.format(
+          " ON DUPLICATE KEY UPDATE %1$s.count=%1$s.count+VALUES(count), "
+              + "%1$s.failed_count=%1$s.failed_count+VALUES(failed_count), "
+              + "%1$s.sum_duration=%1$s.sum_duration+VALUES(sum_duration), "
+              + "%1$s.min_duration=LEAST(%1$s.min_duration, VALUES(min_duration)), "
+              + "%1$s.max_duration=GREATEST(%1$s.max_duration, VALUES(max_duration))",
+          TB_TEST_ROLLUPS);
+
+  /** SQL to set the duration sketch of a test rollup. */
+  private static final String SQL_SET_TEST_SKETCH =
+      "UPDATE "
+          + TB_TEST_ROLLUPS
+          + " SET duration_sketch=? WHERE bucket_hours=? AND bucket_start=? AND test_id=? "
+          + "AND project_id=? AND sub_build_id=?";
+
+  /** Build stats of rollups. */
+  private static final String SQL_MERGE_BUILDS =
+      "SUM(count), SUM(success_count), SUM(unstable_count), SUM(failure_count), "
+          + "SUM(aborted_count), SUM(sum_duration), SUM(sum_sq_duration), "
+          + "MIN(min_duration), MAX(max_duration) ";
+
+  /** Test case stats of rollups. */
+  private static final String SQL_MERGE_TESTS =
+      "SUM(count), SUM(failed_count), SUM(sum_duration), MIN(min_duration), MAX(max_duration) ";
+
+  /** Selects the rollups of the buckets of a {@link Window}. Takes 6 parameters. */
+  private static final String SQL_WINDOW_BUCKETS =
+      "((bucket_hours="
+          + DAILY
+          + " AND bucket_start >= ? AND bucket_start < ?) OR (bucket_hours="
+          + HOURLY
+          + " AND (bucket_start >= ? AND bucket_start < ? "
+          + "OR bucket_start >= ? AND bucket_start < ?)))";
+
+  /** Selects the raw rows at the edges of a {@link Window}. Takes 4 parameters. */
+  private static final String SQL_WINDOW_EDGES =
+      "(start_time >= ? AND start_time < ? OR start_time >= ? AND start_time < ?)";
+
+  /**
+   * Stats of the builds of a {@link Window}, per project and sub build, with one row from the
+   * rollups and one from the raw rows for each. Takes the parameters of {@link Window#getParams}.
+   */
+  static final String SQL_WINDOW_BUILDS =
+      "SELECT project_id, sub_build_id, count, success_count, unstable_count, failure_count, "
+          + "aborted_count, sum_duration, sum_sq_duration, min_duration, max_duration FROM "
+          + TB_BUILD_ROLLUPS
+          + " WHERE "
+          + SQL_WINDOW_BUCKETS
+          + " UNION ALL SELECT project_id, sub_build_id, "
+          + SQL_AGGREGATE_BUILDS
+          + "FROM "
+          + TB_BUILDS
+          + " WHERE "
+          + SQL_WINDOW_EDGES
+          + " GROUP BY project_id, sub_build_id";
+
+  /**
+   * Stats of the test cases of a {@link Window} stored as rows, per project and sub build, with one
+   * row from the rollups and one from the raw rows for each. Takes the parameters of {@link
+   * Window#getParams}. Test results stored as blobs are in the rollups, but not in the raw rows.
+   */
+  static final String SQL_WINDOW_TESTS =
+      "SELECT test_id, project_id, sub_build_id, count, failed_count, sum_duration, "
+          + "min_duration, max_duration FROM "
+          + TB_TEST_ROLLUPS
+          + " WHERE "
+          + SQL_WINDOW_BUCKETS
+          + " UNION ALL SELECT test_id, project_id, sub_build_id, "
+          + SQL_AGGREGATE_TESTS
+          + "FROM "
+          + TB_TESTS
+          + " WHERE "
+          + SQL_WINDOW_EDGES
+          + " GROUP BY test_id, project_id, sub_build_id";
+
+  /**
+   * Duration sketches of some test cases in a {@link Window}, by test case, project and sub build:
+   * the sketches of the rollups, with null durations, and the durations of the raw rows, with null
+   * sketches. Rollups computed before they had sketches have neither. Takes the placeholders of
+   * the test ids as its format argument, and the parameters of {@link Window#getParams(List)}.
+   */
+  static final String SQL_WINDOW_TEST_DURATIONS =
+      "SELECT test_id, project_id, sub_build_id, duration_sketch, NULL AS duration FROM "
+          + TB_TEST_ROLLUPS
+          + " WHERE "
+          + SQL_WINDOW_BUCKETS
+          + " AND test_id IN (%1$s) UNION ALL "
+          + "SELECT test_id, project_id, sub_build_id, NULL, IFNULL(duration, 0) FROM "
+          + TB_TESTS
+          + " WHERE "
+          + SQL_WINDOW_EDGES
+          + " AND test_id IN (%1$s)";
+
+  /**
+   * A time window split into whole days, the whole hours before and after them, and the partial
+   * hours at the edges. The window includes its end, to the second, like BETWEEN does.
+   *
+   * <p>Downsampled test results are only in the daily rollups of their day, see Downsampler, so
+   * edges in days that were downsampled are moved out to whole days. Otherwise the runs of those
+   * days would be missing from the stats.
+   */
+  static class Window {
+    private final long startMs;
+    private final long endMs;
+    private final long hourStartMs;
+    private final long hourEndMs;
+    private final long dayStartMs;
+    private final long dayEndMs;
+
+    /**
+     * Splits the given window, reading only the whole hours that end by the given time from the
+     * rollups, e.g. those before the first dirty hour. The rest is read from the raw rows. Edges
+     * before the given end of the downsampled days, see getSummarizedEnd, are moved out to whole
+     * days.
+     */
+    Window(long startEpoch, long endEpoch, long rollupsEndMs, long summarizedEndMs) {
+      long start = startEpoch / 1000 * 1000;
+      long end = endEpoch / 1000 * 1000 + 1000;
+      if (start < summarizedEndMs) {
+        start = getDayStart(start);
+      }
+      if (end < summarizedEndMs && getDayStart(end) != end) {
+        end = getNextDayStart(end);
+      }
+      startMs = start;
+      endMs = end;
+      long ceilHour = getHourStart(startMs) == startMs ? startMs : getHourStart(startMs + HOUR_MS);
+      long floorHour = getHourStart(Math.min(endMs, rollupsEndMs));
+      if (ceilHour >= floorHour) {
+        hourStartMs = hourEndMs = dayStartMs = dayEndMs = endMs;
+        return;
+      }
+      hourStartMs = ceilHour;
+      hourEndMs = floorHour;
+      long ceilDay = getDayStart(ceilHour) == ceilHour ? ceilHour : getNextDayStart(ceilHour);
+      long floorDay = getDayStart(floorHour);
+      if (ceilDay >= floorDay) {
+        dayStartMs = dayEndMs = hourEndMs;
+      } else {
+        dayStartMs = ceilDay;
+        dayEndMs = floorDay;
+      }
+    }
+
+    /** Returns the start of the window, which is earlier than asked if it was moved out. */
+    long getStartMs() {
+      return startMs;
+    }
+
+    /** Returns the end of the window, exclusive, which is later than asked if it was moved out. */
+    long getEndMs() {
+      return endMs;
+    }
+
+    /** Returns the start of the part of the window read from rollups. */
+    long getRollupStartMs() {
+      return hourStartMs;
+    }
+
+    /** Returns the end of the part of the window read from rollups, exclusive. */
+    long getRollupEndMs() {
+      return hourEndMs;
+    }
+
+    /** Returns the ranges read from the raw rows, as start and exclusive end. Some may be empty. */
+    long[][] getRawRanges() {
+      return new long[][] {{startMs, hourStartMs}, {hourEndMs, endMs}};
+    }
+
+    /** Returns the parameters of {@link #SQL_WINDOW_BUILDS} and {@link #SQL_WINDOW_TESTS}. */
+    Object[] getParams() {
+      long[] bounds = {
+        dayStartMs, dayEndMs, hourStartMs, dayStartMs, dayEndMs, hourEndMs,
+        startMs, hourStartMs, hourEndMs, endMs
+      };
+      Object[] params = new Object[bounds.length];
+      for (int i = 0; i < bounds.length; i++) {
+        params[i] = new Timestamp(bounds[i]);
+      }
+      return params;
+    }
+
+    /** Returns the parameters of {@link #SQL_WINDOW_TEST_DURATIONS} for the given test ids. */
+    Object[] getParams(List<Integer> testIds) {
+      Object[] bounds = getParams();
+      List<Object> params = new ArrayList<>();
+      params.addAll(Arrays.asList(bounds).subList(0, 6));
+      params.addAll(testIds);
+      params.addAll(Arrays.asList(bounds).subList(6, bounds.length));
+      params.addAll(testIds);
+      return params.toArray();
+    }
+  }
+
+  /** The durations of the runs of a test case in a project and sub build, in a bucket. */
+  private static class TestSketch {
+    private final int testId;
+    private final int projectId;
+    private final int subBuildId;
+    private final DurationSketch sketch = new DurationSketch();
+
+    private TestSketch(int testId, int projectId, int subBuildId) {
+      this.testId = testId;
+      this.projectId = projectId;
+      this.subBuildId = subBuildId;
+    }
+  }
+
+  private Rollups() {}
+
+  /**
+   * Marks the hours of the given start times dirty, so their rollups are computed again. Does
+   * nothing if the rollup tables don't exist yet; creating them marks every hour dirty.
+   *
+   * <p>Writers call this last in their transactions: the marks stay locked until the commit, and
+   * the other writers of the same hours wait for them. Hours are marked in order, so writers never
+   * lock them in different orders.
+   */
+  static void markDirty(Connection conn, Collection<Long> startTimesMs) throws SQLException {
+    Set<Long> hours = new TreeSet<>();
+    for (long startTimeMs : startTimesMs) {
+      hours.add(getHourStart(startTimeMs));
+    }
+    PreparedStatement ps = conn.prepareStatement(SQL_MARK_DIRTY);
+    try {
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      for (long hourMs : hours) {
+        ps.setTimestamp(1, new Timestamp(hourMs));
+        ps.setTimestamp(2, now);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } catch (SQLException e) {
+      // A failed statement doesn't end the transaction, so the write goes on.
+      if (e.getErrorCode() != ER_NO_SUCH_TABLE) {
+        throw e;
+      }
+    } finally {
+      ps.close();
+    }
+  }
+
+  /** Marks every hour with builds or test results dirty, e.g. when the rollups are created. */
+  static void markAllDirty(Connection conn) throws SQLException {
+    Statement stmt = conn.createStatement();
+    try {
+      stmt.executeUpdate(SQL_MARK_ALL_DIRTY + TB_BUILDS);
+      stmt.executeUpdate(SQL_MARK_ALL_DIRTY + TB_TESTS);
+      stmt.executeUpdate(SQL_MARK_ALL_DIRTY + VTestResultsAnalyzerMgmtLink.TB_TEST_RESULT_BLOBS);
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Returns the start of the first dirty hour that starts in the given range, the end of the range
+   * if there is none, or its start if the rollup tables don't exist yet. Only reads, so dashboards
+   * can read the rollups before that hour and leave the rest to the compactor.
+   */
+  static long getFirstDirtyHour(Connection conn, long fromMs, long toMs) throws SQLException {
+    if (!SchemaMigrations.tableExists(conn, TB_DIRTY_HOURS)) {
+      return fromMs;
+    }
+    PreparedStatement ps = conn.prepareStatement(SQL_FIRST_DIRTY_HOUR);
+    try {
+      ps.setTimestamp(1, new Timestamp(fromMs));
+      ps.setTimestamp(2, new Timestamp(toMs));
+      ResultSet rs = ps.executeQuery();
+      Timestamp first = rs.next() ? rs.getTimestamp(1) : null;
+      return first == null ? toMs : first.getTime();
+    } finally {
+      ps.close();
+    }
+  }
+
+  /**
+   * Returns the end of the last day with summaries of downsampled test results, or 0 if there are
+   * none or the summaries table doesn't exist yet. Only the daily rollups count the test results
+   * of the days before.
+   */
+  static long getSummarizedEnd(Connection conn) throws SQLException {
+    if (!SchemaMigrations.tableExists(conn, TB_TEST_SUMMARIES)) {
+      return 0;
+    }
+    PreparedStatement ps = conn.prepareStatement(SQL_LAST_SUMMARY_DAY);
+    try {
+      ResultSet rs = ps.executeQuery();
+      Timestamp last = rs.next() ? rs.getTimestamp(1) : null;
+      return last == null ? 0 : getNextDayStart(last.getTime());
+    } finally {
+      ps.close();
+    }
+  }
+
+  /**
+   * Returns the start of the days, oldest first, with dirty hours. Returns at most the given number
+   * of days, and none if the rollup tables don't exist yet.
+   */
+  static List<Long> getDirtyDays(Connection conn, int maxDays) throws SQLException {
+    List<Long> days = new ArrayList<>();
+    if (!SchemaMigrations.tableExists(conn, TB_DIRTY_HOURS)) {
+      return days;
+    }
+    PreparedStatement ps = conn.prepareStatement(SQL_DIRTY_HOURS + " ORDER BY hour_start");
+    try {
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        long dayMs = getDayStart(rs.getTimestamp(1).getTime());
+        if (days.isEmpty() || days.get(days.size() - 1) != dayMs) {
+          if (days.size() == maxDays) {
+            break;
+          }
+          days.add(dayMs);
+        }
+      }
+    } finally {
+      ps.close();
+    }
+    return days;
+  }
+
+  /**
+   * Computes the rollups of the dirty hours of the day that starts at the given time, and of the
+   * day, again. Hours are claimed by removing their marks in the given transaction: a write that
+   * marks one of them again waits for the transaction, so it is never missed. Returns the number
+   * of hours computed, 0 if another transaction got to them first.
+   */
+  static int compactDay(Connection conn, long dayStartMs) throws SQLException {
+    long dayEndMs = getNextDayStart(dayStartMs);
+    List<Long> hours = new ArrayList<>();
+    PreparedStatement ps =
+        conn.prepareStatement(
+            "SELECT hour_start FROM "
+                + TB_DIRTY_HOURS
+                + " WHERE hour_start >= ? AND hour_start < ? FOR UPDATE");
+    try {
+      ps.setTimestamp(1, new Timestamp(dayStartMs));
+      ps.setTimestamp(2, new Timestamp(dayEndMs));
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        hours.add(rs.getTimestamp(1).getTime());
+      }
+    } finally {
+      ps.close();
+    }
+    if (hours.isEmpty()) {
+      return 0;
+    }
+    update(
+        conn,
+        "DELETE FROM " + TB_DIRTY_HOURS + " WHERE hour_start >= ? AND hour_start < ?",
+        new Timestamp(dayStartMs),
+        new Timestamp(dayEndMs));
+
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    for (long hourMs : hours) {
+      computeHour(conn, hourMs, now);
+    }
+    computeDay(conn, dayStartMs, dayEndMs, now);
+    return hours.size();
+  }
+
+  /** Deletes the rollups and dirty marks of the buckets that start before the given time. */
+  static void deleteBefore(Connection conn, long beforeMs) throws SQLException {
+    Timestamp before = new Timestamp(beforeMs);
+    update(conn, "DELETE FROM " + TB_BUILD_ROLLUPS + " WHERE bucket_start < ?", before);
+    update(conn, "DELETE FROM " + TB_TEST_ROLLUPS + " WHERE bucket_start < ?", before);
+    update(conn, "DELETE FROM " + TB_DIRTY_HOURS + " WHERE hour_start < ?", before);
+    update(conn, "DELETE FROM " + TB_TEST_SUMMARIES + " WHERE day_start < ?", before);
+  }
+
+  /** Returns the start of the local hour of the given time. */
+  static long getHourStart(long ms) {
+    Calendar cal = Calendar.getInstance();
+    cal.setTimeInMillis(ms);
+    cal.set(Calendar.MINUTE, 0);
+    cal.set(Calendar.SECOND, 0);
+    cal.set(Calendar.MILLISECOND, 0);
+    return cal.getTimeInMillis();
+  }
+
+  /** Returns the start of the local day of the given time. */
+  static long getDayStart(long ms) {
+    Calendar cal = Calendar.getInstance();
+    cal.setTimeInMillis(ms);
+    cal.set(Calendar.HOUR_OF_DAY, 0);
+    cal.set(Calendar.MINUTE, 0);
+    cal.set(Calendar.SECOND, 0);
+    cal.set(Calendar.MILLISECOND, 0);
+    return cal.getTimeInMillis();
+  }
+
+  // Returns the start of the local day after the day of the given time. Days aren't always 24
+  // hours long.
+  private static long getNextDayStart(long ms) {
+    Calendar cal = Calendar.getInstance();
+    cal.setTimeInMillis(getDayStart(ms));
+    cal.add(Calendar.DAY_OF_MONTH, 1);
+    return cal.getTimeInMillis();
+  }
+
+  // Replaces the hourly rollups of the hour that starts at the given time with the stats and
+  // duration sketches of its raw rows and test result blobs.
+  private static void computeHour(Connection conn, long hourMs, Timestamp now)
+      throws SQLException {
+    Timestamp hourStart = new Timestamp(hourMs);
+    Timestamp hourEnd = new Timestamp(hourMs + HOUR_MS);
+    String deleteSql = " WHERE bucket_hours=" + HOURLY + " AND bucket_start=?";
+    update(conn, "DELETE FROM " + TB_BUILD_ROLLUPS + deleteSql, hourStart);
+    update(conn, "DELETE FROM " + TB_TEST_ROLLUPS + deleteSql, hourStart);
+    update(
+        conn,
+        "INSERT INTO "
+            + TB_BUILD_ROLLUPS
+            + BUILD_ROLLUP_COLUMNS
+            + "SELECT "
+            + HOURLY
+            + ", ?, project_id, sub_build_id, "
+            + SQL_AGGREGATE_BUILDS
+            + ", ? FROM "
+            + TB_BUILDS
+            + " WHERE start_time >= ? AND start_time < ? GROUP BY project_id, sub_build_id",
+        hourStart,
+        now,
+        hourStart,
+        hourEnd);
+    update(
+        conn,
+        "INSERT INTO "
+            + TB_TEST_ROLLUPS
+            + TEST_ROLLUP_COLUMNS
+            + "SELECT "
+            + HOURLY
+            + ", ?, test_id, project_id, sub_build_id, "
+            + SQL_AGGREGATE_TESTS
+            + ", ? FROM "
+            + TB_TESTS
+            + " WHERE start_time >= ? AND start_time < ? "
+            + "GROUP BY test_id, project_id, sub_build_id",
+        hourStart,
+        now,
+        hourStart,
+        hourEnd);
+
+    // Add the test results stored as blobs, combined with the rows of the same test case.
+    List<TestResultBlobStore.TestStats> stats =
+        TestResultBlobStore.aggregate(
+            VTestResultsAnalyzerPluginImpl.getInstance()
+                .getTestResultBlobStore()
+                .read(conn, hourMs, hourMs + HOUR_MS - 1, ""));
+    if (!stats.isEmpty()) {
+      addBlobStats(conn, hourStart, stats, now);
+    }
+
+    // SQL can't sketch the durations, so the rows of the hour are read once more.
+    Map<String, TestSketch> sketches = new HashMap<>();
+    addSketches(
+        conn,
+        sketches,
+        false,
+        "SELECT test_id, project_id, sub_build_id, duration FROM "
+            + TB_TESTS
+            + " WHERE start_time >= ? AND start_time < ?",
+        hourStart,
+        hourEnd);
+    for (TestResultBlobStore.TestStats s : stats) {
+      getSketch(sketches, s.getTestId(), s.getProjectId(), s.getSubBuildId())
+          .merge(s.getSketch());
+    }
+    setSketches(conn, HOURLY, hourStart, sketches.values());
+  }
+
+  // Adds the stats of the given test results stored as blobs to the hourly rollups of the hour
+  // that starts at the given time, combined with the rows of the same test case.
+  private static void addBlobStats(
+      Connection conn,
+      Timestamp hourStart,
+      List<TestResultBlobStore.TestStats> stats,
+      Timestamp now)
+      throws SQLException {
+    PreparedStatement ps =
+        conn.prepareStatement(
+            "INSERT INTO "
+                + TB_TEST_ROLLUPS
+                + TEST_ROLLUP_COLUMNS
+                + "VALUES (?,?,?,?,?,?,?,?,?,?,?)"
+                + SQL_ADD_TEST_STATS);
+    try {
+      for (TestResultBlobStore.TestStats s : stats) {
+        ps.setInt(1, HOURLY);
+        ps.setTimestamp(2, hourStart);
+        ps.setInt(3, s.getTestId());
+        ps.setInt(4, s.getProjectId());
+        ps.setInt(5, s.getSubBuildId());
+        ps.setInt(6, s.getCount());
+        ps.setInt(7, s.getFailedCount());
+        ps.setDouble(8, s.getSumDuration());
+        ps.setFloat(9, s.getMinDuration());
+        ps.setFloat(10, s.getMaxDuration());
+        ps.setTimestamp(11, now);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } finally {
+      ps.close();
+    }
+  }
+
+  // Replaces the daily rollups of the given day with the sums and merged duration sketches of its
+  // hourly rollups and of the summaries of its downsampled test results, which are no longer in
+  // the hourly rollups.
+  private static void computeDay(Connection conn, long dayStartMs, long dayEndMs, Timestamp now)
+      throws SQLException {
+    Timestamp dayStart = new Timestamp(dayStartMs);
+    Timestamp dayEnd = new Timestamp(dayEndMs);
+    String deleteSql = " WHERE bucket_hours=" + DAILY + " AND bucket_start=?";
+    String hoursSql =
+        " WHERE bucket_hours=" + HOURLY + " AND bucket_start >= ? AND bucket_start < ? GROUP BY ";
+    update(conn, "DELETE FROM " + TB_BUILD_ROLLUPS + deleteSql, dayStart);
+    update(conn, "DELETE FROM " + TB_TEST_ROLLUPS + deleteSql, dayStart);
+    update(
+        conn,
+        "INSERT INTO "
+            + TB_BUILD_ROLLUPS
+            + BUILD_ROLLUP_COLUMNS
+            + "SELECT "
+            + DAILY
+            + ", ?, project_id, sub_build_id, "
+            + SQL_MERGE_BUILDS
+            + ", ? FROM "
+            + TB_BUILD_ROLLUPS
+            + hoursSql
+            + "project_id, sub_build_id",
+        dayStart,
+        now,
+        dayStart,
+        dayEnd);
+    update(
+        conn,
+        "INSERT INTO "
+            + TB_TEST_ROLLUPS
+            + TEST_ROLLUP_COLUMNS
+            + "SELECT "
+            + DAILY
+            + ", ?, test_id, project_id, sub_build_id, "
+            + SQL_MERGE_TESTS
+            + ", ? FROM "
+            + TB_TEST_ROLLUPS
+            + hoursSql
+            + "test_id, project_id, sub_build_id",
+        dayStart,
+        now,
+        dayStart,
+        dayEnd);
+    try {
+      update(
+          conn,
+          "INSERT INTO "
+              + TB_TEST_ROLLUPS
+              + TEST_ROLLUP_COLUMNS
+              + "SELECT "
+              + DAILY
+              + ", ?, test_id, project_id, sub_build_id, count, failed_count, sum_duration, "
+              + "min_duration, max_duration, ? FROM "
+              + TB_TEST_SUMMARIES
+              + " WHERE day_start=?"
+              + SQL_ADD_TEST_STATS,
+          dayStart,
+          now,
+          dayStart);
+    } catch (SQLException e) {
+      // Databases that haven't been upgraded yet have no summaries.
+      if (e.getErrorCode() != ER_NO_SUCH_TABLE) {
+        throw e;
+      }
+    }
+
+    Map<String, TestSketch> sketches = new HashMap<>();
+    addSketches(
+        conn,
+        sketches,
+        true,
+        "SELECT test_id, project_id, sub_build_id, duration_sketch FROM "
+            + TB_TEST_ROLLUPS
+            + " WHERE bucket_hours="
+            + HOURLY
+            + " AND bucket_start >= ? AND bucket_start < ?",
+        dayStart,
+        dayEnd);
+    try {
+      addSketches(
+          conn,
+          sketches,
+          true,
+          "SELECT test_id, project_id, sub_build_id, duration_sketch FROM "
+              + TB_TEST_SUMMARIES
+              + " WHERE day_start=?",
+          dayStart);
+    } catch (SQLException e) {
+      if (e.getErrorCode() != ER_NO_SUCH_TABLE) {
+        throw e;
+      }
+    }
+    setSketches(conn, DAILY, dayStart, sketches.values());
+  }
+
+  // Returns the sketch of the given test case in the given sketches, adding an empty one if there
+  // is none yet.
+  private static DurationSketch getSketch(
+      Map<String, TestSketch> sketches, int testId, int projectId, int subBuildId) {
+    String key = TestCaseStats.getIdKey(testId, projectId, subBuildId);
+    TestSketch sketch = sketches.get(key);
+    if (sketch == null) {
+      sketch = new TestSketch(testId, projectId, subBuildId);
+      sketches.put(key, sketch);
+    }
+    return sketch.sketch;
+  }
+
+  // Adds the rows of the given query to the sketches of their test cases. The rows have the test
+  // id, project id and sub build id, then a duration, or a sketch if sketched, which is skipped if
+  // it is null.
+  private static void addSketches(
+      Connection conn,
+      Map<String, TestSketch> sketches,
+      boolean sketched,
+      String sql,
+      Object... params)
+      throws SQLException {
+    PreparedStatement ps = conn.prepareStatement(sql);
+    try {
+      for (int i = 0; i < params.length; i++) {
+        ps.setObject(i + 1, params[i]);
+      }
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        DurationSketch sketch = getSketch(sketches, rs.getInt(1), rs.getInt(2), rs.getInt(3));
+        if (!sketched) {
+          sketch.add(rs.getFloat(4));
+          continue;
+        }
+        byte[] data = rs.getBytes(4);
+        if (data != null) {
+          try {
+            sketch.merge(DurationSketch.decode(data));
+          } catch (IOException e) {
+            throw new SQLException("Failed to decode duration sketch", e);
+          }
+        }
+      }
+    } finally {
+      ps.close();
+    }
+  }
+
+  // Sets the duration sketches of the test rollups of the given bucket, which must exist.
+  private static void setSketches(
+      Connection conn, int bucketHours, Timestamp bucketStart, Collection<TestSketch> sketches)
+      throws SQLException {
+    if (sketches.isEmpty()) {
+      return;
+    }
+    PreparedStatement ps = conn.prepareStatement(SQL_SET_TEST_SKETCH);
+    try {
+      for (TestSketch s : sketches) {
+        ps.setBytes(1, s.sketch.toBytes());
+        ps.setInt(2, bucketHours);
+        ps.setTimestamp(3, bucketStart);
+        ps.setInt(4, s.testId);
+        ps.setInt(5, s.projectId);
+        ps.setInt(6, s.subBuildId);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } catch (IOException e) {
+      throw new SQLException("Failed to encode duration sketch", e);
+    } finally {
+      ps.close();
+    }
+  }
+
+  private static void update(Connection conn, String sql, Object... params) throws SQLException {
+    PreparedStatement ps = conn.prepareStatement(sql);
+    try {
+      for (int i = 0; i < params.length; i++) {
+        ps.setObject(i + 1, params[i]);
+      }
+      ps.executeUpdate();
+    } finally {
+      ps.close();
+    }
+  }
+}
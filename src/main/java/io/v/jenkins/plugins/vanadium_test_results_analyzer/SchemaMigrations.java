@@ -0,0 +1,686 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Versioned changes to the plugin's database schema.
+ *
+ * <p>Every change is a numbered step. The steps applied to a database are recorded in the {@link
+ * #TB_SCHEMA_VERSION} table, and only the steps that aren't recorded are applied. Databases created
+ * before there were versions have no such table; every step checks what it is about to change, so
+ * they simply run all steps and the ones already done do nothing.
+ *
+ * <p>Indexes are added online (ALGORITHM=INPLACE, LOCK=NONE), so builds can keep writing while a
+ * large table is being indexed. Servers that can't do that fall back to a regular ALTER TABLE.
+ * Partitioning a table copies it, so writes wait; builds that send their results asynchronously
+ * keep them in the spool meanwhile. Such steps are only applied when the administrator asks for
+ * them; until then they are skipped and the steps after them are applied anyway.
+ */
+class SchemaMigrations {
+  private static final Logger LOGGER = Logger.getLogger(SchemaMigrations.class.getName());
+
+  /** The table that records the applied steps. */
+  static final String TB_SCHEMA_VERSION = "schema_version";
+
+  private static final String SQL_CREATE_TB_SCHEMA_VERSION =
+      "CREATE TABLE "
+          + TB_SCHEMA_VERSION
+          + "(version INTEGER NOT NULL, "
+          // What the step did.
+          + " description VARCHAR(256), "
+          // When the step was applied, and how long it took.
+          + " applied_time DATETIME, "
+          + " duration_ms BIGINT, "
+          + " PRIMARY KEY ( version ))";
+
+  /** Name of the lock that keeps two servers from migrating the same database at the same time. */
+  private static final String LOCK_NAME = "vanadium_test_results_analyzer_migrations";
+
+  /** MySQL error codes when an ALTER TABLE can't be done online. */
+  private static final int ER_PARSE_ERROR = 1064;
+  private static final int ER_ALTER_OPERATION_NOT_SUPPORTED = 1845;
+  private static final int ER_ALTER_OPERATION_NOT_SUPPORTED_REASON = 1846;
+
+  /** Number of ids of the tables of the old layout copied in one transaction. */
+  private static final int LEGACY_CHUNK_IDS = 10000;
+
+  /**
+   * A column that only exists in the old layout of the fact tables, which stored all names and urls
+   * in every row.
+   */
+  static final String LEGACY_LAYOUT_COLUMN = "jenkins_project";
+
+  /** Suffix of fact tables of the old layout while they are being migrated. */
+  private static final String LEGACY_TABLE_SUFFIX = "_legacy";
+
+  /**
+   * SQL to add the unique key to fact tables created before there was one, keeping the newest row
+   * of each key.
+   */
+  private static final Map<String, String[]> SQL_ADD_UNIQUE_KEYS = new LinkedHashMap<>();
+
+  static {
+    String tbBuilds = VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS;
+    String tbTests = VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS;
+    SQL_ADD_UNIQUE_KEYS.put(
+        tbBuilds,
+        new String[] {
+          "DELETE a FROM "
+              + tbBuilds
+              + " a JOIN "
+              + tbBuilds
+              + " b ON a.project_id=b.project_id AND a.build_number=b.build_number "
+              + "AND a.sub_build_id=b.sub_build_id AND a.id < b.id",
+          "ALTER TABLE "
+              + tbBuilds
+              + " ADD UNIQUE KEY "
+              + VTestResultsAnalyzerMgmtLink.UNIQUE_KEYS.get(tbBuilds)
+              + " ( project_id, build_number, sub_build_id )"
+        });
+    SQL_ADD_UNIQUE_KEYS.put(
+        tbTests,
+        new String[] {
+          "DELETE a FROM "
+              + tbTests
+              + " a JOIN "
+              + tbTests
+              + " b ON a.project_id=b.project_id AND a.build_number=b.build_number "
+              + "AND a.sub_build_id=b.sub_build_id AND a.test_id=b.test_id AND a.id < b.id",
+          "ALTER TABLE "
+              + tbTests
+              + " ADD UNIQUE KEY "
+              + VTestResultsAnalyzerMgmtLink.UNIQUE_KEYS.get(tbTests)
+              + " ( project_id, build_number, sub_build_id, test_id )"
+        });
+  }
+
+  /** Indexes of the dashboard queries, by table and name. */
+  private static final Map<String, Map<String, String>> DASHBOARD_INDEXES = new LinkedHashMap<>();
+
+  static {
+    Map<String, String> builds = new LinkedHashMap<>();
+    // Covers the stats and the list of builds of a time range: SQL_JENKINS_BUILDS and
+    // SQL_AVAILABLE_JENKINS_BUILDS never read the rows.
+    builds.put("time_build", "start_time, project_id, sub_build_id, duration, result");
+    // Finds the runs of one build in a time range: SQL_BUILD_DETAILS.
+    builds.put("build_time", "project_id, sub_build_id, start_time");
+    DASHBOARD_INDEXES.put(VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS, builds);
+
+    Map<String, String> tests = new LinkedHashMap<>();
+    // Covers the stats and the list of test cases of a time range: SQL_FAILED_TEST_RESULTS,
+    // SQL_LONGEST_TESTS and SQL_AVAILABLE_TEST_CASES never read the rows.
+    tests.put("time_test", "start_time, test_id, project_id, sub_build_id, duration, result");
+    // Finds the runs of one test case in a time range: SQL_TEST_CASE_DETAILS.
+    tests.put("test_time", "test_id, project_id, sub_build_id, start_time");
+    DASHBOARD_INDEXES.put(VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS, tests);
+
+    Map<String, String> blobs = new LinkedHashMap<>();
+    // Finds the blobs of one build in a time range.
+    blobs.put("build_time", "project_id, sub_build_id, start_time");
+    DASHBOARD_INDEXES.put(VTestResultsAnalyzerMgmtLink.TB_TEST_RESULT_BLOBS, blobs);
+
+    // The details queries look projects and sub builds up by name.
+    Map<String, String> projects = new LinkedHashMap<>();
+    projects.put("name", "name");
+    DASHBOARD_INDEXES.put(VTestResultsAnalyzerMgmtLink.TB_JENKINS_PROJECTS, projects);
+    Map<String, String> subBuilds = new LinkedHashMap<>();
+    subBuilds.put("labels", "labels(255)");
+    DASHBOARD_INDEXES.put(VTestResultsAnalyzerMgmtLink.TB_SUB_BUILDS, subBuilds);
+  }
+
+  /**
+   * Indexes of the pages of runs of the details dashboards, see ResultsPage, by table and name. A
+   * page starts at its cursor and reads the runs in build number order, checking their result and
+   * time range in the index, so only the rows of the page are read, however long the history is.
+   */
+  private static final Map<String, Map<String, String>> PAGING_INDEXES = new LinkedHashMap<>();
+
+  static {
+    Map<String, String> builds = new LinkedHashMap<>();
+    builds.put("build_number", "project_id, sub_build_id, build_number, result, start_time");
+    PAGING_INDEXES.put(VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS, builds);
+
+    Map<String, String> tests = new LinkedHashMap<>();
+    tests.put(
+        "test_build_number", "test_id, project_id, sub_build_id, build_number, result, start_time");
+    PAGING_INDEXES.put(VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS, tests);
+  }
+
+  /**
+   * Columns of the unique keys of the fact tables, without start_time. Partitioned tables need the
+   * partitioning column in every unique key.
+   */
+  private static final Map<String, String> UNIQUE_KEY_COLUMNS = new LinkedHashMap<>();
+
+  static {
+    UNIQUE_KEY_COLUMNS.put(
+        VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS, "project_id, build_number, sub_build_id");
+    UNIQUE_KEY_COLUMNS.put(
+        VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS,
+        "project_id, build_number, sub_build_id, test_id");
+    UNIQUE_KEY_COLUMNS.put(
+        VTestResultsAnalyzerMgmtLink.TB_TEST_RESULT_BLOBS,
+        "project_id, build_number, sub_build_id");
+    UNIQUE_KEY_COLUMNS.put(
+        VTestResultsAnalyzerMgmtLink.TB_TEST_FAILURES,
+        "project_id, build_number, sub_build_id, test_id");
+  }
+
+  /** A step of the schema. */
+  private abstract static class Migration {
+    private final int version;
+    private final String description;
+
+    Migration(int version, String description) {
+      this.version = version;
+      this.description = description;
+    }
+
+    /** Applies the step. Must do nothing where the step has been applied already. */
+    abstract void apply(Connection conn) throws SQLException;
+
+    /** Returns whether applying the step would keep builds from writing for a long time. */
+    boolean stallsWrites(Connection conn) throws SQLException {
+      return false;
+    }
+  }
+
+  /**
+   * All steps, in version order. New steps are added at the end. A new table is added to {@link
+   * VTestResultsAnalyzerMgmtLink#SQL_CREATE_TABLES}, which creates it on new databases, and gets a
+   * step that creates it on existing ones.
+   */
+  private static final List<Migration> MIGRATIONS =
+      Arrays.asList(
+          new Migration(1, "Move tables of the old layout aside") {
+            @Override
+            void apply(Connection conn) throws SQLException {
+              moveLegacyTables(conn);
+            }
+          },
+          new Migration(2, "Create tables") {
+            @Override
+            void apply(Connection conn) throws SQLException {
+              createMissingTables(conn);
+            }
+          },
+          new Migration(3, "Migrate tables of the old layout") {
+            @Override
+            void apply(Connection conn) throws SQLException {
+              migrateLegacyTables(conn);
+            }
+          },
+          new Migration(4, "Add unique keys to the fact tables") {
+            @Override
+            void apply(Connection conn) throws SQLException {
+              addUniqueKeys(conn);
+            }
+          },
+          new Migration(5, "Add indexes for the dashboard queries") {
+            @Override
+            void apply(Connection conn) throws SQLException {
+              for (Map.Entry<String, Map<String, String>> entry : DASHBOARD_INDEXES.entrySet()) {
+                addIndexes(conn, entry.getKey(), entry.getValue());
+              }
+            }
+          },
+          new Migration(6, "Partition the fact tables by week") {
+            @Override
+            void apply(Connection conn) throws SQLException {
+              for (String table : VTestResultsAnalyzerMgmtLink.FACT_TABLES) {
+                partition(conn, table);
+              }
+            }
+
+            @Override
+            boolean stallsWrites(Connection conn) throws SQLException {
+              // Empty tables, e.g. of a new database, are partitioned right away.
+              for (String table : VTestResultsAnalyzerMgmtLink.FACT_TABLES) {
+                if (!PartitionManager.isPartitioned(conn, table) && !isEmpty(conn, table)) {
+                  return true;
+                }
+              }
+              return false;
+            }
+          },
+          new Migration(7, "Add hourly and daily rollups for the overview dashboards") {
+            @Override
+            void apply(Connection conn) throws SQLException {
+              createMissingTables(conn);
+              // The rollups of existing rows are computed in the background.
+              Rollups.markAllDirty(conn);
+            }
+          },
+          new Migration(8, "Add daily summaries of downsampled test results") {
+            @Override
+            void apply(Connection conn) throws SQLException {
+              createMissingTables(conn);
+            }
+          },
+          new Migration(9, "Add indexes for paging through runs by build number") {
+            @Override
+            void apply(Connection conn) throws SQLException {
+              for (Map.Entry<String, Map<String, String>> entry : PAGING_INDEXES.entrySet()) {
+                addIndexes(conn, entry.getKey(), entry.getValue());
+              }
+            }
+          },
+          new Migration(10, "Add duration sketches to the test rollups") {
+            @Override
+            void apply(Connection conn) throws SQLException {
+              addColumn(conn, VTestResultsAnalyzerMgmtLink.TB_TEST_ROLLUPS, "duration_sketch BLOB");
+              // The sketches of existing rollups are computed in the background.
+              Rollups.markAllDirty(conn);
+            }
+          });
+
+  private SchemaMigrations() {}
+
+  /** Returns the version of the newest step. */
+  static int getLatestVersion() {
+    return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+  }
+
+  /** Returns the version of the newest step applied to the given database: 0 if none was. */
+  static int getVersion(Connection conn) throws SQLException {
+    if (!tableExists(conn, TB_SCHEMA_VERSION)) {
+      return 0;
+    }
+    Statement stmt = conn.createStatement();
+    try {
+      ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM " + TB_SCHEMA_VERSION);
+      return rs.next() ? rs.getInt(1) : 0;
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /** Returns the descriptions of the steps that haven't been applied to the given database. */
+  static List<String> getPendingMigrations(Connection conn) throws SQLException {
+    Set<Integer> applied = getAppliedVersions(conn);
+    List<String> pending = new ArrayList<>();
+    for (Migration migration : MIGRATIONS) {
+      if (!applied.contains(migration.version)) {
+        pending.add(migration.description);
+      }
+    }
+    return pending;
+  }
+
+  /**
+   * Returns the descriptions of the steps that haven't been applied to the given database and
+   * would keep builds from writing while they are applied.
+   */
+  static List<String> getWriteStallingMigrations(Connection conn) throws SQLException {
+    Set<Integer> applied = getAppliedVersions(conn);
+    List<String> stalling = new ArrayList<>();
+    for (Migration migration : MIGRATIONS) {
+      if (!applied.contains(migration.version) && migration.stallsWrites(conn)) {
+        stalling.add(migration.description);
+      }
+    }
+    return stalling;
+  }
+
+  /**
+   * Applies the steps that haven't been applied to the given database, in order, recording each
+   * one as soon as it is done. Steps that would keep builds from writing for a long time are
+   * skipped unless {@code stallWrites} is set. A step that fails stops the migration; running it
+   * again retries that step.
+   */
+  static void migrate(Connection conn, boolean stallWrites) throws SQLException {
+    Statement stmt = conn.createStatement();
+    try {
+      ResultSet rs = stmt.executeQuery("SELECT GET_LOCK('" + LOCK_NAME + "', 0)");
+      if (!rs.next() || rs.getInt(1) != 1) {
+        throw new SQLException("The database is being migrated by another server");
+      }
+      try {
+        if (!tableExists(conn, TB_SCHEMA_VERSION)) {
+          stmt.executeUpdate(SQL_CREATE_TB_SCHEMA_VERSION);
+        }
+        Set<Integer> applied = getAppliedVersions(conn);
+        for (Migration migration : MIGRATIONS) {
+          if (applied.contains(migration.version)) {
+            continue;
+          }
+          if (!stallWrites && migration.stallsWrites(conn)) {
+            LOGGER.info(
+                "Skipping schema migration "
+                    + migration.version
+                    + " until it is requested, builds couldn't write while it runs: "
+                    + migration.description);
+            continue;
+          }
+          apply(conn, migration);
+        }
+      } finally {
+        stmt.executeQuery("SELECT RELEASE_LOCK('" + LOCK_NAME + "')");
+      }
+    } finally {
+      stmt.close();
+    }
+  }
+
+  // Returns the versions of the steps recorded in the given database.
+  private static Set<Integer> getAppliedVersions(Connection conn) throws SQLException {
+    Set<Integer> versions = new HashSet<>();
+    if (!tableExists(conn, TB_SCHEMA_VERSION)) {
+      return versions;
+    }
+    Statement stmt = conn.createStatement();
+    try {
+      ResultSet rs = stmt.executeQuery("SELECT version FROM " + TB_SCHEMA_VERSION);
+      while (rs.next()) {
+        versions.add(rs.getInt(1));
+      }
+      return versions;
+    } finally {
+      stmt.close();
+    }
+  }
+
+  private static boolean isEmpty(Connection conn, String table) throws SQLException {
+    if (!tableExists(conn, table)) {
+      return true;
+    }
+    Statement stmt = conn.createStatement();
+    try {
+      return !stmt.executeQuery("SELECT 1 FROM " + table + " LIMIT 1").next();
+    } finally {
+      stmt.close();
+    }
+  }
+
+  static boolean tableExists(Connection conn, String tableName) throws SQLException {
+    DatabaseMetaData meta = conn.getMetaData();
+    ResultSet tables = meta.getTables(conn.getCatalog(), null, tableName, new String[] {"TABLE"});
+    return tables.next();
+  }
+
+  static boolean hasColumn(Connection conn, String tableName, String column) throws SQLException {
+    DatabaseMetaData meta = conn.getMetaData();
+    return meta.getColumns(conn.getCatalog(), null, tableName, column).next();
+  }
+
+  static boolean hasIndex(Connection conn, String tableName, String index) throws SQLException {
+    ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), null, tableName, false, true);
+    while (rs.next()) {
+      if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Applies one step and records it.
+  private static void apply(Connection conn, Migration migration) throws SQLException {
+    LOGGER.info("Applying schema migration " + migration.version + ": " + migration.description);
+    long startMs = System.currentTimeMillis();
+    migration.apply(conn);
+    long durationMs = System.currentTimeMillis() - startMs;
+    PreparedStatement ps =
+        conn.prepareStatement(
+            "INSERT INTO "
+                + TB_SCHEMA_VERSION
+                + " (version, description, applied_time, duration_ms) VALUES (?, ?, ?, ?)");
+    try {
+      ps.setInt(1, migration.version);
+      ps.setString(2, migration.description);
+      ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+      ps.setLong(4, durationMs);
+      ps.executeUpdate();
+    } finally {
+      ps.close();
+    }
+    LOGGER.info(
+        String.format("Applied schema migration %d in %d ms", migration.version, durationMs));
+  }
+
+  // Renames fact tables of the old layout, so the current tables can be created and the old rows
+  // copied into them.
+  private static void moveLegacyTables(Connection conn) throws SQLException {
+    Statement stmt = conn.createStatement();
+    try {
+      for (String table : VTestResultsAnalyzerMgmtLink.FACT_TABLES) {
+        if (tableExists(conn, table)
+            && hasColumn(conn, table, LEGACY_LAYOUT_COLUMN)
+            && !tableExists(conn, table + LEGACY_TABLE_SUFFIX)) {
+          LOGGER.info("Moving table " + table + " of the old layout to be migrated");
+          stmt.executeUpdate("RENAME TABLE " + table + " TO " + table + LEGACY_TABLE_SUFFIX);
+        }
+      }
+    } finally {
+      stmt.close();
+    }
+  }
+
+  // Creates the plugin's tables that don't exist.
+  private static void createMissingTables(Connection conn) throws SQLException {
+    Statement stmt = conn.createStatement();
+    try {
+      for (Map.Entry<String, String> entry :
+          VTestResultsAnalyzerMgmtLink.SQL_CREATE_TABLES.entrySet()) {
+        if (!tableExists(conn, entry.getKey())) {
+          stmt.executeUpdate(entry.getValue());
+        }
+      }
+    } finally {
+      stmt.close();
+    }
+  }
+
+  // Copies the rows of fact tables of the old layout into the current tables, adding their names to
+  // the dimension tables, then drops the old tables. The rows are copied in chunks of ids, one
+  // transaction each, so that no transaction locks or undoes a whole table. Statements skip or
+  // update the rows copied already, so a failed migration can simply be run again.
+  private static void migrateLegacyTables(Connection conn) throws SQLException {
+    String legacyBuilds = VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS + LEGACY_TABLE_SUFFIX;
+    String legacyTests = VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS + LEGACY_TABLE_SUFFIX;
+    boolean migrateBuilds = tableExists(conn, legacyBuilds);
+    boolean migrateTests = tableExists(conn, legacyTests);
+    if (!migrateBuilds && !migrateTests) {
+      return;
+    }
+    LOGGER.info("Migrating tables of the old layout");
+    if (migrateBuilds) {
+      copyLegacyTable(conn, legacyBuilds, LegacyMigration.getJenkinsBuildsSqls(legacyBuilds));
+    }
+    if (migrateTests) {
+      copyLegacyTable(conn, legacyTests, LegacyMigration.getTestResultsSqls(legacyTests));
+    }
+    Statement stmt = conn.createStatement();
+    if (migrateBuilds) {
+      stmt.executeUpdate("DROP TABLE " + legacyBuilds);
+    }
+    if (migrateTests) {
+      stmt.executeUpdate("DROP TABLE " + legacyTests);
+    }
+    stmt.close();
+    LOGGER.info("Done migrating tables of the old layout");
+  }
+
+  // Runs the given statements of LegacyMigration over the ids of the given old table, one chunk of
+  // ids at a time, committing after each chunk.
+  private static void copyLegacyTable(Connection conn, String legacyTable, List<String> sqls)
+      throws SQLException {
+    long minId;
+    long maxId;
+    Statement stmt = conn.createStatement();
+    try {
+      ResultSet rs = stmt.executeQuery("SELECT MIN(id), MAX(id) FROM " + legacyTable);
+      rs.next();
+      minId = rs.getLong(1);
+      maxId = rs.getLong(2);
+      if (rs.wasNull()) {
+        return;
+      }
+    } finally {
+      stmt.close();
+    }
+    List<PreparedStatement> stmts = new ArrayList<>();
+    conn.setAutoCommit(false);
+    try {
+      for (String sql : sqls) {
+        stmts.add(conn.prepareStatement(sql));
+      }
+      for (long start = minId; start <= maxId; start += LEGACY_CHUNK_IDS) {
+        for (PreparedStatement ps : stmts) {
+          ps.setLong(1, start);
+          ps.setLong(2, start + LEGACY_CHUNK_IDS);
+          ps.executeUpdate();
+        }
+        conn.commit();
+        LOGGER.fine(
+            String.format(
+                "Copied ids up to %d of %d from table %s",
+                Math.min(start + LEGACY_CHUNK_IDS - 1, maxId), maxId, legacyTable));
+      }
+    } catch (SQLException e) {
+      conn.rollback();
+      throw e;
+    } finally {
+      conn.setAutoCommit(true);
+      for (PreparedStatement ps : stmts) {
+        ps.close();
+      }
+    }
+  }
+
+  // Adds unique keys that are missing, removing the duplicates that they would reject.
+  private static void addUniqueKeys(Connection conn) throws SQLException {
+    Statement stmt = conn.createStatement();
+    try {
+      for (Map.Entry<String, String[]> entry : SQL_ADD_UNIQUE_KEYS.entrySet()) {
+        String table = entry.getKey();
+        if (!hasIndex(conn, table, VTestResultsAnalyzerMgmtLink.UNIQUE_KEYS.get(table))) {
+          LOGGER.info("Adding unique key to table " + table);
+          for (String sql : entry.getValue()) {
+            stmt.executeUpdate(sql);
+          }
+        }
+      }
+    } finally {
+      stmt.close();
+    }
+  }
+
+  // Partitions a fact table by week, adding start_time to its primary and unique keys first. The
+  // table is copied, and writes wait until the copy is done.
+  private static void partition(Connection conn, String table) throws SQLException {
+    if (PartitionManager.isPartitioned(conn, table)) {
+      return;
+    }
+    Statement stmt = conn.createStatement();
+    try {
+      StringBuilder alter = new StringBuilder("ALTER TABLE ").append(table).append(' ');
+      if (!isInPrimaryKey(conn, table, "start_time")) {
+        // Key columns can't be NULL. Rows without a start time are kept with their update time.
+        stmt.executeUpdate(
+            "UPDATE " + table + " SET start_time=update_time WHERE start_time IS NULL");
+        String uniqueKey = VTestResultsAnalyzerMgmtLink.UNIQUE_KEYS.get(table);
+        alter
+            .append("MODIFY start_time DATETIME NOT NULL, ")
+            .append("DROP PRIMARY KEY, ADD PRIMARY KEY ( id, start_time ), ")
+            .append("DROP INDEX ")
+            .append(uniqueKey)
+            .append(", ADD UNIQUE KEY ")
+            .append(uniqueKey)
+            .append(" ( ")
+            .append(UNIQUE_KEY_COLUMNS.get(table))
+            .append(", start_time ) ");
+      }
+      long oldestStartMs = System.currentTimeMillis();
+      ResultSet rs = stmt.executeQuery("SELECT MIN(start_time) FROM " + table);
+      if (rs.next() && rs.getTimestamp(1) != null) {
+        oldestStartMs = rs.getTimestamp(1).getTime();
+      }
+      alter.append(PartitionManager.getPartitionClause(oldestStartMs, System.currentTimeMillis()));
+      LOGGER.info("Partitioning table " + table);
+      stmt.executeUpdate(alter.toString());
+    } finally {
+      stmt.close();
+    }
+  }
+
+  private static boolean isInPrimaryKey(Connection conn, String table, String column)
+      throws SQLException {
+    ResultSet rs = conn.getMetaData().getPrimaryKeys(conn.getCatalog(), null, table);
+    while (rs.next()) {
+      if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Adds the given indexes (name to columns) that the table doesn't have, in one online ALTER.
+  private static void addIndexes(Connection conn, String table, Map<String, String> indexes)
+      throws SQLException {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, String> index : indexes.entrySet()) {
+      if (!hasIndex(conn, table, index.getKey())) {
+        sb.append(sb.length() == 0 ? "" : ", ")
+            .append("ADD INDEX ")
+            .append(index.getKey())
+            .append(" ( ")
+            .append(index.getValue())
+            .append(" )");
+      }
+    }
+    if (sb.length() == 0) {
+      return;
+    }
+    String alter = "ALTER TABLE " + table + " " + sb;
+    LOGGER.info("Adding indexes: " + alter);
+    Statement stmt = conn.createStatement();
+    try {
+      try {
+        stmt.executeUpdate(alter + ", ALGORITHM=INPLACE, LOCK=NONE");
+      } catch (SQLException e) {
+        if (e.getErrorCode() != ER_PARSE_ERROR
+            && e.getErrorCode() != ER_ALTER_OPERATION_NOT_SUPPORTED
+            && e.getErrorCode() != ER_ALTER_OPERATION_NOT_SUPPORTED_REASON) {
+          throw e;
+        }
+        LOGGER.log(
+            Level.WARNING,
+            "Can't add indexes to table " + table + " online, writes will wait: " + e.getMessage());
+        stmt.executeUpdate(alter);
+      }
+    } finally {
+      stmt.close();
+    }
+  }
+
+  // Adds the given column, name first, to the table unless it has a column of that name already.
+  private static void addColumn(Connection conn, String table, String definition)
+      throws SQLException {
+    if (hasColumn(conn, table, definition.split(" ")[0])) {
+      return;
+    }
+    String alter = "ALTER TABLE " + table + " ADD COLUMN " + definition;
+    LOGGER.info("Adding column: " + alter);
+    Statement stmt = conn.createStatement();
+    try {
+      stmt.executeUpdate(alter);
+    } finally {
+      stmt.close();
+    }
+  }
+}
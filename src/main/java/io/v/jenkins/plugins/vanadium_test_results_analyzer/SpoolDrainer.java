@@ -0,0 +1,287 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sf.json.JSONObject;
+
+/**
+ * Writes spooled records to the database in the background.
+ *
+ * <p>Spool files are drained oldest first, one transaction per file. When the database can't be
+ * reached the drainer backs off exponentially and leaves the files in place, so nothing is lost
+ * across outages or Jenkins restarts.
+ *
+ * <p>A file that fails for a reason retrying won't fix, like a value the table doesn't accept, is
+ * quarantined so the files behind it are drained: right away for data errors, and after {@link
+ * #MAX_FILE_ATTEMPTS} attempts for other errors that aren't outages.
+ */
+class SpoolDrainer {
+  private static final Logger LOGGER = Logger.getLogger(SpoolDrainer.class.getName());
+
+  /** How often the spool is checked for new files. */
+  private static final long DRAIN_INTERVAL_MS = TimeUnit.SECONDS.toMillis(5);
+
+  /** Upper bound of the delay between retries after failures. */
+  private static final long MAX_RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+
+  /** Attempts at writing a file that fails with errors other than outages before it is dropped. */
+  private static final int MAX_FILE_ATTEMPTS = 10;
+
+  /** MySQL errors about values of a record that don't always come with a data SQLState. */
+  private static final int ER_WARN_DATA_OUT_OF_RANGE = 1264;
+  private static final int WARN_DATA_TRUNCATED = 1265;
+  private static final int ER_TRUNCATED_WRONG_VALUE = 1292;
+  private static final int ER_TRUNCATED_WRONG_VALUE_FOR_FIELD = 1366;
+  private static final int ER_DATA_TOO_LONG = 1406;
+
+  /** Temporary spool files older than this are leftovers of interrupted builds. */
+  private static final long STALE_TMP_FILE_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+  /** A set of keys in the json object returned by getStatus. */
+  private static final String KEY_PENDING_FILES = "pendingFiles";
+  private static final String KEY_PENDING_BYTES = "pendingBytes";
+  private static final String KEY_LAG_MS = "lagMs";
+  private static final String KEY_DRAINED_FILES = "drainedFiles";
+  private static final String KEY_DRAINED_ROWS = "drainedRows";
+  private static final String KEY_QUARANTINED_FILES = "quarantinedFiles";
+  private static final String KEY_QUARANTINE_DIR = "quarantineDir";
+  private static final String KEY_LAST_DRAIN_TIME = "lastDrainTime";
+  private static final String KEY_LAST_ERR = "lastErrMsg";
+  private static final String KEY_CONSECUTIVE_FAILURES = "consecutiveFailures";
+  private static final String KEY_NEXT_ATTEMPT_TIME = "nextAttemptTime";
+
+  private final ResultsSpool spool;
+  private final ScheduledExecutorService executor;
+  private final AtomicBoolean drainQueued = new AtomicBoolean(false);
+
+  private final AtomicLong drainedFiles = new AtomicLong();
+  private final AtomicLong drainedRows = new AtomicLong();
+  private volatile long lastDrainMs = -1;
+  private volatile String lastErrMsg = "";
+  private volatile int consecutiveFailures = 0;
+  private volatile long nextAttemptMs = 0;
+
+  /** The file the last drain failed on, and how many times in a row, see MAX_FILE_ATTEMPTS. */
+  private File failingFile = null;
+  private int failingFileAttempts = 0;
+
+  private final Runnable drainTask =
+      new Runnable() {
+        @Override
+        public void run() {
+          drainQueued.set(false);
+          try {
+            drain();
+          } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unexpected error while draining the spool", e);
+          }
+        }
+      };
+
+  SpoolDrainer(ResultsSpool spool) {
+    this.spool = spool;
+    this.executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Vanadium Test Results Analyzer spool drainer");
+                t.setDaemon(true);
+                return t;
+              }
+            });
+  }
+
+  /** Starts draining periodically. */
+  void start() {
+    spool.deleteStaleTmpFiles(STALE_TMP_FILE_AGE_MS);
+    executor.scheduleWithFixedDelay(
+        drainTask, 0, DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops draining. Files that haven't been drained stay in the spool. */
+  void stop() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  /** Asks the drainer to look at the spool right away, e.g. after a new file is added. */
+  void kick() {
+    if (drainQueued.compareAndSet(false, true)) {
+      executor.execute(drainTask);
+    }
+  }
+
+  /** Returns the backlog and health of the spool. */
+  JSONObject getStatus() {
+    JSONObject ret = new JSONObject();
+    List<File> files = spool.list();
+    long pendingBytes = 0;
+    for (File f : files) {
+      pendingBytes += f.length();
+    }
+    ret.put(KEY_PENDING_FILES, files.size());
+    ret.put(KEY_PENDING_BYTES, pendingBytes);
+    ret.put(
+        KEY_LAG_MS,
+        files.isEmpty()
+            ? 0
+            : System.currentTimeMillis() - ResultsSpool.getSpoolTimeMs(files.get(0)));
+    ret.put(KEY_DRAINED_FILES, drainedFiles.get());
+    ret.put(KEY_DRAINED_ROWS, drainedRows.get());
+    ret.put(KEY_QUARANTINED_FILES, spool.getQuarantinedCount());
+    ret.put(KEY_QUARANTINE_DIR, spool.getQuarantineDir().getPath());
+    ret.put(KEY_LAST_DRAIN_TIME, lastDrainMs);
+    ret.put(KEY_LAST_ERR, lastErrMsg);
+    ret.put(KEY_CONSECUTIVE_FAILURES, consecutiveFailures);
+    ret.put(KEY_NEXT_ATTEMPT_TIME, consecutiveFailures == 0 ? -1 : nextAttemptMs);
+    return ret;
+  }
+
+  // Writes all spool files to the database, oldest first.
+  private void drain() {
+    if (System.currentTimeMillis() < nextAttemptMs) {
+      return;
+    }
+    VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    if (plugin == null || !plugin.isResultsStoreConfigured()) {
+      return;
+    }
+    for (File file : spool.list()) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      ResultsSpool.Entry entry;
+      try {
+        entry = ResultsSpool.read(file);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Quarantining unreadable spool file " + file, e);
+        if (!quarantine(file)) {
+          return;
+        }
+        continue;
+      }
+      // Time the file waited in the spool.
+      long queueWaitMs = System.currentTimeMillis() - ResultsSpool.getSpoolTimeMs(file);
+      int numRows = entry.getTestResultCount();
+      RetryingTransaction.Timings timings = new RetryingTransaction.Timings();
+      try {
+        write(plugin, entry, timings);
+        spool.remove(file);
+      } catch (SQLException | IOException | RuntimeException e) {
+        // Runtime exceptions include errors reading the test results of the file while writing.
+        LOGGER.log(Level.WARNING, "Failed to drain spool file " + file, e);
+        plugin.getTestResultMetrics().recordFailure(numRows, queueWaitMs, timings, e.getMessage());
+        if (isOutage(e)) {
+          onFailure(e.getMessage());
+          return;
+        }
+        failingFileAttempts = file.equals(failingFile) ? failingFileAttempts + 1 : 1;
+        failingFile = file;
+        if (!isDataError(e) && failingFileAttempts < MAX_FILE_ATTEMPTS) {
+          onFailure(e.getMessage());
+          return;
+        }
+        LOGGER.warning(
+            String.format(
+                "Quarantining spool file %s after %d failed attempts", file, failingFileAttempts));
+        if (!quarantine(file)) {
+          return;
+        }
+        continue;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      plugin.getTestResultMetrics().recordSuccess(numRows, queueWaitMs, timings);
+      drainedFiles.incrementAndGet();
+      drainedRows.addAndGet(numRows);
+      consecutiveFailures = 0;
+      lastErrMsg = "";
+    }
+    lastDrainMs = System.currentTimeMillis();
+  }
+
+  // Writes the records of one spool file in a single transaction.
+  private void write(
+      VTestResultsAnalyzerPluginImpl plugin,
+      final ResultsSpool.Entry entry,
+      RetryingTransaction.Timings timings)
+      throws SQLException, InterruptedException {
+    plugin.getResultsStore().write(entry.getJenkinsBuilds(), entry.getTestResults(), timings);
+  }
+
+  // Moves a file that can't be drained out of the spool, and returns whether that worked.
+  private boolean quarantine(File file) {
+    try {
+      spool.quarantine(file);
+      return true;
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to quarantine spool file " + file, e);
+      onFailure(e.getMessage());
+      return false;
+    }
+  }
+
+  // Returns whether the given error is likely to affect every file until the database is back or
+  // reconfigured, like dropped connections and denied access, rather than the file at hand.
+  private static boolean isOutage(Exception e) {
+    SQLException sqlException = getSQLException(e);
+    if (sqlException == null) {
+      return false;
+    }
+    String state = sqlException.getSQLState();
+    return RetryingTransaction.isTransient(sqlException) || state != null && state.startsWith("28");
+  }
+
+  // Returns whether the given error is about values of the records, which fail the same way on
+  // every attempt.
+  private static boolean isDataError(Exception e) {
+    SQLException sqlException = getSQLException(e);
+    if (sqlException == null) {
+      return false;
+    }
+    String state = sqlException.getSQLState();
+    if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+      return true;
+    }
+    switch (sqlException.getErrorCode()) {
+      case ER_WARN_DATA_OUT_OF_RANGE:
+      case WARN_DATA_TRUNCATED:
+      case ER_TRUNCATED_WRONG_VALUE:
+      case ER_TRUNCATED_WRONG_VALUE_FOR_FIELD:
+      case ER_DATA_TOO_LONG:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // Returns the given error or the first SQLException that caused it, or null if there is none.
+  private static SQLException getSQLException(Throwable e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof SQLException) {
+        return (SQLException) t;
+      }
+    }
+    return null;
+  }
+
+  // Records a failure and schedules the next attempt with exponential backoff.
+  private void onFailure(String errMsg) {
+    consecutiveFailures++;
+    lastErrMsg = errMsg == null ? "" : errMsg;
+    long delay = DRAIN_INTERVAL_MS << Math.min(consecutiveFailures, 16);
+    nextAttemptMs = System.currentTimeMillis() + Math.min(delay, MAX_RETRY_DELAY_MS);
+  }
+}
@@ -0,0 +1,306 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stats of the plugin's tables for the settings page, refreshed in the background so loading the
+ * page never scans a table.
+ *
+ * <p>Sizes and row counts are the estimates in INFORMATION_SCHEMA.TABLES. The newest and oldest
+ * update times of fact tables are those of their rows with the highest and lowest ids, which are
+ * looked up in the primary key. On top of that, rows this controller adds are counted when their
+ * transaction commits, so the page also shows how many rows were added since the last refresh.
+ * Every figure comes with the time it was taken, so the page can show how stale it is.
+ */
+class TableStatsCache {
+  private static final Logger LOGGER = Logger.getLogger(TableStatsCache.class.getName());
+
+  /** How often the stats are refreshed. */
+  private static final long REFRESH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+
+  /** Estimated stats of all tables of the plugin's database. */
+  private static final String SQL_TABLE_STATS =
+      "SELECT table_name, create_time, table_rows, "
+          + "ROUND((data_length + index_length) / 1024 / 1024, 2) AS size "
+          + "FROM INFORMATION_SCHEMA.TABLES WHERE table_schema = ?";
+
+  /** Stats of a table as of their last refresh. */
+  static class TableStats {
+    private final long refreshTimeMs;
+    private final long createTimeMs;
+    private final double sizeMb;
+    private final long estimatedRows;
+    private final long newestUpdateTimeMs;
+    private final long oldestUpdateTimeMs;
+    private final long writtenRowsAtRefresh;
+
+    private TableStats(
+        long refreshTimeMs,
+        long createTimeMs,
+        double sizeMb,
+        long estimatedRows,
+        long newestUpdateTimeMs,
+        long oldestUpdateTimeMs,
+        long writtenRowsAtRefresh) {
+      this.refreshTimeMs = refreshTimeMs;
+      this.createTimeMs = createTimeMs;
+      this.sizeMb = sizeMb;
+      this.estimatedRows = estimatedRows;
+      this.newestUpdateTimeMs = newestUpdateTimeMs;
+      this.oldestUpdateTimeMs = oldestUpdateTimeMs;
+      this.writtenRowsAtRefresh = writtenRowsAtRefresh;
+    }
+
+    /** Returns when these stats were taken. */
+    long getRefreshTimeMs() {
+      return refreshTimeMs;
+    }
+
+    /** Returns when the table was created, or -1 if unknown. */
+    long getCreateTimeMs() {
+      return createTimeMs;
+    }
+
+    /** Returns the estimated size of the table's data and indexes, in MB. */
+    double getSizeMb() {
+      return sizeMb;
+    }
+
+    /** Returns the estimated number of rows at the time of the refresh. */
+    long getEstimatedRows() {
+      return estimatedRows;
+    }
+
+    /**
+     * Returns the update time of the newest row, or -1 if unknown. Writes of this controller since
+     * the refresh are taken into account.
+     */
+    long getNewestUpdateTimeMs(String table) {
+      Counter counter = WRITES.get(table);
+      return counter == null
+          ? newestUpdateTimeMs
+          : Math.max(newestUpdateTimeMs, counter.lastWriteTimeMs);
+    }
+
+    /** Returns the update time of the oldest row, or -1 if unknown. */
+    long getOldestUpdateTimeMs() {
+      return oldestUpdateTimeMs;
+    }
+
+    /** Returns the number of rows this controller added to the table since the refresh. */
+    long getRowsAddedSince(String table) {
+      return getWrittenRows(table) - writtenRowsAtRefresh;
+    }
+  }
+
+  /**
+   * The rows a transaction adds to the plugin's tables, counted as its statements run and recorded
+   * once it committed. Rows that already existed aren't counted, so sending a build again doesn't
+   * add anything.
+   */
+  static class Writes {
+    private final Map<String, Long> addedRows = new HashMap<>();
+
+    /**
+     * Counts the rows an upsert of the given number of rows added to the given table, from the
+     * number of rows it affected: MySQL counts 1 per inserted row and 2 per updated one.
+     */
+    void addUpsert(String table, int numRows, int affectedRows) {
+      add(table, Math.max(0, Math.min(numRows, 2 * numRows - affectedRows)));
+    }
+
+    /** Counts the rows a JDBC batch of single row upserts added, see addUpsert. */
+    void addUpserts(String table, int[] affectedRows) {
+      long added = 0;
+      for (int n : affectedRows) {
+        // The driver may not know; count the row as added then.
+        if (n == 1 || n == Statement.SUCCESS_NO_INFO) {
+          added++;
+        }
+      }
+      add(table, added);
+    }
+
+    /** Forgets the rows counted so far, e.g. because the transaction is retried. */
+    void clear() {
+      addedRows.clear();
+    }
+
+    /** Records the counted rows, once the transaction committed. */
+    void record() {
+      for (Map.Entry<String, Long> e : addedRows.entrySet()) {
+        recordWrite(e.getKey(), e.getValue());
+      }
+    }
+
+    private void add(String table, long numRows) {
+      Long n = addedRows.get(table);
+      addedRows.put(table, n == null ? numRows : n + numRows);
+    }
+  }
+
+  /** Writes of this controller to a table. */
+  private static class Counter {
+    private final AtomicLong rows = new AtomicLong();
+    private volatile long lastWriteTimeMs = -1;
+  }
+
+  /** Writes of this controller since Jenkins started, by table. */
+  private static final ConcurrentMap<String, Counter> WRITES = new ConcurrentHashMap<>();
+
+  /** The latest stats, by table. Replaced as a whole, so tables that are gone disappear. */
+  private volatile Map<String, TableStats> stats = Collections.emptyMap();
+
+  private final ScheduledExecutorService executor;
+
+  private final Runnable refreshTask =
+      new Runnable() {
+        @Override
+        public void run() {
+          try {
+            refresh();
+          } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to refresh table stats: " + e.getMessage());
+          } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unexpected error while refreshing table stats", e);
+          }
+        }
+      };
+
+  TableStatsCache() {
+    this.executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Vanadium Test Results Analyzer table stats");
+                t.setDaemon(true);
+                return t;
+              }
+            });
+  }
+
+  /** Starts refreshing periodically, starting now. */
+  void start() {
+    executor.scheduleWithFixedDelay(refreshTask, 0, REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  void stop() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  /** Refreshes the stats in the background as soon as possible, e.g. after tables changed. */
+  void refreshSoon() {
+    try {
+      executor.execute(refreshTask);
+    } catch (RejectedExecutionException e) {
+      // Stopped.
+    }
+  }
+
+  /** Returns the latest stats of the given table, or null if they haven't been taken yet. */
+  TableStats get(String table) {
+    return stats.get(table);
+  }
+
+  // Counts rows this controller added to the given table in a committed transaction, which may be
+  // none if it only updated rows.
+  private static void recordWrite(String table, long numRows) {
+    Counter counter = WRITES.get(table);
+    if (counter == null) {
+      WRITES.putIfAbsent(table, new Counter());
+      counter = WRITES.get(table);
+    }
+    counter.rows.addAndGet(numRows);
+    counter.lastWriteTimeMs = System.currentTimeMillis();
+  }
+
+  private static long getWrittenRows(String table) {
+    Counter counter = WRITES.get(table);
+    return counter == null ? 0 : counter.rows.get();
+  }
+
+  // Takes the stats of all tables of the plugin's database.
+  private void refresh() throws SQLException {
+    VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    if (plugin == null || !plugin.usesMySqlServer()) {
+      return;
+    }
+    Map<String, TableStats> newStats = new HashMap<>();
+    Connection conn = plugin.getConnection();
+    try {
+      long refreshTimeMs = System.currentTimeMillis();
+      PreparedStatement ps = conn.prepareStatement(SQL_TABLE_STATS);
+      try {
+        ps.setString(1, VTestResultsAnalyzerMgmtLink.DB_NAME);
+        ResultSet rs = ps.executeQuery();
+        while (rs.next()) {
+          String table = rs.getString("table_name");
+          if (!VTestResultsAnalyzerMgmtLink.SQL_CREATE_TABLES.containsKey(table)) {
+            continue;
+          }
+          long writtenRows = getWrittenRows(table);
+          Timestamp createTime = rs.getTimestamp("create_time");
+          long newest = -1;
+          long oldest = -1;
+          if (VTestResultsAnalyzerMgmtLink.FACT_TABLES.contains(table)) {
+            newest = getUpdateTimeMs(conn, table, "DESC");
+            oldest = getUpdateTimeMs(conn, table, "ASC");
+          }
+          newStats.put(
+              table,
+              new TableStats(
+                  refreshTimeMs,
+                  createTime == null ? -1 : createTime.getTime(),
+                  rs.getDouble("size"),
+                  rs.getLong("table_rows"),
+                  newest,
+                  oldest,
+                  writtenRows));
+        }
+      } finally {
+        ps.close();
+      }
+    } finally {
+      conn.close();
+    }
+    stats = newStats;
+  }
+
+  // Returns the update time of the row of the given fact table with the highest or lowest id, which
+  // is found in the primary key without a scan, or -1 if the table is empty.
+  private static long getUpdateTimeMs(Connection conn, String table, String order)
+      throws SQLException {
+    Statement stmt = conn.createStatement();
+    try {
+      ResultSet rs =
+          stmt.executeQuery(
+              "SELECT update_time FROM " + table + " ORDER BY id " + order + " LIMIT 1");
+      if (!rs.next() || rs.getTimestamp(1) == null) {
+        return -1;
+      }
+      return rs.getTimestamp(1).getTime();
+    } finally {
+      stmt.close();
+    }
+  }
+}
@@ -0,0 +1,256 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Duration stats and result counts of a test case in a project and sub build, for the list of
+ * failed tests and the list of longest tests of the test cases overview.
+ *
+ * <p>Stores that group on the ids of the dimension tables fill in the names once the test cases
+ * that make the lists are known, so only those are looked up. The same goes for the distributions
+ * of the durations of the longest test cases, which give their percentiles.
+ */
+class TestCaseStats {
+  /** Percentiles of the durations in the items of the lists, as p50_duration and so on. */
+  private static final int[] PERCENTILES = {50, 90, 99};
+
+  private final int testId;
+  private final int projectId;
+  private final int subBuildId;
+  private String testFullName;
+  private String jenkinsProject;
+  private String subBuildLabels;
+  private long count;
+  private long failedCount;
+  private double sumDuration;
+  private float minDuration;
+  private float maxDuration;
+
+  /**
+   * Distribution of the durations, or null if it isn't known. Percentiles are only given when it
+   * has every run, as the rollups of old results may have no sketches yet.
+   */
+  private DurationSketch sketch = null;
+
+  /** Creates stats of the test case with the given ids, whose names are set later. */
+  TestCaseStats(
+      int testId,
+      int projectId,
+      int subBuildId,
+      long count,
+      long failedCount,
+      double sumDuration,
+      float minDuration,
+      float maxDuration) {
+    this.testId = testId;
+    this.projectId = projectId;
+    this.subBuildId = subBuildId;
+    this.count = count;
+    this.failedCount = failedCount;
+    this.sumDuration = sumDuration;
+    this.minDuration = minDuration;
+    this.maxDuration = maxDuration;
+  }
+
+  /** Creates stats of the test case with the given names. Labels are null for root builds. */
+  TestCaseStats(
+      String testFullName,
+      String jenkinsProject,
+      String subBuildLabels,
+      long count,
+      long failedCount,
+      double sumDuration,
+      float minDuration,
+      float maxDuration) {
+    this(0, 0, 0, count, failedCount, sumDuration, minDuration, maxDuration);
+    setNames(testFullName, jenkinsProject, subBuildLabels);
+  }
+
+  int getTestId() {
+    return testId;
+  }
+
+  int getProjectId() {
+    return projectId;
+  }
+
+  int getSubBuildId() {
+    return subBuildId;
+  }
+
+  /** Sets the names of the test case. Labels are null for root builds. */
+  void setNames(String testFullName, String jenkinsProject, String subBuildLabels) {
+    this.testFullName = testFullName;
+    this.jenkinsProject = jenkinsProject;
+    this.subBuildLabels = subBuildLabels;
+  }
+
+  /** Returns a key of the ids of the test case, project and sub build. */
+  String getIdKey() {
+    return getIdKey(testId, projectId, subBuildId);
+  }
+
+  /** Returns the key of the given ids of a test case, project and sub build. */
+  static String getIdKey(int testId, int projectId, int subBuildId) {
+    return testId + ":" + projectId + ":" + subBuildId;
+  }
+
+  /** Returns a key of the names of the test case, project and sub build. */
+  String getNameKey() {
+    return getNameKey(testFullName, jenkinsProject, subBuildLabels);
+  }
+
+  /** Returns the key of the given names of a test case, project and sub build. */
+  static String getNameKey(String testFullName, String jenkinsProject, String subBuildLabels) {
+    String labels = subBuildLabels == null ? "" : subBuildLabels;
+    return testFullName + '\0' + jenkinsProject + '\0' + labels;
+  }
+
+  String getTestFullName() {
+    return testFullName;
+  }
+
+  /** Adds the stats of other runs of the same test case. */
+  void add(TestCaseStats other) {
+    count += other.count;
+    failedCount += other.failedCount;
+    sumDuration += other.sumDuration;
+    minDuration = Math.min(minDuration, other.minDuration);
+    maxDuration = Math.max(maxDuration, other.maxDuration);
+    if (other.sketch != null) {
+      addDurations(other.sketch);
+    }
+  }
+
+  /** Adds the given durations of runs counted in the stats to their distribution. */
+  void addDurations(DurationSketch durations) {
+    if (sketch == null) {
+      sketch = new DurationSketch();
+    }
+    sketch.merge(durations);
+  }
+
+  /** Adds the given duration of a run counted in the stats to their distribution. */
+  void addDuration(float duration) {
+    if (sketch == null) {
+      sketch = new DurationSketch();
+    }
+    sketch.add(duration);
+  }
+
+  double getAvgDuration() {
+    return count == 0 ? 0 : sumDuration / count;
+  }
+
+  /** Returns the stats as an item of the lists of getTestStats, see ResultsStore. */
+  JSONObject toJson() {
+    JSONObject item = new JSONObject();
+    item.put("test_full_name", testFullName);
+    item.put("jenkins_project", jenkinsProject);
+    if (subBuildLabels != null) {
+      item.put("sub_build_labels", subBuildLabels);
+    }
+    item.put("avg_duration", (float) getAvgDuration());
+    item.put("min_duration", minDuration);
+    item.put("max_duration", maxDuration);
+    if (count > 0 && sketch != null && sketch.getCount() == count) {
+      for (int p : PERCENTILES) {
+        item.put("p" + p + "_duration", (float) sketch.getQuantile(p / 100.0));
+      }
+    }
+    item.put("count", count);
+    item.put("failed_count", failedCount);
+    return item;
+  }
+
+  /** Orders stats by their average duration, shortest first. */
+  private static final Comparator<TestCaseStats> BY_AVG_DURATION =
+      new Comparator<TestCaseStats>() {
+        @Override
+        public int compare(TestCaseStats a, TestCaseStats b) {
+          return Double.compare(a.getAvgDuration(), b.getAvgDuration());
+        }
+      };
+
+  /**
+   * Picks the failed test cases and the longest ones on average from the stats of all test cases,
+   * as they are read: the failed ones are kept, the longest ones in a heap that never holds more
+   * than the number asked for.
+   */
+  static class Selector {
+    private final int numLongest;
+    private final List<TestCaseStats> failed = new ArrayList<>();
+
+    /** The longest test cases so far, shortest first, so it is the one dropped for a longer one. */
+    private final PriorityQueue<TestCaseStats> longest;
+
+    Selector(int numLongest) {
+      this.numLongest = numLongest;
+      this.longest = new PriorityQueue<>(numLongest + 1, BY_AVG_DURATION);
+    }
+
+    void add(TestCaseStats stats) {
+      if (stats.failedCount > 0) {
+        failed.add(stats);
+      }
+      if (longest.size() < numLongest) {
+        longest.add(stats);
+      } else if (BY_AVG_DURATION.compare(stats, longest.peek()) > 0) {
+        longest.poll();
+        longest.add(stats);
+      }
+    }
+
+    /** Returns the test cases of the list of longest tests, e.g. to add their durations. */
+    List<TestCaseStats> getLongest() {
+      return new ArrayList<>(longest);
+    }
+
+    /** Returns the test cases of both lists, e.g. to look up their names. */
+    Set<TestCaseStats> getSelected() {
+      Set<TestCaseStats> selected = new LinkedHashSet<>(failed);
+      selected.addAll(longest);
+      return selected;
+    }
+
+    /**
+     * Adds the failed test cases to the given failed tests, most runs first, and the longest ones
+     * to the given longest tests, longest first, then by name. Their names must be set.
+     */
+    void writeTo(JSONArray failedTests, JSONArray longestTests) {
+      Collections.sort(
+          failed,
+          new Comparator<TestCaseStats>() {
+            @Override
+            public int compare(TestCaseStats a, TestCaseStats b) {
+              int c = Long.compare(b.count, a.count);
+              return c != 0 ? c : a.testFullName.compareTo(b.testFullName);
+            }
+          });
+      for (TestCaseStats stats : failed) {
+        failedTests.add(stats.toJson());
+      }
+      List<TestCaseStats> sorted = new ArrayList<>(longest);
+      Collections.sort(
+          sorted,
+          new Comparator<TestCaseStats>() {
+            @Override
+            public int compare(TestCaseStats a, TestCaseStats b) {
+              int c = BY_AVG_DURATION.compare(b, a);
+              return c != 0 ? c : a.testFullName.compareTo(b.testFullName);
+            }
+          });
+      for (TestCaseStats stats : sorted) {
+        longestTests.add(stats.toJson());
+      }
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The test results of one build, stored column by column in a single compressed blob.
+ *
+ * <p>Names are dictionary coded: a test case is stored as its id in the test cases table. Test
+ * cases are sorted by id, so ids are stored as varint deltas and a single test can be found with a
+ * binary search. Durations are stored as floats and results are packed two bits per test case.
+ *
+ * <p>Layout: version byte, then deflated [varint count][varint id deltas][float durations][packed
+ * results].
+ */
+class TestResultBlob {
+  /** Version of the layout, the first byte of every blob. */
+  private static final int FORMAT_VERSION = 1;
+
+  /** Results, as stored in the packed result column. */
+  static final String[] RESULTS = {"PASSED", "FAILED", "SKIPPED", null};
+
+  private static final int RESULT_FAILED = 1;
+
+  /** Stored for results that aren't in {@link #RESULTS}. */
+  private static final int RESULT_OTHER = 3;
+
+  private final int[] testIds;
+  private final float[] durations;
+  private final byte[] results;
+
+  private TestResultBlob(int[] testIds, float[] durations, byte[] results) {
+    this.testIds = testIds;
+    this.durations = durations;
+    this.results = results;
+  }
+
+  /**
+   * Creates the blob of the given records of a build, whose test case ids are given in the same
+   * order. When a test case appears more than once, the last record wins, like it does in the Test
+   * Results table.
+   */
+  static TestResultBlob create(List<TestResultRecord> records, int[] ids) {
+    // Sort record indexes by test case id. Equal ids keep their order, so the last one wins.
+    int n = records.size();
+    long[] order = new long[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = ((long) ids[i] << 32) | i;
+    }
+    Arrays.sort(order);
+    int[] sorted = new int[n];
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      int index = (int) order[i];
+      if (count > 0 && ids[sorted[count - 1]] == ids[index]) {
+        sorted[count - 1] = index;
+      } else {
+        sorted[count++] = index;
+      }
+    }
+
+    int[] testIds = new int[count];
+    float[] durations = new float[count];
+    byte[] results = new byte[(count + 3) / 4];
+    for (int i = 0; i < count; i++) {
+      TestResultRecord record = records.get(sorted[i]);
+      testIds[i] = ids[sorted[i]];
+      durations[i] = record.getDuration();
+      results[i / 4] |= encodeResult(record.getResult()) << (i % 4 * 2);
+    }
+    return new TestResultBlob(testIds, durations, results);
+  }
+
+  /** Returns the compressed bytes of this blob. */
+  byte[] toBytes() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(FORMAT_VERSION);
+    DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+    writeVarint(out, testIds.length);
+    int prevId = 0;
+    for (int id : testIds) {
+      writeVarint(out, id - prevId);
+      prevId = id;
+    }
+    for (float duration : durations) {
+      out.writeFloat(duration);
+    }
+    out.write(results);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /** Decodes a blob written by {@link #toBytes}. */
+  static TestResultBlob decode(byte[] blob) throws IOException {
+    if (blob.length == 0 || blob[0] != FORMAT_VERSION) {
+      throw new IOException("Unsupported test result blob version");
+    }
+    DataInputStream in =
+        new DataInputStream(
+            new InflaterInputStream(new ByteArrayInputStream(blob, 1, blob.length - 1)));
+    try {
+      int count = readVarint(in);
+      int[] testIds = new int[count];
+      int id = 0;
+      for (int i = 0; i < count; i++) {
+        id += readVarint(in);
+        testIds[i] = id;
+      }
+      float[] durations = new float[count];
+      for (int i = 0; i < count; i++) {
+        durations[i] = in.readFloat();
+      }
+      byte[] packed = new byte[(count + 3) / 4];
+      in.readFully(packed);
+      return new TestResultBlob(testIds, durations, packed);
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Returns the number of test cases. */
+  int size() {
+    return testIds.length;
+  }
+
+  int getTestId(int i) {
+    return testIds[i];
+  }
+
+  float getDuration(int i) {
+    return durations[i];
+  }
+
+  String getResult(int i) {
+    return RESULTS[getResultCode(i)];
+  }
+
+  boolean isFailed(int i) {
+    return getResultCode(i) == RESULT_FAILED;
+  }
+
+  /** Returns the index of the given test case, or -1 if it isn't in this build. */
+  int indexOf(int testId) {
+    int i = Arrays.binarySearch(testIds, testId);
+    return i < 0 ? -1 : i;
+  }
+
+  /** Returns the number of failed test cases. */
+  int getFailedCount() {
+    int failed = 0;
+    for (int i = 0; i < testIds.length; i++) {
+      if (isFailed(i)) {
+        failed++;
+      }
+    }
+    return failed;
+  }
+
+  private int getResultCode(int i) {
+    return (results[i / 4] >> (i % 4 * 2)) & 3;
+  }
+
+  private static int encodeResult(String result) {
+    for (int i = 0; i < RESULT_OTHER; i++) {
+      if (RESULTS[i].equals(result)) {
+        return i;
+      }
+    }
+    return RESULT_OTHER;
+  }
+
+  private static void writeVarint(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarint(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint in test result blob");
+  }
+}
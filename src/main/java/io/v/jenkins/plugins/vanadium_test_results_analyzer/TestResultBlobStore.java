@@ -0,0 +1,393 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the test results stored as one blob per build, see {@link TestResultBlob}.
+ *
+ * <p>Decoded blobs are kept in a bounded LRU cache, keyed by the blob's row and update time, so
+ * dashboards that look at the same builds again don't fetch and decode them again. A build that is
+ * sent again gets a new update time, which makes its cached blob unreachable.
+ */
+class TestResultBlobStore {
+  /** Maximum number of test cases of all cached blobs. */
+  private static final int MAX_CACHED_TESTS = 4 * 1000 * 1000;
+
+  /** Maximum number of blobs fetched in one statement. */
+  private static final int FETCH_CHUNK_SIZE = 50;
+
+  /** Maximum number of ids looked up in one statement. */
+  private static final int LOOKUP_CHUNK_SIZE = 500;
+
+  /** MySQL error code when a table doesn't exist. */
+  private static final int ER_NO_SUCH_TABLE = 1146;
+
+  /** SQL to query the builds with a blob, followed by conditions. */
+  private static final String SQL_BUILD_BLOBS =
+      "SELECT b.id, b.update_time, b.project_id, b.sub_build_id, b.build_number, b.start_time, "
+          + "p.name AS jenkins_project, s.labels AS sub_build_labels, "
+          + "CONCAT(p.url, IFNULL(s.url_name, ''), b.build_number, '/') AS url FROM "
+          + VTestResultsAnalyzerMgmtLink.TB_TEST_RESULT_BLOBS
+          + " b JOIN "
+          + VTestResultsAnalyzerMgmtLink.TB_JENKINS_PROJECTS
+          + " p ON p.id=b.project_id LEFT JOIN "
+          + VTestResultsAnalyzerMgmtLink.TB_SUB_BUILDS
+          + " s ON s.id=b.sub_build_id "
+          + "WHERE b.start_time BETWEEN ? AND ? ";
+
+  /** A build and its decoded test results. */
+  static class BuildBlob {
+    private final long id;
+    private final long updateTimeMs;
+    private final int projectId;
+    private final int subBuildId;
+    private final int buildNumber;
+    private final long startTimeMs;
+    private final String jenkinsProject;
+    private final String subBuildLabels;
+    private final String url;
+    private TestResultBlob blob;
+
+    BuildBlob(ResultSet rs) throws SQLException {
+      id = rs.getLong("id");
+      updateTimeMs = rs.getTimestamp("update_time").getTime();
+      projectId = rs.getInt("project_id");
+      subBuildId = rs.getInt("sub_build_id");
+      buildNumber = rs.getInt("build_number");
+      startTimeMs = rs.getTimestamp("start_time").getTime();
+      jenkinsProject = rs.getString("jenkins_project");
+      subBuildLabels = rs.getString("sub_build_labels");
+      url = rs.getString("url");
+    }
+
+    int getBuildNumber() {
+      return buildNumber;
+    }
+
+    long getStartTimeMs() {
+      return startTimeMs;
+    }
+
+    String getJenkinsProject() {
+      return jenkinsProject;
+    }
+
+    /** Returns the sub build labels, or null for root builds. */
+    String getSubBuildLabels() {
+      return subBuildLabels;
+    }
+
+    /** Returns the url of the build relative to Jenkins root. */
+    String getUrl() {
+      return url;
+    }
+
+    TestResultBlob getBlob() {
+      return blob;
+    }
+
+    private String getCacheKey() {
+      return id + ":" + updateTimeMs;
+    }
+  }
+
+  /** Stats of a test case in one project and sub build. */
+  static class TestStats {
+    private final int testId;
+    private final int projectId;
+    private final int subBuildId;
+    private final String jenkinsProject;
+    private final String subBuildLabels;
+    private int count = 0;
+    private int failedCount = 0;
+    private double sumDuration = 0;
+    private float minDuration = Float.MAX_VALUE;
+    private float maxDuration = 0;
+    private final DurationSketch sketch = new DurationSketch();
+
+    TestStats(BuildBlob build, int testId) {
+      this.testId = testId;
+      this.projectId = build.projectId;
+      this.subBuildId = build.subBuildId;
+      this.jenkinsProject = build.jenkinsProject;
+      this.subBuildLabels = build.subBuildLabels;
+    }
+
+    int getTestId() {
+      return testId;
+    }
+
+    int getProjectId() {
+      return projectId;
+    }
+
+    int getSubBuildId() {
+      return subBuildId;
+    }
+
+    String getJenkinsProject() {
+      return jenkinsProject;
+    }
+
+    /** Returns the sub build labels, or null for root builds. */
+    String getSubBuildLabels() {
+      return subBuildLabels;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    int getFailedCount() {
+      return failedCount;
+    }
+
+    double getAvgDuration() {
+      return sumDuration / count;
+    }
+
+    double getSumDuration() {
+      return sumDuration;
+    }
+
+    float getMinDuration() {
+      return minDuration;
+    }
+
+    float getMaxDuration() {
+      return maxDuration;
+    }
+
+    /** Returns the distribution of the durations. */
+    DurationSketch getSketch() {
+      return sketch;
+    }
+
+    private void add(TestResultBlob blob, int i) {
+      float duration = blob.getDuration(i);
+      sketch.add(duration);
+      count++;
+      sumDuration += duration;
+      minDuration = Math.min(minDuration, duration);
+      maxDuration = Math.max(maxDuration, duration);
+      if (blob.isFailed(i)) {
+        failedCount++;
+      }
+    }
+  }
+
+  /** Decoded blobs in least recently used order. Guarded by this. */
+  private final LinkedHashMap<String, TestResultBlob> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** Number of test cases of all cached blobs. Guarded by this. */
+  private int cachedTests = 0;
+
+  /**
+   * Returns the builds that started in the given time range, and match the given SQL condition on
+   * "b" (the blobs), "p" (their projects) and "s" (their sub builds), with their blobs decoded.
+   * Returns an empty list if the blobs table doesn't exist yet.
+   */
+  List<BuildBlob> read(
+      Connection conn, long startEpoch, long endEpoch, String condition, Object... params)
+      throws SQLException {
+    List<BuildBlob> builds = new ArrayList<>();
+    PreparedStatement ps =
+        conn.prepareStatement(SQL_BUILD_BLOBS + (condition.isEmpty() ? "" : "AND " + condition));
+    try {
+      ps.setTimestamp(1, new Timestamp(startEpoch));
+      ps.setTimestamp(2, new Timestamp(endEpoch));
+      for (int i = 0; i < params.length; i++) {
+        ps.setObject(i + 3, params[i]);
+      }
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        builds.add(new BuildBlob(rs));
+      }
+    } catch (SQLException e) {
+      if (e.getErrorCode() == ER_NO_SUCH_TABLE) {
+        return builds;
+      }
+      throw e;
+    } finally {
+      ps.close();
+    }
+
+    // Only fetch the blobs that aren't cached.
+    Map<Long, BuildBlob> missing = new LinkedHashMap<>();
+    for (BuildBlob build : builds) {
+      build.blob = getCached(build.getCacheKey());
+      if (build.blob == null) {
+        missing.put(build.id, build);
+      }
+    }
+    List<Long> ids = new ArrayList<>(missing.keySet());
+    for (int start = 0; start < ids.size(); start += FETCH_CHUNK_SIZE) {
+      fetch(
+          conn,
+          startEpoch,
+          endEpoch,
+          ids.subList(start, Math.min(start + FETCH_CHUNK_SIZE, ids.size())),
+          missing);
+    }
+    return builds;
+  }
+
+  /** Aggregates the test results of the given builds per test case, project and sub build. */
+  static List<TestStats> aggregate(List<BuildBlob> builds) {
+    Map<String, TestStats> stats = new LinkedHashMap<>();
+    for (BuildBlob build : builds) {
+      TestResultBlob blob = build.getBlob();
+      for (int i = 0; i < blob.size(); i++) {
+        String key = blob.getTestId(i) + ":" + build.projectId + ":" + build.subBuildId;
+        TestStats s = stats.get(key);
+        if (s == null) {
+          s = new TestStats(build, blob.getTestId(i));
+          stats.put(key, s);
+        }
+        s.add(blob, i);
+      }
+    }
+    return new ArrayList<>(stats.values());
+  }
+
+  /** Returns the full names of the given test cases. */
+  static Map<Integer, String> getTestFullNames(Connection conn, List<Integer> testIds)
+      throws SQLException {
+    return getNames(conn, VTestResultsAnalyzerMgmtLink.TB_TEST_CASES, "full_name", testIds);
+  }
+
+  /**
+   * Returns the values of the given name column of the rows of a dimension table with the given
+   * ids. Ids without a row, like the sub build id 0 of root builds, are left out.
+   */
+  static Map<Integer, String> getNames(
+      Connection conn, String table, String nameCol, List<Integer> ids) throws SQLException {
+    Map<Integer, String> names = new HashMap<>();
+    for (int start = 0; start < ids.size(); start += LOOKUP_CHUNK_SIZE) {
+      List<Integer> chunk = ids.subList(start, Math.min(start + LOOKUP_CHUNK_SIZE, ids.size()));
+      PreparedStatement ps =
+          conn.prepareStatement(
+              "SELECT id, "
+                  + nameCol
+                  + " FROM "
+                  + table
+                  + " WHERE id IN ("
+                  + placeholders(chunk.size())
+                  + ")");
+      try {
+        for (int i = 0; i < chunk.size(); i++) {
+          ps.setInt(i + 1, chunk.get(i));
+        }
+        ResultSet rs = ps.executeQuery();
+        while (rs.next()) {
+          names.put(rs.getInt(1), rs.getString(2));
+        }
+      } finally {
+        ps.close();
+      }
+    }
+    return names;
+  }
+
+  /** Returns the ids of the test cases with the given full name, mapped to their url paths. */
+  static Map<Integer, String> getTestIds(Connection conn, String testFullName)
+      throws SQLException {
+    Map<Integer, String> ids = new HashMap<>();
+    PreparedStatement ps =
+        conn.prepareStatement(
+            "SELECT id, url_path FROM "
+                + VTestResultsAnalyzerMgmtLink.TB_TEST_CASES
+                + " WHERE full_name=?");
+    try {
+      ps.setString(1, testFullName);
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        ids.put(rs.getInt(1), rs.getString(2));
+      }
+    } finally {
+      ps.close();
+    }
+    return ids;
+  }
+
+  /** Forgets all cached blobs, e.g. when the plugin switches to another database server. */
+  synchronized void clear() {
+    cache.clear();
+    cachedTests = 0;
+  }
+
+  // Fetches and decodes the blobs of the given rows, which started in the given time range, and
+  // caches them. The time range limits the lookups to the partitions of the range.
+  private void fetch(
+      Connection conn, long startEpoch, long endEpoch, List<Long> ids, Map<Long, BuildBlob> builds)
+      throws SQLException {
+    PreparedStatement ps =
+        conn.prepareStatement(
+            "SELECT id, data FROM "
+                + VTestResultsAnalyzerMgmtLink.TB_TEST_RESULT_BLOBS
+                + " WHERE start_time BETWEEN ? AND ? AND id IN ("
+                + placeholders(ids.size())
+                + ")");
+    try {
+      ps.setTimestamp(1, new Timestamp(startEpoch));
+      ps.setTimestamp(2, new Timestamp(endEpoch));
+      for (int i = 0; i < ids.size(); i++) {
+        ps.setLong(i + 3, ids.get(i));
+      }
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        BuildBlob build = builds.get(rs.getLong(1));
+        try {
+          build.blob = TestResultBlob.decode(rs.getBytes(2));
+        } catch (IOException e) {
+          throw new SQLException("Failed to decode test results of build " + build.url, e);
+        }
+        putCached(build.getCacheKey(), build.blob);
+      }
+    } finally {
+      ps.close();
+    }
+    for (Long id : ids) {
+      if (builds.get(id).blob == null) {
+        throw new SQLException("Test results of build " + builds.get(id).url + " disappeared");
+      }
+    }
+  }
+
+  private synchronized TestResultBlob getCached(String key) {
+    return cache.get(key);
+  }
+
+  private synchronized void putCached(String key, TestResultBlob blob) {
+    TestResultBlob old = cache.put(key, blob);
+    if (old != null) {
+      cachedTests -= old.size();
+    }
+    cachedTests += blob.size();
+    // Evict the least recently used blobs, but always keep the one just added.
+    Iterator<TestResultBlob> it = cache.values().iterator();
+    while (cachedTests > MAX_CACHED_TESTS && cache.size() > 1) {
+      cachedTests -= it.next().size();
+      it.remove();
+    }
+  }
+
+  private static String placeholders(int n) {
+    StringBuilder sb = new StringBuilder("?");
+    for (int i = 1; i < n; i++) {
+      sb.append(",?");
+    }
+    return sb.toString();
+  }
+}
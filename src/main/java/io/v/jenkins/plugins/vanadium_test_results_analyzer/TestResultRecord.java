@@ -0,0 +1,170 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/** A row of the {@link VTestResultsAnalyzerMgmtLink#TB_TEST_RESULTS} table. */
+public class TestResultRecord {
+  private static final String TEST_REPORT_URL = "testReport/";
+
+  private final String jenkinsProject;
+  private final String projectUrl;
+  private final int buildNumber;
+  private final String subBuildLabels;
+  private final String subBuildUrlName;
+  private final String testPackage;
+  private final String testClass;
+  private final String testCase;
+  private final String testFullName;
+  private final String testUrlPath;
+  private final long startTimeMs;
+  private final float duration;
+  private final String result;
+  private final String failureSignature;
+  private final String failureSummary;
+
+  public TestResultRecord(
+      String jenkinsProject,
+      String projectUrl,
+      int buildNumber,
+      String subBuildLabels,
+      String subBuildUrlName,
+      String testPackage,
+      String testClass,
+      String testCase,
+      String testFullName,
+      String testUrlPath,
+      long startTimeMs,
+      float duration,
+      String result,
+      String failureSignature,
+      String failureSummary) {
+    this.jenkinsProject = jenkinsProject;
+    this.projectUrl = projectUrl;
+    this.buildNumber = buildNumber;
+    this.subBuildLabels = subBuildLabels;
+    this.subBuildUrlName = subBuildUrlName;
+    this.testPackage = testPackage;
+    this.testClass = testClass;
+    this.testCase = testCase;
+    this.testFullName = testFullName;
+    this.testUrlPath = testUrlPath;
+    this.startTimeMs = startTimeMs;
+    this.duration = duration;
+    this.result = result;
+    this.failureSignature = failureSignature;
+    this.failureSummary = failureSummary;
+  }
+
+  public String getJenkinsProject() {
+    return jenkinsProject;
+  }
+
+  /** Returns the url of the (root) project relative to Jenkins root, e.g. "job/foo/". */
+  public String getProjectUrl() {
+    return projectUrl;
+  }
+
+  public int getBuildNumber() {
+    return buildNumber;
+  }
+
+  /** Returns the sub build labels, or null for root builds. */
+  public String getSubBuildLabels() {
+    return subBuildLabels;
+  }
+
+  /** Returns the url of the sub build's configuration, or null for root builds. */
+  public String getSubBuildUrlName() {
+    return subBuildUrlName;
+  }
+
+  public String getTestPackage() {
+    return testPackage;
+  }
+
+  public String getTestClass() {
+    return testClass;
+  }
+
+  public String getTestCase() {
+    return testCase;
+  }
+
+  public String getTestFullName() {
+    return testFullName;
+  }
+
+  /** Returns the url of the test case relative to the build's test report. */
+  public String getTestUrlPath() {
+    return testUrlPath;
+  }
+
+  public long getStartTimeMs() {
+    return startTimeMs;
+  }
+
+  /** Returns the test duration in seconds. */
+  public float getDuration() {
+    return duration;
+  }
+
+  public String getResult() {
+    return result;
+  }
+
+  /** Returns the signature of the failure, see {@link FailureSignature}, or null if it passed. */
+  public String getFailureSignature() {
+    return failureSignature;
+  }
+
+  /** Returns a one line summary of the failure, or null if it passed. */
+  public String getFailureSummary() {
+    return failureSummary;
+  }
+
+  /** Returns the url of the test case relative to Jenkins root. */
+  public String getUrl() {
+    return JenkinsBuildRecord.getBuildUrl(projectUrl, subBuildUrlName, buildNumber)
+        + TEST_REPORT_URL
+        + testUrlPath;
+  }
+
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeUTF(jenkinsProject);
+    out.writeUTF(projectUrl);
+    out.writeInt(buildNumber);
+    Util.writeNullableUTF(out, subBuildLabels);
+    Util.writeNullableUTF(out, subBuildUrlName);
+    out.writeUTF(testPackage);
+    out.writeUTF(testClass);
+    out.writeUTF(testCase);
+    out.writeUTF(testFullName);
+    out.writeUTF(testUrlPath);
+    out.writeLong(startTimeMs);
+    out.writeFloat(duration);
+    out.writeUTF(result);
+    Util.writeNullableUTF(out, failureSignature);
+    Util.writeNullableUTF(out, failureSummary);
+  }
+
+  static TestResultRecord readFrom(DataInputStream in) throws IOException {
+    return new TestResultRecord(
+        in.readUTF(),
+        in.readUTF(),
+        in.readInt(),
+        Util.readNullableUTF(in),
+        Util.readNullableUTF(in),
+        in.readUTF(),
+        in.readUTF(),
+        in.readUTF(),
+        in.readUTF(),
+        in.readUTF(),
+        in.readLong(),
+        in.readFloat(),
+        in.readUTF(),
+        Util.readNullableUTF(in),
+        Util.readNullableUTF(in));
+  }
+}
@@ -1,15 +1,8 @@
 package io.v.jenkins.plugins.vanadium_test_results_analyzer;
 
-import hudson.matrix.MatrixRun;
-import hudson.model.AbstractBuild;
-import hudson.tasks.junit.CaseResult;
-import hudson.tasks.test.TabulatedResult;
-import hudson.tasks.test.TestResult;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class TestResultsSender implements Runnable {
 
@@ -17,99 +10,71 @@ public class TestResultsSender implements Runnable {
     void onFinish(String errMsg);
   }
 
-  private String ip;
-  private String password;
-  private TestResult packageResult;
-  private TabulatedResult classResult;
-  private AbstractBuild<?, ?> build;
+  private final List<TestResultRecord> records;
+  private final IngestMetrics buildMetrics;
+  private final long createdMs = System.currentTimeMillis();
   private String errMsg = "";
   private TestResultsSenderEventHandler eventHandler;
 
+  /**
+   * Creates a sender of the given records. Its metrics are recorded in the given per-build metrics
+   * (which may be null) and in the plugin's cumulative ones.
+   */
   public TestResultsSender(
-      String ip,
-      String password,
-      TestResult packageResult,
-      TabulatedResult classResult,
-      AbstractBuild<?, ?> build,
+      List<TestResultRecord> records,
+      IngestMetrics buildMetrics,
       TestResultsSenderEventHandler eventHandler) {
-    this.ip = ip;
-    this.password = password;
-    this.packageResult = packageResult;
-    this.classResult = classResult;
-    this.build = build;
+    this.records = records;
+    this.buildMetrics = buildMetrics;
     this.eventHandler = eventHandler;
   }
 
   @Override
   public void run() {
-    // TODO(jingjin): Auto-generated method stub
-    Connection conn = null;
+    // Time spent waiting for a slot in the scheduler and for a worker thread.
+    long queueWaitMs = System.currentTimeMillis() - createdMs;
+    RetryingTransaction.Timings timings = new RetryingTransaction.Timings();
     try {
-      conn = Util.getConnection(ip, password, VTestResultsAnalyzerMgmtLink.DB_NAME);
-      conn.setAutoCommit(false);
+      // Transient failures are retried: the records are upserted, so a batch that was partially
+      // written before failing can safely be written again.
+      VTestResultsAnalyzerPluginImpl.getInstance()
+          .getResultsStore()
+          .write(Collections.<JenkinsBuildRecord>emptyList(), records, timings);
+    } catch (SQLException e) {
+      errMsg = e.getMessage();
+    } catch (InterruptedException e) {
+      errMsg = "Interrupted";
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      errMsg = e.toString();
+      throw e;
+    } finally {
+      finish(queueWaitMs, timings);
+    }
+  }
 
-      String sqlInsert =
-          String.format(
-              "INSERT INTO "
-                  + VTestResultsAnalyzerMgmtLink.TB_TEST_RESULTS
-                  + "(jenkins_project, build_number, sub_build_labels, test_package, "
-                  + "test_class, test_case, test_full_name, "
-                  + "start_time, duration, result, url, update_time) VALUES "
-                  + "(?,?,?,?,?,?,?,?,?,?,?,?)");
-      PreparedStatement ps = conn.prepareStatement(sqlInsert);
+  /** Fails the records without sending them, e.g. because the sender was dropped from a queue. */
+  void cancel(String errMsg) {
+    this.errMsg = errMsg;
+    finish(System.currentTimeMillis() - createdMs, new RetryingTransaction.Timings());
+  }
 
-      String packageName = packageResult.getDisplayName();
-      String className = classResult.getDisplayName();
-      Collection<? extends TestResult> testCases = classResult.getChildren();
-      for (TestResult testCase : testCases) {
-        CaseResult caseResult = (CaseResult) testCase;
-        String url =
-            String.format(
-                "%stestReport/%s/%s/%s/",
-                build.getUrl(),
-                packageResult.getSafeName(),
-                classResult.getSafeName(),
-                caseResult.getSafeName());
-        String result = "PASSED";
-        if (caseResult.isFailed()) {
-          result = "FAILED";
-        } else if (caseResult.isSkipped()) {
-          result = "SKIPPED";
+  // Records the outcome in the metrics and tells the event handler.
+  private void finish(long queueWaitMs, RetryingTransaction.Timings timings) {
+    IngestMetrics metrics = VTestResultsAnalyzerPluginImpl.getInstance().getTestResultMetrics();
+    try {
+      if (errMsg.isEmpty()) {
+        metrics.recordSuccess(records.size(), queueWaitMs, timings);
+        if (buildMetrics != null) {
+          buildMetrics.recordSuccess(records.size(), queueWaitMs, timings);
         }
-        ps.clearParameters();
-        ps.setString(1, build.getRootBuild().getProject().getName()); // jenkins_project
-        ps.setInt(2, build.getNumber()); // build_number
-        if (build instanceof MatrixRun) {
-          ps.setString(3, build.getParent().getName()); // sub build labels for sub builds.
-        } else {
-          ps.setString(3, null); // null for root build.
+      } else {
+        metrics.recordFailure(records.size(), queueWaitMs, timings, errMsg);
+        if (buildMetrics != null) {
+          buildMetrics.recordFailure(records.size(), queueWaitMs, timings, errMsg);
         }
-        ps.setString(4, packageName); // package name
-        ps.setString(5, className); // class name
-        ps.setString(6, caseResult.getDisplayName()); // case name
-        ps.setString(7, caseResult.getFullDisplayName()); // full name
-        ps.setTimestamp(8, new Timestamp(build.getStartTimeInMillis())); // start time.
-        ps.setFloat(9, caseResult.getDuration()); // duration (in seconds)
-        ps.setString(10, result); // result
-        ps.setString(11, url);
-        long curMs = System.currentTimeMillis();
-        ps.setTimestamp(12, new Timestamp(curMs));
-        ps.addBatch();
       }
-      ps.executeBatch();
-      conn.commit();
-      conn.setAutoCommit(true);
-    } catch (SQLException e) {
-      errMsg = e.getMessage();
-      return;
     } finally {
-      if (conn != null) {
-        try {
-          conn.close();
-        } catch (SQLException e) {
-          errMsg = e.getMessage();
-        }
-      }
       if (eventHandler != null) {
         eventHandler.onFinish(errMsg);
       }
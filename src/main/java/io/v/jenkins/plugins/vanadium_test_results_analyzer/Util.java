@@ -1,9 +1,16 @@
 package io.v.jenkins.plugins.vanadium_test_results_analyzer;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 
 public class Util {
   
@@ -12,12 +19,21 @@ public class Util {
   // Establishes a connection to the given database server.
   static Connection getConnection(String serverIP, String rootPassword, String database)
       throws SQLException {
+    return getConnection(serverIP, rootPassword, database, "");
+  }
+
+  // Establishes a connection to the given database server with extra url parameters (each
+  // starting with "&").
+  static Connection getConnection(
+      String serverIP, String rootPassword, String database, String extraParams)
+      throws SQLException {
     DriverManager.setLoginTimeout(10);
     String url =
         "jdbc:mysql://"
             + serverIP
             + (database != null ? ("/" + database) : "")
-            + "?useSSL=false&serverTimezone=UTC";
+            + "?useSSL=false&serverTimezone=UTC"
+            + extraParams;
     return DriverManager.getConnection(url, "root", rootPassword);
   }
   
@@ -25,4 +41,44 @@ public class Util {
   static void logToConsole(PrintStream ps, String msg) {
     ps.print(String.format("%s: %s", CONSOLE_LOG_PREFIX, msg));
   }
+
+  // Adds the given columns of the rows of the given result set to the given results, as items for
+  // the dashboards: doubles become whole numbers, times ms since the epoch, and nulls are left out.
+  static void addRows(ResultSet rs, String[] cols, JSONArray results) throws SQLException {
+    while (rs.next()) {
+      JSONObject item = new JSONObject();
+      for (String col : cols) {
+        Object obj = getValue(rs, col);
+        if (obj != null) {
+          item.put(col, obj);
+        }
+      }
+      results.add(item);
+    }
+  }
+
+  // Returns the value of the given column of the current row as in addRows, or null.
+  static Object getValue(ResultSet rs, String col) throws SQLException {
+    Object obj = rs.getObject(col);
+    if (obj instanceof Double) {
+      obj = ((Double) obj).intValue();
+    }
+    if (obj instanceof Timestamp) {
+      obj = ((Timestamp) obj).getTime();
+    }
+    return obj;
+  }
+
+  // Writes a string that may be null.
+  static void writeNullableUTF(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  // Reads a string written by writeNullableUTF.
+  static String readNullableUTF(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
 }
@@ -1,22 +1,27 @@
 package io.v.jenkins.plugins.vanadium_test_results_analyzer;
 
 import hudson.Extension;
+import hudson.matrix.MatrixConfiguration;
+import hudson.model.AbstractProject;
 import hudson.model.ManagementLink;
 import hudson.util.FormValidation;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Timestamp;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jenkins.model.Jenkins;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
@@ -53,6 +58,19 @@ public class VTestResultsAnalyzerMgmtLink extends ManagementLink {
   private static final String KEY_DB_STATUS_TABLE_OLDEST_UPDATE_TIME = "oldestUpdateTime";
   private static final String KEY_DB_STATUS_TABLE_ROW_COUNT = "rowCount";
   private static final String KEY_DB_STATUS_TABLE_SIZE = "size";
+  private static final String KEY_DB_STATUS_TABLE_PARTITIONS = "partitions";
+  private static final String KEY_DB_STATUS_TABLE_ROWS_WRITTEN = "rowsWritten";
+  private static final String KEY_DB_STATUS_TABLE_STATS_TIME = "statsTime";
+  private static final String KEY_DB_STATUS_SCHEMA_VERSION = "schemaVersion";
+  private static final String KEY_DB_STATUS_LATEST_SCHEMA_VERSION = "latestSchemaVersion";
+  private static final String KEY_DB_STATUS_PENDING_MIGRATIONS = "pendingMigrations";
+  private static final String KEY_DB_STATUS_WRITE_STALLING_MIGRATIONS = "writeStallingMigrations";
+
+  /** A set of keys in the json object returned by getIngestionMetrics. */
+  private static final String KEY_INGESTION_TEST_RESULTS = "testResults";
+  private static final String KEY_INGESTION_JENKINS_BUILDS = "jenkinsBuilds";
+  private static final String KEY_INGESTION_PENDING_BATCHES = "pendingBatches";
+  private static final String KEY_INGESTION_BLOCKED_SUBMITTERS = "blockedSubmitters";
 
   /** A set of keys in the json object returned by getJenkinsBuildsRunTimeInfo. */
   private static final String KEY_BUILDS_RUN_TIME_ERR = "errMsg";
@@ -63,155 +81,355 @@ public class VTestResultsAnalyzerMgmtLink extends ManagementLink {
   /** The database table to store jenkins builds data. */
   static final String TB_JENKINS_BUILDS = "jenkins_builds";
 
+  /** The unique key of a build: a build is written at most once. */
+  private static final String UK_JENKINS_BUILDS = "build_key";
+
   /** SQL to create Jenkins Builds table. */
   private static final String SQL_CREATE_TB_JENKINS_BUILDS =
       "CREATE TABLE "
           + TB_JENKINS_BUILDS
           + "(id INTEGER NOT NULL AUTO_INCREMENT, "
-          // The name of the Jenkins project for this build.
-          + " jenkins_project VARCHAR(64), "
+          // The Jenkins project for this build. See jenkins_projects.
+          + " project_id INTEGER NOT NULL, "
           // Build number.
           + " build_number INTEGER, "
-          // sub build labels. NULL means root build.
-          + " sub_build_labels VARCHAR(1024), "
+          // The sub build. See sub_builds. 0 means root build.
+          + " sub_build_id INTEGER NOT NULL DEFAULT 0, "
           // Node this build runs on.
           + " node VARCHAR(64), "
-          // The time when the build started.
-          + " start_time DATETIME, "
+          // The time when the build started. Tables are partitioned on it, see PartitionManager.
+          + " start_time DATETIME NOT NULL, "
           // Build duration in seconds.
           + " duration INTEGER, "
           // Result.
           + " result VARCHAR(16), "
-          // URL of this build.
-          + " url VARCHAR(1024), "
           // When this entry is added to the database.
           + " update_time DATETIME, "
-          + " PRIMARY KEY ( id ))";
+          + " PRIMARY KEY ( id, start_time ), "
+          + " UNIQUE KEY "
+          + UK_JENKINS_BUILDS
+          + " ( project_id, build_number, sub_build_id, start_time ))";
 
   static final String TB_TEST_RESULTS = "test_results";
 
+  /** The unique key of a test result: one row per test case and build. */
+  private static final String UK_TEST_RESULTS = "test_result_key";
+
   private static final String SQL_CREATE_TB_TEST_RESULTS =
       "CREATE TABLE "
           + TB_TEST_RESULTS
-          + "(id INTEGER NOT NULL AUTO_INCREMENT, "
-          // The name of the Jenkins project for this build.
-          + " jenkins_project VARCHAR(64), "
+          + "(id BIGINT NOT NULL AUTO_INCREMENT, "
+          // The Jenkins project for this build. See jenkins_projects.
+          + " project_id INTEGER NOT NULL, "
           // Build number.
           + " build_number INTEGER, "
-          // sub build labels. NULL means root build.
-          + " sub_build_labels VARCHAR(1024), "
-          // Test package name.
-          + " test_package VARCHAR(256), "
-          // Test class name.
-          + " test_class VARCHAR(256), "
-          // Test case name.
-          + " test_case VARCHAR(256), "
-          // Test full name.
-          + " test_full_name VARCHAR(1024), "
+          // The sub build. See sub_builds. 0 means root build.
+          + " sub_build_id INTEGER NOT NULL DEFAULT 0, "
+          // The test case. See test_cases.
+          + " test_id INTEGER NOT NULL, "
           // The time when the corresponding build started.
-          + " start_time DATETIME, "
+          + " start_time DATETIME NOT NULL, "
           // Build duration in seconds.
           + " duration FLOAT, "
           // Result.
           + " result VARCHAR(16), "
-          // URL of this test.
-          + " url VARCHAR(1024), "
           // When this entry is added to the database.
           + " update_time DATETIME, "
-          + " PRIMARY KEY ( id ))";
-
-  /** SQL to query table stats. */
-  private static final String SQL_TABLE_STATS =
-      "SELECT create_time,"
-          + "round(((data_length + index_length) / 1024 / 1024), 2) 'size' "
-          + "FROM INFORMATION_SCHEMA.TABLES "
-          + "WHERE table_name='%s'";
-
-  /** SQL to query info of all jenkins builds. */
-  private static final String SQL_JENKINS_BUILDS =
-      "SELECT jenkins_project, sub_build_labels, "
-          + "AVG(duration) AS avg, "
-          + "MIN(duration) AS min, "
-          + "MAX(duration) AS max, "
-          + "STD(duration) AS std, "
-          + "COUNT(CASE WHEN result IN ('SUCCESS') THEN 1 END) as success_count, "
-          + "COUNT(CASE WHEN result IN ('UNSTABLE') THEN 1 END) as unstable_count, "
-          + "COUNT(CASE WHEN result IN ('FAILURE') THEN 1 END) as failure_count, "
-          + "COUNT(CASE WHEN result IN ('ABORTED') THEN 1 END) as aborted_count, "
-          + "COUNT(*) AS count "
-          + "FROM "
-          + TB_JENKINS_BUILDS
-          + " WHERE "
-          + "start_time BETWEEN '%s' AND '%s' "
-          + "GROUP BY jenkins_project,sub_build_labels "
-          + "ORDER BY avg DESC";
-
-  /** SQL to query a specific jenkins build. */
-  private static final String SQL_BUILD_DETAILS =
-      "SELECT build_number, start_time, duration, result, url FROM "
-          + TB_JENKINS_BUILDS
-          + " WHERE jenkins_project='%s' AND %s AND "
-          + "start_time BETWEEN '%s' AND '%s' "
-          + "ORDER BY build_number";
-
-  /** SQL to query all available jenkins builds. */
-  private static final String SQL_AVAILABLE_JENKINS_BUILDS =
-      "SELECT jenkins_project, start_time, sub_build_labels "
-          + "FROM "
-          + TB_JENKINS_BUILDS
-          + " WHERE "
-          + "start_time BETWEEN '%s' AND '%s' "
-          + "GROUP BY jenkins_project,sub_build_labels";
-
-  /** SQL to query test results data. */
-  private static final String SQL_FAILED_TEST_RESULTS =
-      "SELECT test_full_name, jenkins_project, sub_build_labels, "
-          + "AVG(duration) AS avg_duration, "
-          + "MIN(duration) AS min_duration, "
-          + "MAX(duration) AS max_duration, "
-          + "COUNT(CASE WHEN result IN ('FAILED') THEN 1 END) as failed_count, "
-          + "COUNT(*) AS count "
-          + "FROM "
-          + TB_TEST_RESULTS
-          + " WHERE "
-          + "start_time BETWEEN '%s' AND '%s' "
-          + "GROUP BY test_full_name,jenkins_project,sub_build_labels "
-          + "HAVING COUNT(CASE WHEN result in ('FAILED') THEN 1 END) > 0 "
-          + "ORDER BY count DESC, test_full_name ASC";
-
-  /** SQL to query longest tests. */
-  private static final String SQL_LONGEST_TESTS =
-      "SELECT test_full_name, jenkins_project, sub_build_labels, "
-          + "AVG(duration) AS avg_duration, "
-          + "MIN(duration) AS min_duration, "
-          + "MAX(duration) AS max_duration, "
-          + "COUNT(CASE WHEN result IN ('FAILED') THEN 1 END) as failed_count, "
-          + "COUNT(*) AS count "
-          + "FROM "
-          + TB_TEST_RESULTS
-          + " WHERE "
-          + "start_time BETWEEN '%s' AND '%s' "
-          + "GROUP BY test_full_name,jenkins_project,sub_build_labels "
-          + "ORDER BY avg_duration DESC, test_full_name ASC "
-          + "LIMIT 50";
-
-  /** SQL to query all available test cases. */
-  private static final String SQL_AVAILABLE_TEST_CASES =
-      "SELECT test_full_name, jenkins_project, sub_build_labels "
-          + "FROM "
-          + TB_TEST_RESULTS
-          + " WHERE "
-          + "start_time BETWEEN '%s' AND '%s' "
-          + "GROUP BY test_full_name,jenkins_project,sub_build_labels "
-          + "ORDER BY test_full_name";
-
-  /** SQL to query a specific test case. */
-  private static final String SQL_TEST_CASE_DETAILS =
-      "SELECT build_number, start_time, duration, result, url FROM "
-          + TB_TEST_RESULTS
-          + " WHERE jenkins_project='%s' AND test_full_name='%s' AND %s AND "
-          + "start_time BETWEEN '%s' AND '%s' "
-          + "ORDER BY build_number";
+          + " PRIMARY KEY ( id, start_time ), "
+          + " UNIQUE KEY "
+          + UK_TEST_RESULTS
+          + " ( project_id, build_number, sub_build_id, test_id, start_time ))";
+
+  /** The database table to store the test results of a build as one blob, see TestResultBlob. */
+  static final String TB_TEST_RESULT_BLOBS = "test_result_blobs";
+
+  /** The unique key of a test result blob: one row per build. */
+  private static final String UK_TEST_RESULT_BLOBS = "test_result_blob_key";
+
+  private static final String SQL_CREATE_TB_TEST_RESULT_BLOBS =
+      "CREATE TABLE "
+          + TB_TEST_RESULT_BLOBS
+          + "(id BIGINT NOT NULL AUTO_INCREMENT, "
+          // The Jenkins project for this build. See jenkins_projects.
+          + " project_id INTEGER NOT NULL, "
+          // Build number.
+          + " build_number INTEGER, "
+          // The sub build. See sub_builds. 0 means root build.
+          + " sub_build_id INTEGER NOT NULL DEFAULT 0, "
+          // The time when the build started.
+          + " start_time DATETIME NOT NULL, "
+          // Number of test cases and failed test cases in the blob.
+          + " num_tests INTEGER, "
+          + " num_failed INTEGER, "
+          // The compressed test results.
+          + " data MEDIUMBLOB, "
+          // When this entry is added to the database.
+          + " update_time DATETIME, "
+          + " PRIMARY KEY ( id, start_time ), "
+          + " UNIQUE KEY "
+          + UK_TEST_RESULT_BLOBS
+          + " ( project_id, build_number, sub_build_id, start_time ), "
+          + " KEY ( start_time ))";
+
+  /**
+   * The database table to store failed test runs with the signature of their failure, so failures
+   * can be grouped by signature without reading the test results.
+   */
+  static final String TB_TEST_FAILURES = "test_failures";
+
+  /** The unique key of a test failure: one row per test case and build. */
+  private static final String UK_TEST_FAILURES = "test_failure_key";
+
+  private static final String SQL_CREATE_TB_TEST_FAILURES =
+      "CREATE TABLE "
+          + TB_TEST_FAILURES
+          + "(id BIGINT NOT NULL AUTO_INCREMENT, "
+          // The Jenkins project for this build. See jenkins_projects.
+          + " project_id INTEGER NOT NULL, "
+          // Build number.
+          + " build_number INTEGER, "
+          // The sub build. See sub_builds. 0 means root build.
+          + " sub_build_id INTEGER NOT NULL DEFAULT 0, "
+          // The test case. See test_cases.
+          + " test_id INTEGER NOT NULL, "
+          // The signature of the failure. See failure_signatures.
+          + " signature_id INTEGER NOT NULL, "
+          // The time when the corresponding build started.
+          + " start_time DATETIME NOT NULL, "
+          // When this entry is added to the database.
+          + " update_time DATETIME, "
+          + " PRIMARY KEY ( id, start_time ), "
+          + " UNIQUE KEY "
+          + UK_TEST_FAILURES
+          + " ( project_id, build_number, sub_build_id, test_id, start_time ), "
+          // Covers grouping the failures of a time range by signature.
+          + " KEY time_signature "
+          + "( start_time, signature_id, test_id, project_id, build_number, sub_build_id ), "
+          // Finds the failures of one signature.
+          + " KEY signature_time ( signature_id, start_time ))";
+
+  // Dimension tables. Every row is identified by the SHA-1 hash of its key, see DimensionCache.
+
+  /** The database table to store Jenkins projects. Key: name. */
+  static final String TB_JENKINS_PROJECTS = "jenkins_projects";
+
+  private static final String SQL_CREATE_TB_JENKINS_PROJECTS =
+      "CREATE TABLE "
+          + TB_JENKINS_PROJECTS
+          + "(id INTEGER NOT NULL AUTO_INCREMENT, "
+          + " hash BINARY(20) NOT NULL, "
+          // The name of the Jenkins project.
+          + " name VARCHAR(64), "
+          // URL of the project, e.g. "job/foo/".
+          + " url VARCHAR(1024), "
+          + " PRIMARY KEY ( id ), UNIQUE KEY ( hash )) DEFAULT CHARSET=utf8";
+
+  /** The database table to store sub builds of matrix projects. Key: labels. */
+  static final String TB_SUB_BUILDS = "sub_builds";
+
+  private static final String SQL_CREATE_TB_SUB_BUILDS =
+      "CREATE TABLE "
+          + TB_SUB_BUILDS
+          + "(id INTEGER NOT NULL AUTO_INCREMENT, "
+          + " hash BINARY(20) NOT NULL, "
+          // Sub build labels.
+          + " labels VARCHAR(1024), "
+          // URL of the sub build's configuration relative to its project, e.g. "OS=linux/".
+          + " url_name VARCHAR(1024), "
+          + " PRIMARY KEY ( id ), UNIQUE KEY ( hash )) DEFAULT CHARSET=utf8";
+
+  /** The database table to store test packages. Key: name. */
+  static final String TB_TEST_PACKAGES = "test_packages";
+
+  private static final String SQL_CREATE_TB_TEST_PACKAGES =
+      "CREATE TABLE "
+          + TB_TEST_PACKAGES
+          + "(id INTEGER NOT NULL AUTO_INCREMENT, "
+          + " hash BINARY(20) NOT NULL, "
+          // Test package name.
+          + " name VARCHAR(256), "
+          + " PRIMARY KEY ( id ), UNIQUE KEY ( hash )) DEFAULT CHARSET=utf8";
+
+  /** The database table to store test classes. Key: package_id, name. */
+  static final String TB_TEST_CLASSES = "test_classes";
+
+  private static final String SQL_CREATE_TB_TEST_CLASSES =
+      "CREATE TABLE "
+          + TB_TEST_CLASSES
+          + "(id INTEGER NOT NULL AUTO_INCREMENT, "
+          + " hash BINARY(20) NOT NULL, "
+          // The package of this class. See test_packages.
+          + " package_id INTEGER NOT NULL, "
+          // Test class name.
+          + " name VARCHAR(256), "
+          + " PRIMARY KEY ( id ), UNIQUE KEY ( hash )) DEFAULT CHARSET=utf8";
+
+  /** The database table to store test cases. Key: class_id, name. */
+  static final String TB_TEST_CASES = "test_cases";
+
+  private static final String SQL_CREATE_TB_TEST_CASES =
+      "CREATE TABLE "
+          + TB_TEST_CASES
+          + "(id INTEGER NOT NULL AUTO_INCREMENT, "
+          + " hash BINARY(20) NOT NULL, "
+          // The class of this test case. See test_classes.
+          + " class_id INTEGER NOT NULL, "
+          // Test case name.
+          + " name VARCHAR(256), "
+          // Test full name.
+          + " full_name VARCHAR(1024), "
+          // URL of this test relative to the build's test report, e.g. "pkg/cls/case/".
+          + " url_path VARCHAR(1024), "
+          + " PRIMARY KEY ( id ), UNIQUE KEY ( hash ), KEY ( full_name(255) )) "
+          + "DEFAULT CHARSET=utf8";
+
+  /** The database table to store failure signatures, see FailureSignature. Key: signature. */
+  static final String TB_FAILURE_SIGNATURES = "failure_signatures";
+
+  private static final String SQL_CREATE_TB_FAILURE_SIGNATURES =
+      "CREATE TABLE "
+          + TB_FAILURE_SIGNATURES
+          + "(id INTEGER NOT NULL AUTO_INCREMENT, "
+          + " hash BINARY(20) NOT NULL, "
+          // The first line of the error of the first failure with this signature.
+          + " summary VARCHAR(1024), "
+          // The normalized error and stack trace.
+          + " signature TEXT, "
+          + " PRIMARY KEY ( id ), UNIQUE KEY ( hash )) DEFAULT CHARSET=utf8";
+
+  // Rollup tables. Every row sums up the rows of the fact tables in one hour or day, see Rollups.
+
+  /** The database table to store build stats per project and sub build, per hour and day. */
+  static final String TB_BUILD_ROLLUPS = "build_rollups";
+
+  private static final String SQL_CREATE_TB_BUILD_ROLLUPS =
+      "CREATE TABLE "
+          + TB_BUILD_ROLLUPS
+          // Length of the bucket in hours: 1 or 24.
+          + "(bucket_hours TINYINT NOT NULL, "
+          // Start of the bucket, in local time.
+          + " bucket_start DATETIME NOT NULL, "
+          + " project_id INTEGER NOT NULL, "
+          + " sub_build_id INTEGER NOT NULL, "
+          // Number of builds, in total and per result.
+          + " count INTEGER, "
+          + " success_count INTEGER, "
+          + " unstable_count INTEGER, "
+          + " failure_count INTEGER, "
+          + " aborted_count INTEGER, "
+          // Sum of the build durations and of their squares, for averages and deviations.
+          + " sum_duration DOUBLE, "
+          + " sum_sq_duration DOUBLE, "
+          + " min_duration INTEGER, "
+          + " max_duration INTEGER, "
+          // When this bucket was last computed.
+          + " update_time DATETIME, "
+          + " PRIMARY KEY ( bucket_hours, bucket_start, project_id, sub_build_id ))";
+
+  /** The database table to store test case stats per project and sub build, per hour and day. */
+  static final String TB_TEST_ROLLUPS = "test_rollups";
+
+  private static final String SQL_CREATE_TB_TEST_ROLLUPS =
+      "CREATE TABLE "
+          + TB_TEST_ROLLUPS
+          // Length of the bucket in hours: 1 or 24.
+          + "(bucket_hours TINYINT NOT NULL, "
+          // Start of the bucket, in local time.
+          + " bucket_start DATETIME NOT NULL, "
+          + " test_id INTEGER NOT NULL, "
+          + " project_id INTEGER NOT NULL, "
+          + " sub_build_id INTEGER NOT NULL, "
+          // Number of runs, in total and failed.
+          + " count INTEGER, "
+          + " failed_count INTEGER, "
+          // Sum of the run durations.
+          + " sum_duration DOUBLE, "
+          + " min_duration FLOAT, "
+          + " max_duration FLOAT, "
+          // Distribution of the run durations, see DurationSketch.
+          + " duration_sketch BLOB, "
+          // When this bucket was last computed.
+          + " update_time DATETIME, "
+          + " PRIMARY KEY ( bucket_hours, bucket_start, test_id, project_id, sub_build_id ))";
+
+  /**
+   * The database table to store the daily stats of test results that were moved out of the Test
+   * Results table, see Downsampler. They are part of the daily rollups of their day.
+   */
+  static final String TB_TEST_SUMMARIES = "test_summaries";
+
+  private static final String SQL_CREATE_TB_TEST_SUMMARIES =
+      "CREATE TABLE "
+          + TB_TEST_SUMMARIES
+          // Start of the day, in local time.
+          + "(day_start DATETIME NOT NULL, "
+          + " test_id INTEGER NOT NULL, "
+          + " project_id INTEGER NOT NULL, "
+          + " sub_build_id INTEGER NOT NULL, "
+          // Number of runs, in total and failed.
+          + " count INTEGER, "
+          + " failed_count INTEGER, "
+          // Sum of the run durations.
+          + " sum_duration DOUBLE, "
+          + " min_duration FLOAT, "
+          + " max_duration FLOAT, "
+          // Distribution of the run durations, see DurationSketch.
+          + " duration_sketch BLOB, "
+          // When rows were last moved into this summary.
+          + " update_time DATETIME, "
+          + " PRIMARY KEY ( day_start, test_id, project_id, sub_build_id ))";
+
+  /** The database table to store the hours whose rollups need to be computed again. */
+  static final String TB_ROLLUP_DIRTY_HOURS = "rollup_dirty_hours";
+
+  private static final String SQL_CREATE_TB_ROLLUP_DIRTY_HOURS =
+      "CREATE TABLE "
+          + TB_ROLLUP_DIRTY_HOURS
+          // Start of the hour, in local time.
+          + "(hour_start DATETIME NOT NULL, "
+          // When the hour was first written to since it was last computed.
+          + " update_time DATETIME, "
+          + " PRIMARY KEY ( hour_start ))";
+
+  /**
+   * SQL to create every table of the plugin, in creation order. Tables are created, and later
+   * changed, by {@link SchemaMigrations}.
+   */
+  static final Map<String, String> SQL_CREATE_TABLES = new LinkedHashMap<>();
+
+  static {
+    SQL_CREATE_TABLES.put(TB_JENKINS_PROJECTS, SQL_CREATE_TB_JENKINS_PROJECTS);
+    SQL_CREATE_TABLES.put(TB_SUB_BUILDS, SQL_CREATE_TB_SUB_BUILDS);
+    SQL_CREATE_TABLES.put(TB_TEST_PACKAGES, SQL_CREATE_TB_TEST_PACKAGES);
+    SQL_CREATE_TABLES.put(TB_TEST_CLASSES, SQL_CREATE_TB_TEST_CLASSES);
+    SQL_CREATE_TABLES.put(TB_TEST_CASES, SQL_CREATE_TB_TEST_CASES);
+    SQL_CREATE_TABLES.put(TB_FAILURE_SIGNATURES, SQL_CREATE_TB_FAILURE_SIGNATURES);
+    SQL_CREATE_TABLES.put(TB_JENKINS_BUILDS, SQL_CREATE_TB_JENKINS_BUILDS);
+    SQL_CREATE_TABLES.put(TB_TEST_RESULTS, SQL_CREATE_TB_TEST_RESULTS);
+    SQL_CREATE_TABLES.put(TB_TEST_RESULT_BLOBS, SQL_CREATE_TB_TEST_RESULT_BLOBS);
+    SQL_CREATE_TABLES.put(TB_TEST_FAILURES, SQL_CREATE_TB_TEST_FAILURES);
+    SQL_CREATE_TABLES.put(TB_BUILD_ROLLUPS, SQL_CREATE_TB_BUILD_ROLLUPS);
+    SQL_CREATE_TABLES.put(TB_TEST_ROLLUPS, SQL_CREATE_TB_TEST_ROLLUPS);
+    SQL_CREATE_TABLES.put(TB_ROLLUP_DIRTY_HOURS, SQL_CREATE_TB_ROLLUP_DIRTY_HOURS);
+    SQL_CREATE_TABLES.put(TB_TEST_SUMMARIES, SQL_CREATE_TB_TEST_SUMMARIES);
+  }
+
+  /**
+   * Tables with one row per build or test run, which have an update_time column. They are
+   * partitioned by start_time, see PartitionManager, so start_time is part of their keys.
+   */
+  static final List<String> FACT_TABLES =
+      Arrays.asList(TB_JENKINS_BUILDS, TB_TEST_RESULTS, TB_TEST_RESULT_BLOBS, TB_TEST_FAILURES);
+
+  /** Names of the unique keys of the fact tables. */
+  static final Map<String, String> UNIQUE_KEYS = new LinkedHashMap<>();
+
+  static {
+    UNIQUE_KEYS.put(TB_JENKINS_BUILDS, UK_JENKINS_BUILDS);
+    UNIQUE_KEYS.put(TB_TEST_RESULTS, UK_TEST_RESULTS);
+    UNIQUE_KEYS.put(TB_TEST_RESULT_BLOBS, UK_TEST_RESULT_BLOBS);
+    UNIQUE_KEYS.put(TB_TEST_FAILURES, UK_TEST_FAILURES);
+  }
 
   @Override
   public String getDisplayName() {
@@ -242,6 +460,7 @@ public class VTestResultsAnalyzerMgmtLink extends ManagementLink {
   public FormValidation doTestConnection(
       @QueryParameter("serverIP") final String serverIP,
       @QueryParameter("rootPassword") final String rootPassword) {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
     LOGGER.info("Testing connection to server " + serverIP);
     String errMsg = checkConnection(serverIP, rootPassword, null);
     if (errMsg.isEmpty()) {
@@ -257,15 +476,37 @@ public class VTestResultsAnalyzerMgmtLink extends ManagementLink {
       final StaplerResponse rep,
       @QueryParameter("serverIP") final String serverIP,
       @QueryParameter("rootPassword") final String rootPassword,
-      @QueryParameter("pluginDisabled") final boolean pluginDisabled)
+      @QueryParameter("pluginDisabled") final boolean pluginDisabled,
+      @QueryParameter("bulkLoadEnabled") final boolean bulkLoadEnabled,
+      @QueryParameter("columnarStorageEnabled") final boolean columnarStorageEnabled,
+      @QueryParameter("retentionDays") final int retentionDays,
+      @QueryParameter("downsampleAfterDays") final int downsampleAfterDays,
+      @QueryParameter("keepFailedRuns") final boolean keepFailedRuns,
+      @QueryParameter("embeddedStoreEnabled") final boolean embeddedStoreEnabled)
       throws IOException {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
     LOGGER.info("Saving settings");
 
     final VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    boolean serverChanged =
+        !serverIP.equals(plugin.getServerIP())
+            || !rootPassword.equals(plugin.getRootPassword())
+            || embeddedStoreEnabled != plugin.getEmbeddedStoreEnabled();
     plugin.setServerIP(serverIP);
     plugin.setRootPassword(rootPassword);
     plugin.setPluginDisabled(pluginDisabled);
+    plugin.setBulkLoadEnabled(bulkLoadEnabled);
+    plugin.setColumnarStorageEnabled(columnarStorageEnabled);
+    plugin.setRetentionDays(Math.max(retentionDays, 0));
+    plugin.setDownsampleAfterDays(Math.max(downsampleAfterDays, 0));
+    plugin.setKeepFailedRuns(keepFailedRuns);
+    plugin.setEmbeddedStoreEnabled(embeddedStoreEnabled);
     plugin.save();
+    if (serverChanged) {
+      // Pooled connections, the results store and table stats still point to the old server.
+      plugin.resetConnectionPool();
+      plugin.getTableStatsCache().refreshSoon();
+    }
 
     LOGGER.info("Done saving settings");
     rep.sendRedirect(res.getContextPath() + "/" + URL + "/settings");
@@ -278,48 +519,166 @@ public class VTestResultsAnalyzerMgmtLink extends ManagementLink {
     JSONObject ret = new JSONObject();
     ret.put(KEY_DB_STATUS_MYSQL_ERR, "");
     ret.put(KEY_DB_STATUS_DATABASE_ERR, "");
-    String ip = plugin.getServerIP();
-    String password = plugin.getRootPassword();
 
-    // Check connection to the mysql server.
-    String errMsgMySql = checkConnection(ip, password, null);
-    if (!errMsgMySql.isEmpty()) {
-      ret.put(KEY_DB_STATUS_MYSQL_ERR, errMsgMySql);
+    // The embedded store creates its tables itself and has no migrations: it's OK if it opens.
+    if (plugin.getEmbeddedStoreEnabled()) {
+      try {
+        long nowMs = System.currentTimeMillis();
+        getStore().getAvailableJenkinsBuilds(nowMs, nowMs);
+      } catch (SQLException e) {
+        ret.put(KEY_DB_STATUS_DATABASE_ERR, e.getMessage());
+        return ret;
+      }
+      ret.put(KEY_DB_STATUS_TABLES, new JSONObject());
+      ret.put(KEY_DB_STATUS_SCHEMA_VERSION, SchemaMigrations.getLatestVersion());
+      ret.put(KEY_DB_STATUS_LATEST_SCHEMA_VERSION, SchemaMigrations.getLatestVersion());
+      ret.put(KEY_DB_STATUS_PENDING_MIGRATIONS, new JSONArray());
+      ret.put(KEY_DB_STATUS_WRITE_STALLING_MIGRATIONS, new JSONArray());
       return ret;
     }
 
-    // Check connection to the database.
-    String errMsgDB = checkConnection(ip, password, DB_NAME);
-    if (!errMsgDB.isEmpty()) {
-      ret.put(KEY_DB_STATUS_DATABASE_ERR, errMsgDB);
+    // Check connection to the database. Only when that fails, a new connection to the mysql server
+    // tells whether the server or the database is the problem.
+    Connection conn = null;
+    try {
+      conn = plugin.getConnection();
+    } catch (SQLException e) {
+      String errMsgMySql = checkConnection(plugin.getServerIP(), plugin.getRootPassword(), null);
+      if (!errMsgMySql.isEmpty()) {
+        ret.put(KEY_DB_STATUS_MYSQL_ERR, errMsgMySql);
+      } else {
+        ret.put(KEY_DB_STATUS_DATABASE_ERR, e.getMessage());
+      }
       return ret;
     }
 
     // Check tables.
-    Connection conn = null;
     try {
-      conn = Util.getConnection(ip, password, DB_NAME);
+      JSONObject jsonObjTables = new JSONObject();
+      for (String table : SQL_CREATE_TABLES.keySet()) {
+        JSONObject jsonObjCurTable = checkTable(conn, table, plugin.getTableStatsCache());
+        jsonObjTables.put(table, jsonObjCurTable);
+      }
+      ret.put(KEY_DB_STATUS_TABLES, jsonObjTables);
+
+      // Check schema migrations.
+      JSONArray pendingMigrations = new JSONArray();
+      pendingMigrations.addAll(SchemaMigrations.getPendingMigrations(conn));
+      ret.put(KEY_DB_STATUS_SCHEMA_VERSION, SchemaMigrations.getVersion(conn));
+      ret.put(KEY_DB_STATUS_LATEST_SCHEMA_VERSION, SchemaMigrations.getLatestVersion());
+      ret.put(KEY_DB_STATUS_PENDING_MIGRATIONS, pendingMigrations);
+      JSONArray writeStallingMigrations = new JSONArray();
+      writeStallingMigrations.addAll(SchemaMigrations.getWriteStallingMigrations(conn));
+      ret.put(KEY_DB_STATUS_WRITE_STALLING_MIGRATIONS, writeStallingMigrations);
     } catch (SQLException e) {
       ret.put(KEY_DB_STATUS_DATABASE_ERR, e.getMessage());
       return ret;
+    } finally {
+      closeQuietly(conn);
     }
-    if (conn == null) {
-      ret.put(KEY_DB_STATUS_DATABASE_ERR, "Failed to establish connection");
-      return ret;
+
+    return ret;
+  }
+
+  /** Called by UI to show the backlog of results waiting to be sent in the background. */
+  @JavaScriptMethod
+  public JSONObject getSpoolStatus() {
+    return getSettings().getSpoolDrainer().getStatus();
+  }
+
+  /** Called by UI to show metrics of the database connection pool. */
+  @JavaScriptMethod
+  public JSONObject getConnectionPoolStats() {
+    return getSettings().getConnectionPool().getStats();
+  }
+
+  /** Called by UI to show the hit and miss stats of the cache of dashboard queries. */
+  @JavaScriptMethod
+  public JSONObject getQueryCacheStats() {
+    return getSettings().getResultsStore().getStats();
+  }
+
+  /** Called by UI to show metrics of writes to the database. */
+  @JavaScriptMethod
+  public JSONObject getIngestionMetrics() {
+    VTestResultsAnalyzerPluginImpl plugin = getSettings();
+    JSONObject ret = new JSONObject();
+    ret.put(KEY_INGESTION_TEST_RESULTS, plugin.getTestResultMetrics().toJson());
+    ret.put(KEY_INGESTION_JENKINS_BUILDS, plugin.getJenkinsBuildMetrics().toJson());
+    IngestScheduler scheduler = plugin.getIngestScheduler();
+    ret.put(KEY_INGESTION_PENDING_BATCHES, scheduler.getPendingBatches());
+    ret.put(KEY_INGESTION_BLOCKED_SUBMITTERS, scheduler.getBlockedSubmitters());
+    return ret;
+  }
+
+  /** Called by UI to list the projects whose past builds can be imported. */
+  @JavaScriptMethod
+  public JSONArray getBackfillProjects() {
+    List<String> names = new ArrayList<>();
+    for (AbstractProject<?, ?> project : Jenkins.getInstance().getAllItems(AbstractProject.class)) {
+      // Matrix configurations are imported with their matrix project.
+      if (!(project instanceof MatrixConfiguration)) {
+        names.add(project.getFullName());
+      }
+    }
+    Collections.sort(names);
+    JSONArray ret = new JSONArray();
+    ret.addAll(names);
+    return ret;
+  }
+
+  /**
+   * Called by UI to start importing the past builds of the given projects, separated by new lines.
+   * Returns an error message, or an empty string if the import started.
+   */
+  @JavaScriptMethod
+  public String startBackfill(String projectNames, int parallelism, int maxRowsPerSec) {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+    VTestResultsAnalyzerPluginImpl plugin = getSettings();
+    if (plugin.getPluginDisabled()) {
+      return "Plugin is disabled globally.";
     }
-    JSONObject jsonObjTables = new JSONObject();
-    for (String table : new String[] {TB_JENKINS_BUILDS, TB_TEST_RESULTS}) {
-      JSONObject jsonObjCurTable = checkTable(conn, table);
-      jsonObjTables.put(table, jsonObjCurTable);
+    List<String> names = new ArrayList<>();
+    for (String name : projectNames.split("\n")) {
+      if (!name.trim().isEmpty()) {
+        names.add(name.trim());
+      }
     }
-    ret.put(KEY_DB_STATUS_TABLES, jsonObjTables);
+    LOGGER.info("Starting backfill of " + names);
+    return plugin.getBackfillImporter().start(names, parallelism, maxRowsPerSec);
+  }
 
-    return ret;
+  /** Called by UI to stop importing past builds. The import can be resumed later. */
+  @JavaScriptMethod
+  public void stopBackfill() {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+    LOGGER.info("Stopping backfill");
+    getSettings().getBackfillImporter().stop();
+  }
+
+  /** Called by UI to forget the checkpoints of past imports. Returns an error message or "". */
+  @JavaScriptMethod
+  public String resetBackfill() {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+    LOGGER.info("Resetting backfill checkpoints");
+    return getSettings().getBackfillImporter().reset();
+  }
+
+  /** Called by UI to show the progress of the import of past builds. */
+  @JavaScriptMethod
+  public JSONObject getBackfillStatus() {
+    return getSettings().getBackfillImporter().getStatus();
   }
 
-  /** Called by UI to fix database and tables. */
+  /**
+   * Called by UI to create the database if needed and apply the schema migrations it doesn't have.
+   * Migrations that keep builds from writing while they run, like partitioning existing tables, are
+   * only applied if the admin confirmed them. Returns an error message, or an empty string on
+   * success.
+   */
   @JavaScriptMethod
-  public String fixDatabaseAndTables() {
+  public String migrateDatabase(boolean stallWrites) {
+    Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
     LOGGER.info("Setting up database");
     VTestResultsAnalyzerPluginImpl plugin = getSettings();
 
@@ -343,26 +702,19 @@ public class VTestResultsAnalyzerMgmtLink extends ManagementLink {
       }
     }
 
-    // Check and create Jenkins Builds table.
-    if (!checkTable(conn, TB_JENKINS_BUILDS).getString(KEY_DB_STATUS_TABLE_ERR).isEmpty()) {
-      try {
-        Statement stmt = conn.createStatement();
-        stmt.executeUpdate(SQL_CREATE_TB_JENKINS_BUILDS);
-      } catch (SQLException e) {
-        return e.getMessage();
-      }
-    }
-
-    // Check and create Test Results table.
-    if (!checkTable(conn, TB_TEST_RESULTS).getString(KEY_DB_STATUS_TABLE_ERR).isEmpty()) {
-      try {
-        Statement stmt = conn.createStatement();
-        stmt.executeUpdate(SQL_CREATE_TB_TEST_RESULTS);
-      } catch (SQLException e) {
-        return e.getMessage();
-      }
+    try {
+      SchemaMigrations.migrate(conn, stallWrites);
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Schema migration failed", e);
+      return e.getMessage();
+    } finally {
+      closeQuietly(conn);
+      // Cached dimension ids may refer to tables that were just created.
+      plugin.resetConnectionPool();
+      plugin.getTableStatsCache().refreshSoon();
     }
 
+    LOGGER.info("Done setting up database");
     return "";
   }
 
@@ -371,82 +723,79 @@ public class VTestResultsAnalyzerMgmtLink extends ManagementLink {
   public JSONObject getJenkinsBuildsInfo(long startEpoch, long endEpoch) {
     JSONObject ret = new JSONObject();
     ret.put(KEY_BUILDS_RUN_TIME_ERR, "");
-    JSONArray items = new JSONArray();
-    DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-    String strStartTime = df.format(new Date(startEpoch));
-    String strEndTime = df.format(new Date(endEpoch));
-    String strQuery = String.format(SQL_JENKINS_BUILDS, strStartTime, strEndTime);
-    String errMsg =
-        query(
-            strQuery,
-            new String[] {
-              "jenkins_project",
-              "sub_build_labels",
-              "avg",
-              "min",
-              "max",
-              "std",
-              "count",
-              "success_count",
-              "unstable_count",
-              "failure_count",
-              "aborted_count"
-            },
-            items);
-    if (!errMsg.isEmpty()) {
-      ret.put("errMsg", errMsg);
+    try {
+      ret.put("items", getStore().getJenkinsBuildStats(startEpoch, endEpoch));
+    } catch (SQLException e) {
+      ret.put("errMsg", e.getMessage());
       return ret;
     }
-    ret.put("items", items);
     ret.put("startTime", startEpoch);
     ret.put("endTime", endEpoch);
 
     return ret;
   }
 
-  /** Called by UI to get details info for a specific jenkins build. */
+  /** Called by UI to get a page of the runs of a specific jenkins build, see streamJson. */
+  public void doJenkinsBuildDetails(
+      final StaplerResponse rsp,
+      @QueryParameter("startEpoch") final long startEpoch,
+      @QueryParameter("endEpoch") final long endEpoch,
+      @QueryParameter("buildName") final String buildName,
+      @QueryParameter("subBuildLabels") final String subBuildLabels,
+      @QueryParameter("after") final String after,
+      @QueryParameter("limit") final int limit,
+      @QueryParameter("order") final String order,
+      @QueryParameter("results") final String results)
+      throws IOException {
+    streamJson(
+        rsp,
+        "builds",
+        new JsonQuery() {
+          @Override
+          public String run(JsonArrayWriter out) throws SQLException, IOException {
+            return getStore()
+                .getJenkinsBuildDetails(
+                    startEpoch,
+                    endEpoch,
+                    buildName,
+                    fixNull(subBuildLabels),
+                    ResultsPage.parse(after, limit, order, results),
+                    out);
+          }
+        });
+  }
+
+  /** Called by UI to get all available jenkins builds. */
   @JavaScriptMethod
-  public JSONObject getJenkinsBuildDetails(
-      long startEpoch, long endEpoch, String buildName, String subBuildLabels) {
+  public JSONObject getAvailableJenkinsBuilds(long startEpoch, long endEpoch) {
     JSONObject ret = new JSONObject();
     ret.put("errMsg", "");
-    JSONArray builds = new JSONArray();
-    DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-    String strStartTime = df.format(new Date(startEpoch));
-    String strEndTime = df.format(new Date(endEpoch));
-    String c = "sub_build_labels='" + subBuildLabels + "'";
-    if (subBuildLabels.isEmpty()) {
-      c = "sub_build_labels IS NULL";
-    }
-    String errMsg =
-        query(
-            String.format(SQL_BUILD_DETAILS, buildName, c, strStartTime, strEndTime),
-            new String[] {"build_number", "start_time", "duration", "result", "url"},
-            builds);
-    if (!errMsg.isEmpty()) {
-      ret.put("errMsg", errMsg);
-      return ret;
+    try {
+      ret.put("builds", getStore().getAvailableJenkinsBuilds(startEpoch, endEpoch));
+    } catch (SQLException e) {
+      ret.put("errMsg", e.getMessage());
     }
-    ret.put("builds", builds);
     return ret;
   }
 
-  /** Called by UI to get all available jenkins builds. */
+  /**
+   * Called by UI to suggest projects and sub builds as their names are typed, at most the given
+   * number, see NameIndex.
+   */
   @JavaScriptMethod
-  public JSONObject getAvailableJenkinsBuilds(long startEpoch, long endEpoch) {
+  public JSONObject suggestJenkinsBuilds(String query, int limit) {
     JSONObject ret = new JSONObject();
     ret.put("errMsg", "");
-    JSONArray builds = new JSONArray();
-    DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-    String strStartTime = df.format(new Date(startEpoch));
-    String strEndTime = df.format(new Date(endEpoch));
-    String strQuery = String.format(SQL_AVAILABLE_JENKINS_BUILDS, strStartTime, strEndTime);
-    String errMsg = query(strQuery, new String[] {"jenkins_project", "sub_build_labels"}, builds);
-    if (!errMsg.isEmpty()) {
-      ret.put("errMsg", errMsg);
-      return ret;
-    }
-    ret.put("builds", builds);
+    ret.put("builds", getSettings().getNameIndex().suggestJenkinsBuilds(fixNull(query), limit));
+    return ret;
+  }
+
+  /** Called by UI to suggest test cases as their names are typed, see suggestJenkinsBuilds. */
+  @JavaScriptMethod
+  public JSONObject suggestTestCases(String query, int limit) {
+    JSONObject ret = new JSONObject();
+    ret.put("errMsg", "");
+    ret.put("tests", getSettings().getNameIndex().suggestTestCases(fixNull(query), limit));
     return ret;
   }
 
@@ -456,120 +805,128 @@ public class VTestResultsAnalyzerMgmtLink extends ManagementLink {
     JSONObject ret = new JSONObject();
     ret.put(KEY_BUILDS_RUN_TIME_ERR, "");
     JSONArray failedTests = new JSONArray();
-    DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-    String strStartTime = df.format(new Date(startEpoch));
-    String strEndTime = df.format(new Date(endEpoch));
-
-    // Query failed tests.
-    String strQuery = String.format(SQL_FAILED_TEST_RESULTS, strStartTime, strEndTime);
-    String errMsg =
-        query(
-            strQuery,
-            new String[] {
-              "test_full_name",
-              "jenkins_project",
-              "sub_build_labels",
-              "avg_duration",
-              "min_duration",
-              "max_duration",
-              "count",
-              "failed_count",
-            },
-            failedTests);
-    if (!errMsg.isEmpty()) {
-      ret.put("errMsg", errMsg);
-      return ret;
-    }
-    ret.put("failedTests", failedTests);
-
-    // Query longest tests.
     JSONArray longestTests = new JSONArray();
-    strQuery = String.format(SQL_LONGEST_TESTS, strStartTime, strEndTime);
-    errMsg =
-        query(
-            strQuery,
-            new String[] {
-              "test_full_name",
-              "jenkins_project",
-              "sub_build_labels",
-              "avg_duration",
-              "min_duration",
-              "max_duration",
-              "count",
-              "failed_count",
-            },
-            longestTests);
-    if (!errMsg.isEmpty()) {
-      ret.put("errMsg", errMsg);
+    try {
+      getStore().getTestStats(startEpoch, endEpoch, failedTests, longestTests);
+      // The UI says that days before this are counted whole.
+      long summarizedEndMs = getStore().getSummarizedEndMs();
+      if (startEpoch < summarizedEndMs) {
+        ret.put("wholeDaysBefore", summarizedEndMs);
+      }
+    } catch (SQLException e) {
+      ret.put("errMsg", e.getMessage());
       return ret;
     }
+    ret.put("failedTests", failedTests);
     ret.put("longestTests", longestTests);
-
     ret.put("startTime", startEpoch);
     ret.put("endTime", endEpoch);
 
     return ret;
   }
 
-  /** Called by UI to get all available test cases. */
+  /** Called by UI to get the failures of a time range, grouped by their signatures. */
   @JavaScriptMethod
-  public JSONObject getAvailableTestCases(long startEpoch, long endEpoch) {
+  public JSONObject getFailureSignatures(long startEpoch, long endEpoch) {
     JSONObject ret = new JSONObject();
     ret.put("errMsg", "");
-    JSONArray builds = new JSONArray();
-    DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-    String strStartTime = df.format(new Date(startEpoch));
-    String strEndTime = df.format(new Date(endEpoch));
-    String strQuery = String.format(SQL_AVAILABLE_TEST_CASES, strStartTime, strEndTime);
-    String errMsg =
-        query(
-            strQuery,
-            new String[] {"test_full_name", "jenkins_project", "sub_build_labels"},
-            builds);
-    if (!errMsg.isEmpty()) {
-      ret.put("errMsg", errMsg);
-      return ret;
+    try {
+      ret.put("signatures", getStore().getFailureSignatures(startEpoch, endEpoch));
+    } catch (SQLException e) {
+      ret.put("errMsg", e.getMessage());
     }
-    ret.put("tests", builds);
     return ret;
   }
 
-  /** Called by UI to get details info for a specific test case. */
+  /** Called by UI to get the test cases that failed with the given signature. */
   @JavaScriptMethod
-  public JSONObject getTestCaseDetails(
-      long startEpoch,
-      long endEpoch,
-      String testFullName,
-      String buildName,
-      String subBuildLabels) {
+  public JSONObject getFailureSignatureTests(long startEpoch, long endEpoch, int signatureId) {
     JSONObject ret = new JSONObject();
     ret.put("errMsg", "");
-    JSONArray testCases = new JSONArray();
-    DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-    String strStartTime = df.format(new Date(startEpoch));
-    String strEndTime = df.format(new Date(endEpoch));
-    String c = "sub_build_labels='" + subBuildLabels + "'";
-    if (subBuildLabels.isEmpty()) {
-      c = "sub_build_labels IS NULL";
-    }
-    String errMsg =
-        query(
-            String.format(
-                SQL_TEST_CASE_DETAILS, buildName, testFullName, c, strStartTime, strEndTime),
-            new String[] {"build_number", "start_time", "duration", "result", "url"},
-            testCases);
-    if (!errMsg.isEmpty()) {
-      ret.put("errMsg", errMsg);
-      return ret;
+    try {
+      ret.put("tests", getStore().getFailureSignatureTests(startEpoch, endEpoch, signatureId));
+    } catch (SQLException e) {
+      ret.put("errMsg", e.getMessage());
     }
-    ret.put("tests", testCases);
     return ret;
   }
 
+  /** Called by UI to get a page of the runs of a specific test case, see streamJson. */
+  public void doTestCaseDetails(
+      final StaplerResponse rsp,
+      @QueryParameter("startEpoch") final long startEpoch,
+      @QueryParameter("endEpoch") final long endEpoch,
+      @QueryParameter("testFullName") final String testFullName,
+      @QueryParameter("buildName") final String buildName,
+      @QueryParameter("subBuildLabels") final String subBuildLabels,
+      @QueryParameter("after") final String after,
+      @QueryParameter("limit") final int limit,
+      @QueryParameter("order") final String order,
+      @QueryParameter("results") final String results)
+      throws IOException {
+    streamJson(
+        rsp,
+        "tests",
+        new JsonQuery() {
+          @Override
+          public String run(JsonArrayWriter out) throws SQLException, IOException {
+            return getStore()
+                .getTestCaseDetails(
+                    startEpoch,
+                    endEpoch,
+                    testFullName,
+                    buildName,
+                    fixNull(subBuildLabels),
+                    ResultsPage.parse(after, limit, order, results),
+                    out);
+          }
+        });
+  }
+
   public VTestResultsAnalyzerPluginImpl getSettings() {
     return VTestResultsAnalyzerPluginImpl.getInstance();
   }
 
+  private ResultsStore getStore() {
+    return getSettings().getResultsStore();
+  }
+
+  /**
+   * Writes a page of the items of a streamed response, see streamJson, and returns the cursor of
+   * the next page or null.
+   */
+  private interface JsonQuery {
+    String run(JsonArrayWriter out) throws SQLException, IOException;
+  }
+
+  // Writes a JSON object with the items of the given query under the given key, followed by the
+  // cursor of the next page under "next", and an "errMsg" like the one of the JavaScript methods.
+  // Items are sent as they are read, in chunks, so neither the query results nor the response are
+  // held in memory. An error is reported after the items sent before it.
+  //
+  // Pages are asked for with the "after" cursor, "limit", "order" and "results" parameters, see
+  // ResultsPage.
+  private static void streamJson(StaplerResponse rsp, String key, JsonQuery query)
+      throws IOException {
+    rsp.setContentType("application/json;charset=UTF-8");
+    PrintWriter out = rsp.getWriter();
+    out.write("{" + JSONUtils.quote(key) + ":[");
+    String next = null;
+    String errMsg = "";
+    try {
+      next = query.run(new JsonArrayWriter(out));
+    } catch (SQLException | IllegalArgumentException e) {
+      errMsg = e.getMessage();
+    }
+    out.write("],\"next\":" + (next == null ? "null" : JSONUtils.quote(next)));
+    out.write(",\"errMsg\":" + JSONUtils.quote(errMsg) + "}");
+    out.flush();
+  }
+
+  private static String fixNull(String s) {
+    return s == null ? "" : s;
+  }
+
   private String checkConnection(String serverIP, String rootPassword, String dbName) {
     Connection connection = null;
     try {
@@ -588,86 +945,59 @@ public class VTestResultsAnalyzerMgmtLink extends ManagementLink {
     return "Failed to establish connection";
   }
 
-  private JSONObject checkTable(Connection conn, String tableName) {
+  // Checks the schema of the given table and adds its cached stats, see TableStatsCache.
+  private JSONObject checkTable(Connection conn, String tableName, TableStatsCache statsCache) {
     JSONObject ret = new JSONObject();
+    boolean isFactTable = FACT_TABLES.contains(tableName);
     try {
       // Check table existence.
-      DatabaseMetaData meta = conn.getMetaData();
-      ResultSet tables = meta.getTables(null, null, tableName, new String[] {"TABLE"});
-      if (tables.next()) {
-        ret.put(KEY_DB_STATUS_TABLE_ERR, "");
-      } else {
+      if (!SchemaMigrations.tableExists(conn, tableName)) {
         ret.put(KEY_DB_STATUS_TABLE_ERR, "Talbe '" + tableName + "' doesn't exist");
-      }
-
-      // Check table creation time and size.
-      Statement stmt = conn.createStatement();
-      ResultSet rs = stmt.executeQuery(String.format(SQL_TABLE_STATS, tableName));
-      if (rs.next()) {
-        Timestamp createTime = rs.getTimestamp("create_time");
-        ret.put(KEY_DB_STATUS_TABLE_CREATION_TIME, createTime == null ? -1 : createTime.getTime());
-        ret.put(KEY_DB_STATUS_TABLE_SIZE, rs.getDouble("size"));
-      }
-
-      // Check last update time and row counts.
-      rs =
-          stmt.executeQuery(
-              "SELECT count(*), max(update_time), min(update_time) FROM " + tableName);
-      if (rs.next()) {
-        ret.put(KEY_DB_STATUS_TABLE_ROW_COUNT, rs.getInt(1));
-        Timestamp updateTime = rs.getTimestamp(2);
+      } else if (isFactTable
+          && SchemaMigrations.hasColumn(conn, tableName, SchemaMigrations.LEGACY_LAYOUT_COLUMN)) {
         ret.put(
-            KEY_DB_STATUS_TABLE_LAST_UPDATE_TIME, updateTime == null ? -1 : updateTime.getTime());
-        Timestamp oldestUpdateTime = rs.getTimestamp(3);
+            KEY_DB_STATUS_TABLE_ERR,
+            "Table '" + tableName + "' uses an old layout and needs to be migrated");
+      } else if (isFactTable
+          && !SchemaMigrations.hasIndex(conn, tableName, UNIQUE_KEYS.get(tableName))) {
         ret.put(
-            KEY_DB_STATUS_TABLE_OLDEST_UPDATE_TIME,
-            oldestUpdateTime == null ? -1 : oldestUpdateTime.getTime());
+            KEY_DB_STATUS_TABLE_ERR,
+            "Table '" + tableName + "' has no unique key and may contain duplicated rows");
+      } else {
+        ret.put(KEY_DB_STATUS_TABLE_ERR, "");
       }
+
+      ret.put(KEY_DB_STATUS_TABLE_PARTITIONS, PartitionManager.getPartitionCount(conn, tableName));
     } catch (SQLException e) {
       ret.put(KEY_DB_STATUS_TABLE_ERR, e.getMessage());
       return ret;
     }
 
+    // Estimated stats as of the last refresh, -1 until the first one. Dimension tables have no
+    // update times.
+    TableStatsCache.TableStats stats = statsCache == null ? null : statsCache.get(tableName);
+    if (stats == null) {
+      ret.put(KEY_DB_STATUS_TABLE_STATS_TIME, -1);
+      return ret;
+    }
+    ret.put(KEY_DB_STATUS_TABLE_STATS_TIME, stats.getRefreshTimeMs());
+    ret.put(KEY_DB_STATUS_TABLE_CREATION_TIME, stats.getCreateTimeMs());
+    ret.put(KEY_DB_STATUS_TABLE_SIZE, stats.getSizeMb());
+    ret.put(KEY_DB_STATUS_TABLE_ROW_COUNT, stats.getEstimatedRows());
+    ret.put(KEY_DB_STATUS_TABLE_ROWS_WRITTEN, stats.getRowsAddedSince(tableName));
+    ret.put(KEY_DB_STATUS_TABLE_LAST_UPDATE_TIME, stats.getNewestUpdateTimeMs(tableName));
+    ret.put(KEY_DB_STATUS_TABLE_OLDEST_UPDATE_TIME, stats.getOldestUpdateTimeMs());
     return ret;
   }
 
-  private String query(String sql, String[] cols, JSONArray results) {
-    VTestResultsAnalyzerPluginImpl plugin = getSettings();
-    String ip = plugin.getServerIP();
-    String password = plugin.getRootPassword();
-
-    Connection conn = null;
-    try {
-      conn = Util.getConnection(ip, password, DB_NAME);
-      Statement stmt = conn.createStatement();
-      ResultSet rs = stmt.executeQuery(sql);
-      while (rs.next()) {
-        JSONObject item = new JSONObject();
-        for (String col : cols) {
-          Object obj = rs.getObject(col);
-          if (obj instanceof Double) {
-            obj = ((Double) obj).intValue();
-          }
-          if (obj instanceof Timestamp) {
-            obj = ((Timestamp) obj).getTime();
-          }
-          if (obj != null) {
-            item.put(col, obj);
-          }
-        }
-        results.add(item);
-      }
-    } catch (SQLException e) {
-      return e.getMessage() + "<br><br>" + sql;
-    } finally {
-      if (conn != null) {
-        try {
-          conn.close();
-        } catch (SQLException e) {
-          e.printStackTrace();
-        }
+  // Closes (or returns to the pool) the given connection, logging any errors.
+  private void closeQuietly(Connection conn) {
+    if (conn != null) {
+      try {
+        conn.close();
+      } catch (SQLException e) {
+        LOGGER.log(Level.WARNING, e.getMessage());
       }
     }
-    return "";
   }
 }
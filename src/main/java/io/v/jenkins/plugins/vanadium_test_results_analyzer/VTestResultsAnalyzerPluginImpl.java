@@ -1,13 +1,20 @@
 package io.v.jenkins.plugins.vanadium_test_results_analyzer;
 
 import hudson.Plugin;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Logger;
+import jenkins.model.Jenkins;
 
 /**
  * The main class for this plugin.
  *
  * <p>We mainly use its singleton instance to store global configurations, such as cloud sql
- * settings.
+ * settings, and to own plugin-wide resources such as the database connection pool.
  *
  * @author Jing Jin (jingjin@google.com)
  */
@@ -15,12 +22,68 @@ public class VTestResultsAnalyzerPluginImpl extends Plugin {
   private static final Logger LOGGER =
       Logger.getLogger(VTestResultsAnalyzerPluginImpl.class.getName());
 
+  /** Directory under JENKINS_HOME for records waiting to be sent in the background. */
+  private static final String SPOOL_DIR = "vanadium-test-results-analyzer/spool";
+
+  /** Directory under JENKINS_HOME for the embedded database, see EmbeddedResultsStore. */
+  private static final String EMBEDDED_DB_DIR = "vanadium-test-results-analyzer/db";
+
+  /** File under JENKINS_HOME with the checkpoints of imports of past builds. */
+  private static final String BACKFILL_STATE_FILE = "vanadium-test-results-analyzer/backfill.xml";
+
   /** The singleton instance. */
   private static VTestResultsAnalyzerPluginImpl instance = null;
 
   private String serverIP = "";
   private String rootPassword = "";
   private boolean pluginDisabled = false;
+  private boolean bulkLoadEnabled = false;
+  private boolean columnarStorageEnabled = false;
+  private boolean embeddedStoreEnabled = false;
+  private int retentionDays = 0;
+  private int downsampleAfterDays = 0;
+  private boolean keepFailedRuns = false;
+
+  /** Connections to the plugin's database. Created lazily from the current settings. */
+  private transient ConnectionPool connectionPool = null;
+
+  /**
+   * Where results are written to and read from, behind a cache of query results. Created lazily
+   * from the current settings.
+   */
+  private transient CachingResultsStore resultsStore = null;
+
+  /** Ids of the names in the dimension tables. Created lazily from the current settings. */
+  private transient DimensionCache dimensionCache = null;
+
+  /** Records spooled by builds that send their results asynchronously. */
+  private transient ResultsSpool spool;
+
+  private transient SpoolDrainer spoolDrainer;
+
+  /** Computes the rollups of the hours that were written to. */
+  private transient RollupCompactor rollupCompactor;
+
+  /** Stats of the tables for the settings page. */
+  private transient TableStatsCache tableStatsCache;
+
+  /** Names of builds and test cases, suggested as they are typed. */
+  private transient NameIndex nameIndex;
+
+  /** Sends test results of all builds on this controller. */
+  private transient IngestScheduler ingestScheduler;
+
+  /** Imports the results of past builds. */
+  private transient BackfillImporter backfillImporter;
+
+  /** Decoded test result blobs. */
+  private final transient TestResultBlobStore testResultBlobStore = new TestResultBlobStore();
+
+  /** Metrics of test result writes since Jenkins started. */
+  private final transient IngestMetrics testResultMetrics = new IngestMetrics();
+
+  /** Metrics of build stats writes since Jenkins started. */
+  private final transient IngestMetrics jenkinsBuildMetrics = new IngestMetrics();
 
   public VTestResultsAnalyzerPluginImpl() {
     instance = this;
@@ -34,9 +97,52 @@ public class VTestResultsAnalyzerPluginImpl extends Plugin {
     // Register mysql jdbc driver.
     Class.forName("com.mysql.jdbc.Driver");
 
+    ingestScheduler = new IngestScheduler();
+
+    // Resume sending records spooled before the last shutdown.
+    spool = new ResultsSpool(new File(Jenkins.getInstance().getRootDir(), SPOOL_DIR));
+    spoolDrainer = new SpoolDrainer(spool);
+    spoolDrainer.start();
+
+    rollupCompactor = new RollupCompactor();
+    rollupCompactor.start();
+
+    tableStatsCache = new TableStatsCache();
+    tableStatsCache.start();
+
+    nameIndex = new NameIndex();
+    nameIndex.start();
+
+    backfillImporter =
+        new BackfillImporter(new File(Jenkins.getInstance().getRootDir(), BACKFILL_STATE_FILE));
+
     LOGGER.info("Vanadium Test Results Analyzer plugin initialized.");
   }
 
+  @Override
+  public void stop() throws Exception {
+    if (backfillImporter != null) {
+      backfillImporter.stop();
+    }
+    if (spoolDrainer != null) {
+      spoolDrainer.stop();
+    }
+    if (rollupCompactor != null) {
+      rollupCompactor.stop();
+    }
+    if (tableStatsCache != null) {
+      tableStatsCache.stop();
+    }
+    if (nameIndex != null) {
+      nameIndex.stop();
+    }
+    if (ingestScheduler != null) {
+      ingestScheduler.shutdown();
+    }
+    resetConnectionPool();
+    super.stop();
+  }
+
   public static VTestResultsAnalyzerPluginImpl getInstance() {
     return instance;
   }
@@ -64,4 +170,187 @@ public class VTestResultsAnalyzerPluginImpl extends Plugin {
   public void setPluginDisabled(boolean pluginDisabled) {
     this.pluginDisabled = pluginDisabled;
   }
+
+  public boolean getBulkLoadEnabled() {
+    return bulkLoadEnabled;
+  }
+
+  public void setBulkLoadEnabled(boolean bulkLoadEnabled) {
+    this.bulkLoadEnabled = bulkLoadEnabled;
+  }
+
+  /**
+   * Returns whether the test results of a build are stored as one compressed blob instead of one
+   * row per test case.
+   */
+  public boolean getColumnarStorageEnabled() {
+    return columnarStorageEnabled;
+  }
+
+  public void setColumnarStorageEnabled(boolean columnarStorageEnabled) {
+    this.columnarStorageEnabled = columnarStorageEnabled;
+  }
+
+  /**
+   * Returns whether results are stored in a database file under JENKINS_HOME instead of on the
+   * MySQL server, see EmbeddedResultsStore.
+   */
+  public boolean getEmbeddedStoreEnabled() {
+    return embeddedStoreEnabled;
+  }
+
+  public void setEmbeddedStoreEnabled(boolean embeddedStoreEnabled) {
+    this.embeddedStoreEnabled = embeddedStoreEnabled;
+  }
+
+  /** Returns whether there is a store to write results to. */
+  boolean isResultsStoreConfigured() {
+    return embeddedStoreEnabled || !serverIP.isEmpty();
+  }
+
+  /**
+   * Returns whether results are stored on a MySQL server, whose tables are maintained in the
+   * background: rollups, partitions and downsampling.
+   */
+  boolean usesMySqlServer() {
+    return !embeddedStoreEnabled && !serverIP.isEmpty();
+  }
+
+  /** Returns the store for the current settings. */
+  synchronized CachingResultsStore getResultsStore() {
+    if (resultsStore == null) {
+      resultsStore =
+          new CachingResultsStore(
+              embeddedStoreEnabled
+                  ? new EmbeddedResultsStore(
+                      new File(Jenkins.getInstance().getRootDir(), EMBEDDED_DB_DIR))
+                  : new MySqlResultsStore(this),
+              nameIndex);
+    }
+    return resultsStore;
+  }
+
+  /**
+   * Returns the number of days builds and test results are kept, or 0 to keep them forever. Older
+   * data is dropped a week at a time, see PartitionManager.
+   */
+  public int getRetentionDays() {
+    return retentionDays;
+  }
+
+  public void setRetentionDays(int retentionDays) {
+    this.retentionDays = retentionDays;
+  }
+
+  /**
+   * Returns the number of days after which test results are moved into daily summaries, or 0 to
+   * keep them all, see Downsampler.
+   */
+  public int getDownsampleAfterDays() {
+    return downsampleAfterDays;
+  }
+
+  public void setDownsampleAfterDays(int downsampleAfterDays) {
+    this.downsampleAfterDays = downsampleAfterDays;
+  }
+
+  /** Returns whether failed test results are kept when the others are downsampled. */
+  public boolean getKeepFailedRuns() {
+    return keepFailedRuns;
+  }
+
+  public void setKeepFailedRuns(boolean keepFailedRuns) {
+    this.keepFailedRuns = keepFailedRuns;
+  }
+
+  /** Returns the connection pool for the current server settings. */
+  synchronized ConnectionPool getConnectionPool() {
+    if (connectionPool == null) {
+      connectionPool =
+          new ConnectionPool(serverIP, rootPassword, VTestResultsAnalyzerMgmtLink.DB_NAME);
+    }
+    return connectionPool;
+  }
+
+  /**
+   * Borrows a connection to the plugin's database from the pool. The connection must be closed to
+   * return it.
+   */
+  public Connection getConnection() throws SQLException {
+    return getConnectionPool().getConnection();
+  }
+
+  /** Returns the cache of dimension ids for the current server settings. */
+  synchronized DimensionCache getDimensionCache() {
+    if (dimensionCache == null) {
+      dimensionCache = new DimensionCache(getConnectionPool());
+    }
+    return dimensionCache;
+  }
+
+  /**
+   * Closes the current connection pool and results store and forgets cached dimension ids and test
+   * result blobs, which may not exist on a new server. The next borrow creates a new pool with the
+   * current server settings. Names are loaded again from the new store, and bulk loads try LOAD
+   * DATA LOCAL again in case the new server allows it.
+   */
+  public synchronized void resetConnectionPool() {
+    if (resultsStore != null) {
+      resultsStore.close();
+      resultsStore = null;
+    }
+    if (connectionPool != null) {
+      connectionPool.close();
+      connectionPool = null;
+    }
+    dimensionCache = null;
+    ResultsWriter.resetLoadDataDisabled();
+    testResultBlobStore.clear();
+    if (nameIndex != null) {
+      nameIndex.reloadSoon();
+    }
+  }
+
+  /**
+   * Adds the given records to the local spool and returns the number of test results spooled. They
+   * are written to the database in the background, in a single transaction.
+   */
+  int spoolResults(List<JenkinsBuildRecord> jenkinsBuilds, Iterator<TestResultRecord> testResults)
+      throws IOException {
+    int count = spool.add(jenkinsBuilds, testResults);
+    spoolDrainer.kick();
+    return count;
+  }
+
+  IngestScheduler getIngestScheduler() {
+    return ingestScheduler;
+  }
+
+  SpoolDrainer getSpoolDrainer() {
+    return spoolDrainer;
+  }
+
+  BackfillImporter getBackfillImporter() {
+    return backfillImporter;
+  }
+
+  TableStatsCache getTableStatsCache() {
+    return tableStatsCache;
+  }
+
+  NameIndex getNameIndex() {
+    return nameIndex;
+  }
+
+  TestResultBlobStore getTestResultBlobStore() {
+    return testResultBlobStore;
+  }
+
+  IngestMetrics getTestResultMetrics() {
+    return testResultMetrics;
+  }
+
+  IngestMetrics getJenkinsBuildMetrics() {
+    return jenkinsBuildMetrics;
+  }
 }
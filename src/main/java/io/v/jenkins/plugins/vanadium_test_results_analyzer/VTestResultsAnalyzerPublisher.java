@@ -9,44 +9,41 @@ import hudson.matrix.MatrixRun;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
-import hudson.model.FreeStyleBuild;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Notifier;
 import hudson.tasks.Publisher;
-import hudson.tasks.test.AbstractTestResultAction;
-import hudson.tasks.test.TabulatedResult;
-import hudson.tasks.test.TestResult;
-import io.v.jenkins.plugins.vanadium_test_results_analyzer.TestResultsSender.TestResultsSenderEventHandler;
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 public class VTestResultsAnalyzerPublisher extends Notifier implements MatrixAggregatable {
-  private static final int TEST_RESULT_SENDER_THREAD_POOL_SIZE = 32;
-
-  private static final int TEST_RESULT_SENDER_THREAD_POOL_WAIT_TIMEOUT_MIN = 15;
+  private static final int TEST_RESULT_SENDER_WAIT_TIMEOUT_MIN = 15;
 
   private static final Logger LOGGER =
       Logger.getLogger(VTestResultsAnalyzerPublisher.class.getName());
 
   private boolean sendJenkinsBuildResults;
   private boolean sendTestResults;
+  private boolean sendAsynchronously;
+  private boolean aggregateMatrix;
 
   @DataBoundConstructor
-  public VTestResultsAnalyzerPublisher(boolean sendJenkinsBuildResults, boolean sendTestResults) {
+  public VTestResultsAnalyzerPublisher(
+      boolean sendJenkinsBuildResults,
+      boolean sendTestResults,
+      boolean sendAsynchronously,
+      boolean aggregateMatrix) {
     this.sendJenkinsBuildResults = sendJenkinsBuildResults;
     this.sendTestResults = sendTestResults;
+    this.sendAsynchronously = sendAsynchronously;
+    this.aggregateMatrix = aggregateMatrix;
   }
 
   public boolean getSendJenkinsBuildResults() {
@@ -57,6 +54,18 @@ public class VTestResultsAnalyzerPublisher extends Notifier implements MatrixAgg
     return sendTestResults;
   }
 
+  public boolean getSendAsynchronously() {
+    return sendAsynchronously;
+  }
+
+  /**
+   * Returns whether the results of all configurations of a matrix build are sent together, in one
+   * transaction, when the whole matrix ends.
+   */
+  public boolean getAggregateMatrix() {
+    return aggregateMatrix;
+  }
+
   @Override
   public BuildStepMonitor getRequiredMonitorService() {
     return BuildStepMonitor.NONE;
@@ -73,16 +82,34 @@ public class VTestResultsAnalyzerPublisher extends Notifier implements MatrixAgg
       return true;
     }
 
-    String ip = plugin.getServerIP();
-    String password = plugin.getRootPassword();
+    if (aggregateMatrix && build instanceof MatrixRun) {
+      Util.logToConsole(
+          listener.getLogger(), "Results will be sent when the whole matrix build ends.\n");
+      return true;
+    }
+
+    if (sendAsynchronously) {
+      JenkinsBuildRecord jenkinsBuild = null;
+      if (sendJenkinsBuildResults) {
+        jenkinsBuild = ResultsCollector.collectJenkinsBuild(build);
+      }
+      spoolResults(
+          jenkinsBuild == null
+              ? Collections.<JenkinsBuildRecord>emptyList()
+              : Collections.singletonList(jenkinsBuild),
+          Collections.<AbstractBuild<?, ?>>singletonList(build),
+          listener);
+      return true;
+    }
+
     if (sendJenkinsBuildResults) {
-      doSendJenkinsResults(build, ip, password, listener);
+      doSendJenkinsResults(build, listener);
     } else {
       Util.logToConsole(
           listener.getLogger(), "Not sending jenkins build results (function disabled).\n");
     }
     if (sendTestResults) {
-      doSendTestResults(build, ip, password, listener);
+      doSendTestResults(build, listener);
     } else {
       Util.logToConsole(listener.getLogger(), "Not sending test results (function disabled).\n");
     }
@@ -94,9 +121,31 @@ public class VTestResultsAnalyzerPublisher extends Notifier implements MatrixAgg
   public MatrixAggregator createAggregator(
       MatrixBuild build, Launcher launcher, BuildListener listener) {
     return new MatrixAggregator(build, launcher, listener) {
+      /** Records of the finished configurations, in aggregation mode. */
+      private final List<JenkinsBuildRecord> runRecords = new ArrayList<>();
+
+      private final List<AbstractBuild<?, ?>> runs = new ArrayList<>();
+
+      /** Will be called when a configuration of the matrix ends. */
+      @Override
+      public boolean endRun(MatrixRun run) throws InterruptedException, IOException {
+        if (aggregateMatrix) {
+          // The build record is taken now, since its duration is measured up to the current time.
+          // Test results are only collected when they are sent.
+          if (sendJenkinsBuildResults) {
+            runRecords.add(ResultsCollector.collectJenkinsBuild(run));
+          }
+          runs.add(run);
+        }
+        return true;
+      }
+
       /** Will be called the matrix root build ends. */
       @Override
       public boolean endBuild() throws InterruptedException, IOException {
+        if (aggregateMatrix) {
+          return sendMatrix(build, runRecords, runs, listener);
+        }
         return VTestResultsAnalyzerPublisher.this.perform(build, launcher, listener);
       }
     };
@@ -107,110 +156,213 @@ public class VTestResultsAnalyzerPublisher extends Notifier implements MatrixAgg
     return (Descriptor) super.getDescriptor();
   }
 
-  private void doSendJenkinsResults(
-      AbstractBuild<?, ?> build, String ip, String password, BuildListener listener)
+  private void doSendJenkinsResults(AbstractBuild<?, ?> build, BuildListener listener)
       throws InterruptedException, IOException {
-    Connection conn = null;
+    JenkinsBuildRecord record = ResultsCollector.collectJenkinsBuild(build);
+    VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    IngestMetrics metrics = plugin.getJenkinsBuildMetrics();
+    RetryingTransaction.Timings timings = new RetryingTransaction.Timings();
     try {
-      conn = Util.getConnection(ip, password, VTestResultsAnalyzerMgmtLink.DB_NAME);
       Util.logToConsole(listener.getLogger(), "Sending jenkins build stats. Please wait.\n");
-      String sqlInsert =
+      // The build is upserted, so retries and re-runs of the publisher never add a second row.
+      plugin
+          .getResultsStore()
+          .write(
+              Collections.singletonList(record),
+              Collections.<TestResultRecord>emptyList(),
+              timings);
+      metrics.recordSuccess(1, 0, timings);
+      Util.logToConsole(
+          listener.getLogger(),
           String.format(
-              "INSERT INTO "
-                  + VTestResultsAnalyzerMgmtLink.TB_JENKINS_BUILDS
-                  + "(jenkins_project, build_number, sub_build_labels, node, "
-                  + "start_time, duration, result, url, update_time) VALUES "
-                  + "(?,?,?,?,?,?,?,?,?)");
-      PreparedStatement stmt = conn.prepareStatement(sqlInsert);
-      stmt.setString(1, build.getRootBuild().getProject().getName()); // jenkins_project
-      stmt.setInt(2, build.getNumber()); // build_number
-      if (build instanceof MatrixRun) {
-        stmt.setString(3, build.getParent().getName()); // sub build labels for sub builds.
-      } else {
-        stmt.setString(3, null); // null for root build.
-      }
-      stmt.setString(4, build.getBuiltOnStr().isEmpty() ? "master" : build.getBuiltOnStr()); // node
-      stmt.setTimestamp(5, new Timestamp(build.getStartTimeInMillis())); // start_time
-      long curMs = System.currentTimeMillis();
-      stmt.setInt(6, (int) ((curMs - build.getStartTimeInMillis()) / 1000));
-      stmt.setString(7, build.getResult().toString());
-      stmt.setString(8, build.getUrl());
-      stmt.setTimestamp(9, new Timestamp(curMs));
-      stmt.executeUpdate();
-      Util.logToConsole(listener.getLogger(), "Build stats sent.\n");
+              "Build stats sent. Took %d ms (connect %d ms, commit %d ms, %d attempts).\n",
+              timings.getTotalMs(),
+              timings.getConnectMs(),
+              timings.getCommitMs(),
+              timings.getAttempts()));
     } catch (SQLException e) {
+      metrics.recordFailure(1, 0, timings, e.getMessage());
       Util.logToConsole(
           listener.getLogger(), "Failed to send build stats to Vanadium Test Results Analyzer.\n");
       e.printStackTrace(listener.getLogger());
-      return;
-    } finally {
-      if (conn != null) {
-        try {
-          conn.close();
-        } catch (SQLException e) {
-          e.printStackTrace(listener.getLogger());
-        }
-      }
     }
   }
 
-  private void doSendTestResults(
-      AbstractBuild<?, ?> build, String ip, String password, final BuildListener listener)
+  private void doSendTestResults(AbstractBuild<?, ?> build, BuildListener listener)
       throws InterruptedException, IOException {
-    // Only send test results in free style build and sub matrix build.
-    if (!(build instanceof FreeStyleBuild) && !(build instanceof MatrixRun)) {
+    if (!ResultsCollector.hasTestResults(build)) {
       return;
     }
 
     Util.logToConsole(listener.getLogger(), "Sending test results. Please wait.\n");
+    VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    if (plugin.getColumnarStorageEnabled()) {
+      doSendTestResultBlob(build, listener);
+      return;
+    }
 
-    // Get test results from the build, and create a worker for each class for sending its test results.
+    // Stream test results from the build to the shared ingest scheduler, which sends them in
+    // batches of similar size. Records are created as the scheduler pulls them, so sending starts
+    // right away and only a few batches are held in memory.
     long startMs = System.currentTimeMillis();
-    final List<TestResultsSender> senders = new ArrayList<>();
-    List<AbstractTestResultAction> testActions = build.getActions(AbstractTestResultAction.class);
-    int numTestCases = 0;
-    for (AbstractTestResultAction testAction : testActions) {
-      TabulatedResult testResult = (TabulatedResult) testAction.getResult();
-      Collection<? extends TestResult> packageResults = testResult.getChildren();
-      for (TestResult packageResult : packageResults) {
-        Collection<? extends TestResult> classResults =
-            ((TabulatedResult) packageResult).getChildren();
-        for (final TestResult classResult : classResults) {
-          numTestCases += ((TabulatedResult) classResult).getChildren().size();
-          TestResultsSender sender =
-              new TestResultsSender(
-                  ip,
-                  password,
-                  packageResult,
-                  (TabulatedResult) classResult,
-                  build,
-                  new TestResultsSenderEventHandler() {
-                    @Override
-                    public void onFinish(String errMsg) {
-                      // Show errors.
-                      if (!errMsg.isEmpty()) {
-                        String msg =
-                            classResult.getFullDisplayName() + ": FAILED!\n" + errMsg + "\n";
-                        Util.logToConsole(listener.getLogger(), msg);
-                      }
-                    }
-                  });
-          senders.add(sender);
-        }
-      }
+    boolean bulkLoad = plugin.getBulkLoadEnabled();
+    IngestScheduler.Submission submission =
+        plugin.getIngestScheduler().newSubmission(bulkLoad);
+    submission.addAll(ResultsCollector.iterateTestResults(build));
+    if (!submission.finish(TEST_RESULT_SENDER_WAIT_TIMEOUT_MIN, TimeUnit.MINUTES)) {
+      Util.logToConsole(
+          listener.getLogger(),
+          String.format(
+              "Timed out after %d minutes. Test results will continue to be sent in the "
+                  + "background.\n",
+              TEST_RESULT_SENDER_WAIT_TIMEOUT_MIN));
     }
-    // Run senders in a worker pool.
-    ExecutorService executor = Executors.newFixedThreadPool(TEST_RESULT_SENDER_THREAD_POOL_SIZE);
-    for (Runnable r : senders) {
-      executor.execute(r);
+    // Show errors.
+    for (String errMsg : submission.getErrors()) {
+      Util.logToConsole(listener.getLogger(), "FAILED! " + errMsg + "\n");
+    }
+    long tookMs = Math.max(System.currentTimeMillis() - startMs, 1);
+    Util.logToConsole(
+        listener.getLogger(),
+        String.format(
+            "%d test results sent. Took %.1f seconds (%d rows/s, %s).\n",
+            submission.getNumRecords(),
+            tookMs / 1000.0,
+            submission.getNumRecords() * 1000L / tookMs,
+            bulkLoad ? "bulk load" : "batched inserts"));
+    Util.logToConsole(
+        listener.getLogger(), "Ingestion: " + submission.getMetrics().getSummary() + "\n");
+  }
+
+  // Sends the test results of the given build as a single blob, in one write.
+  private void doSendTestResultBlob(AbstractBuild<?, ?> build, BuildListener listener)
+      throws InterruptedException {
+    VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    IngestMetrics metrics = plugin.getTestResultMetrics();
+    RetryingTransaction.Timings timings = new RetryingTransaction.Timings();
+    List<AbstractBuild<?, ?>> builds = Collections.<AbstractBuild<?, ?>>singletonList(build);
+    int numTestResults;
+    try {
+      numTestResults =
+          plugin
+              .getResultsStore()
+              .write(
+                  Collections.<JenkinsBuildRecord>emptyList(),
+                  ResultsCollector.getTestResults(builds),
+                  timings);
+      metrics.recordSuccess(numTestResults, 0, timings);
+    } catch (SQLException e) {
+      metrics.recordFailure(
+          ResultsCollector.countTestResults(builds), 0, timings, e.getMessage());
+      Util.logToConsole(listener.getLogger(), "FAILED! " + e.getMessage() + "\n");
+      return;
+    }
+    Util.logToConsole(
+        listener.getLogger(),
+        String.format(
+            "%d test results sent as one blob. Took %.1f seconds (connect %d ms, commit %d ms).\n",
+            numTestResults,
+            timings.getTotalMs() / 1000.0,
+            timings.getConnectMs(),
+            timings.getCommitMs()));
+  }
+
+  // Sends the results of a whole matrix build in one transaction: the records of the root build and
+  // of all its configurations, so the matrix appears on the dashboards all at once.
+  private boolean sendMatrix(
+      MatrixBuild build,
+      List<JenkinsBuildRecord> runRecords,
+      List<AbstractBuild<?, ?>> runs,
+      BuildListener listener)
+      throws InterruptedException, IOException {
+    VTestResultsAnalyzerPluginImpl plugin = VTestResultsAnalyzerPluginImpl.getInstance();
+    if (plugin.getPluginDisabled()) {
+      Util.logToConsole(
+          listener.getLogger(), "Plugin is disabled globally. Not sending build/test results.");
+      return true;
+    }
+
+    final List<JenkinsBuildRecord> jenkinsBuilds = new ArrayList<>();
+    if (sendJenkinsBuildResults) {
+      jenkinsBuilds.add(ResultsCollector.collectJenkinsBuild(build));
+      jenkinsBuilds.addAll(runRecords);
+    }
+    final List<AbstractBuild<?, ?>> testBuilds =
+        sendTestResults ? runs : Collections.<AbstractBuild<?, ?>>emptyList();
+
+    if (sendAsynchronously) {
+      spoolResults(jenkinsBuilds, testBuilds, listener);
+      return true;
+    }
+
+    Util.logToConsole(
+        listener.getLogger(),
+        String.format(
+            "Sending results of %d matrix configurations. Please wait.\n", runs.size()));
+    long startMs = System.currentTimeMillis();
+    int numTestResults;
+    RetryingTransaction.Timings timings = new RetryingTransaction.Timings();
+    try {
+      numTestResults =
+          plugin
+              .getResultsStore()
+              .write(jenkinsBuilds, ResultsCollector.getTestResults(testBuilds), timings);
+      plugin.getTestResultMetrics().recordSuccess(numTestResults, 0, timings);
+    } catch (SQLException e) {
+      plugin
+          .getTestResultMetrics()
+          .recordFailure(
+              ResultsCollector.countTestResults(testBuilds), 0, timings, e.getMessage());
+      Util.logToConsole(
+          listener.getLogger(), "Failed to send results to Vanadium Test Results Analyzer.\n");
+      e.printStackTrace(listener.getLogger());
+      return true;
+    }
+    Util.logToConsole(
+        listener.getLogger(),
+        String.format(
+            "%d build stats and %d test results sent in one transaction. Took %.1f seconds "
+                + "(connect %d ms, commit %d ms, %d attempts).\n",
+            jenkinsBuilds.size(),
+            numTestResults,
+            (System.currentTimeMillis() - startMs) / 1000.0,
+            timings.getConnectMs(),
+            timings.getCommitMs(),
+            timings.getAttempts()));
+    return true;
+  }
+
+  // Writes the records of the given builds to the local spool, as a single file. They are sent to
+  // the database in the background, so the build doesn't wait for the database.
+  private void spoolResults(
+      List<JenkinsBuildRecord> jenkinsBuilds,
+      List<AbstractBuild<?, ?>> builds,
+      BuildListener listener) {
+    long startMs = System.currentTimeMillis();
+    Iterator<TestResultRecord> testResults =
+        sendTestResults
+            ? ResultsCollector.iterateTestResults(builds)
+            : Collections.<TestResultRecord>emptyIterator();
+    if (jenkinsBuilds.isEmpty() && !testResults.hasNext()) {
+      return;
+    }
+    int numTestResults;
+    try {
+      numTestResults =
+          VTestResultsAnalyzerPluginImpl.getInstance().spoolResults(jenkinsBuilds, testResults);
+    } catch (IOException e) {
+      Util.logToConsole(
+          listener.getLogger(), "Failed to spool results for Vanadium Test Results Analyzer.\n");
+      e.printStackTrace(listener.getLogger());
+      return;
     }
-    executor.shutdown();
-    executor.awaitTermination(TEST_RESULT_SENDER_THREAD_POOL_WAIT_TIMEOUT_MIN, TimeUnit.MINUTES);
     Util.logToConsole(
         listener.getLogger(),
         String.format(
-            "%d test results sent. Took %.1f seconds.\n",
-            numTestCases, (System.currentTimeMillis() - startMs) / 1000.0));
+            "%s%d test results queued for sending in the background. Took %d ms.\n",
+            jenkinsBuilds.isEmpty() ? "" : "Build stats and ",
+            numTestResults,
+            System.currentTimeMillis() - startMs));
   }
 
   @Extension
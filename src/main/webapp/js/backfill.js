@@ -0,0 +1,153 @@
+document.addEventListener('DOMContentLoaded', function() {
+  // How often the progress is reloaded.
+  var REFRESH_INTERVAL_MS = 2000;
+
+  var PROGRESS_COLS = [
+    ['name', 'Project'],
+    ['state', 'State'],
+    ['range', 'Imported Builds'],
+    ['builds', 'Builds'],
+    ['testResults', 'Test Results'],
+    ['failedBuilds', 'Failed'],
+    ['lastErrMsg', 'Last Error'],
+  ];
+
+  var $errMsg = $j('#backfill-error-msg');
+  var $btnStart = $j('#btn-start');
+  var $btnStop = $j('#btn-stop');
+  var $btnReset = $j('#btn-reset');
+  var optionsLoaded = false;
+
+  function escape(str) {
+    return $j('<div></div>').text(str).html();
+  }
+
+  function showError(errMsg) {
+    if (errMsg) {
+      $errMsg.text(errMsg).show();
+    } else {
+      $errMsg.hide();
+    }
+  }
+
+  function createProjectsList(names) {
+    var $list = $j('<div id="projects-list"></div>');
+    names.forEach(function(name) {
+      var $label = $j('<label class="project"></label>');
+      $label.append($j('<input type="checkbox"/>').val(name));
+      $label.append($j('<span></span>').text(name));
+      $list.append($label);
+    });
+    return $list;
+  }
+
+  function getSelectedProjects() {
+    return $j('#projects-list input:checked').map(function() {
+      return $j(this).val();
+    }).get();
+  }
+
+  function createProgressTable(projects) {
+    var $table = $j('<table class="progress-table"></table>');
+    var $header = $j('<tr></tr>');
+    PROGRESS_COLS.forEach(function(col) {
+      $header.append($j('<th></th>').text(col[1]));
+    });
+    $table.append($header);
+    projects.forEach(function(p) {
+      var $row = $j('<tr></tr>');
+      var values = {
+        name: escape(p.name),
+        state: '<span class="state-' + p.state + '">' + p.state + '</span>',
+        range: p.newestBuild > 0 ? '#' + p.oldestBuild + ' - #' + p.newestBuild : 'none',
+        builds: p.builds,
+        testResults: p.testResults,
+        failedBuilds: p.failedBuilds,
+        lastErrMsg: '<span class="error-msg">' + escape(p.lastErrMsg) + '</span>',
+      };
+      PROGRESS_COLS.forEach(function(col) {
+        $row.append($j('<td></td>').html(values[col[0]]));
+      });
+      $table.append($row);
+    });
+    return $table;
+  }
+
+  function statusReceived(status) {
+    if (!optionsLoaded) {
+      $j('#parallelism').val(status.parallelism);
+      $j('#max-rows-per-sec').val(status.maxRowsPerSec);
+      optionsLoaded = true;
+    }
+    $btnStart.toggleClass('enabled', !status.running);
+    $btnStop.toggleClass('enabled', status.running);
+    $btnReset.toggleClass('enabled', !status.running);
+    var text = status.running ?
+        'Importing since ' + new Date(status.startTime).toLocaleString() + ' at ' +
+            status.rowsPerSec + ' rows/s.' :
+        'Not running.';
+    if (status.lastSaveTime >= 0) {
+      text += ' Checkpoint saved at ' + new Date(status.lastSaveTime).toLocaleTimeString() + '.';
+    }
+    $j('#backfill-status').text(text);
+    $j('#progress-container').empty();
+    if (status.projects.length > 0) {
+      $j('#progress-container').append(createProgressTable(status.projects));
+    }
+  }
+
+  function refresh() {
+    it.getBackfillStatus(function(t) {
+      statusReceived(t.responseObject());
+      setTimeout(refresh, REFRESH_INTERVAL_MS);
+    });
+  }
+
+  it.getBackfillProjects(function(t) {
+    var names = t.responseObject();
+    $j('#projects-container').empty().append(createProjectsList(names));
+  });
+
+  $j('#project-filter').on('input', function() {
+    var filter = $j(this).val().toLowerCase();
+    $j('#projects-list .project').each(function() {
+      var name = $j(this).find('input').val().toLowerCase();
+      $j(this).toggle(name.indexOf(filter) >= 0);
+    });
+  });
+  $j('#select-all').click(function() {
+    $j('#projects-list .project:visible input').prop('checked', true);
+  });
+  $j('#select-none').click(function() {
+    $j('#projects-list input').prop('checked', false);
+  });
+
+  $btnStart.click(function() {
+    if (!$btnStart.hasClass('enabled')) {
+      return;
+    }
+    showError('');
+    it.startBackfill(getSelectedProjects().join('\n'),
+        parseInt($j('#parallelism').val(), 10) || 0,
+        parseInt($j('#max-rows-per-sec').val(), 10) || 0,
+        function(t) {
+          showError(t.responseObject());
+        });
+  });
+  $btnStop.click(function() {
+    if ($btnStop.hasClass('enabled')) {
+      it.stopBackfill(function() {});
+    }
+  });
+  $btnReset.click(function() {
+    if (!$btnReset.hasClass('enabled') ||
+        !confirm('Forget all checkpoints? The next import will start over.')) {
+      return;
+    }
+    it.resetBackfill(function(t) {
+      showError(t.responseObject());
+    });
+  });
+
+  refresh();
+});
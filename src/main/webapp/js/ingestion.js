@@ -0,0 +1,83 @@
+document.addEventListener('DOMContentLoaded', function() {
+  // How often the metrics are reloaded.
+  var REFRESH_INTERVAL_MS = 5000;
+
+  var HISTOGRAMS = [
+    ['queueWaitMs', 'Queue Wait:', 'ms'],
+    ['connectMs', 'Connect:', 'ms'],
+    ['writeMs', 'Write:', 'ms'],
+    ['commitMs', 'Commit:', 'ms'],
+    ['batchRows', 'Batch Size:', 'rows'],
+    ['rowsPerSec', 'Throughput:', 'rows/s'],
+  ];
+
+  function escape(str) {
+    return $j('<div></div>').text(str).html();
+  }
+
+  function createRow(header, value) {
+    var $row = $j('<div class="table-row"></div>');
+    $row.append($j('<div class="row-header">' + header + '</div>'));
+    $row.append($j('<div class="row-value">' + value + '</div>'));
+    return $row;
+  }
+
+  // Renders the non-empty buckets of a histogram as bars, scaled to the largest one.
+  function createHistogramBars(histogram, unit) {
+    var $container = $j('<div class="histogram"></div>');
+    var maxCount = 0;
+    histogram.buckets.forEach(function(b) {
+      maxCount = Math.max(maxCount, b.count);
+    });
+    histogram.buckets.forEach(function(b) {
+      var bound = b.le < 0 ? 'more' : '<= ' + b.le + ' ' + unit;
+      var $bar = $j('<div class="bar"></div>');
+      $bar.css('height', Math.max(1, Math.round(b.count * 40 / maxCount)) + 'px');
+      $bar.attr('title', bound + ': ' + b.count);
+      $container.append($bar);
+    });
+    return $container;
+  }
+
+  function createMetricsDiv(metrics) {
+    var $container = $j('<div class="table-info"></div>');
+    $container.append(createRow('Since:', new Date(metrics.sinceTime)));
+    $container.append(createRow('Transactions:', metrics.transactions));
+    $container.append(createRow('Rows:', metrics.rows));
+    $container.append(createRow('Retries:', metrics.retries));
+    $container.append(createRow('Failures:',
+        metrics.failures + ' (' + metrics.failedRows + ' rows)'));
+    if (metrics.lastFailureTime >= 0) {
+      $container.append(createRow('Last Failure:', new Date(metrics.lastFailureTime)));
+      $container.append(createRow('Last Error:',
+          '<span class="error-msg">' + escape(metrics.lastErrMsg) + '</span>'));
+    }
+    HISTOGRAMS.forEach(function(h) {
+      var histogram = metrics[h[0]];
+      if (histogram.count === 0) {
+        $container.append(createRow(h[1], 'N/A'));
+        return;
+      }
+      $container.append(createRow(h[1],
+          'p50 ' + histogram.p50 + ', p90 ' + histogram.p90 + ', p99 ' + histogram.p99 +
+          ', max ' + histogram.max + ' ' + h[2] + ' (' + histogram.count + ' samples)'));
+      $container.append(createHistogramBars(histogram, h[2]));
+    });
+    return $container;
+  }
+
+  function refresh() {
+    it.getIngestionMetrics(function(t) {
+      var metrics = t.responseObject();
+      $j('#ingestion-status').text(
+          metrics.pendingBatches + ' batches pending, ' +
+          metrics.blockedSubmitters + ' builds waiting to submit. Updated ' +
+          new Date().toLocaleTimeString() + '.');
+      $j('#test-results-metrics').empty().append(createMetricsDiv(metrics.testResults));
+      $j('#jenkins-builds-metrics').empty().append(createMetricsDiv(metrics.jenkinsBuilds));
+      setTimeout(refresh, REFRESH_INTERVAL_MS);
+    });
+  }
+
+  refresh();
+});
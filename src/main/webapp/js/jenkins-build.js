@@ -1,4 +1,10 @@
 document.addEventListener('DOMContentLoaded', function() {
+  // Number of builds loaded at a time, newest first.
+  var PAGE_SIZE = 500;
+
+  // Number of builds suggested in the drop down menu.
+  var NUM_SUGGESTIONS = 100;
+
   var chartsAPILoaded = false;
 
   // Get query parameters from URL.
@@ -25,39 +31,36 @@ document.addEventListener('DOMContentLoaded', function() {
   }
 
   // Prepare drop down menu for choosing different Jenkins
-  // build.
-  it.getAvailableJenkinsBuilds(startTime, endTime, function(t) {
-    var d = t.responseObject();
-    if (d.errMsg !== '') {
-      return;
-    }
+  // build. From the labels of the suggested builds to their build objs.
+  var labelToBuild = {};
 
-    // From build labels to their build objs.
-    var labelToBuild = {};
-    d.builds.map(function(build) {
-      var label = createBuildLabel(build.jenkins_project,
-          build.sub_build_labels || '');
-      labelToBuild[label] = build;
-    });
-
-    // Setup typeahead.
-    var $buildNameInput = $j('#item-input');
-    $buildNameInput.typeahead({
-      hint: true,
-      highlight: true,
-      minLength: 1
-    }, {
-      source: vUtil.substringMatcher(Object.keys(labelToBuild).sort()),
-      limit: 100
-    });
-    $buildNameInput.bind('typeahead:select', function(ev, label) {
-      var build = labelToBuild[label];
-      if (build) {
-        buildName = build.jenkins_project;
-        subBuildLabels = build.sub_build_labels || '';
-        loadJenkinsBuildDetails();
+  // Setup typeahead. The server suggests builds matching the input.
+  var $buildNameInput = $j('#item-input');
+  $buildNameInput.typeahead({
+    hint: true,
+    highlight: true,
+    minLength: 1
+  }, vUtil.createSuggestionsDataset(function(q, limit, callback) {
+    it.suggestJenkinsBuilds(q, limit, function(t) {
+      var d = t.responseObject();
+      if (d.errMsg !== '') {
+        return;
       }
+      callback(d.builds.map(function(build) {
+        var label = createBuildLabel(build.jenkins_project,
+            build.sub_build_labels || '');
+        labelToBuild[label] = build;
+        return label;
+      }));
     });
+  }, NUM_SUGGESTIONS));
+  $buildNameInput.bind('typeahead:select', function(ev, label) {
+    var build = labelToBuild[label];
+    if (build) {
+      buildName = build.jenkins_project;
+      subBuildLabels = build.sub_build_labels || '';
+      loadJenkinsBuildDetails();
+    }
   });
 
   if (buildName) {
@@ -71,50 +74,59 @@ document.addEventListener('DOMContentLoaded', function() {
   }
 
   /**
-   * Loads jenkins build details.
+   * Loads jenkins build details, a page at a time. Result filters from the URL
+   * are applied by the server.
    */
   function loadJenkinsBuildDetails() {
     $j('#details-content').hide();
     $j('#details-loading').text('loading...').show();
     $j('#details-table').empty();
 
-    it.getJenkinsBuildDetails(startTime, endTime, buildName, subBuildLabels,
-        function(t) {
-          var d = t.responseObject();
-          if (d.errMsg !== '') {
-            $j('#details-loading').hide();
-            $j('#details-err-msg').html(d.errMsg).show();
-            return;
-          }
+    var builds = [];
+    vUtil.getPages('jenkinsBuildDetails', {
+      startEpoch: startTime,
+      endEpoch: endTime,
+      buildName: buildName,
+      subBuildLabels: subBuildLabels,
+      order: 'desc',
+      limit: PAGE_SIZE,
+      results: filters.join(',')
+    }, function(d, loadMore) {
+      if (d.errMsg !== '') {
+        $j('#details-loading').hide();
+        $j('#details-err-msg').html(d.errMsg).show();
+        return;
+      }
 
-          if (d.builds.length === 0) {
-            $j('#details-loading').text('No builds in this time period');
-            return;
-          }
+      builds = builds.concat(d.builds);
+      if (builds.length === 0) {
+        $j('#details-loading').text('No builds in this time period');
+        return;
+      }
 
-          if (chartsAPILoaded) {
-            renderContent(d.builds);
-          } else {
-            google.charts.load('current', {
-              packages: [
-                'corechart'
-              ]
-            });
-            google.charts.setOnLoadCallback(function() {
-              chartsAPILoaded = true;
-              renderContent(d.builds);
-            });
-          }
+      if (chartsAPILoaded) {
+        renderContent(builds, loadMore);
+      } else {
+        google.charts.load('current', {
+          packages: [
+            'corechart'
+          ]
         });
+        google.charts.setOnLoadCallback(function() {
+          chartsAPILoaded = true;
+          renderContent(builds, loadMore);
+        });
+      }
+    });
   }
 
   /**
    * Show builds in a table and several graphs.
    */
-  function renderContent(builds) {
+  function renderContent(builds, loadMore) {
     vUtil.renderItemsInTableAndGraphs(builds, 'build_number', [
       'SUCCESS', 'UNSTABLE', 'FAILURE', 'ABORTED'
-    ], 'Builds', filters);
+    ], 'Builds', filters, loadMore);
   }
 
   function createBuildLabel(build, subBuildLabels) {
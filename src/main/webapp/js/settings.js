@@ -4,6 +4,8 @@ document.addEventListener('DOMContentLoaded', function() {
   var $divFixDB = $j('#fix-database');
   var $fixErrMsg = $j('#fix-error-msg');
   var $btnFixDB = $j('#btn-fix');
+  // Pending migrations that keep builds from writing while they run.
+  var writeStallingMigrations = [];
 
   function showError(statusMsg, errMsg, showBtnFixDB) {
     $statusEle.text(statusMsg);
@@ -51,21 +53,140 @@ document.addEventListener('DOMContentLoaded', function() {
     $row.append($j('<div class="row-value">' + oldestUpdateTime + '</div>'));
     $container.append($row);
 
-    // Row count.
+    // Estimated row count, plus the rows added since it was taken.
     $row = $j('<div class="table-row"></div>');
+    var rowCount = 'N/A';
+    if (info.statsTime >= 0) {
+      rowCount = '~' + info.rowCount;
+      if (info.rowsWritten > 0) {
+        rowCount += ' (+' + info.rowsWritten + ' added since)';
+      }
+    }
     $row.append($j('<div class="row-header">Row Count:</div>'));
-    $row.append($j('<div class="row-value">' + info.rowCount + '</div>'));
+    $row.append($j('<div class="row-value">' + rowCount + '</div>'));
     $container.append($row);
 
-    // Size in MB.
+    // Estimated size in MB.
     $row = $j('<div class="table-row"></div>');
+    var size = info.statsTime >= 0 ? '~' + info.size + ' MB' : 'N/A';
     $row.append($j('<div class="row-header">Size:</div>'));
-    $row.append($j('<div class="row-value">' + info.size + ' MB</div>'));
+    $row.append($j('<div class="row-value">' + size + '</div>'));
     $container.append($row);
 
+    // When the stats were taken.
+    $row = $j('<div class="table-row"></div>');
+    var statsTime = 'Not collected yet';
+    if (info.statsTime >= 0) {
+      var ageMin = Math.round((Date.now() - info.statsTime) / 60000);
+      statsTime = new Date(info.statsTime) + ' (' + ageMin + ' min ago)';
+    }
+    $row.append($j('<div class="row-header">Stats As Of:</div>'));
+    $row.append($j('<div class="row-value">' + statsTime + '</div>'));
+    $container.append($row);
+
+    // Partitions.
+    if (info.partitions > 0) {
+      $row = $j('<div class="table-row"></div>');
+      $row.append($j('<div class="row-header">Partitions:</div>'));
+      $row.append($j('<div class="row-value">' + info.partitions + '</div>'));
+      $container.append($row);
+    }
+
+    return $container;
+  }
+
+  function createPoolStatsDiv(stats) {
+    var $container = $j('<div class="table-info"></div>');
+    var rows = [
+      ['Active:', stats.active + ' / ' + stats.maxSize],
+      ['Idle:', stats.idle],
+      ['Waiting:', stats.waiting],
+      ['Opened:', stats.created],
+      ['Borrowed:', stats.borrowed],
+      ['Avg Wait:', stats.avgWaitMs + ' ms'],
+      ['Timeouts:', stats.timeouts],
+    ];
+    rows.forEach(function(r) {
+      var $row = $j('<div class="table-row"></div>');
+      $row.append($j('<div class="row-header">' + r[0] + '</div>'));
+      $row.append($j('<div class="row-value">' + r[1] + '</div>'));
+      $container.append($row);
+    });
+    return $container;
+  }
+
+  function createCacheStatsDiv(stats) {
+    var $container = $j('<div class="table-info"></div>');
+    var lookups = stats.hits + stats.misses;
+    var hitRate = lookups > 0 ? (stats.hits * 100 / lookups).toFixed(1) + '%' : 'N/A';
+    var rows = [
+      ['Entries:', stats.entries + ' (' + stats.items + ' items)'],
+      ['Hits:', stats.hits],
+      ['Misses:', stats.misses],
+      ['Hit Rate:', hitRate],
+      ['Invalidations:', stats.invalidations],
+      ['Evictions:', stats.evictions],
+    ];
+    rows.forEach(function(r) {
+      var $row = $j('<div class="table-row"></div>');
+      $row.append($j('<div class="row-header">' + r[0] + '</div>'));
+      $row.append($j('<div class="row-value">' + r[1] + '</div>'));
+      $container.append($row);
+    });
     return $container;
   }
 
+  function createSpoolStatusDiv(status) {
+    var $container = $j('<div class="table-info"></div>');
+    var lastDrainTime = 'N/A';
+    if (status.lastDrainTime >= 0) {
+      lastDrainTime = new Date(status.lastDrainTime);
+    }
+    var rows = [
+      ['Backlog:', status.pendingFiles + ' builds (' +
+          (status.pendingBytes / 1024).toFixed(1) + ' KB)'],
+      ['Lag:', (status.lagMs / 1000).toFixed(1) + ' s'],
+      ['Sent:', status.drainedFiles + ' builds, ' + status.drainedRows +
+          ' test results'],
+      ['Last Drained:', lastDrainTime],
+      ['Quarantined:', status.quarantinedFiles + ' builds (in ' +
+          $j('<div></div>').text(status.quarantineDir).html() + ')'],
+    ];
+    if (status.consecutiveFailures > 0) {
+      rows.push(['Failures:', status.consecutiveFailures +
+          ' (next retry at ' + new Date(status.nextAttemptTime) + ')']);
+      rows.push(['Last Error:', $j('<div></div>').text(status.lastErrMsg).html()]);
+    }
+    rows.forEach(function(r) {
+      var $row = $j('<div class="table-row"></div>');
+      $row.append($j('<div class="row-header">' + r[0] + '</div>'));
+      $row.append($j('<div class="row-value">' + r[1] + '</div>'));
+      $container.append($row);
+    });
+    return $container;
+  }
+
+  // Show backlog of results waiting to be sent in the background.
+  it.getSpoolStatus(function(t) {
+    var status = t.responseObject();
+    $j('#spool-status').hide();
+    $j('#spool-status-container').append(createSpoolStatusDiv(status));
+  });
+
+  // Show connection pool metrics.
+  it.getConnectionPoolStats(function(t) {
+    var stats = t.responseObject();
+    $j('#pool-stats-status').hide();
+    $j('#pool-stats-container').append(createPoolStatsDiv(stats));
+  });
+
+  // Show hit and miss stats of the cache of dashboard queries.
+  it.getQueryCacheStats(function(t) {
+    var stats = t.responseObject();
+    $j('#cache-stats-status').hide();
+    $j('#cache-stats-container').append(createCacheStatsDiv(stats));
+  });
+
   // Check database status when the settings page is done loading.
   it.checkDatabaseStatus(function(t) {
     var status = t.responseObject();
@@ -97,23 +218,35 @@ document.addEventListener('DOMContentLoaded', function() {
       return;
     }
 
-    $statusEle.text('All OK');
+    writeStallingMigrations = status.writeStallingMigrations;
+    if (status.pendingMigrations.length > 0) {
+      showError('Database schema is out of date:',
+          'version ' + status.schemaVersion + ' of ' + status.latestSchemaVersion +
+          ', pending: ' + status.pendingMigrations.join(', '), true);
+      return;
+    }
+
+    $statusEle.text('All OK (schema version ' + status.schemaVersion + ')');
     $statusEle.attr('class', 'ok');
   });
 
-  // Set up click listener for the "fix database and tables" button.
+  // Set up click listener for the "upgrade database" button.
   $btnFixDB.click(function() {
     if (!$j(this).hasClass('enabled')) {
       return;
     }
+    var stallWrites = writeStallingMigrations.length > 0 &&
+        confirm('Apply "' + writeStallingMigrations.join('", "') + '" as well? ' +
+            'It copies large tables, and builds can\'t write until it is done. ' +
+            'Cancel to apply the other changes only.');
     $fixErrMsg.hide();
     $j(this).text('Please Wait').removeClass('enabled');
-    it.fixDatabaseAndTables(function(t) {
+    it.migrateDatabase(stallWrites, function(t) {
       var errMsg = t.responseObject();
       if (errMsg === '') {
         location.reload();
       } else {
-        $btnFixDB.text('Fix Databases and Tables').addClass('enabled');
+        $btnFixDB.text('Create or Upgrade Database').addClass('enabled');
         $fixErrMsg.text(errMsg).show();
       }
     });
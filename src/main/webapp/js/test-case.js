@@ -1,4 +1,10 @@
 document.addEventListener('DOMContentLoaded', function() {
+  // Number of runs loaded at a time, newest first.
+  var PAGE_SIZE = 500;
+
+  // Number of test cases suggested in the drop down menu.
+  var NUM_SUGGESTIONS = 100;
+
   var chartsAPILoaded = false;
 
   // Get query parameters from URL.
@@ -25,42 +31,41 @@ document.addEventListener('DOMContentLoaded', function() {
     endTime = t.endTime;
   }
 
-  // Prepare drop down menu for choosing test cases.
-  it.getAvailableTestCases(startTime, endTime, function(t) {
-    var d = t.responseObject();
-    if (d.errMsg !== '') {
-      return;
-    }
-
-    // From test case labels to their test case objs.
-    var labelToTestCase = {};
-    d.tests.map(function(test) {
-      var label = createTestCaseLabel(test.test_full_name,
-          test.jenkins_project, test.sub_build_labels || '');
-      labelToTestCase[label] = test;
-    });
+  // Prepare drop down menu for choosing test cases. From the labels of the
+  // suggested test cases to their test case objs.
+  var labelToTestCase = {};
 
-    // Setup typeahead.
-    var $testCaseInput = $j('#item-input');
-    $testCaseInput.typeahead({
-      hint: true,
-      highlight: true,
-      minLength: 1
-    }, {
-      source: vUtil.substringMatcher(Object.keys(labelToTestCase).sort()),
-      limit: 200
-    });
-    $testCaseInput.bind('typeahead:select', function(ev, label) {
-      var testCase = labelToTestCase[label];
-      if (testCase) {
-        testName = testCase.test_full_name;
-        buildName = testCase.jenkins_project;
-        subBuildLabels = testCase.sub_build_labels || '';
-        loadTestCaseDetails();
+  // Setup typeahead. The server suggests test cases matching the input.
+  var $testCaseInput = $j('#item-input');
+  $testCaseInput.typeahead({
+    hint: true,
+    highlight: true,
+    minLength: 1
+  }, vUtil.createSuggestionsDataset(function(q, limit, callback) {
+    it.suggestTestCases(q, limit, function(t) {
+      var d = t.responseObject();
+      if (d.errMsg !== '') {
+        return;
       }
+      callback(d.tests.map(function(test) {
+        var label = createTestCaseLabel(test.test_full_name,
+            test.jenkins_project, test.sub_build_labels || '');
+        labelToTestCase[label] = test;
+        return label;
+      }));
     });
+  }, NUM_SUGGESTIONS));
+  $testCaseInput.bind('typeahead:select', function(ev, label) {
+    var testCase = labelToTestCase[label];
+    if (testCase) {
+      testName = testCase.test_full_name;
+      buildName = testCase.jenkins_project;
+      subBuildLabels = testCase.sub_build_labels || '';
+      loadTestCaseDetails();
+    }
   });
-  
+
+
   if (testName) {
     var initTestCaseLabel = createTestCaseLabel(testName, buildName,
         subBuildLabels);
@@ -73,50 +78,60 @@ document.addEventListener('DOMContentLoaded', function() {
   }
 
   /**
-   * Loads test case details.
+   * Loads test case details, a page at a time. Result filters from the URL are
+   * applied by the server.
    */
   function loadTestCaseDetails() {
     $j('#details-content').hide();
     $j('#details-loading').text('loading...').show();
     $j('#details-table').empty();
 
-    it.getTestCaseDetails(startTime, endTime, testName, buildName,
-        subBuildLabels, function(t) {
-          var d = t.responseObject();
-          if (d.errMsg !== '') {
-            $j('#details-loading').hide();
-            $j('#details-err-msg').html(d.errMsg).show();
-            return;
-          }
+    var testCases = [];
+    vUtil.getPages('testCaseDetails', {
+      startEpoch: startTime,
+      endEpoch: endTime,
+      testFullName: testName,
+      buildName: buildName,
+      subBuildLabels: subBuildLabels,
+      order: 'desc',
+      limit: PAGE_SIZE,
+      results: filters.join(',')
+    }, function(d, loadMore) {
+      if (d.errMsg !== '') {
+        $j('#details-loading').hide();
+        $j('#details-err-msg').html(d.errMsg).show();
+        return;
+      }
 
-          if (d.tests.length === 0) {
-            $j('#details-loading').text('No test cases in this time period');
-            return;
-          }
+      testCases = testCases.concat(d.tests);
+      if (testCases.length === 0) {
+        $j('#details-loading').text('No test cases in this time period');
+        return;
+      }
 
-          if (chartsAPILoaded) {
-            renderContent(d.tests);
-          } else {
-            google.charts.load('current', {
-              packages: [
-                'corechart'
-              ]
-            });
-            google.charts.setOnLoadCallback(function() {
-              chartsAPILoaded = true;
-              renderContent(d.tests);
-            });
-          }
+      if (chartsAPILoaded) {
+        renderContent(testCases, loadMore);
+      } else {
+        google.charts.load('current', {
+          packages: [
+            'corechart'
+          ]
         });
+        google.charts.setOnLoadCallback(function() {
+          chartsAPILoaded = true;
+          renderContent(testCases, loadMore);
+        });
+      }
+    });
   }
 
   /**
    * Show test cases in a table and several graphs.
    */
-  function renderContent(testCases) {
+  function renderContent(testCases, loadMore) {
     vUtil.renderItemsInTableAndGraphs(testCases, 'build_number', [
       'PASSED', 'FAILED', 'SKIPPED'
-    ], 'Tests', filters);
+    ], 'Tests', filters, loadMore);
   }
 
   function createTestCaseLabel(testName, build, subBuildLabels) {
@@ -15,17 +15,17 @@ document.addEventListener('DOMContentLoaded', function() {
     }, {
       key: 'avg_duration',
       label: 'avg dur.',
-      dataSort: 'int',
+      dataSort: 'float',
       formatter: vUtil.humanReadableDurationFormatter,
     }, {
       key: 'min_duration',
       label: 'min dur.',
-      dataSort: 'int',
+      dataSort: 'float',
       formatter: vUtil.humanReadableDurationFormatter,
     }, {
       key: 'max_duration',
       label: 'max dur.',
-      dataSort: 'int',
+      dataSort: 'float',
       formatter: vUtil.humanReadableDurationFormatter,
     }, {
       key: 'count',
@@ -38,6 +38,66 @@ document.addEventListener('DOMContentLoaded', function() {
     }
   ];
 
+  // The longest tests also have percentiles of their durations, after the
+  // average. Tests whose percentiles aren't known yet have empty cells.
+  var LONGEST_COLS = COLS.slice(0, 4).concat([50, 90, 99].map(function(p) {
+    return {
+      key: 'p' + p + '_duration',
+      label: 'p' + p + ' dur.',
+      dataSort: 'float',
+      formatter: vUtil.humanReadableDurationFormatter,
+    };
+  }), COLS.slice(4));
+
+  var SIGNATURE_COLS = [
+    {
+      key: 'summary',
+      label: 'failure',
+      dataSort: 'string',
+    }, {
+      key: 'failure_count',
+      label: 'failures #',
+      dataSort: 'int',
+    }, {
+      key: 'test_count',
+      label: 'tests #',
+      dataSort: 'int',
+    }, {
+      key: 'build_count',
+      label: 'builds #',
+      dataSort: 'int',
+    }, {
+      key: 'last_time',
+      label: 'last seen',
+      dataSort: 'int',
+      formatter: vUtil.dateFormatter,
+    }
+  ];
+
+  var SIGNATURE_TEST_COLS = [
+    {
+      key: 'test_full_name',
+      label: 'test name',
+      dataSort: 'string',
+    }, {
+      key: 'jenkins_project',
+      label: 'project',
+      dataSort: 'string',
+    }, {
+      key: 'sub_build_labels',
+      label: 'sub build',
+      dataSort: 'string',
+    }, {
+      key: 'failure_count',
+      label: 'failures #',
+      dataSort: 'int',
+    }, {
+      key: 'last_build_number',
+      label: 'last build',
+      dataSort: 'int',
+    }
+  ];
+
   var curStartTime, curEndTime;
 
   var $loadingMsg = $j('#loading-msg');
@@ -65,15 +125,104 @@ document.addEventListener('DOMContentLoaded', function() {
   function loadTestResultsData() {
     $loadingMsg.show();
     $mainContent.hide();
-    $j('#test-results-container table').remove();
+    $j('#failed-tests-table-container, #longest-tests-table-container').empty();
     it.getTestResults(curStartTime, curEndTime, testResultsDataReceived);
+    $j('#failure-signatures-table-container').empty();
+    $j('#failure-signature-tests-container').empty();
+    it.getFailureSignatures(curStartTime, curEndTime,
+        failureSignaturesReceived);
+  }
+
+  /**
+   * Called when failures grouped by signature are received.
+   */
+  function failureSignaturesReceived(t) {
+    var d = t.responseObject();
+    var $container = $j('#failure-signatures-table-container');
+    $container.empty();
+    if (d.errMsg !== '') {
+      $container.append($j('<div></div>').addClass('msg').html(d.errMsg));
+      return;
+    }
+    if (d.signatures.length === 0) {
+      $container.append($j('<div></div>').addClass('msg').text(
+          'No failure signatures found in this time period'));
+      return;
+    }
+    var $table = vUtil.createTable(SIGNATURE_COLS, d.signatures,
+        'failure_count', function(colKey, label, item) {
+          if (colKey === 'summary') {
+            var $link = $j('<a></a>').addClass('signature-link').attr('title',
+                item.signature).text(label || '(no error message)');
+            $link.click(function() {
+              loadFailureSignatureTests(item);
+            });
+            return $link;
+          }
+          return document.createTextNode(label);
+        });
+    $container.append($table);
+  }
+
+  /**
+   * Shows the test cases that failed with the given signature.
+   */
+  function loadFailureSignatureTests(signature) {
+    var $container = $j('#failure-signature-tests-container');
+    $container.empty().append(
+        $j('<div></div>').addClass('msg').text('loading...'));
+    it.getFailureSignatureTests(curStartTime, curEndTime,
+        signature.signature_id, function(t) {
+          var d = t.responseObject();
+          $container.empty();
+          if (d.errMsg !== '') {
+            $container.append($j('<div></div>').addClass('msg').html(d.errMsg));
+            return;
+          }
+          var summary = signature.summary || '(no error message)';
+          $container.append($j('<div></div>').addClass('sub-title').text(
+              'Tests failing with: ' + summary));
+          $container.append($j('<pre></pre>').text(signature.signature || ''));
+          $container.append(createSignatureTestsTable(d.tests));
+        });
+  }
+
+  function createSignatureTestsTable(items) {
+    return vUtil.createTable(SIGNATURE_TEST_COLS, items, 'failure_count',
+        function(colKey, label, item) {
+          if (colKey === 'test_full_name') {
+            var params = {
+              'start': curStartTime,
+              'end': curEndTime,
+              'test_full_name': item.test_full_name,
+              'b': item.jenkins_project,
+              'labels': item.sub_build_labels || '',
+            };
+            var href = 'test-case?' + Object.keys(params).map(function(k) {
+              return k + '=' + encodeURIComponent(params[k]);
+            }).join('&');
+            return $j('<a></a>').attr('href', href).attr('target', '_blank')
+                .addClass('test-case-link')
+                .text(vUtil.cleanupTestLabel(label));
+          } else if (colKey === 'sub_build_labels') {
+            var $ret = $j('<span></span>').addClass('sub-build-cell').text(
+                label === undefined ? 'none' : label);
+            if (label === undefined) {
+              $ret.addClass('no-sub-build');
+            }
+            return $ret;
+          } else if (colKey === 'last_build_number') {
+            return document.createTextNode('#' + label);
+          }
+          return document.createTextNode(label);
+        });
   }
 
   /**
    * Called when test results data is received from the corresponding Java call.
    */
   function testResultsDataReceived(t) {
-    $j('#test-results-container table').remove();
+    $j('#failed-tests-table-container, #longest-tests-table-container').empty();
     $loadingMsg.hide();
 
     // Show error message if there is any.
@@ -86,14 +235,23 @@ document.addEventListener('DOMContentLoaded', function() {
       return;
     }
 
+    // Say when the edges of the time period were moved out to whole days.
+    var $wholeDaysMsg = $j('#whole-days-msg');
+    $wholeDaysMsg.hide().text('');
+    if (d.wholeDaysBefore) {
+      $wholeDaysMsg.text('Test results before ' +
+          new Date(d.wholeDaysBefore).toLocaleDateString() +
+          ' were downsampled, so those days are counted whole.').show();
+    }
+
     // Create table for failed tests.
     if (d.failedTests.length === 0) {
       $j('#failed-tests-table-container').append(
           $j('<div></div>').addClass('msg').text(
               'No failed tests found in this time period'));
     } else {
-      var $table = createTestsTable(d.failedTests, 'failed_count', d.startTime,
-          d.endTime);
+      var $table = createTestsTable(COLS, d.failedTests, 'failed_count',
+          d.startTime, d.endTime);
       $j('#failed-tests-table-container').append($table);
     }
 
@@ -103,16 +261,17 @@ document.addEventListener('DOMContentLoaded', function() {
           $j('<div></div>').addClass('msg').text(
               'No tests found in this time period'));
     } else {
-      var $table = createTestsTable(d.longestTests, 'avg_duration',
-          d.startTime, d.endTime);
+      var $table = createTestsTable(LONGEST_COLS, d.longestTests,
+          'avg_duration', d.startTime, d.endTime);
       $j('#longest-tests-table-container').append($table);
     }
 
     $mainContent.show();
   }
 
-  function createTestsTable(items, defaultColumnKey, startTime, endTime) {
-    var $table = vUtil.createTable(COLS, items, defaultColumnKey,
+  function createTestsTable(cols, items, defaultColumnKey, startTime,
+      endTime) {
+    var $table = vUtil.createTable(cols, items, defaultColumnKey,
         function(colKey, label, item) {
           var commonParams = {
             'start': startTime,
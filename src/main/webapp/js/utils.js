@@ -145,10 +145,56 @@ var vUtil = function() {
     };
   }
 
+  /**
+   * Returns the options of a typeahead dataset that asks the server for
+   * suggestions as the user types. The given function gets the query, the
+   * number of suggestions to ask for, and a callback to pass them to.
+   */
+  function createSuggestionsDataset(suggest, limit) {
+    return {
+      source: function(q, syncResults, asyncResults) {
+        suggest(q, limit, asyncResults);
+      },
+      async: true,
+      // typeahead.js 0.11.1 counts async suggestions before it shows them, so
+      // it only shows up to its limit minus their number.
+      limit: 2 * limit
+    };
+  }
+
   function escapeRegExp(str) {
     return str.replace(/[\-\[\]\/\{\}\(\)\*\+\?\.\\\^\$\|]/g, "\\$&");
   }
 
+  /**
+   * Gets the JSON written by the given endpoint of the plugin, relative to the
+   * current page. The callback gets an object with an errMsg like the one of
+   * the JavaScript methods, also when the request fails.
+   */
+  function getJSON(endpoint, params, callback) {
+    $j.getJSON(endpoint, params).done(callback).fail(
+        function(xhr, textStatus, error) {
+          callback({errMsg: 'Request failed: ' + (error || textStatus)});
+        });
+  }
+
+  /**
+   * Gets the first page of a list written by the given endpoint, see getJSON.
+   * The callback gets the page and a function that gets the next page the same
+   * way, or null after the last page.
+   */
+  function getPages(endpoint, params, callback) {
+    getJSON(endpoint, params, function(d) {
+      var loadMore = null;
+      if (d.next) {
+        loadMore = function() {
+          getPages(endpoint, $j.extend({}, params, {after: d.next}), callback);
+        };
+      }
+      callback(d, loadMore);
+    });
+  }
+
   function getURLParameter(name) {
     return decodeURIComponent((new RegExp('[?|&]' + name + '=' +
         '([^&;]+?)(&|#|;|$)').exec(location.search) || [
@@ -162,8 +208,9 @@ var vUtil = function() {
   }
 
   function renderItemsInTableAndGraphs(items, defaultColKey, availableStats,
-      tableTitleBase, filters) {
+      tableTitleBase, filters, loadMore) {
     // Show items in a table.
+    $j('#details-table').empty();
     var $table = createTable(
         DETAILS_COLS,
         items,
@@ -250,7 +297,18 @@ var vUtil = function() {
       }
     });
     $j('#details-table-subtitle').text(
-        tableTitleBase + ' (' + items.length + ')');
+        tableTitleBase + ' (' + items.length + (loadMore ? '+' : '') + ')');
+
+    // Link to the next page of items, if there is one.
+    var $more = $j('#details-more').empty();
+    if (loadMore) {
+      $more.append($j('<a></a>').attr('href', '#').text('Load more').click(
+          function(e) {
+            e.preventDefault();
+            $more.text('loading...');
+            loadMore();
+          }));
+    }
     if (filters.length > 0) {
       filterTableRowsByResults(filters);
     }
@@ -281,11 +339,13 @@ var vUtil = function() {
       $lastBlock.removeClass('current');
     });
 
-    // Prepare graph data.
+    // Prepare graph data, oldest build first. Pages may be loaded newest first.
     var dt = new google.visualization.DataTable();
     dt.addColumn('string', 'Build Number');
     dt.addColumn('number', 'Duration');
-    dt.addRows(items.map(function(item) {
+    dt.addRows(items.slice().sort(function(a, b) {
+      return a.build_number - b.build_number;
+    }).map(function(item) {
       return [
         '#' + item.build_number, item.duration
       ];
@@ -350,6 +410,7 @@ var vUtil = function() {
 
   return {
     cleanupTestLabel: cleanupTestLabel,
+    createSuggestionsDataset: createSuggestionsDataset,
     createTable: createTable,
     createSubBuildLabel: createSubBuildLabel,
     dateFormatter: dateFormatter,
@@ -357,6 +418,8 @@ var vUtil = function() {
     leftPad: leftPad,
     humanReadableDurationFormatter: humanReadableDurationFormatter,
     substringMatcher: substringMatcher,
+    getJSON: getJSON,
+    getPages: getPages,
     getURLParameter: getURLParameter,
     renderItemsInTableAndGraphs: renderItemsInTableAndGraphs,
   };
@@ -0,0 +1,153 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class DurationSketchTest {
+  /** The relative accuracy the sketch promises. */
+  private static final double RELATIVE_ACCURACY = 0.01;
+
+  private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.9, 0.99, 0.999, 1};
+
+  @Test
+  public void testEmpty() throws IOException {
+    DurationSketch sketch = new DurationSketch();
+    assertEquals(0, sketch.getCount());
+    assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+
+    DurationSketch decoded = DurationSketch.decode(sketch.toBytes());
+    assertEquals(0, decoded.getCount());
+    assertTrue(Double.isNaN(decoded.getQuantile(0.5)));
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    // Durations below and above a second have bins on both sides of index 0.
+    DurationSketch sketch =
+        sketchOf(0, 0.0001, 0.002, 0.5, 0.5, 1, 1.01, 3.7, 60, 3600, 86400, 86400 * 30);
+    byte[] bytes = sketch.toBytes();
+    DurationSketch decoded = DurationSketch.decode(bytes);
+
+    assertEquals(sketch.getCount(), decoded.getCount());
+    for (double q : QUANTILES) {
+      assertEquals(sketch.getQuantile(q), decoded.getQuantile(q), 0);
+    }
+    assertArrayEquals(bytes, decoded.toBytes());
+  }
+
+  @Test
+  public void testRoundTripOfManyBins() throws IOException {
+    Random random = new Random(42);
+    DurationSketch sketch = new DurationSketch();
+    for (int i = 0; i < 100000; i++) {
+      // Log-uniform from a millisecond to about a day.
+      sketch.add(Math.exp(random.nextDouble() * Math.log(1e8)) / 1000);
+    }
+    DurationSketch decoded = DurationSketch.decode(sketch.toBytes());
+
+    assertEquals(100000, decoded.getCount());
+    for (double q : QUANTILES) {
+      assertEquals(sketch.getQuantile(q), decoded.getQuantile(q), 0);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecodeUnknownVersion() throws IOException {
+    DurationSketch.decode(new byte[] {99, 0, 0});
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecodeTruncated() throws IOException {
+    byte[] bytes = sketchOf(1, 2, 3).toBytes();
+    DurationSketch.decode(Arrays.copyOf(bytes, bytes.length - 1));
+  }
+
+  @Test
+  public void testMergeEqualsSketchOfAllDurations() throws IOException {
+    DurationSketch a = sketchOf(0, 0.25, 1, 1, 7.5);
+    DurationSketch b = sketchOf(0.0005, 1, 42, 3600);
+    DurationSketch all = sketchOf(0, 0.25, 1, 1, 7.5, 0.0005, 1, 42, 3600);
+
+    a.merge(b);
+    assertEquals(9, a.getCount());
+    assertArrayEquals(all.toBytes(), a.toBytes());
+  }
+
+  @Test
+  public void testMergeDecoded() throws IOException {
+    DurationSketch merged = new DurationSketch();
+    DurationSketch all = new DurationSketch();
+    for (int hour = 0; hour < 24; hour++) {
+      DurationSketch sketch = new DurationSketch();
+      for (int i = 1; i <= 100; i++) {
+        sketch.add(hour + i / 10.0);
+        all.add(hour + i / 10.0);
+      }
+      merged.merge(DurationSketch.decode(sketch.toBytes()));
+    }
+    assertArrayEquals(all.toBytes(), merged.toBytes());
+  }
+
+  @Test
+  public void testMergeEmpty() throws IOException {
+    DurationSketch sketch = sketchOf(1, 2, 3);
+    byte[] before = sketch.toBytes();
+    sketch.merge(new DurationSketch());
+    assertArrayEquals(before, sketch.toBytes());
+
+    DurationSketch empty = new DurationSketch();
+    empty.merge(sketchOf(1, 2, 3));
+    assertArrayEquals(before, empty.toBytes());
+  }
+
+  @Test
+  public void testQuantilesWithinRelativeAccuracy() {
+    Random random = new Random(7);
+    double[] durations = new double[20000];
+    DurationSketch sketch = new DurationSketch();
+    for (int i = 0; i < durations.length; i++) {
+      // Mostly short tests with a long tail.
+      durations[i] = 0.001 + Math.abs(random.nextGaussian()) * (i % 10 == 0 ? 600 : 2);
+      sketch.add(durations[i]);
+    }
+    Arrays.sort(durations);
+    for (double q : QUANTILES) {
+      double exact = durations[(int) (q * (durations.length - 1))];
+      double estimate = sketch.getQuantile(q);
+      assertTrue(
+          String.format("q=%s: estimate %s of %s", q, estimate, exact),
+          Math.abs(estimate - exact) <= exact * RELATIVE_ACCURACY);
+    }
+  }
+
+  @Test
+  public void testQuantileOfSingleDuration() {
+    for (double duration : new double[] {0.001, 0.5, 1, 12.34, 86400}) {
+      double estimate = sketchOf(duration).getQuantile(0.5);
+      assertEquals(duration, estimate, duration * RELATIVE_ACCURACY);
+    }
+  }
+
+  @Test
+  public void testShortDurationsCountAsZeros() {
+    DurationSketch sketch = sketchOf(0, 0.0001, 0.0009, 10);
+    assertEquals(4, sketch.getCount());
+    assertEquals(0, sketch.getQuantile(0), 0);
+    assertEquals(0, sketch.getQuantile(0.5), 0);
+    assertEquals(10, sketch.getQuantile(1), 10 * RELATIVE_ACCURACY);
+  }
+
+  private static DurationSketch sketchOf(double... durations) {
+    DurationSketch sketch = new DurationSketch();
+    for (double duration : durations) {
+      sketch.add(duration);
+    }
+    return sketch;
+  }
+}
@@ -0,0 +1,151 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FailureSignatureTest {
+  private static final String TRACE =
+      "java.lang.AssertionError: expected:<1> but was:<2>\n"
+          + "\tat org.junit.Assert.fail(Assert.java:88)\n"
+          + "\tat org.junit.Assert.failNotEquals(Assert.java:834)\n"
+          + "\tat io.v.FooTest.testFoo(FooTest.java:42)\n"
+          + "\t... 23 more\n";
+
+  @Test
+  public void testEmpty() {
+    assertEquals("", FailureSignature.normalize(null, null));
+    assertEquals("", FailureSignature.normalize("", " \n "));
+  }
+
+  @Test
+  public void testStripsLineNumbers() {
+    String moved = TRACE.replace("FooTest.java:42", "FooTest.java:57");
+    assertEquals(
+        FailureSignature.normalize(null, TRACE), FailureSignature.normalize(null, moved));
+    assertEquals(
+        "java.lang.AssertionError: expected:<1> but was:<2>\n"
+            + "at org.junit.Assert.fail(Assert.java)\n"
+            + "at org.junit.Assert.failNotEquals(Assert.java)\n"
+            + "at io.v.FooTest.testFoo(FooTest.java)\n",
+        FailureSignature.normalize(null, TRACE));
+  }
+
+  @Test
+  public void testStripsCompilerPositions() {
+    assertEquals(
+        "Foo.go: undefined: bar\n",
+        FailureSignature.normalize("Foo.go:12:5: undefined: bar", null));
+  }
+
+  @Test
+  public void testStripsAddresses() {
+    assertEquals(
+        FailureSignature.normalize("Leaked Foo@1b6d3586 at 0x7f3a00", null),
+        FailureSignature.normalize("Leaked Foo@4554617c at 0xdeadbeef", null));
+    assertEquals(
+        "Leaked Foo<addr> at <addr>\n",
+        FailureSignature.normalize("Leaked Foo@1b6d3586 at 0x7f3a00", null));
+  }
+
+  @Test
+  public void testStripsTimestamps() {
+    String[] times = {
+      "2016-05-04T10:11:12.123Z", "2016/05/04 10:11:12", "2016-05-04", "10:11:12,5", "10:11:12"
+    };
+    for (String time : times) {
+      assertEquals(
+          time,
+          "Timed out at <time>\n",
+          FailureSignature.normalize("Timed out at " + time, null));
+    }
+    assertEquals(
+        FailureSignature.normalize("Deadline 2016-05-04T10:11:12+02:00 passed", null),
+        FailureSignature.normalize("Deadline 2017-01-31T23:59:01-0800 passed", null));
+  }
+
+  @Test
+  public void testKeepsNumbersThatTellFailuresApart() {
+    assertFalse(
+        FailureSignature.normalize("expected:<1> but was:<2>", null)
+            .equals(FailureSignature.normalize("expected:<1> but was:<3>", null)));
+  }
+
+  @Test
+  public void testDifferentCausesDiffer() {
+    String npe = TRACE.replace("java.lang.AssertionError", "java.lang.NullPointerException");
+    assertFalse(
+        FailureSignature.normalize(null, TRACE).equals(FailureSignature.normalize(null, npe)));
+  }
+
+  @Test
+  public void testPrefersStackTrace() {
+    assertEquals(
+        FailureSignature.normalize(null, TRACE),
+        FailureSignature.normalize("expected:<1> but was:<2>", TRACE));
+    assertEquals(
+        "expected:<1> but was:<2>\n",
+        FailureSignature.normalize("expected:<1> but was:<2>", "  "));
+  }
+
+  @Test
+  public void testIgnoresLineEndingsAndBlankLines() {
+    assertEquals(
+        FailureSignature.normalize(null, TRACE),
+        FailureSignature.normalize(null, "\n" + TRACE.replace("\n", "\r\n\r\n")));
+  }
+
+  @Test
+  public void testKeepsFirstFrames() {
+    StringBuilder trace = new StringBuilder("java.lang.StackOverflowError\n");
+    for (int i = 0; i < 1000; i++) {
+      trace.append("\tat io.v.Foo.recurse(Foo.java:").append(i).append(")\n");
+    }
+    trace.append("Caused by: java.lang.IllegalStateException\n");
+    String signature = FailureSignature.normalize(null, trace.toString());
+
+    String[] lines = signature.split("\n");
+    assertEquals(22, lines.length);
+    assertEquals("at io.v.Foo.recurse(Foo.java)", lines[20]);
+    // Lines other than frames are kept after the frame limit.
+    assertEquals("Caused by: java.lang.IllegalStateException", lines[21]);
+  }
+
+  @Test
+  public void testLimitsLength() {
+    StringBuilder details = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      details.append("a long line of error details number ").append(i).append('\n');
+    }
+    String signature = FailureSignature.normalize(details.toString(), null);
+    assertEquals(8000, signature.length());
+    assertTrue(signature.startsWith("a long line of error details number 0\n"));
+  }
+
+  @Test
+  public void testSummarize() {
+    assertEquals(
+        "expected:<1> but was:<2>",
+        FailureSignature.summarize("  expected:<1> but was:<2>\nmore details", TRACE));
+    assertEquals(
+        "java.lang.AssertionError: expected:<1> but was:<2>",
+        FailureSignature.summarize(null, TRACE));
+    assertEquals("", FailureSignature.summarize(null, null));
+
+    StringBuilder longLine = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      longLine.append('x');
+    }
+    assertEquals(1024, FailureSignature.summarize(longLine.toString(), null).length());
+  }
+
+  @Test
+  public void testSummaryKeepsDetails() {
+    // Summaries are for display, so nothing is stripped from them.
+    String summary = FailureSignature.summarize("Leaked Foo@1b6d3586 at 10:11:12", null);
+    assertEquals("Leaked Foo@1b6d3586 at 10:11:12", summary);
+    assertFalse(summary.contains("<addr>"));
+  }
+}
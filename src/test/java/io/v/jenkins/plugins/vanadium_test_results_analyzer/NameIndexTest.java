@@ -0,0 +1,214 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NameIndexTest {
+  private static final String[] TEST_NAMES = {
+    "v.io/x/foo.TestBar",
+    "TestFooBar",
+    "TestBuffoon",
+    "HTTPServer.testServe",
+    "io.v.jenkins.ResultsPageTest.testParse",
+    "pkg_under_score.test_case_42",
+  };
+
+  private NameIndex index;
+
+  @Before
+  public void setUp() {
+    index = new NameIndex();
+    for (String name : TEST_NAMES) {
+      index.add(testCase(name, "project", null));
+    }
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    index.stop();
+  }
+
+  @Test
+  public void testMatchesWordStarts() {
+    assertMatches("foo", "TestFooBar", "v.io/x/foo.TestBar");
+    assertMatches("bar", "TestFooBar", "v.io/x/foo.TestBar");
+    assertMatches("buff", "TestBuffoon");
+    assertMatches("oon");
+  }
+
+  @Test
+  public void testIgnoresCase() {
+    assertMatches("FOO", "TestFooBar", "v.io/x/foo.TestBar");
+    assertMatches("fOoB", "TestFooBar");
+  }
+
+  @Test
+  public void testSplitsCamelCase() {
+    assertMatches("http", "HTTPServer.testServe");
+    assertMatches("server", "HTTPServer.testServe");
+    assertMatches("serve", "HTTPServer.testServe");
+    assertMatches("ttp");
+  }
+
+  @Test
+  public void testSplitsAtPunctuationAndDigits() {
+    assertMatches("score", "pkg_under_score.test_case_42");
+    assertMatches("42", "pkg_under_score.test_case_42");
+    assertMatches("x/foo", "v.io/x/foo.TestBar");
+  }
+
+  @Test
+  public void testSkipsLeadingPunctuationOfQuery() {
+    assertMatches(".testbar", "v.io/x/foo.TestBar");
+    assertMatches("/jenkins");
+    assertMatches(".jenkins", "io.v.jenkins.ResultsPageTest.testParse");
+  }
+
+  @Test
+  public void testMatchesAllWords() {
+    assertMatches("foo bar", "TestFooBar", "v.io/x/foo.TestBar");
+    // Words other than the longest one may be anywhere in the name.
+    assertMatches("buffoon ffo", "TestBuffoon");
+    assertMatches("  test   http  ", "HTTPServer.testServe");
+    assertMatches("foo serve");
+  }
+
+  @Test
+  public void testMatchesAllParts() {
+    index.add(testCase("TestOther", "other-job", "os=linux"));
+    assertMatches("other", "TestOther");
+    assertMatches("linux", "TestOther");
+    assertMatches("project test", TEST_NAMES);
+  }
+
+  @Test
+  public void testEmptyQuery() {
+    assertEquals(TEST_NAMES.length, index.suggestTestCases("", 100).size());
+    // Queries without letters or digits have no word to look up, so every name is checked.
+    assertMatches(
+        ".",
+        "HTTPServer.testServe",
+        "io.v.jenkins.ResultsPageTest.testParse",
+        "pkg_under_score.test_case_42",
+        "v.io/x/foo.TestBar");
+    assertMatches(" .. ");
+  }
+
+  @Test
+  public void testLimit() {
+    for (int i = 0; i < 100; i++) {
+      index.add(testCase("TestLimit" + i, "project", null));
+    }
+    assertEquals(10, index.suggestTestCases("limit", 10).size());
+    assertEquals(1, index.suggestTestCases("limit", 0).size());
+    index.merge();
+    assertEquals(10, index.suggestTestCases("limit", 10).size());
+    assertEquals(1, index.suggestTestCases("limit", -1).size());
+    assertEquals(100, index.suggestTestCases("limit", 1000).size());
+  }
+
+  @Test
+  public void testNewAndMergedNames() {
+    index.merge();
+    index.add(testCase("TestFooBaz", "project", null));
+    // The new name is found before and after it is merged, once.
+    assertMatches("foo", "TestFooBar", "TestFooBaz", "v.io/x/foo.TestBar");
+    index.add(testCase("TestFooBaz", "project", null));
+    index.merge();
+    assertMatches("foo", "TestFooBar", "TestFooBaz", "v.io/x/foo.TestBar");
+  }
+
+  @Test
+  public void testSameNameInOtherSubBuilds() {
+    index.add(testCase("TestFooBar", "project", "os=linux"));
+    index.add(testCase("TestFooBar", "project", "os=mac"));
+    index.merge();
+
+    JSONArray suggestions = index.suggestTestCases("foobar", 10);
+    assertEquals(3, suggestions.size());
+    // Sorted by name, with no labels for the root build.
+    assertFalse(suggestions.getJSONObject(0).has("sub_build_labels"));
+    assertEquals("os=linux", suggestions.getJSONObject(1).getString("sub_build_labels"));
+    assertEquals("os=mac", suggestions.getJSONObject(2).getString("sub_build_labels"));
+  }
+
+  @Test
+  public void testJenkinsBuilds() {
+    index.add(build("vanadium-go-test", null));
+    index.add(build("vanadium-go-test", "GOARCH=amd64,OS=linux"));
+    index.add(build("vanadium-js-test", null));
+    index.merge();
+
+    JSONArray suggestions = index.suggestJenkinsBuilds("go", 10);
+    assertEquals(2, suggestions.size());
+    JSONObject root = suggestions.getJSONObject(0);
+    assertEquals("vanadium-go-test", root.getString("jenkins_project"));
+    assertFalse(root.has("sub_build_labels"));
+    assertEquals(
+        "GOARCH=amd64,OS=linux", suggestions.getJSONObject(1).getString("sub_build_labels"));
+    assertEquals(1, index.suggestJenkinsBuilds("linux", 10).size());
+    assertTrue(index.suggestTestCases("vanadium", 10).isEmpty());
+  }
+
+  // Checks that the test cases that match the given query are the given ones, sorted, both before
+  // and after the names are merged into the sorted array.
+  private void assertMatches(String query, String... expected) {
+    List<String> sorted = new ArrayList<>(Arrays.asList(expected));
+    Collections.sort(sorted);
+    assertEquals(query, sorted, getTestFullNames(index.suggestTestCases(query, 100)));
+    index.merge();
+    assertEquals(query, sorted, getTestFullNames(index.suggestTestCases(query, 100)));
+  }
+
+  private static List<String> getTestFullNames(JSONArray suggestions) {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < suggestions.size(); i++) {
+      names.add(suggestions.getJSONObject(i).getString("test_full_name"));
+    }
+    return names;
+  }
+
+  private static TestResultRecord testCase(
+      String testFullName, String jenkinsProject, String subBuildLabels) {
+    return new TestResultRecord(
+        jenkinsProject,
+        "job/" + jenkinsProject + "/",
+        1,
+        subBuildLabels,
+        null,
+        "pkg",
+        "Class",
+        "testCase",
+        testFullName,
+        "pkg/Class/testCase/",
+        0,
+        1,
+        "PASSED",
+        null,
+        null);
+  }
+
+  private static JenkinsBuildRecord build(String jenkinsProject, String subBuildLabels) {
+    return new JenkinsBuildRecord(
+        jenkinsProject,
+        "job/" + jenkinsProject + "/",
+        1,
+        subBuildLabels,
+        null,
+        "master",
+        0,
+        60,
+        "SUCCESS");
+  }
+}
@@ -0,0 +1,128 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class ResultsPageTest {
+  @Test
+  public void testParseDefaults() {
+    ResultsPage page = ResultsPage.parse(null, 0, null, null);
+    assertEquals(ResultsPage.DEFAULT_LIMIT, page.getLimit());
+    assertFalse(page.isDescending());
+    assertTrue(page.includes("PASSED"));
+    assertTrue(page.isAfter(Integer.MIN_VALUE));
+
+    List<Object> params = new ArrayList<>();
+    assertEquals("", page.getCursorCondition("build_number", params));
+    assertEquals("", page.getResultCondition("result", params));
+    assertTrue(params.isEmpty());
+  }
+
+  @Test
+  public void testParseEmptyParameters() {
+    ResultsPage page = ResultsPage.parse("", 0, "", " , ");
+    assertFalse(page.isDescending());
+    assertTrue(page.includes("FAILED"));
+    assertEquals("", page.getCursorCondition("build_number", new ArrayList<Object>()));
+  }
+
+  @Test
+  public void testParseLimit() {
+    assertEquals(20, ResultsPage.parse(null, 20, null, null).getLimit());
+    assertEquals(
+        ResultsPage.MAX_LIMIT,
+        ResultsPage.parse(null, ResultsPage.MAX_LIMIT + 1, null, null).getLimit());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseNegativeLimit() {
+    ResultsPage.parse(null, -1, null, null);
+  }
+
+  @Test
+  public void testParseOrder() {
+    assertTrue(ResultsPage.parse(null, 0, "desc", null).isDescending());
+    assertTrue(ResultsPage.parse(null, 0, "DESC", null).isDescending());
+    assertFalse(ResultsPage.parse(null, 0, "Asc", null).isDescending());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseInvalidOrder() {
+    ResultsPage.parse(null, 0, "sideways", null);
+  }
+
+  @Test
+  public void testParseResults() {
+    ResultsPage page = ResultsPage.parse(null, 0, null, "FAILED, REGRESSION,,");
+    assertTrue(page.includes("FAILED"));
+    assertTrue(page.includes("REGRESSION"));
+    assertFalse(page.includes("PASSED"));
+
+    List<Object> params = new ArrayList<>();
+    assertEquals(" AND r.result IN (?,?)", page.getResultCondition("r.result", params));
+    assertEquals(Arrays.<Object>asList("FAILED", "REGRESSION"), params);
+  }
+
+  @Test
+  public void testCursorConditionAscending() {
+    ResultsPage page = ResultsPage.parse(ResultsPage.getCursor(41), 0, "asc", null);
+    List<Object> params = new ArrayList<>();
+    assertEquals(" AND b.build_number > ?", page.getCursorCondition("b.build_number", params));
+    assertEquals(Collections.<Object>singletonList(41), params);
+  }
+
+  @Test
+  public void testCursorConditionDescending() {
+    ResultsPage page = ResultsPage.parse(ResultsPage.getCursor(41), 0, "desc", null);
+    List<Object> params = new ArrayList<>();
+    assertEquals(" AND b.build_number < ?", page.getCursorCondition("b.build_number", params));
+    assertEquals(Collections.<Object>singletonList(41), params);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCursorConditionOfInvalidCursor() {
+    ResultsPage.parse("41; DROP TABLE builds", 0, null, null)
+        .getCursorCondition("build_number", new ArrayList<Object>());
+  }
+
+  @Test
+  public void testIsAfter() {
+    ResultsPage ascending = ResultsPage.parse("10", 0, "asc", null);
+    assertFalse(ascending.isAfter(9));
+    assertFalse(ascending.isAfter(10));
+    assertTrue(ascending.isAfter(11));
+
+    ResultsPage descending = ResultsPage.parse("10", 0, "desc", null);
+    assertTrue(descending.isAfter(9));
+    assertFalse(descending.isAfter(10));
+    assertFalse(descending.isAfter(11));
+  }
+
+  @Test
+  public void testRunsSql() {
+    ResultsPage page = ResultsPage.parse("100", 50, "desc", "FAILED");
+    List<Object> params = new ArrayList<>();
+    params.add("job");
+    assertEquals(
+        " AND result IN (?) AND build_number < ? ORDER BY build_number DESC LIMIT ?",
+        page.getRunsSql("build_number", "result", params));
+    // The parameters follow the placeholders, after those already given.
+    assertEquals(Arrays.<Object>asList("job", "FAILED", 100, 50), params);
+  }
+
+  @Test
+  public void testRunsSqlOfFirstPage() {
+    List<Object> params = new ArrayList<>();
+    assertEquals(
+        " ORDER BY build_number ASC LIMIT ?",
+        ResultsPage.parse(null, 0, null, null).getRunsSql("build_number", "result", params));
+    assertEquals(Collections.<Object>singletonList(ResultsPage.DEFAULT_LIMIT), params);
+  }
+}
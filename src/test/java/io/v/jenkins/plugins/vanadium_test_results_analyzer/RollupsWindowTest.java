@@ -0,0 +1,247 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RollupsWindowTest {
+  private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+  private TimeZone defaultTimeZone;
+
+  @Before
+  public void setUp() {
+    // Rollup buckets are local hours and days; this zone has 23 and 25 hour days.
+    defaultTimeZone = TimeZone.getDefault();
+    TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+  }
+
+  @After
+  public void tearDown() {
+    TimeZone.setDefault(defaultTimeZone);
+  }
+
+  @Test
+  public void testWindowWithinAnHour() throws ParseException {
+    long start = time("2026-06-10 10:05:00");
+    long end = time("2026-06-10 10:55:00");
+    Rollups.Window window = new Rollups.Window(start, end, Long.MAX_VALUE, 0);
+
+    // Nothing is read from the rollups; the raw rows cover the whole window, end included.
+    assertEquals(window.getRollupStartMs(), window.getRollupEndMs());
+    assertRawRanges(window, start, end + 1000);
+  }
+
+  @Test
+  public void testWholeHours() throws ParseException {
+    long start = time("2026-06-10 10:05:30");
+    long end = time("2026-06-10 14:20:00");
+    Rollups.Window window = new Rollups.Window(start, end, Long.MAX_VALUE, 0);
+
+    assertEquals(time("2026-06-10 11:00:00"), window.getRollupStartMs());
+    assertEquals(time("2026-06-10 14:00:00"), window.getRollupEndMs());
+    assertRawRanges(window, start, end + 1000);
+    // No whole day.
+    long[] bounds = getBounds(window);
+    assertEquals(bounds[0], bounds[1]);
+  }
+
+  @Test
+  public void testWindowOnHourBoundaries() throws ParseException {
+    long start = time("2026-06-10 10:00:00");
+    long end = time("2026-06-10 12:59:59");
+    Rollups.Window window = new Rollups.Window(start, end, Long.MAX_VALUE, 0);
+
+    assertEquals(start, window.getRollupStartMs());
+    assertEquals(end + 1000, window.getRollupEndMs());
+    long[][] raw = window.getRawRanges();
+    assertEquals(raw[0][0], raw[0][1]);
+    assertEquals(raw[1][0], raw[1][1]);
+  }
+
+  @Test
+  public void testSecondsAreTruncated() throws ParseException {
+    long start = time("2026-06-10 10:00:00") + 999;
+    long end = time("2026-06-10 11:00:00") + 1;
+    Rollups.Window window = new Rollups.Window(start, end, Long.MAX_VALUE, 0);
+
+    assertRawRanges(window, start - 999, end - 1 + 1000);
+  }
+
+  @Test
+  public void testWholeDays() throws ParseException {
+    long start = time("2026-06-10 10:05:00");
+    long end = time("2026-06-13 02:30:00");
+    Rollups.Window window = new Rollups.Window(start, end, Long.MAX_VALUE, 0);
+
+    assertEquals(time("2026-06-10 11:00:00"), window.getRollupStartMs());
+    assertEquals(time("2026-06-13 02:00:00"), window.getRollupEndMs());
+    long[] bounds = getBounds(window);
+    assertEquals(time("2026-06-11 00:00:00"), bounds[0]);
+    assertEquals(time("2026-06-13 00:00:00"), bounds[1]);
+    assertRawRanges(window, start, end + 1000);
+  }
+
+  @Test
+  public void testRollupsEndAtFirstDirtyHour() throws ParseException {
+    long start = time("2026-06-10 10:05:00");
+    long end = time("2026-06-13 02:30:00");
+    long firstDirtyHour = time("2026-06-12 15:00:00");
+    Rollups.Window window = new Rollups.Window(start, end, firstDirtyHour, 0);
+
+    assertEquals(time("2026-06-10 11:00:00"), window.getRollupStartMs());
+    assertEquals(firstDirtyHour, window.getRollupEndMs());
+    long[] bounds = getBounds(window);
+    assertEquals(time("2026-06-11 00:00:00"), bounds[0]);
+    assertEquals(time("2026-06-12 00:00:00"), bounds[1]);
+    // Everything from the dirty hour on is read from the raw rows.
+    assertEquals(firstDirtyHour, window.getRawRanges()[1][0]);
+  }
+
+  @Test
+  public void testRollupsEndBeforeWindow() throws ParseException {
+    long start = time("2026-06-10 10:05:00");
+    long end = time("2026-06-13 02:30:00");
+    Rollups.Window window = new Rollups.Window(start, end, time("2026-06-01 00:00:00"), 0);
+
+    assertEquals(window.getRollupStartMs(), window.getRollupEndMs());
+    assertRawRanges(window, start, end + 1000);
+  }
+
+  @Test
+  public void testDaylightSavingTimeStarts() throws ParseException {
+    // Clocks skip from 02:00 to 03:00 on March 8, 2026, which is 23 hours long.
+    long start = time("2026-03-07 22:30:00");
+    long end = time("2026-03-09 01:10:00");
+    Rollups.Window window = new Rollups.Window(start, end, Long.MAX_VALUE, 0);
+
+    long[] bounds = getBounds(window);
+    assertEquals(time("2026-03-08 00:00:00"), bounds[0]);
+    assertEquals(time("2026-03-09 00:00:00"), bounds[1]);
+    assertEquals(23 * HOUR_MS, bounds[1] - bounds[0]);
+    assertEquals(time("2026-03-07 23:00:00"), window.getRollupStartMs());
+    assertEquals(time("2026-03-09 01:00:00"), window.getRollupEndMs());
+    assertRawRanges(window, start, end + 1000);
+  }
+
+  @Test
+  public void testDaylightSavingTimeEnds() throws ParseException {
+    // Clocks go back from 02:00 to 01:00 on November 1, 2026, which is 25 hours long.
+    long start = time("2026-10-31 00:00:00");
+    long end = time("2026-11-02 12:00:00");
+    Rollups.Window window = new Rollups.Window(start, end, Long.MAX_VALUE, 0);
+
+    long[] bounds = getBounds(window);
+    assertEquals(time("2026-10-31 00:00:00"), bounds[0]);
+    assertEquals(time("2026-11-02 00:00:00"), bounds[1]);
+    assertEquals(49 * HOUR_MS, bounds[1] - bounds[0]);
+    assertEquals(start, window.getRollupStartMs());
+    assertEquals(time("2026-11-02 12:00:00"), window.getRollupEndMs());
+  }
+
+  @Test
+  public void testWindowEndingInRepeatedHour() throws ParseException {
+    // The second 01:00 of November 1, 2026 (PST) starts an hour after the first one (PDT).
+    long firstOneAm = time("2026-11-01 00:00:00") + HOUR_MS;
+    long secondOneAm = firstOneAm + HOUR_MS;
+    long start = time("2026-10-31 23:30:00");
+    long end = secondOneAm + TimeUnit.MINUTES.toMillis(20);
+    Rollups.Window window = new Rollups.Window(start, end, Long.MAX_VALUE, 0);
+
+    assertEquals(time("2026-11-01 00:00:00"), window.getRollupStartMs());
+    assertEquals(secondOneAm, window.getRollupEndMs());
+    assertRawRanges(window, start, end + 1000);
+  }
+
+  @Test
+  public void testEdgesInDownsampledDaysAreWholeDays() throws ParseException {
+    long start = time("2026-06-10 10:05:00");
+    long end = time("2026-06-13 02:30:00");
+    long summarizedEnd = time("2026-06-14 00:00:00");
+    Rollups.Window window = new Rollups.Window(start, end, Long.MAX_VALUE, summarizedEnd);
+
+    // Downsampled runs are only in the daily rollups, so both edges are moved out to whole days.
+    long[] bounds = getBounds(window);
+    assertEquals(time("2026-06-10 00:00:00"), bounds[0]);
+    assertEquals(time("2026-06-14 00:00:00"), bounds[1]);
+    assertEquals(bounds[0], window.getStartMs());
+    assertEquals(bounds[1], window.getEndMs());
+    assertRawRanges(window, bounds[0], bounds[1]);
+  }
+
+  @Test
+  public void testEndAfterDownsampledDays() throws ParseException {
+    long start = time("2026-06-10 10:05:00");
+    long end = time("2026-06-13 02:30:00");
+    long summarizedEnd = time("2026-06-12 00:00:00");
+    Rollups.Window window = new Rollups.Window(start, end, Long.MAX_VALUE, summarizedEnd);
+
+    // Only the start is in a downsampled day.
+    long[] bounds = getBounds(window);
+    assertEquals(time("2026-06-10 00:00:00"), bounds[0]);
+    assertEquals(time("2026-06-13 00:00:00"), bounds[1]);
+    assertEquals(time("2026-06-13 02:00:00"), window.getRollupEndMs());
+    assertRawRanges(window, time("2026-06-10 00:00:00"), end + 1000);
+  }
+
+  @Test
+  public void testWindowWithinDownsampledDay() throws ParseException {
+    long start = time("2026-06-10 10:05:00");
+    long end = time("2026-06-10 10:55:00");
+    Rollups.Window window =
+        new Rollups.Window(start, end, Long.MAX_VALUE, time("2026-06-11 00:00:00"));
+
+    long[] bounds = getBounds(window);
+    assertEquals(time("2026-06-10 00:00:00"), bounds[0]);
+    assertEquals(time("2026-06-11 00:00:00"), bounds[1]);
+    assertRawRanges(window, bounds[0], bounds[1]);
+  }
+
+  @Test
+  public void testWindowAfterDownsampledDays() throws ParseException {
+    long start = time("2026-06-10 10:05:00");
+    long end = time("2026-06-13 02:30:00");
+    Rollups.Window window =
+        new Rollups.Window(start, end, Long.MAX_VALUE, time("2026-06-10 00:00:00"));
+
+    assertEquals(start, window.getStartMs());
+    assertEquals(end + 1000, window.getEndMs());
+    assertRawRanges(window, start, end + 1000);
+  }
+
+  // Checks that the raw ranges and the rollups cover the window from start to end without gaps or
+  // overlaps, and that the whole days are within the whole hours.
+  private static void assertRawRanges(Rollups.Window window, long startMs, long endMs) {
+    long[][] raw = window.getRawRanges();
+    long[] bounds = getBounds(window);
+    assertEquals(startMs, raw[0][0]);
+    assertEquals(window.getRollupStartMs(), raw[0][1]);
+    assertEquals(window.getRollupEndMs(), raw[1][0]);
+    assertEquals(endMs, raw[1][1]);
+    assertTrue(raw[0][0] <= raw[0][1]);
+    assertTrue(raw[0][1] <= raw[1][0]);
+    assertTrue(raw[1][0] <= raw[1][1]);
+    assertTrue(window.getRollupStartMs() <= bounds[0] || bounds[0] == bounds[1]);
+    assertTrue(bounds[0] <= bounds[1]);
+    assertTrue(bounds[1] <= window.getRollupEndMs() || bounds[0] == bounds[1]);
+  }
+
+  // Returns the start and exclusive end of the whole days of the window.
+  private static long[] getBounds(Rollups.Window window) {
+    Object[] params = window.getParams();
+    return new long[] {((Timestamp) params[0]).getTime(), ((Timestamp) params[1]).getTime()};
+  }
+
+  // Parses a local time in the default time zone.
+  private static long time(String localTime) throws ParseException {
+    return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(localTime).getTime();
+  }
+}
@@ -0,0 +1,182 @@
+package io.v.jenkins.plugins.vanadium_test_results_analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class TestResultBlobTest {
+  @Test
+  public void testCreateSortsByTestId() {
+    TestResultBlob blob =
+        TestResultBlob.create(
+            Arrays.asList(record(1.5f, "PASSED"), record(2.5f, "FAILED"), record(0.25f, "SKIPPED")),
+            new int[] {30, 10, 20});
+
+    assertEquals(3, blob.size());
+    assertEquals(10, blob.getTestId(0));
+    assertEquals(20, blob.getTestId(1));
+    assertEquals(30, blob.getTestId(2));
+    assertEquals(2.5f, blob.getDuration(0), 0);
+    assertEquals("FAILED", blob.getResult(0));
+    assertEquals(0.25f, blob.getDuration(1), 0);
+    assertEquals("SKIPPED", blob.getResult(1));
+    assertEquals(1.5f, blob.getDuration(2), 0);
+    assertEquals("PASSED", blob.getResult(2));
+  }
+
+  @Test
+  public void testLastRecordOfTestCaseWins() {
+    TestResultBlob blob =
+        TestResultBlob.create(
+            Arrays.asList(record(1, "FAILED"), record(2, "PASSED"), record(3, "PASSED")),
+            new int[] {7, 5, 7});
+
+    assertEquals(2, blob.size());
+    assertEquals(7, blob.getTestId(1));
+    assertEquals(3, blob.getDuration(1), 0);
+    assertEquals("PASSED", blob.getResult(1));
+    assertEquals(0, blob.getFailedCount());
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    List<TestResultRecord> records = new ArrayList<>();
+    int[] ids = new int[1001];
+    String[] results = {"PASSED", "FAILED", "SKIPPED", "REGRESSION"};
+    Random random = new Random(1);
+    for (int i = 0; i < ids.length; i++) {
+      // Ids far apart need multi-byte varint deltas.
+      ids[i] = i * 1000 + random.nextInt(1000);
+      records.add(record(random.nextFloat() * 100, results[i % results.length]));
+    }
+    Collections.reverse(records);
+    reverse(ids);
+    TestResultBlob blob = TestResultBlob.create(records, ids);
+    TestResultBlob decoded = TestResultBlob.decode(blob.toBytes());
+
+    assertEquals(blob.size(), decoded.size());
+    for (int i = 0; i < blob.size(); i++) {
+      assertEquals(blob.getTestId(i), decoded.getTestId(i));
+      assertEquals(blob.getDuration(i), decoded.getDuration(i), 0);
+      assertEquals(blob.getResult(i), decoded.getResult(i));
+    }
+    assertEquals(blob.getFailedCount(), decoded.getFailedCount());
+  }
+
+  @Test
+  public void testRoundTripOfEmptyBuild() throws IOException {
+    TestResultBlob blob =
+        TestResultBlob.decode(
+            TestResultBlob.create(Collections.<TestResultRecord>emptyList(), new int[0])
+                .toBytes());
+    assertEquals(0, blob.size());
+    assertEquals(-1, blob.indexOf(1));
+    assertEquals(0, blob.getFailedCount());
+  }
+
+  @Test
+  public void testResultsPackedAcrossBytes() throws IOException {
+    // Five test cases use two bytes of packed results.
+    String[] results = {"FAILED", "PASSED", "SKIPPED", "FAILED", "FAILED"};
+    List<TestResultRecord> records = new ArrayList<>();
+    int[] ids = new int[results.length];
+    for (int i = 0; i < results.length; i++) {
+      records.add(record(i, results[i]));
+      ids[i] = i + 1;
+    }
+    TestResultBlob blob = TestResultBlob.decode(TestResultBlob.create(records, ids).toBytes());
+
+    for (int i = 0; i < results.length; i++) {
+      assertEquals(results[i], blob.getResult(i));
+      assertEquals("FAILED".equals(results[i]), blob.isFailed(i));
+    }
+    assertEquals(3, blob.getFailedCount());
+  }
+
+  @Test
+  public void testUnknownResult() {
+    TestResultBlob blob =
+        TestResultBlob.create(Arrays.asList(record(1, "REGRESSION")), new int[] {1});
+    assertNull(blob.getResult(0));
+    assertFalse(blob.isFailed(0));
+  }
+
+  @Test
+  public void testIndexOf() throws IOException {
+    TestResultBlob blob =
+        TestResultBlob.decode(
+            TestResultBlob.create(
+                    Arrays.asList(record(1, "PASSED"), record(2, "PASSED"), record(3, "PASSED")),
+                    new int[] {300, 100, 200})
+                .toBytes());
+
+    assertEquals(0, blob.indexOf(100));
+    assertEquals(1, blob.indexOf(200));
+    assertEquals(2, blob.indexOf(300));
+    assertEquals(-1, blob.indexOf(0));
+    assertEquals(-1, blob.indexOf(150));
+    assertEquals(-1, blob.indexOf(301));
+  }
+
+  @Test
+  public void testCompresses() throws IOException {
+    List<TestResultRecord> records = new ArrayList<>();
+    int[] ids = new int[10000];
+    for (int i = 0; i < ids.length; i++) {
+      records.add(record(0.5f, "PASSED"));
+      ids[i] = 100000 + i;
+    }
+    // Under a byte per test case for consecutive ids with equal durations and results.
+    assertTrue(TestResultBlob.create(records, ids).toBytes().length < ids.length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecodeUnknownVersion() throws IOException {
+    TestResultBlob.decode(new byte[] {42});
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecodeTruncated() throws IOException {
+    TestResultBlob blob =
+        TestResultBlob.create(
+            Arrays.asList(record(1, "PASSED"), record(2, "FAILED")), new int[] {1, 2});
+    byte[] bytes = blob.toBytes();
+    TestResultBlob.decode(Arrays.copyOf(bytes, bytes.length / 2));
+  }
+
+  private static TestResultRecord record(float duration, String result) {
+    return new TestResultRecord(
+        "project",
+        "job/project/",
+        1,
+        null,
+        null,
+        "pkg",
+        "Class",
+        "testCase",
+        "pkg.Class.testCase",
+        "pkg/Class/testCase/",
+        0,
+        duration,
+        result,
+        null,
+        null);
+  }
+
+  private static void reverse(int[] values) {
+    for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+      int tmp = values[i];
+      values[i] = values[j];
+      values[j] = tmp;
+    }
+  }
+}